@@ -0,0 +1,186 @@
+package com.termux.tasker.execution;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.internal.runner.junit4.AndroidJUnit4ClassRunner;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark for the latency and throughput of running background commands directly with the
+ * {@link DirectExecutor} against sending them to the {@link TERMUX_SERVICE} and receiving their
+ * result back via a {@link PendingIntent}.
+ *
+ * The latency is measured for commands run one after the other and the throughput for a burst of
+ * commands run at once. The execution service benchmark requires the Termux app to be installed
+ * and the plugin app to be signed with the same key, otherwise it is skipped.
+ */
+@RunWith(AndroidJUnit4ClassRunner.class)
+public class DirectExecutorBenchmarkTest {
+
+    private static final String LOG_TAG = "DirectExecutorBenchmarkTest";
+
+    private static final String EXECUTABLE = "/system/bin/true";
+    private static final String ACTION_RESULT = "com.termux.tasker.execution.DirectExecutorBenchmarkTest.RESULT";
+    private static final String EXTRA_ID = "id";
+
+    private static final int WARM_UP_COUNT = 5;
+    private static final int LATENCY_COUNT = 50;
+    private static final int THROUGHPUT_COUNT = 50;
+    private static final long TIMEOUT_MS = 60000;
+
+    /** Runs a command and calls {@code onResult} when its result is received. */
+    private interface Engine {
+        void run(int id, Runnable onResult) throws Exception;
+    }
+
+    @Test
+    public void testDirectExecution() throws Exception {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // Results are received on the AppShell threads, so failures are checked after the benchmark
+        final AtomicInteger failures = new AtomicInteger();
+        benchmark("DirectExecutor", (id, onResult) ->
+                DirectExecutor.execute(context, createExecutionIntent(), id, resultBundle -> {
+                    if (resultBundle.getInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE, -1) != 0)
+                        failures.incrementAndGet();
+                    onResult.run();
+                }));
+        assertEquals("Commands run by the DirectExecutor failed", 0, failures.get());
+    }
+
+    @Test
+    public void testExecutionServiceExecution() throws Exception {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Assume.assumeTrue("The Termux app is not installed", isTermuxAppInstalled(context));
+        Assume.assumeTrue("The plugin app does not have the " + TermuxConstants.PERMISSION_RUN_COMMAND + " permission",
+                context.checkCallingOrSelfPermission(TermuxConstants.PERMISSION_RUN_COMMAND) == PackageManager.PERMISSION_GRANTED);
+
+        final ConcurrentHashMap<Integer, Runnable> pending = new ConcurrentHashMap<>();
+        BroadcastReceiver resultReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Runnable onResult = pending.remove(intent.getIntExtra(EXTRA_ID, -1));
+                if (onResult != null) onResult.run();
+            }
+        };
+
+        // Results are received off the main thread like for the PluginResultsService
+        HandlerThread handlerThread = new HandlerThread(LOG_TAG);
+        handlerThread.start();
+        Handler handler = new Handler(handlerThread.getLooper());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU)
+            context.registerReceiver(resultReceiver, new IntentFilter(ACTION_RESULT), null, handler, Context.RECEIVER_NOT_EXPORTED);
+        else
+            context.registerReceiver(resultReceiver, new IntentFilter(ACTION_RESULT), null, handler);
+        try {
+            benchmark("TermuxService", (id, onResult) -> {
+                pending.put(id, onResult);
+                Intent resultIntent = new Intent(ACTION_RESULT).setPackage(context.getPackageName()).putExtra(EXTRA_ID, id);
+                PendingIntent pendingIntent = PendingIntent.getBroadcast(context, id, resultIntent,
+                        PendingIntent.FLAG_ONE_SHOT | (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_MUTABLE : 0));
+
+                Intent executionIntent = createExecutionIntent();
+                executionIntent.setClassName(TermuxConstants.TERMUX_PACKAGE_NAME, TermuxConstants.TERMUX_APP.TERMUX_SERVICE_NAME);
+                executionIntent.putExtra(TERMUX_SERVICE.EXTRA_PENDING_INTENT, pendingIntent);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                    context.startForegroundService(executionIntent);
+                else
+                    context.startService(executionIntent);
+            });
+        } finally {
+            context.unregisterReceiver(resultReceiver);
+            handlerThread.quitSafely();
+        }
+    }
+
+
+
+    private static void benchmark(String name, Engine engine) throws Exception {
+        int id = 100000;
+
+        for (int i = 0; i < WARM_UP_COUNT; i++)
+            runAndWait(engine, id++);
+
+        long[] latencies = new long[LATENCY_COUNT];
+        for (int i = 0; i < LATENCY_COUNT; i++) {
+            long startTime = SystemClock.elapsedRealtimeNanos();
+            runAndWait(engine, id++);
+            latencies[i] = SystemClock.elapsedRealtimeNanos() - startTime;
+        }
+        Arrays.sort(latencies);
+
+        CountDownLatch latch = new CountDownLatch(THROUGHPUT_COUNT);
+        long burstStartTime = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < THROUGHPUT_COUNT; i++)
+            engine.run(id++, latch::countDown);
+        assertTrue(name + " did not return all results of the burst", latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        double burstSeconds = (SystemClock.elapsedRealtimeNanos() - burstStartTime) / 1e9;
+
+        String result = String.format(Locale.ROOT,
+                "%s latency per action: p50 %.2fms, p90 %.2fms, max %.2fms over %d actions\n" +
+                "%s throughput: %.1f actions/s for a burst of %d actions",
+                name, latencies[LATENCY_COUNT / 2] / 1e6, latencies[LATENCY_COUNT * 9 / 10] / 1e6,
+                latencies[LATENCY_COUNT - 1] / 1e6, LATENCY_COUNT,
+                name, THROUGHPUT_COUNT / burstSeconds, THROUGHPUT_COUNT);
+        Log.i(LOG_TAG, result);
+        System.out.println(result);
+
+        Bundle status = new Bundle();
+        status.putString("stream", result + "\n");
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    private static void runAndWait(Engine engine, int id) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        engine.run(id, latch::countDown);
+        assertTrue("No result received for command " + id, latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static Intent createExecutionIntent() {
+        Intent executionIntent = new Intent(TERMUX_SERVICE.ACTION_SERVICE_EXECUTE,
+                new Uri.Builder().scheme(TERMUX_SERVICE.URI_SCHEME_SERVICE_EXECUTE).path(EXECUTABLE).build());
+        executionIntent.putExtra(TERMUX_SERVICE.EXTRA_ARGUMENTS, new String[0]);
+        executionIntent.putExtra(TERMUX_SERVICE.EXTRA_RUNNER, ExecutionCommand.Runner.APP_SHELL.getName());
+        executionIntent.putExtra(TERMUX_SERVICE.EXTRA_BACKGROUND, true);
+        return executionIntent;
+    }
+
+    private static boolean isTermuxAppInstalled(Context context) {
+        try {
+            context.getPackageManager().getPackageInfo(TermuxConstants.TERMUX_PACKAGE_NAME, 0);
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.termux.tasker;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.Editable;
+import android.view.View;
+import android.widget.TextView;
+
+import com.google.android.material.textfield.TextInputEditText;
+import com.google.android.material.textfield.TextInputLayout;
+import com.termux.shared.activity.media.AppCompatActivityUtils;
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.data.IntentUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.theme.TermuxThemeUtils;
+import com.termux.shared.theme.NightMode;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import static com.termux.tasker.utils.TaskerPlugin.Setting.RESULT_CODE_FAILED;
+
+/**
+ * This is the "Edit" activity for the plug-in actions and the event condition for running commands.
+ *
+ * The activity is registered with the {@link #LIST_RUNNING_COMMANDS_ACTIVITY_NAME},
+ * {@link #CANCEL_COMMAND_ACTIVITY_NAME} and {@link #COMMAND_PROGRESS_EVENT_ACTIVITY_NAME} activity
+ * aliases, so that each command action is shown as a separate plug-in by the plug-in host app, and
+ * the alias the activity was started with decides the {@link PluginBundleManager#EXTRA_COMMAND_ACTION}
+ * of the bundle.
+ */
+public final class CommandActionActivity extends AbstractPluginActivity {
+
+    /** The activity alias for the {@link PluginBundleManager#VALUE_EXTRA_COMMAND_ACTION_LIST_RUNNING} command action. */
+    public static final String LIST_RUNNING_COMMANDS_ACTIVITY_NAME = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".ListRunningCommandsActivity"; // Default: "com.termux.tasker.ListRunningCommandsActivity"
+
+    /** The activity alias for the {@link PluginBundleManager#VALUE_EXTRA_COMMAND_ACTION_CANCEL} command action. */
+    public static final String CANCEL_COMMAND_ACTIVITY_NAME = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".CancelCommandActivity"; // Default: "com.termux.tasker.CancelCommandActivity"
+
+    /** The activity alias for the {@link PluginBundleManager#VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT} event condition. */
+    public static final String COMMAND_PROGRESS_EVENT_ACTIVITY_NAME = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".CommandProgressEventActivity"; // Default: "com.termux.tasker.CommandProgressEventActivity"
+
+    private String mCommandAction;
+    private TextInputLayout mCommandIdLayout;
+    private TextInputEditText mCommandId;
+    private TextInputEditText mExecutableFilter;
+
+    private static final String LOG_TAG = "CommandActionActivity";
+
+    @Override
+    protected void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        // Set NightMode.APP_NIGHT_MODE
+        TermuxThemeUtils.setAppNightMode(this);
+        AppCompatActivityUtils.setNightMode(this, NightMode.getAppNightMode().getName(), true);
+
+        setContentView(R.layout.activity_command_action);
+
+        final String activityName = getComponentName().getClassName();
+        if (CANCEL_COMMAND_ACTIVITY_NAME.equals(activityName))
+            mCommandAction = PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_CANCEL;
+        else if (COMMAND_PROGRESS_EVENT_ACTIVITY_NAME.equals(activityName))
+            mCommandAction = PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT;
+        else
+            mCommandAction = PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_LIST_RUNNING;
+        boolean isCancel = PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_CANCEL.equals(mCommandAction);
+        boolean isProgressEvent = PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT.equals(mCommandAction);
+
+        AppCompatActivityUtils.setToolbar(this, com.termux.shared.R.id.toolbar);
+        AppCompatActivityUtils.setToolbarTitle(this, com.termux.shared.R.id.toolbar,
+                getString(isCancel ? R.string.plugin_name_cancel_command :
+                        (isProgressEvent ? R.string.plugin_name_command_progress_event : R.string.plugin_name_list_running_commands)), 0);
+        AppCompatActivityUtils.setShowBackButtonInActionBar(this, true);
+
+        final Intent intent = getIntent();
+        BundleScrubber.scrub(intent);
+        final Bundle localeBundle = intent.getBundleExtra(com.twofortyfouram.locale.Intent.EXTRA_BUNDLE);
+        BundleScrubber.scrub(localeBundle);
+
+        Logger.logInfo(LOG_TAG, "Bundle Received: " + IntentUtils.getBundleString(localeBundle));
+
+        TextView mHelp = findViewById(R.id.textview_help);
+        mHelp.setText(this.getString(R.string.plugin_api_help, TermuxConstants.TERMUX_TASKER_GITHUB_REPO_URL));
+
+        TextView mInfo = findViewById(R.id.textview_command_action_info);
+        mInfo.setText(isCancel ? R.string.msg_cancel_command_info :
+                (isProgressEvent ? R.string.msg_command_progress_event_info : R.string.msg_list_running_commands_info));
+
+        mCommandIdLayout = findViewById(R.id.layout_command_id);
+        mCommandId = findViewById(R.id.command_id);
+        findViewById(R.id.card_command_id).setVisibility(isCancel ? View.VISIBLE : View.GONE);
+        mCommandId.addTextChangedListener(new EditConfigurationActivity.AfterTextChangedWatcher() {
+            @Override
+            public void afterTextChanged(Editable editable) {
+                processCommandId(editable == null ? null : editable.toString());
+            }
+        });
+
+        mExecutableFilter = findViewById(R.id.executable_filter);
+        findViewById(R.id.card_executable_filter).setVisibility(isProgressEvent ? View.VISIBLE : View.GONE);
+
+        // Currently savedInstanceState bundle is not supported
+        if (savedInstanceState != null || localeBundle == null) {
+            Logger.logInfo(LOG_TAG, "Not loading values from null bundle");
+            return;
+        }
+
+        String errmsg;
+        // If bundle is valid, then load values from bundle
+        errmsg = PluginBundleManager.parseBundle(this, localeBundle);
+        if (errmsg != null) {
+            Logger.logError(LOG_TAG, errmsg);
+            return;
+        }
+
+        final String commandId = localeBundle.getString(PluginBundleManager.EXTRA_COMMAND_ID);
+        mCommandId.setText(commandId);
+        processCommandId(commandId);
+
+        mExecutableFilter.setText(localeBundle.getString(PluginBundleManager.EXTRA_EXECUTABLE_FILTER));
+    }
+
+    private void processCommandId(String commandIdString) {
+        if (mCommandIdLayout == null) return;
+        mCommandIdLayout.setError(null);
+        if (DataUtils.isNullOrEmpty(commandIdString)) return;
+        if (PluginUtils.isPluginHostAppVariableContainingString(commandIdString)) return;
+
+        if (DataUtils.getIntFromString(commandIdString, -1) < 0)
+            mCommandIdLayout.setError(getString(R.string.error_invalid_command_id, commandIdString));
+    }
+
+
+
+
+
+    @Override
+    public void finish() {
+        if (isCanceled()) {
+            super.finish();
+            return;
+        }
+
+        final String commandId = DataUtils.getDefaultIfUnset(mCommandId.getText() == null ? null : mCommandId.getText().toString(), null);
+        final String executableFilter = DataUtils.getDefaultIfUnset(mExecutableFilter.getText() == null ? null : mExecutableFilter.getText().toString(), null);
+        final boolean isCancel = PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_CANCEL.equals(mCommandAction);
+        final boolean isProgressEvent = PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT.equals(mCommandAction);
+
+        if (isCancel && (commandId == null || commandId.length() <= 0)) {
+            super.finish();
+            return;
+        }
+
+        final Intent resultIntent = new Intent();
+
+        final Bundle resultBundle = PluginBundleManager.generateCommandActionBundle(getApplicationContext(),
+                mCommandAction, isCancel ? commandId : null, isProgressEvent ? executableFilter : null);
+        if (resultBundle == null) {
+            Logger.showToast(this, getString(R.string.error_generate_plugin_bundle_failed), true);
+            setResult(RESULT_CODE_FAILED, resultIntent);
+            super.finish();
+            return;
+        }
+
+        // The blurb is a concise status text to be displayed in the host's UI.
+        final String blurb = PluginBundleManager.generateCommandActionBlurb(this, mCommandAction, commandId, executableFilter);
+
+        // If host supports variable replacement when running plugin action, then
+        // request it to replace variables in the command id so that ids returned by
+        // the list action can be used
+        if (isCancel && TaskerPlugin.Setting.hostSupportsOnFireVariableReplacement(this)) {
+            TaskerPlugin.Setting.setVariableReplaceKeys(resultBundle, new String[] {
+                    PluginBundleManager.EXTRA_COMMAND_ID
+            });
+        }
+
+        resultIntent.putExtra(com.twofortyfouram.locale.Intent.EXTRA_BUNDLE, resultBundle);
+        resultIntent.putExtra(com.twofortyfouram.locale.Intent.EXTRA_STRING_BLURB, blurb);
+
+        // Configuration information for Tasker variables returned by the progress event
+        if (isProgressEvent) {
+            if (TaskerPlugin.hostSupportsRelevantVariables(getIntent().getExtras())) {
+                TaskerPlugin.addRelevantVariableList(resultIntent, new String[] {
+                        PluginUtils.PLUGIN_VARIABLE_COMMAND_ID + "\nCommand ID\nThe <B>id</B> of the command.",
+                        PluginUtils.PLUGIN_VARIABLE_COMMAND_EXECUTABLE + "\nCommand Executable\nThe <B>executable</B> of the command.",
+                        PluginUtils.PLUGIN_VARIABLE_PROGRESS + "\nProgress\nThe <B>progress percent</B> of the command, if known.",
+                        PluginUtils.PLUGIN_VARIABLE_PROGRESS_MESSAGE + "\nProgress Message\nThe <B>progress message</B> of the command."
+                });
+            }
+
+            setResult(RESULT_OK, resultIntent);
+            super.finish();
+            return;
+        }
+
+        // Configuration information for Tasker variables returned by the list action
+        if (!isCancel && TaskerPlugin.hostSupportsRelevantVariables(getIntent().getExtras())) {
+            TaskerPlugin.addRelevantVariableList(resultIntent, new String[] {
+                    PluginUtils.PLUGIN_VARIABLE_COMMAND_IDS + "()\nCommand IDs\nThe <B>ids</B> of the running commands.",
+                    PluginUtils.PLUGIN_VARIABLE_COMMAND_EXECUTABLES + "()\nCommand Executables\nThe <B>executables</B> of the running commands.",
+                    PluginUtils.PLUGIN_VARIABLE_COMMAND_ELAPSED + "()\nCommand Elapsed Times\nThe <B>elapsed time</B> in milliseconds since the running commands were started."
+            });
+        }
+
+        // The result of command actions is sent immediately, but a timeout is required to use variables
+        if (TaskerPlugin.Setting.hostSupportsSynchronousExecution(getIntent().getExtras()))
+            TaskerPlugin.Setting.requestTimeoutMS(resultIntent, EditConfigurationActivity.DEFAULT_TIMEOUT_MS);
+
+        setResult(RESULT_OK, resultIntent);
+        super.finish();
+    }
+
+}
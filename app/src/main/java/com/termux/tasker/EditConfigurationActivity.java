@@ -20,6 +20,17 @@ import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.file.TermuxFileUtils;
 import com.termux.shared.termux.theme.TermuxThemeUtils;
 import com.termux.shared.theme.NightMode;
+import com.termux.tasker.blobs.BlobStore;
+import com.termux.tasker.execution.ExecutionPriority;
+import com.termux.tasker.execution.OverflowPolicy;
+import com.termux.tasker.execution.RuntimeStats;
+import com.termux.tasker.execution.ScriptCache;
+import com.termux.tasker.output.DeltaOutput;
+import com.termux.tasker.output.JsonOutputParser;
+import com.termux.tasker.output.OutputFilter;
+import com.termux.tasker.output.OutputProvider;
+import com.termux.tasker.output.OutputSplitter;
+import com.termux.tasker.settings.properties.PluginProperties;
 import com.termux.tasker.utils.LoggerUtils;
 import com.termux.tasker.utils.PluginUtils;
 import com.termux.tasker.utils.TaskerPlugin;
@@ -28,6 +39,7 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -60,16 +72,38 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
 
     private TextInputLayout mExecutablePathTextLayout;
     private AutoCompleteTextView mExecutablePathText;
+    private TextView mScriptView;
     private TextInputEditText mArgumentsText;
     private TextInputLayout mWorkingDirectoryPathTextLayout;
     private AutoCompleteTextView mWorkingDirectoryPathText;
     private TextView mStdinView;
+    private TextInputLayout mStdinFileLayout;
+    private TextInputEditText mStdinFile;
     private TextInputLayout mSessionActionLayout;
     private TextInputEditText mSessionAction;
     private TextInputLayout mBackgroundCustomLogLevelLayout;
     private TextInputEditText mBackgroundCustomLogLevel;
+    private TextInputLayout mOutputFilterLayout;
+    private TextInputEditText mOutputFilter;
+    private TextInputEditText mSplitStdout;
+    private TextInputEditText mDeltaOutputKey;
+    private TextInputEditText mJsonOutput;
+    private TextInputLayout mMaxConcurrentInstancesLayout;
+    private TextInputEditText mMaxConcurrentInstances;
+    private TextInputLayout mOverflowPolicyLayout;
+    private AutoCompleteTextView mOverflowPolicy;
+    private TextInputLayout mPriorityLayout;
+    private AutoCompleteTextView mPriority;
+    private TextInputLayout mCoalesceWindowLayout;
+    private TextInputEditText mCoalesceWindow;
     private CheckBox mInTerminalCheckbox;
     private CheckBox mWaitForResult;
+    private CheckBox mKillOnTimeout;
+    private CheckBox mCancellable;
+    private CheckBox mReportProgress;
+    private CheckBox mDirectExecution;
+    private CheckBox mOutputUri;
+    private TextView mTimeoutSuggestionText;
     private TextView mExecutableAbsolutePathText;
     private TextView mWorkingDirectoryAbsolutePathText;
     private TextView mTermuxAppFilesPathInaccessibleWarning;
@@ -78,15 +112,24 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
 
     private ActivityResultLauncher<Intent> mStartTextIOActivityForResult;
 
+    private String mScript;
+    private String mScriptBlob;
     private String mStdin;
+    private String mStdinBlob;
+
+    private RuntimeStats.TimeoutSuggestion mTimeoutSuggestion;
 
     private String[] mExecutableFileNamesList = new String[0];
     ArrayAdapter<String> mExecutableFileNamesAdaptor;
     private String[] mWorkingDirectoriesNamesList = new String[0];
     ArrayAdapter<String> mWorkingDirectoriesNamesAdaptor;
 
+    public static final String ACTION_GET_SCRIPT = "ACTION_GET_SCRIPT";
     public static final String ACTION_GET_STDIN = "ACTION_GET_STDIN";
 
+    /** The timeout requested for plugin actions if no timeout can be suggested for the executable. */
+    public static final int DEFAULT_TIMEOUT_MS = 10000;
+
     private static final String LOG_TAG = "EditConfigurationActivity";
 
     @Override
@@ -117,16 +160,38 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
 
         mExecutablePathTextLayout = findViewById(R.id.layout_executable_path);
         mExecutablePathText = findViewById(R.id.executable_path);
+        mScriptView = findViewById(R.id.view_script);
         mArgumentsText = findViewById(R.id.arguments);
         mWorkingDirectoryPathTextLayout = findViewById(R.id.layout_working_directory_path);
         mWorkingDirectoryPathText = findViewById(R.id.working_directory_path);
         mStdinView = findViewById(R.id.view_stdin);
+        mStdinFileLayout = findViewById(R.id.layout_stdin_file);
+        mStdinFile = findViewById(R.id.stdin_file);
         mSessionActionLayout = findViewById(R.id.layout_session_action);
         mSessionAction = findViewById(R.id.session_action);
         mBackgroundCustomLogLevelLayout = findViewById(R.id.layout_background_custom_log_level);
         mBackgroundCustomLogLevel = findViewById(R.id.background_custom_log_level);
+        mOutputFilterLayout = findViewById(R.id.layout_output_filter);
+        mOutputFilter = findViewById(R.id.output_filter);
+        mSplitStdout = findViewById(R.id.split_stdout);
+        mDeltaOutputKey = findViewById(R.id.delta_output_key);
+        mJsonOutput = findViewById(R.id.json_output);
+        mMaxConcurrentInstancesLayout = findViewById(R.id.layout_max_concurrent_instances);
+        mMaxConcurrentInstances = findViewById(R.id.max_concurrent_instances);
+        mOverflowPolicyLayout = findViewById(R.id.layout_overflow_policy);
+        mOverflowPolicy = findViewById(R.id.overflow_policy);
+        mPriorityLayout = findViewById(R.id.layout_priority);
+        mPriority = findViewById(R.id.priority);
+        mCoalesceWindowLayout = findViewById(R.id.layout_coalesce_window);
+        mCoalesceWindow = findViewById(R.id.coalesce_window);
         mInTerminalCheckbox = findViewById(R.id.in_terminal);
         mWaitForResult = findViewById(R.id.wait_for_result);
+        mKillOnTimeout = findViewById(R.id.kill_on_timeout);
+        mCancellable = findViewById(R.id.cancellable);
+        mReportProgress = findViewById(R.id.report_progress);
+        mDirectExecution = findViewById(R.id.direct_execution);
+        mOutputUri = findViewById(R.id.output_uri);
+        mTimeoutSuggestionText = findViewById(R.id.timeout_suggestion);
         mExecutableAbsolutePathText = findViewById(R.id.executable_absolute_path);
         mWorkingDirectoryAbsolutePathText = findViewById(R.id.working_directory_absolute_path);
         mTermuxAppFilesPathInaccessibleWarning = findViewById(R.id.termux_app_files_path_inaccessible_warning);
@@ -136,9 +201,12 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
 
         setExecutionPathViews();
         setWorkingDirectoryPathViews();
+        setScriptView();
         setStdinView();
         setSessionActionViews();
         setBackgroundCustomLogLevelViews();
+        setConcurrencyViews();
+        setOutputViews();
         setInTerminalView();
 
         // Currently savedInstanceState bundle is not supported
@@ -161,6 +229,19 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
             return;
         }
 
+        String script = localeBundle.getString(PluginBundleManager.EXTRA_SCRIPT);
+        mScriptBlob = localeBundle.getString(PluginBundleManager.EXTRA_SCRIPT_BLOB);
+        if (mScriptBlob != null) {
+            script = BlobStore.getString(this, mScriptBlob);
+            if (script == null) {
+                errmsg = getString(R.string.error_script_blob_not_found, mScriptBlob);
+                Logger.logError(LOG_TAG, errmsg);
+                Logger.showToast(this, errmsg, true);
+            }
+        }
+        mScript = script;
+        updateScriptViewText();
+
         final String selectedExecutable = localeBundle.getString(PluginBundleManager.EXTRA_EXECUTABLE);
         mExecutablePathText.setText(selectedExecutable);
         processExecutablePath(selectedExecutable);
@@ -175,9 +256,19 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
         final boolean inTerminal = localeBundle.getBoolean(PluginBundleManager.EXTRA_TERMINAL);
         mInTerminalCheckbox.setChecked(inTerminal);
 
-        mStdin = DataUtils.getTruncatedCommandOutput(localeBundle.getString(PluginBundleManager.EXTRA_STDIN),
-                DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, true, false, false);
+        String stdin = localeBundle.getString(PluginBundleManager.EXTRA_STDIN);
+        mStdinBlob = localeBundle.getString(PluginBundleManager.EXTRA_STDIN_BLOB);
+        if (mStdinBlob != null) {
+            stdin = BlobStore.getString(this, mStdinBlob);
+            if (stdin == null) {
+                errmsg = getString(R.string.error_stdin_blob_not_found, mStdinBlob);
+                Logger.logError(LOG_TAG, errmsg);
+                Logger.showToast(this, errmsg, true);
+            }
+        }
+        mStdin = DataUtils.getTruncatedCommandOutput(stdin, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, true, false, false);
         updateStdinViewText();
+        mStdinFile.setText(localeBundle.getString(PluginBundleManager.EXTRA_STDIN_FILE));
         updateStdinViewVisibility(inTerminal);
 
         final String sessionAction = localeBundle.getString(PluginBundleManager.EXTRA_SESSION_ACTION);
@@ -190,8 +281,46 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
         processBackgroundCustomLogLevel(backgroundCustomLogLevel);
         updateBackgroundCustomLogLevelViewVisibility(inTerminal);
 
+        final String outputFilter = localeBundle.getString(PluginBundleManager.EXTRA_OUTPUT_FILTER);
+        mOutputFilter.setText(outputFilter);
+        processOutputFilter(outputFilter);
+        mSplitStdout.setText(localeBundle.getString(PluginBundleManager.EXTRA_SPLIT_STDOUT));
+        mDeltaOutputKey.setText(localeBundle.getString(PluginBundleManager.EXTRA_DELTA_OUTPUT_KEY));
+        mJsonOutput.setText(localeBundle.getString(PluginBundleManager.EXTRA_JSON_OUTPUT));
+
         final boolean waitForResult = localeBundle.getBoolean(PluginBundleManager.EXTRA_WAIT_FOR_RESULT, true);
         mWaitForResult.setChecked(waitForResult);
+
+        final boolean killOnTimeout = localeBundle.getBoolean(PluginBundleManager.EXTRA_KILL_ON_TIMEOUT, false);
+        mKillOnTimeout.setChecked(killOnTimeout);
+
+        final boolean cancellable = localeBundle.getBoolean(PluginBundleManager.EXTRA_CANCELLABLE, false);
+        mCancellable.setChecked(cancellable);
+
+        final boolean reportProgress = localeBundle.getBoolean(PluginBundleManager.EXTRA_REPORT_PROGRESS, false);
+        mReportProgress.setChecked(reportProgress);
+
+        final boolean directExecution = localeBundle.getBoolean(PluginBundleManager.EXTRA_DIRECT_EXECUTION, false);
+        mDirectExecution.setChecked(directExecution);
+
+        final boolean outputUri = localeBundle.getBoolean(PluginBundleManager.EXTRA_OUTPUT_URI, false);
+        mOutputUri.setChecked(outputUri);
+
+        final String maxConcurrentInstances = localeBundle.getString(PluginBundleManager.EXTRA_MAX_CONCURRENT_INSTANCES);
+        mMaxConcurrentInstances.setText(maxConcurrentInstances);
+        processMaxConcurrentInstances(maxConcurrentInstances);
+
+        final String overflowPolicy = localeBundle.getString(PluginBundleManager.EXTRA_OVERFLOW_POLICY);
+        mOverflowPolicy.setText(overflowPolicy, false);
+        processOverflowPolicy(overflowPolicy);
+
+        final String priority = localeBundle.getString(PluginBundleManager.EXTRA_PRIORITY);
+        mPriority.setText(priority, false);
+        processPriority(priority);
+
+        final String coalesceWindow = localeBundle.getString(PluginBundleManager.EXTRA_COALESCE_WINDOW);
+        mCoalesceWindow.setText(coalesceWindow);
+        processCoalesceWindow(coalesceWindow);
     }
 
     @Override
@@ -253,6 +382,36 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
     }
 
 
+    private void setScriptView() {
+        mScriptView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (mStartTextIOActivityForResult == null) return;
+
+                // Large scripts are saved in the BlobStore, but scripts with variables are not, so
+                // the same limit as stdin applies
+                TextIOInfo textIOInfo = new TextIOInfo(ACTION_GET_SCRIPT, EditConfigurationActivity.this.getClass().getCanonicalName());
+                textIOInfo.setTitle(getString(R.string.title_script));
+                textIOInfo.setText(mScript);
+                textIOInfo.setTextSize(12);
+                textIOInfo.setTextLengthLimit(90000/2);
+                textIOInfo.setTextTypeFaceFamily("monospace");
+                textIOInfo.setTextTypeFaceStyle(Typeface.NORMAL);
+                textIOInfo.setTextHorizontallyScrolling(true);
+                textIOInfo.setShowTextCharacterUsage(true);
+                textIOInfo.setShowBackButtonInActionBar(true);
+
+                mStartTextIOActivityForResult.launch(TextIOActivity.newInstance(EditConfigurationActivity.this, textIOInfo));
+            }
+        });
+    }
+
+    private void updateScriptViewText() {
+        if (mScriptView == null) return;
+        mScriptView.setText(DataUtils.getTruncatedCommandOutput(mScript, 200, true, false, false));
+    }
+
+
     private void setStdinView() {
         mStdinView.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -288,6 +447,8 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
     private void updateStdinViewVisibility(boolean inTerminal) {
         if (mStdinView == null) return;
         mStdinView.setVisibility(inTerminal ? View.GONE : View.VISIBLE);
+        if (mStdinFileLayout != null)
+            mStdinFileLayout.setVisibility(inTerminal ? View.GONE : View.VISIBLE);
     }
 
 
@@ -321,6 +482,49 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
     }
 
 
+    private void setConcurrencyViews() {
+        mMaxConcurrentInstances.addTextChangedListener(new AfterTextChangedWatcher() {
+            @Override
+            public void afterTextChanged(Editable editable) {
+                processMaxConcurrentInstances(editable == null ? null : editable.toString());
+            }
+        });
+
+        mOverflowPolicy.addTextChangedListener(new AfterTextChangedWatcher() {
+            @Override
+            public void afterTextChanged(Editable editable) {
+                processOverflowPolicy(editable == null ? null : editable.toString());
+            }
+        });
+
+        mOverflowPolicy.setAdapter(new ArrayAdapter<>(this, android.R.layout.simple_dropdown_item_1line, OverflowPolicy.getNames()));
+        mOverflowPolicy.setOnFocusChangeListener((view, hasFocus) -> {
+            if (hasFocus && mOverflowPolicy.getWindowToken() != null)
+                mOverflowPolicy.showDropDown();
+        });
+
+        mPriority.addTextChangedListener(new AfterTextChangedWatcher() {
+            @Override
+            public void afterTextChanged(Editable editable) {
+                processPriority(editable == null ? null : editable.toString());
+            }
+        });
+
+        mPriority.setAdapter(new ArrayAdapter<>(this, android.R.layout.simple_dropdown_item_1line, ExecutionPriority.getNames()));
+        mPriority.setOnFocusChangeListener((view, hasFocus) -> {
+            if (hasFocus && mPriority.getWindowToken() != null)
+                mPriority.showDropDown();
+        });
+
+        mCoalesceWindow.addTextChangedListener(new AfterTextChangedWatcher() {
+            @Override
+            public void afterTextChanged(Editable editable) {
+                processCoalesceWindow(editable == null ? null : editable.toString());
+            }
+        });
+    }
+
+
     private void setInTerminalView() {
         mInTerminalCheckbox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
@@ -381,7 +585,9 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
         mAllowExternalAppsUngrantedWarning.setText(null);
 
         if (executable == null || executable.isEmpty()) {
-            mExecutablePathTextLayout.setError(this.getString(R.string.error_executable_required));
+            // Inline scripts are run directly if executable is not set
+            if (DataUtils.isNullOrEmpty(mScript))
+                mExecutablePathTextLayout.setError(this.getString(R.string.error_executable_required));
             validate = false;
             executableDefined = false;
         }
@@ -420,7 +626,33 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
             }
         }
 
+        // Inline scripts are run from the ScriptCache, which is not in TermuxConstants#TERMUX_TASKER_SCRIPTS_DIR_PATH
+        if (!executableDefined && !DataUtils.isNullOrEmpty(mScript)) {
+            String errmsg = PluginUtils.checkIfTermuxTaskerAllowExternalAppsPolicyIsViolated(this, ScriptCache.SCRIPTS_CACHE_DIR_PATH);
+            if (errmsg != null) {
+                mAllowExternalAppsUngrantedWarning.setText(errmsg);
+                mAllowExternalAppsUngrantedWarning.setVisibility(View.VISIBLE);
+            }
+        }
+
         setExecutablePathTextDropdownList(executable);
+        updateTimeoutSuggestionView(executable);
+    }
+
+    private void updateTimeoutSuggestionView(String executable) {
+        if (mTimeoutSuggestionText == null) return;
+
+        // The runtimes are recorded for the canonical path of the executable by PluginResultsService
+        mTimeoutSuggestion = RuntimeStats.getTimeoutSuggestion(this, executable);
+        if (mTimeoutSuggestion == null) {
+            mTimeoutSuggestionText.setVisibility(View.GONE);
+            mTimeoutSuggestionText.setText(null);
+        } else {
+            mTimeoutSuggestionText.setText(this.getString(R.string.msg_timeout_suggestion,
+                    mTimeoutSuggestion.timeout / 1000, mTimeoutSuggestion.percentile,
+                    mTimeoutSuggestion.runtime, mTimeoutSuggestion.sampleCount));
+            mTimeoutSuggestionText.setVisibility(View.VISIBLE);
+        }
     }
 
     private void setExecutablePathTextDropdownList(String executable) {
@@ -629,6 +861,66 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
                 Logger.LOG_LEVEL_OFF, Logger.MAX_LOG_LEVEL);
     }
 
+    private void processMaxConcurrentInstances(String maxConcurrentInstancesString) {
+        processIntFieldValue(mMaxConcurrentInstancesLayout, maxConcurrentInstancesString,
+                0, PluginBundleManager.MAX_VALUE_EXTRA_MAX_CONCURRENT_INSTANCES);
+    }
+
+    private void processOverflowPolicy(String overflowPolicyString) {
+        if (mOverflowPolicyLayout == null) return;
+        mOverflowPolicyLayout.setError(null);
+        if (DataUtils.isNullOrEmpty(overflowPolicyString)) return;
+        if (PluginUtils.isPluginHostAppVariableContainingString(overflowPolicyString)) return;
+
+        if (OverflowPolicy.policyOf(overflowPolicyString) == null)
+            mOverflowPolicyLayout.setError(getString(R.string.error_invalid_overflow_policy, TextUtils.join(", ", OverflowPolicy.getNames())));
+    }
+
+    private void processPriority(String priorityString) {
+        if (mPriorityLayout == null) return;
+        mPriorityLayout.setError(null);
+        if (DataUtils.isNullOrEmpty(priorityString)) return;
+        if (PluginUtils.isPluginHostAppVariableContainingString(priorityString)) return;
+
+        if (ExecutionPriority.priorityOf(priorityString) == null)
+            mPriorityLayout.setError(getString(R.string.error_invalid_priority, TextUtils.join(", ", ExecutionPriority.getNames())));
+    }
+
+    private void processCoalesceWindow(String coalesceWindowString) {
+        processIntFieldValue(mCoalesceWindowLayout, coalesceWindowString,
+                0, PluginBundleManager.MAX_VALUE_EXTRA_COALESCE_WINDOW);
+    }
+
+
+    private void setOutputViews() {
+        mOutputFilter.addTextChangedListener(new AfterTextChangedWatcher() {
+            @Override
+            public void afterTextChanged(Editable editable) {
+                processOutputFilter(editable == null ? null : editable.toString());
+            }
+        });
+    }
+
+    private void processOutputFilter(String outputFilterString) {
+        if (mOutputFilterLayout == null) return;
+        mOutputFilterLayout.setError(null);
+        if (DataUtils.isNullOrEmpty(outputFilterString)) return;
+        if (PluginUtils.isPluginHostAppVariableContainingString(outputFilterString)) return;
+
+        mOutputFilterLayout.setError(OutputFilter.validate(outputFilterString));
+    }
+
+    /**
+     * Check whether stdin should be stored in the {@link BlobStore}. Stdin with plugin host app
+     * variables cannot be stored since the variables are replaced in the bundle when fired.
+     */
+    private static boolean shouldStoreInBlobStore(String stdin) {
+        int minLength = PluginProperties.getInt(PluginProperties.KEY_BLOB_STORE_MIN_LENGTH,
+                PluginProperties.DEFAULT_VALUE_BLOB_STORE_MIN_LENGTH, 0, Integer.MAX_VALUE);
+        return minLength > 0 && stdin != null && stdin.length() >= minLength &&
+                !PluginUtils.isPluginHostAppVariableContainingString(stdin);
+    }
+
     private void processIntFieldValue(TextInputLayout editText, String stringValue, int min, int max) {
         if (editText == null) return;
         editText.setError(null);
@@ -666,10 +958,24 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
         final String workingDirectory = DataUtils.getDefaultIfUnset(mWorkingDirectoryPathText.getText() == null ? null : mWorkingDirectoryPathText.getText().toString(), null);
         final String sessionAction = DataUtils.getDefaultIfUnset(mSessionAction.getText() == null ? null : mSessionAction.getText().toString(), null);
         final String backgroundCustomLogLevel = DataUtils.getDefaultIfUnset(mBackgroundCustomLogLevel.getText() == null ? null : mBackgroundCustomLogLevel.getText().toString(), null);
+        final String stdinFile = DataUtils.getDefaultIfUnset(mStdinFile.getText() == null ? null : mStdinFile.getText().toString(), null);
+        final String outputFilter = DataUtils.getDefaultIfUnset(mOutputFilter.getText() == null ? null : mOutputFilter.getText().toString(), null);
+        final String splitStdout = DataUtils.getDefaultIfUnset(mSplitStdout.getText() == null ? null : mSplitStdout.getText().toString(), null);
+        final String deltaOutputKey = DataUtils.getDefaultIfUnset(mDeltaOutputKey.getText() == null ? null : mDeltaOutputKey.getText().toString(), null);
+        final String jsonOutput = DataUtils.getDefaultIfUnset(mJsonOutput.getText() == null ? null : mJsonOutput.getText().toString(), null);
         final boolean inTerminal = mInTerminalCheckbox.isChecked();
         final boolean waitForResult = mWaitForResult.isChecked();
-
-        if (executable == null || executable.length() <= 0) {
+        final boolean killOnTimeout = mKillOnTimeout.isChecked();
+        final boolean cancellable = mCancellable.isChecked();
+        final boolean reportProgress = mReportProgress.isChecked();
+        final boolean directExecution = mDirectExecution.isChecked();
+        final boolean outputUri = mOutputUri.isChecked();
+        final String maxConcurrentInstances = DataUtils.getDefaultIfUnset(mMaxConcurrentInstances.getText() == null ? null : mMaxConcurrentInstances.getText().toString(), null);
+        final String overflowPolicy = DataUtils.getDefaultIfUnset(mOverflowPolicy.getText() == null ? null : mOverflowPolicy.getText().toString(), null);
+        final String priority = DataUtils.getDefaultIfUnset(mPriority.getText() == null ? null : mPriority.getText().toString(), null);
+        final String coalesceWindow = DataUtils.getDefaultIfUnset(mCoalesceWindow.getText() == null ? null : mCoalesceWindow.getText().toString(), null);
+
+        if ((executable == null || executable.length() <= 0) && DataUtils.isNullOrEmpty(mScript)) {
             super.finish();
             return;
         }
@@ -684,8 +990,16 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
          * Android platform objects (A Serializable class private to this plug-in's APK cannot be
          * stored in the Bundle, as Locale's classloader will not recognize it).
          */
+        // Store large inline scripts and stdin in the BlobStore so that the bundle only contains their hash
+        String scriptBlob = null;
+        if (shouldStoreInBlobStore(mScript))
+            scriptBlob = BlobStore.putString(getApplicationContext(), mScript);
+        String stdinBlob = null;
+        if (!inTerminal && shouldStoreInBlobStore(mStdin))
+            stdinBlob = BlobStore.putString(getApplicationContext(), mStdin);
+
         final Bundle resultBundle = PluginBundleManager.generateBundle(getApplicationContext(),
-                executable, arguments, workingDirectory, mStdin, sessionAction, backgroundCustomLogLevel, inTerminal, waitForResult);
+                executable, arguments, workingDirectory, stdinBlob != null ? null : mStdin, sessionAction, backgroundCustomLogLevel, inTerminal, waitForResult);
         if (resultBundle == null) {
             Logger.showToast(this, getString(R.string.error_generate_plugin_bundle_failed), true);
             setResult(RESULT_CODE_FAILED, resultIntent);
@@ -693,10 +1007,39 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
             return;
         }
 
+        if (!inTerminal)
+            PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_STDIN_FILE, stdinFile);
+        // The script blob takes precedence over the script
+        if (scriptBlob != null)
+            PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_SCRIPT_BLOB, scriptBlob);
+        else
+            PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_SCRIPT, mScript);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_STDIN_BLOB, stdinBlob);
+        if (scriptBlob != null || stdinBlob != null)
+            BlobStore.collectGarbage(getApplicationContext());
+        // The overflow policy is only used if the max concurrent instances are set
+        if (maxConcurrentInstances != null) {
+            PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_MAX_CONCURRENT_INSTANCES, maxConcurrentInstances);
+            PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_OVERFLOW_POLICY, overflowPolicy);
+        }
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_PRIORITY, priority);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_COALESCE_WINDOW, coalesceWindow);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_KILL_ON_TIMEOUT, killOnTimeout);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_CANCELLABLE, cancellable);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_REPORT_PROGRESS, reportProgress);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_DIRECT_EXECUTION, directExecution);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_OUTPUT_FILTER, outputFilter);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_SPLIT_STDOUT, splitStdout);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_DELTA_OUTPUT_KEY, deltaOutputKey);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_JSON_OUTPUT, jsonOutput);
+        PluginBundleManager.addOptionalExtra(resultBundle, PluginBundleManager.EXTRA_OUTPUT_URI, outputUri);
+        PluginBundleCodec.encode(resultBundle);
+
         Logger.logDebug(LOG_TAG, "Result bundle size: " + PluginBundleManager.getBundleSize(resultBundle));
 
         // The blurb is a concise status text to be displayed in the host's UI.
-        final String blurb = PluginBundleManager.generateBlurb(this, executable, arguments,
+        final String blurb = PluginBundleManager.generateBlurb(this,
+                executable != null ? executable : getString(R.string.blurb_inline_script), arguments,
                 workingDirectory, mStdin, sessionAction, backgroundCustomLogLevel, inTerminal, waitForResult);
 
         // If host supports variable replacement when running plugin action, then
@@ -704,11 +1047,21 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
         if (TaskerPlugin.Setting.hostSupportsOnFireVariableReplacement(this)){
             TaskerPlugin.Setting.setVariableReplaceKeys(resultBundle,new String[] {
                     PluginBundleManager.EXTRA_EXECUTABLE,
+                    PluginBundleManager.EXTRA_SCRIPT,
                     PluginBundleManager.EXTRA_ARGUMENTS,
                     PluginBundleManager.EXTRA_WORKDIR,
                     PluginBundleManager.EXTRA_STDIN,
+                    PluginBundleManager.EXTRA_STDIN_FILE,
                     PluginBundleManager.EXTRA_SESSION_ACTION,
-                    PluginBundleManager.EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL
+                    PluginBundleManager.EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL,
+                    PluginBundleManager.EXTRA_MAX_CONCURRENT_INSTANCES,
+                    PluginBundleManager.EXTRA_OVERFLOW_POLICY,
+                    PluginBundleManager.EXTRA_PRIORITY,
+                    PluginBundleManager.EXTRA_COALESCE_WINDOW,
+                    PluginBundleManager.EXTRA_OUTPUT_FILTER,
+                    PluginBundleManager.EXTRA_SPLIT_STDOUT,
+                    PluginBundleManager.EXTRA_DELTA_OUTPUT_KEY,
+                    PluginBundleManager.EXTRA_JSON_OUTPUT
             });
         }
 
@@ -718,7 +1071,12 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
         // Configuration information for Tasker variables returned from the executed task
         if(waitForResult) {
             List<String> relevantVariableList = new ArrayList<>();
-            relevantVariableList.add(PluginUtils.PLUGIN_VARIABLE_STDOUT + "\nStandard Output\nThe <B>stdout</B> of the command.");
+            if (splitStdout != null)
+                relevantVariableList.add(PluginUtils.PLUGIN_VARIABLE_STDOUT + "()\nStandard Output\nThe parts of the <B>" + (deltaOutputKey != null ? "stdout diff" : "stdout") + "</B> of the command.");
+            else if (deltaOutputKey != null)
+                relevantVariableList.add(PluginUtils.PLUGIN_VARIABLE_STDOUT + "\nStandard Output\nThe unified diff of the <B>stdout</B> of the command since the last run, empty if unchanged.");
+            else
+                relevantVariableList.add(PluginUtils.PLUGIN_VARIABLE_STDOUT + "\nStandard Output\nThe <B>stdout</B> of the command.");
             relevantVariableList.add(PluginUtils.PLUGIN_VARIABLE_STDOUT_ORIGINAL_LENGTH + "\nStandard Output Original Length\nThe original length of <B>stdout</B>.");
 
             // For foreground commands, the session transcript is returned which will contain
@@ -732,6 +1090,17 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
             relevantVariableList.add(PluginUtils.PLUGIN_VARIABLE_EXIT_CODE + "\nExit Code\nThe <B>exit code</B> of the command." +
                     "0 often means success and anything else is usually a failure of some sort.");
 
+            if (splitStdout != null)
+                relevantVariableList.add(OutputSplitter.PLUGIN_VARIABLE_STDOUT_PARTS_COUNT + "\nStandard Output Parts Count\nThe number of parts of <B>stdout</B> before they were capped.");
+            if (deltaOutputKey != null)
+                relevantVariableList.add(DeltaOutput.PLUGIN_VARIABLE_CHANGED + "\nChanged\nWhether the <B>stdout</B> of the command has changed since the last run.");
+            if (outputUri) {
+                relevantVariableList.add(OutputProvider.PLUGIN_VARIABLE_STDOUT_URI + "\nStandard Output URI\nThe content URI to read the <B>stdout</B> of the command from.");
+                relevantVariableList.add(OutputProvider.PLUGIN_VARIABLE_STDERR_URI + "\nStandard Error URI\nThe content URI to read the <B>stderr</B> of the command from.");
+            }
+            if (jsonOutput != null)
+                relevantVariableList.add(JsonOutputParser.PLUGIN_VARIABLE_JSON_ERROR + "\nJSON Error\nThe error if <B>stdout</B> could not be parsed as JSON.");
+
             if (TaskerPlugin.hostSupportsRelevantVariables(getIntent().getExtras())) {
                 TaskerPlugin.addRelevantVariableList(resultIntent, relevantVariableList.toArray(new String[0]));
             }
@@ -740,9 +1109,12 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
         // To use variables, we can't have a timeout of 0, but if someone doesn't pay
         // attention to this and runs a task that never ends, 10 seconds seems like a
         // reasonable timeout. If they need more time, or want this to run entirely
-        // asynchronously, that can be set
+        // asynchronously, that can be set. If enough runtimes of the executable have been
+        // recorded, then the timeout suggested from them is requested instead.
         if (TaskerPlugin.Setting.hostSupportsSynchronousExecution(getIntent().getExtras())) {
-            TaskerPlugin.Setting.requestTimeoutMS(resultIntent, 10000);
+            int timeout = mTimeoutSuggestion != null ? mTimeoutSuggestion.timeout : DEFAULT_TIMEOUT_MS;
+            Logger.logDebug(LOG_TAG, "Requesting timeout: " + timeout + "ms");
+            TaskerPlugin.Setting.requestTimeoutMS(resultIntent, timeout);
         }
 
         setResult(RESULT_OK, resultIntent);
@@ -766,6 +1138,11 @@ public final class EditConfigurationActivity extends AbstractPluginActivity {
                 if (textIOInfo == null) return;
 
                 switch (textIOInfo.getAction()) {
+                    case ACTION_GET_SCRIPT:
+                        mScript = textIOInfo.getText();
+                        updateScriptViewText();
+                        processExecutablePath(mExecutablePathText == null ? null : mExecutablePathText.getText().toString());
+                        break;
                     case ACTION_GET_STDIN:
                         mStdin = textIOInfo.getText();
                         updateStdinViewText();
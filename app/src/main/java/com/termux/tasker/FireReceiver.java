@@ -5,6 +5,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.data.IntentUtils;
@@ -19,9 +24,23 @@ import com.termux.shared.file.FileUtils;
 import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.crash.TermuxCrashUtils;
 import com.termux.shared.termux.file.TermuxFileUtils;
+import com.termux.tasker.blobs.BlobStore;
+import com.termux.tasker.execution.CommandGateway;
+import com.termux.tasker.execution.ExecutionOptions;
+import com.termux.tasker.execution.ExecutionPriority;
+import com.termux.tasker.execution.FireCoalescer;
+import com.termux.tasker.execution.OverflowPolicy;
+import com.termux.tasker.execution.RunningExecutions;
+import com.termux.tasker.execution.ScriptCache;
+import com.termux.tasker.execution.StdinStreamer;
+import com.termux.tasker.output.OutputFilter;
+import com.termux.tasker.output.SecretRedactor;
+import com.termux.tasker.utils.PluginMetrics;
 import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.StartupTrace;
 import com.termux.tasker.utils.TaskerPlugin;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,9 +49,53 @@ import java.util.List;
  */
 public final class FireReceiver extends BroadcastReceiver {
 
+    /** Checks the Termux environment that commands are run in. */
+    @VisibleForTesting
+    interface TermuxEnvironment {
+        /** Get the errmsg if the Termux app is not accessible, otherwise {@code null}. */
+        String isTermuxAppAccessible(@NonNull Context context);
+        /** Get the {@link Error} if the executable is not a valid executable file, otherwise {@code null}. */
+        Error validateExecutable(@NonNull String executable);
+    }
+
+    /** The {@link TermuxEnvironment}, which is replaced in unit tests since the Termux app files do not exist on the host. */
+    @VisibleForTesting
+    static TermuxEnvironment TERMUX_ENVIRONMENT = new TermuxEnvironment() {
+        @Override
+        public String isTermuxAppAccessible(@NonNull Context context) {
+            return TermuxUtils.isTermuxAppAccessible(context);
+        }
+
+        @Override
+        public Error validateExecutable(@NonNull String executable) {
+            // Setting of read and execute permissions are only done if executable is under TermuxConstants#TERMUX_TASKER_SCRIPTS_DIR_PATH
+            return FileUtils.validateRegularFileExistenceAndPermissions("executable", executable,
+                    TermuxConstants.TERMUX_TASKER_SCRIPTS_DIR_PATH,
+                    FileUtils.APP_EXECUTABLE_FILE_PERMISSIONS,
+                    true, true,
+                    false);
+        }
+    };
+
     private static final String LOG_TAG = "FireReceiver";
 
     public void onReceive(final Context context, final Intent intent) {
+        StartupTrace.mark(StartupTrace.STAGE_FIRE_RECEIVE_START);
+        final long fireStartTime = SystemClock.elapsedRealtime();
+        // If this is the first fire received by the process and it was not warmed up by the
+        // KeepWarmService, then the fire had to pay the cost of a cold start of the process
+        final boolean isColdFire = !TermuxTaskerApplication.isProcessWarm();
+        TermuxTaskerApplication.setProcessWarm();
+
+        try {
+            processFireIntent(context, intent, isColdFire, fireStartTime);
+        } finally {
+            // Finish the startup trace of the process on completion of its first fire
+            StartupTrace.finish(context, isColdFire);
+        }
+    }
+
+    private void processFireIntent(final Context context, final Intent intent, boolean isColdFire, long fireStartTime) {
         // Set crash handler for the receiver
         TermuxCrashUtils.setCrashHandler(context);
 
@@ -67,26 +130,122 @@ public final class FireReceiver extends BroadcastReceiver {
             return;
         }
 
+        // If bundle is for a command action, then run it instead of an executable
+        if (PluginBundleManager.isCommandActionBundle(bundle)) {
+            processCommandAction(context, intent);
+            return;
+        }
+
         ExecutionCommand executionCommand = new ExecutionCommand();
 
         String executableExtra = executionCommand.executable = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_EXECUTABLE, null);
         final String arguments_string = bundle.getString(PluginBundleManager.EXTRA_ARGUMENTS);
         executionCommand.workingDirectory = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_WORKDIR, null);
-        executionCommand.runner = intent.getBooleanExtra(PluginBundleManager.EXTRA_TERMINAL, false) ?
+        // The extras encoded in the EXTRA_COMPACT extra are only decoded into the bundle, and not the intent
+        executionCommand.runner = bundle.getBoolean(PluginBundleManager.EXTRA_TERMINAL, false) ?
                 ExecutionCommand.Runner.TERMINAL_SESSION.getName() : ExecutionCommand.Runner.APP_SHELL.getName();
         final boolean waitForResult = bundle.getBoolean(PluginBundleManager.EXTRA_WAIT_FOR_RESULT, true);
+        final boolean killOnTimeout = bundle.getBoolean(PluginBundleManager.EXTRA_KILL_ON_TIMEOUT, false);
+        final boolean cancellable = bundle.getBoolean(PluginBundleManager.EXTRA_CANCELLABLE, false);
+        final boolean reportProgress = bundle.getBoolean(PluginBundleManager.EXTRA_REPORT_PROGRESS, false);
+        final boolean directExecution = bundle.getBoolean(PluginBundleManager.EXTRA_DIRECT_EXECUTION, false);
 
+        String stdinFile = null;
         if (ExecutionCommand.Runner.APP_SHELL.equalsRunner(executionCommand.runner)) {
             executionCommand.stdin = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_STDIN, null);
+            stdinFile = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_STDIN_FILE, null);
+
+            // Large stdin is stored in the BlobStore and only its hash is sent in the bundle
+            final String stdinBlob = DataUtils.getDefaultIfUnset(bundle.getString(PluginBundleManager.EXTRA_STDIN_BLOB), null);
+            if (stdinBlob != null) {
+                executionCommand.stdin = BlobStore.getString(context, stdinBlob);
+                if (executionCommand.stdin == null) {
+                    errmsg = context.getString(R.string.error_stdin_blob_not_found, stdinBlob);
+                    Logger.logError(LOG_TAG, errmsg);
+                    PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                    return;
+                }
+            }
+
+            // The stdin file takes precedence over the stdin text
+            if (stdinFile != null)
+                executionCommand.stdin = null;
             executionCommand.backgroundCustomLogLevel = IntentUtils.getIntegerExtraIfSet(intent, PluginBundleManager.EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL, null);
         } else {
             executionCommand.sessionAction = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_SESSION_ACTION, null);
         }
 
+        // If max concurrent instances or overflow policy is not valid, then return RESULT_CODE_FAILED to plugin host app
+        final String maxConcurrentInstancesString = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_MAX_CONCURRENT_INSTANCES, null);
+        int maxConcurrentInstances = 0;
+        if (maxConcurrentInstancesString != null) {
+            maxConcurrentInstances = DataUtils.getIntFromString(maxConcurrentInstancesString, -1);
+            if (maxConcurrentInstances < 0 || maxConcurrentInstances > PluginBundleManager.MAX_VALUE_EXTRA_MAX_CONCURRENT_INSTANCES) {
+                errmsg = context.getString(R.string.error_invalid_max_concurrent_instances, maxConcurrentInstancesString,
+                        PluginBundleManager.MAX_VALUE_EXTRA_MAX_CONCURRENT_INSTANCES);
+                Logger.logError(LOG_TAG, errmsg);
+                PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                return;
+            }
+        }
+
+        final String overflowPolicyString = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_OVERFLOW_POLICY, null);
+        OverflowPolicy overflowPolicy = OverflowPolicy.DEFAULT;
+        if (overflowPolicyString != null) {
+            overflowPolicy = OverflowPolicy.policyOf(overflowPolicyString);
+            if (overflowPolicy == null) {
+                errmsg = context.getString(R.string.error_invalid_overflow_policy_extra, overflowPolicyString,
+                        TextUtils.join(", ", OverflowPolicy.getNames()));
+                Logger.logError(LOG_TAG, errmsg);
+                PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                return;
+            }
+        }
+
+        // If priority is not valid, then return RESULT_CODE_FAILED to plugin host app
+        final String priorityString = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_PRIORITY, null);
+        ExecutionPriority priority = ExecutionPriority.DEFAULT;
+        if (priorityString != null) {
+            priority = ExecutionPriority.priorityOf(priorityString);
+            if (priority == null) {
+                errmsg = context.getString(R.string.error_invalid_priority_extra, priorityString,
+                        TextUtils.join(", ", ExecutionPriority.getNames()));
+                Logger.logError(LOG_TAG, errmsg);
+                PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                return;
+            }
+        }
+
+        // If coalesce window is not valid, then return RESULT_CODE_FAILED to plugin host app
+        final String coalesceWindowString = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_COALESCE_WINDOW, null);
+        int coalesceWindow = 0;
+        if (coalesceWindowString != null) {
+            coalesceWindow = DataUtils.getIntFromString(coalesceWindowString, -1);
+            if (coalesceWindow < 0 || coalesceWindow > PluginBundleManager.MAX_VALUE_EXTRA_COALESCE_WINDOW) {
+                errmsg = context.getString(R.string.error_invalid_coalesce_window, coalesceWindowString,
+                        PluginBundleManager.MAX_VALUE_EXTRA_COALESCE_WINDOW);
+                Logger.logError(LOG_TAG, errmsg);
+                PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                return;
+            }
+        }
+
+        // If output filter is not valid, then return RESULT_CODE_FAILED to plugin host app
+        final String outputFilter = bundle.getString(PluginBundleManager.EXTRA_OUTPUT_FILTER);
+        if (outputFilter != null) {
+            final String outputFilterErrmsg = OutputFilter.validate(outputFilter);
+            if (outputFilterErrmsg != null) {
+                errmsg = context.getString(R.string.error_invalid_output_filter_extra, outputFilterErrmsg);
+                Logger.logError(LOG_TAG, errmsg);
+                PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                return;
+            }
+        }
+
         // If Termux app is not installed, enabled or accessible with current context or if
         // TermuxConstants.TERMUX_PREFIX_DIR_PATH does not exist or has required permissions, then
         // return RESULT_CODE_FAILED to plugin host app.
-        errmsg = TermuxUtils.isTermuxAppAccessible(context);
+        errmsg = TERMUX_ENVIRONMENT.isTermuxAppAccessible(context);
         if (errmsg != null) {
             Logger.logError(LOG_TAG, errmsg);
             PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
@@ -94,6 +253,35 @@ public final class FireReceiver extends BroadcastReceiver {
         }
 
 
+        // If plugin action has an inline script, then write it to the ScriptCache and run it
+        // directly if executable is not set, otherwise pass it as the first argument to the executable
+        final String scriptBlob = DataUtils.getDefaultIfUnset(bundle.getString(PluginBundleManager.EXTRA_SCRIPT_BLOB), null);
+        final String script = scriptBlob != null ? BlobStore.getString(context, scriptBlob) :
+                IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_SCRIPT, null);
+        if (scriptBlob != null && script == null) {
+            errmsg = context.getString(R.string.error_script_blob_not_found, scriptBlob);
+            Logger.logError(LOG_TAG, errmsg);
+            PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+            return;
+        }
+
+        String scriptFilePath = null;
+        if (script != null) {
+            try {
+                scriptFilePath = ScriptCache.getScriptFilePath(script);
+            } catch (IOException e) {
+                errmsg = context.getString(R.string.error_write_script_failed, e.getMessage());
+                Logger.logError(LOG_TAG, errmsg);
+                PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                return;
+            }
+
+            if (executionCommand.executable == null || executionCommand.executable.isEmpty())
+                executableExtra = executionCommand.executable = scriptFilePath;
+        }
+        final boolean runScriptDirectly = scriptFilePath != null && scriptFilePath.equals(executionCommand.executable);
+
+
         // If executable is null or empty, then exit here instead of getting canonical path which would expand to "/"
         if (executionCommand.executable == null || executionCommand.executable.isEmpty()) {
             errmsg  = context.getString(R.string.error_null_or_empty_executable);
@@ -120,16 +308,14 @@ public final class FireReceiver extends BroadcastReceiver {
 
         // If executable is not a regular file, or is not readable or executable, then return
         // RESULT_CODE_FAILED to plugin host app
-        // Setting of read and execute permissions are only done if executable is under TermuxConstants#TERMUX_TASKER_SCRIPTS_DIR_PATH
-        error = FileUtils.validateRegularFileExistenceAndPermissions("executable", executionCommand.executable,
-                TermuxConstants.TERMUX_TASKER_SCRIPTS_DIR_PATH,
-                FileUtils.APP_EXECUTABLE_FILE_PERMISSIONS,
-                true, true,
-                false);
-        if (error != null) {
-            executionCommand.setStateFailed(error);
-            PluginUtils.processPluginExecutionCommandError(context, this, intent, LOG_TAG, executionCommand, TaskerPlugin.Setting.RESULT_CODE_FAILED);
-            return;
+        // The files of inline scripts are immutable and already validated by the ScriptCache
+        if (!runScriptDirectly) {
+            error = TERMUX_ENVIRONMENT.validateExecutable(executionCommand.executable);
+            if (error != null) {
+                executionCommand.setStateFailed(error);
+                PluginUtils.processPluginExecutionCommandError(context, this, intent, LOG_TAG, executionCommand, TaskerPlugin.Setting.RESULT_CODE_FAILED);
+                return;
+            }
         }
 
 
@@ -174,11 +360,34 @@ public final class FireReceiver extends BroadcastReceiver {
         List<String> arguments_list = new ArrayList<>();
         if (!DataUtils.isNullOrEmpty(arguments_string))
             arguments_list = ArgumentTokenizer.tokenize(arguments_string);
+        if (scriptFilePath != null && !runScriptDirectly)
+            arguments_list.add(0, scriptFilePath);
         executionCommand.arguments = arguments_list.toArray(new String[0]);
 
 
-        Logger.logVerboseExtended(LOG_TAG, executionCommand.toString());
-        Logger.logVerbose(LOG_TAG, "Wait For Result: `" + waitForResult + "`");
+        Logger.logVerboseExtended(LOG_TAG, SecretRedactor.redactText(executionCommand.toString()));
+        Logger.logVerbose(LOG_TAG, "Wait For Result: `" + waitForResult + "`, Kill On Timeout: `" + killOnTimeout + "`, Cancellable: `" + cancellable + "`, Report Progress: `" + reportProgress + "`, Direct Execution: `" + directExecution + "`");
+        if (maxConcurrentInstances > 0)
+            Logger.logVerbose(LOG_TAG, "Max Concurrent Instances: `" + maxConcurrentInstances + "`, Overflow Policy: `" + overflowPolicy.getName() + "`");
+        Logger.logVerbose(LOG_TAG, "Priority: `" + priority.getName() + "`");
+        if (coalesceWindow > 0)
+            Logger.logVerbose(LOG_TAG, "Coalesce Window: `" + coalesceWindow + "ms`");
+        if (stdinFile != null)
+            Logger.logVerbose(LOG_TAG, "Stdin File: `" + stdinFile + "`");
+        if (outputFilter != null)
+            Logger.logVerbose(LOG_TAG, "Output Filter: `" + outputFilter.replace("\n", "; ") + "`");
+        final String jsonOutput = bundle.getString(PluginBundleManager.EXTRA_JSON_OUTPUT);
+        if (jsonOutput != null)
+            Logger.logVerbose(LOG_TAG, "JSON Output: `" + jsonOutput + "`");
+        final String splitStdout = bundle.getString(PluginBundleManager.EXTRA_SPLIT_STDOUT);
+        if (splitStdout != null)
+            Logger.logVerbose(LOG_TAG, "Split Stdout: `" + splitStdout + "`");
+        final String deltaOutputKey = bundle.getString(PluginBundleManager.EXTRA_DELTA_OUTPUT_KEY);
+        if (deltaOutputKey != null)
+            Logger.logVerbose(LOG_TAG, "Delta Output Key: `" + deltaOutputKey + "`");
+        final boolean outputUri = bundle.getBoolean(PluginBundleManager.EXTRA_OUTPUT_URI, false);
+        if (outputUri)
+            Logger.logVerbose(LOG_TAG, "Output URI: `" + outputUri + "`");
 
         // Create execution intent with the action TERMUX_SERVICE#ACTION_SERVICE_EXECUTE to be sentto the TERMUX_SERVICE
         Intent executionIntent = new Intent(TERMUX_SERVICE.ACTION_SERVICE_EXECUTE, executionCommand.executableUri);
@@ -194,8 +403,130 @@ public final class FireReceiver extends BroadcastReceiver {
         executionIntent.putExtra(TERMUX_SERVICE.EXTRA_BACKGROUND, ExecutionCommand.Runner.APP_SHELL.getName().equals(executionCommand.runner)); // Backward compatibility for runner.
         executionIntent.putExtra(TERMUX_SERVICE.EXTRA_PLUGIN_API_HELP, context.getString(R.string.plugin_api_help, TermuxConstants.TERMUX_TASKER_GITHUB_REPO_URL));
 
+        // Stream stdin from the file or URI instead of sending it in the execution intent
+        if (stdinFile != null) {
+            errmsg = StdinStreamer.setStdinFile(context, executionIntent, stdinFile);
+            if (errmsg != null) {
+                Logger.logError(LOG_TAG, errmsg);
+                PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                return;
+            }
+        }
+
+        ExecutionOptions executionOptions = new ExecutionOptions();
+        executionOptions.maxConcurrentInstances = maxConcurrentInstances;
+        executionOptions.overflowPolicy = overflowPolicy;
+        executionOptions.priority = priority;
+        executionOptions.hostTimeout = TaskerPlugin.Setting.getHintTimeoutMS(intent.getExtras());
+        executionOptions.killOnTimeout = killOnTimeout;
+        executionOptions.cancellable = cancellable;
+        executionOptions.reportProgress = reportProgress;
+        executionOptions.directExecution = directExecution;
+        // The content of the stdin file may be different for identical fires, so they are not coalesced
+        if (coalesceWindow > 0 && stdinFile == null) {
+            // The plugin host app has already substituted any variables in the extras
+            executionOptions.coalesceKey = FireCoalescer.getCoalesceKey(executionCommand);
+            executionOptions.coalesceWindow = coalesceWindow;
+        }
+
+        recordFireLatency(context, isColdFire, fireStartTime);
+
         // Send execution intent to TERMUX_SERVICE
-        PluginUtils.sendExecuteIntentToExecuteService(context, this, intent, executionIntent, waitForResult);
+        PluginUtils.sendExecuteIntentToExecuteService(context, this, intent, executionIntent, waitForResult,
+                executionOptions);
+
+        // Start the KeepWarmService so that next fires do not have to pay the cost of a cold start
+        KeepWarmService.startIfEnabled(context);
+
+        // Start the command gateway if it was enabled after the process was started
+        CommandGateway.startIfEnabled(context);
+    }
+
+    /**
+     * Run the command action of a plugin action for the commands running in {@link RunningExecutions}
+     * and send its result to the plugin host app.
+     *
+     * The {@link PluginBundleManager#VALUE_EXTRA_COMMAND_ACTION_LIST_RUNNING} action returns the
+     * ids, executables and elapsed time of the running commands as arrays, and the
+     * {@link PluginBundleManager#VALUE_EXTRA_COMMAND_ACTION_CANCEL} action cancels the command with
+     * the {@link PluginBundleManager#EXTRA_COMMAND_ID}.
+     *
+     * @param context The {@link Context} for operations.
+     * @param intent The {@link Intent} received by the receiver.
+     */
+    private void processCommandAction(final Context context, final Intent intent) {
+        final String commandAction = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_COMMAND_ACTION, null);
+        Logger.logVerbose(LOG_TAG, "Command Action: `" + commandAction + "`");
+
+        if (PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_CANCEL.equals(commandAction)) {
+            // The plugin host app has already substituted any variables in the extras
+            final String commandIdString = IntentUtils.getStringExtraIfSet(intent, PluginBundleManager.EXTRA_COMMAND_ID, null);
+            int commandId = DataUtils.getIntFromString(commandIdString, -1);
+            String errmsg = commandId < 0 ? context.getString(R.string.error_invalid_command_id, commandIdString) :
+                    RunningExecutions.cancel(context, commandId);
+            if (errmsg != null) {
+                Logger.logError(LOG_TAG, errmsg);
+                PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+                return;
+            }
+
+            PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_OK, null);
+            return;
+        }
+
+        if (!PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_LIST_RUNNING.equals(commandAction)) {
+            // The progress event condition is queried by the QueryReceiver and cannot be fired
+            String errmsg = context.getString(R.string.error_invalid_command_action, commandAction,
+                    PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_LIST_RUNNING + ", " + PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_CANCEL);
+            Logger.logError(LOG_TAG, errmsg);
+            PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+            return;
+        }
+
+        ArrayList<String> ids = new ArrayList<>();
+        ArrayList<String> executables = new ArrayList<>();
+        ArrayList<String> elapsedTimes = new ArrayList<>();
+        for (RunningExecutions.RunningExecution execution : RunningExecutions.getAll()) {
+            ids.add(String.valueOf(execution.id));
+            executables.add(execution.executable);
+            elapsedTimes.add(String.valueOf(execution.getElapsedTime()));
+        }
+        Logger.logDebug(LOG_TAG, "Listing " + ids.size() + " running commands");
+
+        Bundle variables = new Bundle();
+        variables.putStringArrayList(PluginUtils.PLUGIN_VARIABLE_COMMAND_IDS, ids);
+        variables.putStringArrayList(PluginUtils.PLUGIN_VARIABLE_COMMAND_EXECUTABLES, executables);
+        variables.putStringArrayList(PluginUtils.PLUGIN_VARIABLE_COMMAND_ELAPSED, elapsedTimes);
+        PluginUtils.sendImmediateResultToPluginHostApp(this, intent, TaskerPlugin.Setting.RESULT_CODE_OK, null, variables);
+    }
+
+    /**
+     * Record the latency of the fire till the execution intent is ready to be sent.
+     *
+     * For cold fires, the latency is measured from the start of the process, otherwise from when
+     * {@link #onReceive(Context, Intent)} was called.
+     *
+     * @param context The {@link Context} for operations.
+     * @param isColdFire Whether the fire had to pay the cost of a cold start of the process.
+     * @param fireStartTime The {@link SystemClock#elapsedRealtime()} at which the fire was received.
+     */
+    private static void recordFireLatency(final Context context, boolean isColdFire, long fireStartTime) {
+        long currentTime = SystemClock.elapsedRealtime();
+        long receiverLatency = currentTime - fireStartTime;
+
+        if (isColdFire) {
+            long processLatency = currentTime - TermuxTaskerApplication.getProcessStartTime();
+            PluginMetrics.incrementCounter("fires_cold");
+            PluginMetrics.recordLatency("fire_latency_cold_process", processLatency);
+            PluginMetrics.recordLatency("fire_latency_cold_receiver", receiverLatency);
+            Logger.logDebug(LOG_TAG, "Cold fire latency: " + processLatency + "ms (receiver: " + receiverLatency + "ms)");
+        } else {
+            PluginMetrics.incrementCounter("fires_warm");
+            PluginMetrics.recordLatency("fire_latency_warm_receiver", receiverLatency);
+            Logger.logDebug(LOG_TAG, "Warm fire latency: " + receiverLatency + "ms");
+        }
+
+        PluginMetrics.persist(context);
     }
 
 }
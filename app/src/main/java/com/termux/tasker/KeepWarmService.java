@@ -0,0 +1,268 @@
+package com.termux.tasker;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.TermuxUtils;
+import com.termux.shared.termux.crash.TermuxCrashUtils;
+import com.termux.shared.termux.file.TermuxFileUtils;
+import com.termux.shared.termux.settings.preferences.TermuxTaskerAppSharedPreferences;
+import com.termux.tasker.activities.TermuxTaskerMainActivity;
+import com.termux.tasker.execution.DirectExecutor;
+import com.termux.tasker.settings.preferences.PluginSharedPreferences;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+
+/**
+ * A lightweight foreground service that runs in the `:background` process of the {@link FireReceiver}
+ * to keep it alive if keep-warm mode is enabled with
+ * {@link PluginSharedPreferences#KEY_KEEP_WARM_ENABLED}, so that fires do not have to pay the cost
+ * of a cold start of the process, like {@link TermuxTaskerApplication} creation, crash handler
+ * set up, shared preferences loading and class loading.
+ *
+ * The service is also held with {@link #hold(Context)} while commands run directly in the process
+ * by the {@link DirectExecutor} and while the {@link com.termux.tasker.execution.CommandGateway}
+ * is running, since they would be killed with it, even if keep-warm mode is disabled, in which case
+ * it is stopped again once the last holder has released it.
+ */
+public class KeepWarmService extends Service {
+
+    private static final String NOTIFICATION_CHANNEL_ID = "termux_tasker_keep_warm_notification_channel";
+    private static final int NOTIFICATION_ID = 1001;
+
+    private static volatile boolean SERVICE_RUNNING = false;
+
+    /** The number of holders of the service, like commands running with the {@link DirectExecutor} and the command gateway. */
+    private static int HOLD_COUNT = 0;
+
+    private static final String LOG_TAG = "KeepWarmService";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        Logger.logVerbose(LOG_TAG, "onCreate");
+        SERVICE_RUNNING = true;
+
+        startForeground(NOTIFICATION_ID, buildNotification());
+
+        // If it was started by a holder that has already released it, then stop it again, which
+        // can only be done after startForeground() has been called
+        if (!shouldRun(this)) {
+            stopSelf();
+            return;
+        }
+
+        warmUp(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return Service.START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        Logger.logVerbose(LOG_TAG, "onDestroy");
+        SERVICE_RUNNING = false;
+        super.onDestroy();
+
+        // If it was stopped by the main activity while it is still held, then start it again
+        if (getHoldCount() > 0)
+            start(getApplicationContext());
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+
+
+    /**
+     * Pre-initialise the caches and classes required by the fire path of the {@link FireReceiver}
+     * in the current process.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    public static void warmUp(final Context context) {
+        if (context == null || TermuxTaskerApplication.isProcessWarm()) return;
+
+        long startTime = SystemClock.elapsedRealtime();
+
+        TermuxCrashUtils.setCrashHandler(context);
+        TermuxTaskerApplication.setLogConfig(context, false);
+
+        // Load shared preferences files into memory
+        TermuxTaskerAppSharedPreferences.build(context);
+        PluginSharedPreferences.build(context);
+
+        // Load package info of the Termux app and classes used for validation of commands
+        TermuxUtils.isTermuxAppAccessible(context);
+        TermuxFileUtils.getCanonicalPath("warm-up", TermuxConstants.TERMUX_TASKER_SCRIPTS_DIR_PATH, true);
+        ArgumentTokenizer.tokenize("warm up");
+        new ExecutionCommand();
+        PluginUtils.sanitizeErrCode(0);
+
+        TermuxTaskerApplication.setProcessWarm();
+
+        long latency = SystemClock.elapsedRealtime() - startTime;
+        PluginMetrics.recordLatency("keep_warm_warm_up", latency);
+        PluginMetrics.persist(context);
+        Logger.logDebug(LOG_TAG, "Warmed up process in " + latency + "ms");
+    }
+
+    /**
+     * Start the service if keep-warm mode is enabled and it is not already running in the current process.
+     *
+     * This must be called from the `:background` process.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    public static void startIfEnabled(final Context context) {
+        if (context == null || SERVICE_RUNNING) return;
+
+        PluginSharedPreferences preferences = PluginSharedPreferences.build(context);
+        if (preferences == null || !preferences.isKeepWarmEnabled()) return;
+
+        start(context);
+    }
+
+    /**
+     * Hold the service till {@link #release(Context)} is called, and start it if it is not
+     * already running.
+     *
+     * This must be called from the `:background` process.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    public static void hold(final Context context) {
+        if (context == null) return;
+
+        boolean start;
+        synchronized (KeepWarmService.class) {
+            HOLD_COUNT++;
+            start = !SERVICE_RUNNING;
+        }
+        if (start)
+            start(context);
+    }
+
+    /**
+     * Release a hold of the service added with {@link #hold(Context)}, and stop it if it was the
+     * last one and keep-warm mode is disabled.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    public static void release(final Context context) {
+        if (context == null) return;
+
+        synchronized (KeepWarmService.class) {
+            if (HOLD_COUNT > 0) HOLD_COUNT--;
+            // If it has not been created yet, then it stops itself when it is
+            if (HOLD_COUNT > 0 || !SERVICE_RUNNING) return;
+        }
+        if (!shouldRun(context))
+            stop(context);
+    }
+
+    /**
+     * Start the service.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    public static void start(final Context context) {
+        if (context == null) return;
+
+        Logger.logDebug(LOG_TAG, "Starting service");
+        try {
+            Intent intent = new Intent(context, KeepWarmService.class);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(intent);
+            } else {
+                context.startService(intent);
+            }
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to start " + LOG_TAG, e);
+        }
+    }
+
+    /**
+     * Stop the service.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    public static void stop(final Context context) {
+        if (context == null) return;
+
+        Logger.logDebug(LOG_TAG, "Stopping service");
+        try {
+            context.stopService(new Intent(context, KeepWarmService.class));
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to stop " + LOG_TAG, e);
+        }
+    }
+
+
+
+    private static synchronized int getHoldCount() {
+        return HOLD_COUNT;
+    }
+
+    /** Check whether the service should run, since keep-warm mode is enabled or it is held. */
+    private static boolean shouldRun(final Context context) {
+        return getHoldCount() > 0 || isKeepWarmEnabled(context);
+    }
+
+    private static boolean isKeepWarmEnabled(final Context context) {
+        PluginSharedPreferences preferences = PluginSharedPreferences.build(context);
+        return preferences != null && preferences.isKeepWarmEnabled();
+    }
+
+    private Notification buildNotification() {
+        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (notificationManager != null) {
+                NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL_ID,
+                        getString(R.string.notification_channel_keep_warm_name), NotificationManager.IMPORTANCE_MIN);
+                channel.setShowBadge(false);
+                notificationManager.createNotificationChannel(channel);
+            }
+            builder = new Notification.Builder(this, NOTIFICATION_CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(this);
+            builder.setPriority(Notification.PRIORITY_MIN);
+        }
+
+        Intent mainActivityIntent = new Intent(this, TermuxTaskerMainActivity.class);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, mainActivityIntent,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0);
+
+        builder.setContentTitle(getString(R.string.notification_keep_warm_title))
+                .setContentText(getString(getHoldCount() > 0 && !isKeepWarmEnabled(this) ?
+                        R.string.notification_keep_warm_text_direct_execution : R.string.notification_keep_warm_text))
+                .setSmallIcon(R.drawable.ic_foreground)
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setShowWhen(false);
+
+        return builder.build();
+    }
+
+}
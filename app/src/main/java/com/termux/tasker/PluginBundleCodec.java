@@ -0,0 +1,225 @@
+package com.termux.tasker;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the extras of the plugin action {@link Bundle} that are not variables replaced by the
+ * plugin host app into the single {@code byte[]} {@link PluginBundleManager#EXTRA_COMPACT} extra,
+ * and decodes them back.
+ *
+ * The {@code boolean} extras and the hashes of the {@link com.termux.tasker.blobs.BlobStore} blobs
+ * each take a full key of around 40 characters in the bundle, which the plugin host app stores for
+ * every plugin action and sends with every fire. In the compact extra, the booleans take a bit and
+ * the hashes take their 32 raw bytes. The {@code String} extras that the plugin host app replaces
+ * variables in must stay separate extras, as do the required extras checked by
+ * {@link PluginBundleManager#parseBundle}.
+ *
+ * The first byte of the compact extra is its format version, so that the format can be changed
+ * later while older bundles can still be decoded. Bundles saved before the compact extra existed
+ * are not converted when they are received, since the plugin cannot change the bundle stored by
+ * the plugin host app, and are instead upgraded the next time the plugin action is saved in the
+ * {@link EditConfigurationActivity}.
+ */
+public class PluginBundleCodec {
+
+    /** The current format version of the compact extra. */
+    public static final int VERSION = 1;
+
+    /** The {@code boolean} extras of the version 1 format, in the order of their bits. */
+    private static final String[] FLAG_KEYS_V1 = {
+            PluginBundleManager.EXTRA_TERMINAL,
+            PluginBundleManager.EXTRA_WAIT_FOR_RESULT,
+            PluginBundleManager.EXTRA_KILL_ON_TIMEOUT,
+            PluginBundleManager.EXTRA_CANCELLABLE,
+            PluginBundleManager.EXTRA_REPORT_PROGRESS,
+            PluginBundleManager.EXTRA_DIRECT_EXECUTION,
+            PluginBundleManager.EXTRA_OUTPUT_URI
+    };
+
+    /** The {@code String} extras of the version 1 format, in their order. */
+    private static final String[] STRING_KEYS_V1 = {
+            PluginBundleManager.EXTRA_SCRIPT_BLOB,
+            PluginBundleManager.EXTRA_STDIN_BLOB
+    };
+
+    /** The optional {@code String} extras that are not stored at all if they are {@code null}. */
+    private static final String[] OPTIONAL_STRING_KEYS = {
+            PluginBundleManager.EXTRA_WORKDIR,
+            PluginBundleManager.EXTRA_STDIN,
+            PluginBundleManager.EXTRA_SESSION_ACTION,
+            PluginBundleManager.EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL
+    };
+
+    private static final int STRING_TYPE_NULL = 0;
+    private static final int STRING_TYPE_HEX = 1;
+    private static final int STRING_TYPE_UTF8 = 2;
+
+    /**
+     * Move the extras of a plugin action bundle that can be encoded into the compact extra, and
+     * remove the optional {@code String} extras that are {@code null}. If none of the extras are
+     * set, then the compact extra is not added.
+     *
+     * @param bundle The {@link Bundle} generated by {@link PluginBundleManager#generateBundle}.
+     */
+    public static void encode(@NonNull final Bundle bundle) {
+        for (String key : OPTIONAL_STRING_KEYS) {
+            if (bundle.containsKey(key) && bundle.getString(key) == null)
+                bundle.remove(key);
+        }
+
+        int presentFlags = 0;
+        int valueFlags = 0;
+        for (int i = 0; i < FLAG_KEYS_V1.length; i++) {
+            if (!bundle.containsKey(FLAG_KEYS_V1[i])) continue;
+            presentFlags |= 1 << i;
+            if (bundle.getBoolean(FLAG_KEYS_V1[i])) valueFlags |= 1 << i;
+        }
+
+        boolean hasStrings = false;
+        for (String key : STRING_KEYS_V1)
+            hasStrings |= bundle.getString(key) != null;
+        if (presentFlags == 0 && !hasStrings) return;
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(3 + STRING_KEYS_V1.length * 34);
+        output.write(VERSION);
+        output.write(presentFlags);
+        output.write(valueFlags);
+        for (String key : STRING_KEYS_V1)
+            writeString(output, bundle.getString(key));
+
+        for (String key : FLAG_KEYS_V1)
+            bundle.remove(key);
+        for (String key : STRING_KEYS_V1)
+            bundle.remove(key);
+        bundle.putByteArray(PluginBundleManager.EXTRA_COMPACT, output.toByteArray());
+    }
+
+    /**
+     * Replace the compact extra of a plugin action bundle with the extras it encodes, so that the
+     * rest of the plugin reads the same extras for all bundles. Bundles without the compact extra
+     * are not changed.
+     *
+     * @param bundle The plugin action {@link Bundle}.
+     * @return Returns the {@code errmsg} if the compact extra is not valid, otherwise {@code null}.
+     */
+    public static String decode(@NonNull final Bundle bundle) {
+        if (!bundle.containsKey(PluginBundleManager.EXTRA_COMPACT)) return null;
+
+        byte[] data = bundle.getByteArray(PluginBundleManager.EXTRA_COMPACT);
+        if (data == null || data.length == 0)
+            return "The bundle extra " + PluginBundleManager.EXTRA_COMPACT + " appears to be the wrong type or empty. It must be a non-empty byte array.";
+
+        int version = data[0] & 0xFF;
+        if (version != 1)
+            return "The bundle extra " + PluginBundleManager.EXTRA_COMPACT + " has the unsupported version " + version +
+                    ", the max supported version is " + VERSION + ". The plugin action may have been saved by a newer plugin version.";
+
+        // Decode into a separate bundle first so that an invalid extra does not change the bundle
+        Bundle extras = new Bundle();
+        try {
+            int presentFlags = data[1] & 0xFF;
+            int valueFlags = data[2] & 0xFF;
+            for (int i = 0; i < FLAG_KEYS_V1.length; i++) {
+                if ((presentFlags & (1 << i)) != 0)
+                    extras.putBoolean(FLAG_KEYS_V1[i], (valueFlags & (1 << i)) != 0);
+            }
+
+            int[] position = {3};
+            for (String key : STRING_KEYS_V1) {
+                String value = readString(data, position);
+                if (value != null) extras.putString(key, value);
+            }
+            if (position[0] != data.length)
+                throw new IllegalArgumentException((data.length - position[0]) + " trailing bytes");
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            return "The bundle extra " + PluginBundleManager.EXTRA_COMPACT + " is not valid: " +
+                    (e instanceof ArrayIndexOutOfBoundsException ? "it is truncated" : e.getMessage());
+        }
+
+        bundle.remove(PluginBundleManager.EXTRA_COMPACT);
+        bundle.putAll(extras);
+        return null;
+    }
+
+
+
+    private static void writeString(@NonNull ByteArrayOutputStream output, String value) {
+        if (value == null) {
+            output.write(STRING_TYPE_NULL);
+        } else if (isLowercaseHex(value) && value.length() / 2 <= 0xFF) {
+            // Blob hashes are lowercase hex, so store their bytes instead
+            output.write(STRING_TYPE_HEX);
+            output.write(value.length() / 2);
+            for (int i = 0; i < value.length(); i += 2)
+                output.write(Character.digit(value.charAt(i), 16) << 4 | Character.digit(value.charAt(i + 1), 16));
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.write(STRING_TYPE_UTF8);
+            writeVarInt(output, bytes.length);
+            output.write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static String readString(@NonNull byte[] data, @NonNull int[] position) {
+        int type = data[position[0]++] & 0xFF;
+        switch (type) {
+            case STRING_TYPE_NULL:
+                return null;
+            case STRING_TYPE_HEX: {
+                int length = data[position[0]++] & 0xFF;
+                if (position[0] + length > data.length)
+                    throw new ArrayIndexOutOfBoundsException();
+                char[] chars = new char[length * 2];
+                for (int i = 0; i < length; i++) {
+                    int b = data[position[0]++] & 0xFF;
+                    chars[i * 2] = Character.forDigit(b >> 4, 16);
+                    chars[i * 2 + 1] = Character.forDigit(b & 0xF, 16);
+                }
+                return new String(chars);
+            }
+            case STRING_TYPE_UTF8: {
+                int length = readVarInt(data, position);
+                if (length < 0 || position[0] + length > data.length)
+                    throw new ArrayIndexOutOfBoundsException();
+                String value = new String(data, position[0], length, StandardCharsets.UTF_8);
+                position[0] += length;
+                return value;
+            }
+            default:
+                throw new IllegalArgumentException("unknown string type " + type);
+        }
+    }
+
+    private static void writeVarInt(@NonNull ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarInt(@NonNull byte[] data, @NonNull int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = data[position[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("varint is too long");
+    }
+
+    private static boolean isLowercaseHex(@NonNull String value) {
+        if (value.isEmpty() || value.length() % 2 != 0) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+}
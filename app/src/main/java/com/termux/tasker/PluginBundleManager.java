@@ -22,6 +22,14 @@ public class PluginBundleManager {
     /** The {@code String} extra for the path to the executable to execute. */
     public static final String EXTRA_EXECUTABLE = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.EXECUTABLE"; // Default: "com.termux.tasker.extra.EXECUTABLE"
 
+    /** The {@code String} extra for the inline script to run instead of the executable. */
+    public static final String EXTRA_SCRIPT = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.SCRIPT"; // Default: "com.termux.tasker.extra.SCRIPT"
+
+    /** The {@code String} extra for the hash of the inline script stored in the
+     * {@link com.termux.tasker.blobs.BlobStore}. If set, then it is used instead of {@link #EXTRA_SCRIPT}.
+     */
+    public static final String EXTRA_SCRIPT_BLOB = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.SCRIPT_BLOB"; // Default: "com.termux.tasker.extra.SCRIPT_BLOB"
+
     /** The {@code String} extra for the arguments to pass to the executable. */
     public static final String EXTRA_ARGUMENTS = TermuxConstants.TERMUX_PACKAGE_NAME + ".execute.arguments"; // Default: "com.termux.execute.arguments"
 
@@ -31,6 +39,17 @@ public class PluginBundleManager {
     /** The {@code String} extra for stdin for background commands. */
     public static final String EXTRA_STDIN = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.STDIN"; // Default: "com.termux.tasker.extra.STDIN"
 
+    /** The {@code String} extra for the file path or `content://` URI to stream stdin from for
+     * background commands. If set, then {@link #EXTRA_STDIN} is ignored.
+     */
+    public static final String EXTRA_STDIN_FILE = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.STDIN_FILE"; // Default: "com.termux.tasker.extra.STDIN_FILE"
+
+    /** The {@code String} extra for the hash of the stdin stored in the
+     * {@link com.termux.tasker.blobs.BlobStore} for background commands. If set, then it is used
+     * instead of {@link #EXTRA_STDIN}.
+     */
+    public static final String EXTRA_STDIN_BLOB = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.STDIN_BLOB"; // Default: "com.termux.tasker.extra.STDIN_BLOB"
+
     /** The {@code String} extra for terminal session action defined by
      * {@link com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE}
      * `VALUE_EXTRA_SESSION_ACTION_*` values.
@@ -49,6 +68,109 @@ public class PluginBundleManager {
     /** The {@code boolean} extra for whether plugin action should wait for result of commands or not. */
     public static final String EXTRA_WAIT_FOR_RESULT = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.WAIT_FOR_RESULT"; // Default: "com.termux.tasker.extra.WAIT_FOR_RESULT"
 
+    /** The {@code String} extra for the max number of instances of the executable that can run
+     * concurrently. If not set or {@code 0}, then there is no limit.
+     */
+    public static final String EXTRA_MAX_CONCURRENT_INSTANCES = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.MAX_CONCURRENT_INSTANCES"; // Default: "com.termux.tasker.extra.MAX_CONCURRENT_INSTANCES"
+
+    /** The {@code String} extra for the {@link com.termux.tasker.execution.OverflowPolicy} name
+     * to use if {@link #EXTRA_MAX_CONCURRENT_INSTANCES} limit has been reached.
+     */
+    public static final String EXTRA_OVERFLOW_POLICY = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.OVERFLOW_POLICY"; // Default: "com.termux.tasker.extra.OVERFLOW_POLICY"
+
+    /** The {@code String} extra for the window in milliseconds in which identical fires of the
+     * plugin action are coalesced into one execution. If not set or {@code 0}, then fires are not
+     * coalesced.
+     */
+    public static final String EXTRA_COALESCE_WINDOW = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.COALESCE_WINDOW"; // Default: "com.termux.tasker.extra.COALESCE_WINDOW"
+
+    /** The {@code String} extra for the {@link com.termux.tasker.execution.ExecutionPriority} name
+     * of the executions of the plugin action.
+     */
+    public static final String EXTRA_PRIORITY = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.PRIORITY"; // Default: "com.termux.tasker.extra.PRIORITY"
+
+    /** The {@code boolean} extra for whether commands should be killed if their result is not
+     * received before the timeout of the plugin action.
+     */
+    public static final String EXTRA_KILL_ON_TIMEOUT = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.KILL_ON_TIMEOUT"; // Default: "com.termux.tasker.extra.KILL_ON_TIMEOUT"
+
+    /** The {@code boolean} extra for whether commands can be killed by the "Cancel Command" plugin
+     * action. The pid of the commands is tracked for this.
+     */
+    public static final String EXTRA_CANCELLABLE = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.CANCELLABLE"; // Default: "com.termux.tasker.extra.CANCELLABLE"
+
+    /** The {@code boolean} extra for whether the progress written by commands to the
+     * `$TERMUX_TASKER_PROGRESS_FILE` is sent to the plugin host app as "Command Progress" events.
+     */
+    public static final String EXTRA_REPORT_PROGRESS = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.REPORT_PROGRESS"; // Default: "com.termux.tasker.extra.REPORT_PROGRESS"
+
+    /** The {@code boolean} extra for whether background commands are run directly in the plugin
+     * process instead of by the Termux app.
+     */
+    public static final String EXTRA_DIRECT_EXECUTION = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.DIRECT_EXECUTION"; // Default: "com.termux.tasker.extra.DIRECT_EXECUTION"
+
+    /** The {@code String} extra for the comma separated paths of the JSON printed to stdout by
+     * background commands whose values are returned as plugin host app variables, or
+     * {@link com.termux.tasker.output.JsonOutputParser#VALUE_ALL_PATHS} for all paths.
+     */
+    public static final String EXTRA_JSON_OUTPUT = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.JSON_OUTPUT"; // Default: "com.termux.tasker.extra.JSON_OUTPUT"
+
+    /** The {@code String} extra for the {@link com.termux.tasker.output.OutputFilter} applied to
+     * the stdout of commands before it is returned to the plugin host app.
+     */
+    public static final String EXTRA_OUTPUT_FILTER = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.OUTPUT_FILTER"; // Default: "com.termux.tasker.extra.OUTPUT_FILTER"
+
+    /** The {@code String} extra for the delimiter the stdout of commands is split on to return it
+     * as a plugin host app array with the {@link com.termux.tasker.output.OutputSplitter}.
+     */
+    public static final String EXTRA_SPLIT_STDOUT = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.SPLIT_STDOUT"; // Default: "com.termux.tasker.extra.SPLIT_STDOUT"
+
+    /** The {@code String} extra for the key the last stdout of commands is saved for, so that only
+     * the changes to it are returned with the {@link com.termux.tasker.output.DeltaOutput}.
+     */
+    public static final String EXTRA_DELTA_OUTPUT_KEY = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.DELTA_OUTPUT_KEY"; // Default: "com.termux.tasker.extra.DELTA_OUTPUT_KEY"
+
+    /** The {@code boolean} extra for whether the stdout and stderr of commands are returned as
+     * content URIs of the {@link com.termux.tasker.output.OutputProvider} instead of their content.
+     */
+    public static final String EXTRA_OUTPUT_URI = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.OUTPUT_URI"; // Default: "com.termux.tasker.extra.OUTPUT_URI"
+
+    /** The {@code byte[]} extra for the extras that are encoded by the {@link PluginBundleCodec}
+     * instead of being stored as separate extras.
+     */
+    public static final String EXTRA_COMPACT = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.COMPACT"; // Default: "com.termux.tasker.extra.COMPACT"
+
+    /** The {@code String} extra for the command action of the plugin action. If set, then the plugin
+     * action runs the command action instead of an executable. It must be one of the
+     * `VALUE_EXTRA_COMMAND_ACTION_*` values.
+     */
+    public static final String EXTRA_COMMAND_ACTION = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.COMMAND_ACTION"; // Default: "com.termux.tasker.extra.COMMAND_ACTION"
+
+    /** The {@code String} extra for the id of the running command for the
+     * {@link #VALUE_EXTRA_COMMAND_ACTION_CANCEL} command action.
+     */
+    public static final String EXTRA_COMMAND_ID = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.COMMAND_ID"; // Default: "com.termux.tasker.extra.COMMAND_ID"
+
+    /** The {@code String} extra for the executable path or file name the progress events are
+     * filtered with for the {@link #VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT} command action.
+     */
+    public static final String EXTRA_EXECUTABLE_FILTER = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.EXECUTABLE_FILTER"; // Default: "com.termux.tasker.extra.EXECUTABLE_FILTER"
+
+    /** The {@link #EXTRA_COMMAND_ACTION} value to list the running commands. */
+    public static final String VALUE_EXTRA_COMMAND_ACTION_LIST_RUNNING = "list_running"; // Default: "list_running"
+
+    /** The {@link #EXTRA_COMMAND_ACTION} value to cancel a running command. */
+    public static final String VALUE_EXTRA_COMMAND_ACTION_CANCEL = "cancel"; // Default: "cancel"
+
+    /** The {@link #EXTRA_COMMAND_ACTION} value of the "Command Progress" event condition. */
+    public static final String VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT = "progress_event"; // Default: "progress_event"
+
+    /** The max value for {@link #EXTRA_MAX_CONCURRENT_INSTANCES}. */
+    public static final int MAX_VALUE_EXTRA_MAX_CONCURRENT_INSTANCES = 100;
+
+    /** The max value for {@link #EXTRA_COALESCE_WINDOW}. */
+    public static final int MAX_VALUE_EXTRA_COALESCE_WINDOW = 600000;
+
 
 
     /**
@@ -60,13 +182,20 @@ public class PluginBundleManager {
      */
     public static final String BUNDLE_EXTRA_INT_VERSION_CODE = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".extra.VERSION_CODE"; // Default: "com.termux.tasker.extra.VERSION_CODE"
 
+    /** The max number of keys the bundle can contain. */
+    public static final int MAX_BUNDLE_KEYS_COUNT = 27;
+
+    /** The max number of keys the bundle of a command action can contain. */
+    public static final int MAX_COMMAND_ACTION_BUNDLE_KEYS_COUNT = 4;
+
     public static final String UNICODE_CHECK = "\u2713";
     public static final String UNICODE_UNCHECK = "\u2715";
 
     /**
      * Method to verify the content of the bundle are correct.
      * <p>
-     * This method will not mutate {@code bundle}.
+     * This method only mutates {@code bundle} to upgrade it to the current extras, i.e. the
+     * {@link #EXTRA_COMPACT} extra is replaced with the extras it encodes.
      *
      * @param context The {@link Context} to get error string.
      * @param bundle The {@link Bundle} to verify. May be {@code null}, which will always return {@code false}.
@@ -76,6 +205,8 @@ public class PluginBundleManager {
     public static String parseBundle(@NonNull final Context context, final Bundle bundle) {
         if (bundle == null) return context.getString(R.string.error_null_bundle);
 
+        if (isCommandActionBundle(bundle)) return parseCommandActionBundle(context, bundle);
+
         /*
          * Make sure the correct number of extras exist.
          * The bundle must contain:
@@ -83,15 +214,36 @@ public class PluginBundleManager {
          * - EXTRA_ARGUMENTS
          * - BUNDLE_EXTRA_INT_VERSION_CODE
          * The bundle may optionally contain:
+         * - EXTRA_SCRIPT
+         * - EXTRA_SCRIPT_BLOB
          * - EXTRA_WORKDIR
          * - EXTRA_STDIN
+         * - EXTRA_STDIN_FILE
+         * - EXTRA_STDIN_BLOB
          * - EXTRA_SESSION_ACTION
          * - EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL
          * - EXTRA_TERMINAL
          * - EXTRA_WAIT_FOR_RESULT
+         * - EXTRA_MAX_CONCURRENT_INSTANCES
+         * - EXTRA_OVERFLOW_POLICY
+         * - EXTRA_COALESCE_WINDOW
+         * - EXTRA_PRIORITY
+         * - EXTRA_KILL_ON_TIMEOUT
+         * - EXTRA_CANCELLABLE
+         * - EXTRA_REPORT_PROGRESS
+         * - EXTRA_DIRECT_EXECUTION
+         * - EXTRA_OUTPUT_FILTER
+         * - EXTRA_JSON_OUTPUT
+         * - EXTRA_SPLIT_STDOUT
+         * - EXTRA_DELTA_OUTPUT_KEY
+         * - EXTRA_OUTPUT_URI
+         * - EXTRA_COMPACT, which is replaced with the extras it encodes before the keys are counted
          * - VARIABLE_REPLACE_KEYS
          */
 
+        String errmsg = PluginBundleCodec.decode(bundle);
+        if (errmsg != null) return errmsg;
+
         if (!bundle.containsKey(EXTRA_EXECUTABLE)) {
             return String.format("The bundle must contain extra %s.", EXTRA_EXECUTABLE);
         }
@@ -105,16 +257,18 @@ public class PluginBundleManager {
         }
 
         /*
-         * Check if bundle contains at least 3 keys but no more than 10.
+         * Check if bundle contains at least 3 keys but no more than MAX_BUNDLE_KEYS_COUNT.
          * Run this test after checking for required Bundle extras above so that the error message
          * is more useful. (E.g. the caller will see what extras are missing, rather than just a
          * message that there is the wrong number).
          */
-        if (bundle.keySet().size() < 3 || bundle.keySet().size() > 10) {
-            return String.format("The bundle must contain 3-10 keys, but currently contains %d keys.", bundle.keySet().size());
+        if (bundle.keySet().size() < 3 || bundle.keySet().size() > MAX_BUNDLE_KEYS_COUNT) {
+            return String.format("The bundle must contain 3-%d keys, but currently contains %d keys.", MAX_BUNDLE_KEYS_COUNT, bundle.keySet().size());
         }
 
-        if (TextUtils.isEmpty(bundle.getString(EXTRA_EXECUTABLE))) {
+        // The executable is optional for inline scripts, which are run directly if it is not set
+        if (TextUtils.isEmpty(bundle.getString(EXTRA_EXECUTABLE)) &&
+                TextUtils.isEmpty(bundle.getString(EXTRA_SCRIPT)) && TextUtils.isEmpty(bundle.getString(EXTRA_SCRIPT_BLOB))) {
             return String.format("The bundle extra %s appears to be null or empty. It must be a non-empty string.", EXTRA_EXECUTABLE);
         }
 
@@ -134,6 +288,76 @@ public class PluginBundleManager {
         return null;
     }
 
+    /** Check whether the bundle is for a command action instead of an executable. */
+    public static boolean isCommandActionBundle(final Bundle bundle) {
+        return bundle != null && bundle.containsKey(EXTRA_COMMAND_ACTION);
+    }
+
+    /**
+     * Method to verify the content of the bundle of a command action are correct.
+     *
+     * @param context The {@link Context} to get error string.
+     * @param bundle The {@link Bundle} to verify.
+     * @return Returns the {@code errmsg} if Bundle is not valid, otherwise {@code null}.
+     */
+    @SuppressLint("DefaultLocale")
+    public static String parseCommandActionBundle(@NonNull final Context context, @NonNull final Bundle bundle) {
+        /*
+         * The bundle must contain:
+         * - EXTRA_COMMAND_ACTION
+         * - BUNDLE_EXTRA_INT_VERSION_CODE
+         * The bundle may optionally contain:
+         * - EXTRA_COMMAND_ID
+         * - EXTRA_EXECUTABLE_FILTER
+         * - VARIABLE_REPLACE_KEYS
+         */
+
+        if (!bundle.containsKey(BUNDLE_EXTRA_INT_VERSION_CODE)) {
+            return String.format("The bundle must contain extra %s.", BUNDLE_EXTRA_INT_VERSION_CODE);
+        }
+
+        if (bundle.keySet().size() > MAX_COMMAND_ACTION_BUNDLE_KEYS_COUNT) {
+            return String.format("The bundle must contain 2-%d keys, but currently contains %d keys.", MAX_COMMAND_ACTION_BUNDLE_KEYS_COUNT, bundle.keySet().size());
+        }
+
+        final String commandAction = bundle.getString(EXTRA_COMMAND_ACTION);
+        if (VALUE_EXTRA_COMMAND_ACTION_LIST_RUNNING.equals(commandAction))
+            return null;
+
+        if (VALUE_EXTRA_COMMAND_ACTION_CANCEL.equals(commandAction)) {
+            if (TextUtils.isEmpty(bundle.getString(EXTRA_COMMAND_ID)))
+                return context.getString(R.string.error_command_id_required);
+            return null;
+        }
+
+        if (VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT.equals(commandAction))
+            return null;
+
+        return context.getString(R.string.error_invalid_command_action, commandAction,
+                VALUE_EXTRA_COMMAND_ACTION_LIST_RUNNING + ", " + VALUE_EXTRA_COMMAND_ACTION_CANCEL + ", " +
+                        VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT);
+    }
+
+    @Nullable
+    public static Bundle generateCommandActionBundle(@NonNull final Context context, @NonNull final String commandAction,
+                                                     final String commandId, final String executableFilter) {
+        final Bundle result = new Bundle();
+        result.putString(EXTRA_COMMAND_ACTION, commandAction);
+        if (!DataUtils.isNullOrEmpty(commandId))
+            result.putString(EXTRA_COMMAND_ID, commandId);
+        if (!DataUtils.isNullOrEmpty(executableFilter))
+            result.putString(EXTRA_EXECUTABLE_FILTER, executableFilter);
+
+        Integer versionCode = PackageUtils.getVersionCodeForPackage(context);
+        if (versionCode == null) {
+            Logger.showToast(context, context.getString(R.string.error_get_version_code_failed, context.getPackageName()), true);
+            return null;
+        }
+
+        result.putInt(BUNDLE_EXTRA_INT_VERSION_CODE, versionCode);
+        return result;
+    }
+
     @Nullable
     public static Bundle generateBundle(@NonNull final Context context, final String executable,
                                         final String arguments, final String workingDirectory,
@@ -161,6 +385,32 @@ public class PluginBundleManager {
         return result;
     }
 
+    /**
+     * Add an optional extra to the bundle. The extras of the optional plugin action options are
+     * only added if they are set, so that the bundle of plugin actions that do not use them is not
+     * changed and stays readable by older plugin versions.
+     *
+     * @param bundle The {@link Bundle} generated by {@link #generateBundle}.
+     * @param key The key of the extra.
+     * @param value The value of the extra. It is not added if it is {@code null} or empty.
+     */
+    public static void addOptionalExtra(@NonNull final Bundle bundle, @NonNull final String key, final String value) {
+        if (DataUtils.isNullOrEmpty(value)) return;
+        bundle.putString(key, value);
+    }
+
+    /**
+     * Add an optional {@code boolean} extra to the bundle, like {@link #addOptionalExtra(Bundle, String, String)}.
+     *
+     * @param bundle The {@link Bundle} generated by {@link #generateBundle}.
+     * @param key The key of the extra.
+     * @param value The value of the extra. It is not added if it is {@code false}.
+     */
+    public static void addOptionalExtra(@NonNull final Bundle bundle, @NonNull final String key, final boolean value) {
+        if (!value) return;
+        bundle.putBoolean(key, true);
+    }
+
     /**
      * The message that will be displayed by the plugin host app for the action configuration.
      * Blurb length can be a maximum of 60 characters as defined by locale lib.
@@ -192,6 +442,20 @@ public class PluginBundleManager {
         return (blurb.length() > maxBlurbLength) ? blurb.substring(0, maxBlurbLength) : blurb;
     }
 
+    /**
+     * The message that will be displayed by the plugin host app for the command action configuration.
+     * @return A blurb for the plug-in.
+     */
+    public static String generateCommandActionBlurb(@NonNull final Context context, @NonNull final String commandAction,
+                                                    final String commandId, final String executableFilter) {
+        if (VALUE_EXTRA_COMMAND_ACTION_CANCEL.equals(commandAction))
+            return context.getString(R.string.blurb_cancel_command, commandId);
+        if (VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT.equals(commandAction))
+            return context.getString(R.string.blurb_command_progress_event,
+                    DataUtils.isNullOrEmpty(executableFilter) ? "*" : executableFilter);
+        return context.getString(R.string.blurb_list_running_commands);
+    }
+
     /** Get size of {@link Bundle} when stored as a {@link Parcel}. */
     public static int getBundleSize(@NonNull Bundle bundle) {
         Parcel parcel = Parcel.obtain();
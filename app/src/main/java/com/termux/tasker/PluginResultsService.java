@@ -1,10 +1,21 @@
 package com.termux.tasker;
 
 import android.app.IntentService;
+import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
 
 import com.termux.shared.logger.Logger;
+import com.termux.tasker.execution.DirectExecutor;
+import com.termux.tasker.execution.ExecutionJournal;
+import com.termux.tasker.execution.ExecutionRegistry;
+import com.termux.tasker.execution.ExecutionWatchdog;
+import com.termux.tasker.execution.FireCoalescer;
+import com.termux.tasker.execution.RunningExecutions;
+import com.termux.tasker.execution.RuntimeStats;
+import com.termux.tasker.execution.TrackedExecution;
+import com.termux.tasker.output.OutputCache;
 import com.termux.tasker.utils.PluginUtils;
 
 public class PluginResultsService extends IntentService {
@@ -28,8 +39,74 @@ public class PluginResultsService extends IntentService {
         if (intent != null) {
             if(intent.getComponent() != null)
                 Logger.logInfo(LOG_TAG, PLUGIN_SERVICE_LABEL + " received execution result");
-            PluginUtils.sendPendingResultToPluginHostApp(this, intent);
+
+            processResult(this, intent);
+        }
+    }
+
+    /**
+     * Process the intent containing result of commands and send pending result back to plugin host
+     * app. This is called by {@link #onHandleIntent(Intent)} for results sent by the execution
+     * service and by the {@link DirectExecutor} for commands it ran itself.
+     *
+     * If the execution was tracked by the {@link ExecutionRegistry}, then it is released first so
+     * that the next queued execution for its executable can be started. If the execution was the
+     * leader of a {@link FireCoalescer} group, then the result is also sent to its followers, with
+     * the output options of all of them applied with the same {@link OutputCache}. The
+     * runtime of the execution is recorded in {@link RuntimeStats}. If the execution was cancelled
+     * with {@link RunningExecutions}, then its cancelled result has already been sent and the
+     * result is ignored.
+     *
+     * @param context The {@link Context} for operations.
+     * @param intent The {@link Intent} containing result and original intent received by {@link FireReceiver}.
+     */
+    public static void processResult(final Context context, final Intent intent) {
+        TrackedExecution execution = null;
+        int executionId = intent.getIntExtra(PluginUtils.EXTRA_EXECUTION_ID, -1);
+        if (executionId >= 0)
+            execution = ExecutionRegistry.release(context, executionId);
+
+        int runningExecutionId = intent.getIntExtra(PluginUtils.EXTRA_RUNNING_EXECUTION_ID, -1);
+        boolean cancelled = runningExecutionId >= 0 && !RunningExecutions.unregister(runningExecutionId);
+
+        Integer errCode = null;
+        String errmsg = null;
+        if (execution != null && execution.replaced) {
+            errCode = PluginUtils.RESULT_CODE_REPLACED;
+            errmsg = context.getString(R.string.error_execution_replaced, execution.executable);
+        } else if (cancelled) {
+            errCode = PluginUtils.RESULT_CODE_CANCELLED;
+            errmsg = context.getString(R.string.error_command_cancelled);
         }
+
+        // Record the runtime of the execution to suggest the timeout of plugin actions, unless
+        // it was killed early since it was replaced or cancelled
+        String executable = intent.getStringExtra(PluginUtils.EXTRA_EXECUTABLE);
+        long fireTime = intent.getLongExtra(PluginUtils.EXTRA_FIRE_TIME, -1);
+        if (executable != null && fireTime >= 0 && errCode == null)
+            RuntimeStats.record(context, executable, SystemClock.elapsedRealtime() - fireTime);
+
+        // If the watchdog already sent the timeout result, then the plugin host app is no longer waiting for it
+        int watchdogId = intent.getIntExtra(PluginUtils.EXTRA_WATCHDOG_ID, -1);
+        boolean timedOut = watchdogId >= 0 && !ExecutionWatchdog.complete(watchdogId);
+
+        // Send the result to the fires that were merged into the group of the execution. The output
+        // options of all of them are applied with the same cache, so that the stateful ones are
+        // only applied once for the execution.
+        OutputCache outputCache = new OutputCache();
+        int coalesceGroupId = intent.getIntExtra(PluginUtils.EXTRA_COALESCE_GROUP_ID, -1);
+        if (coalesceGroupId >= 0)
+            FireCoalescer.complete(context, coalesceGroupId, intent, errCode, errmsg, outputCache);
+
+        // The result is sent to the plugin host app below or was already sent by the watchdog
+        int journalId = intent.getIntExtra(PluginUtils.EXTRA_JOURNAL_ID, -1);
+        if (journalId >= 0)
+            ExecutionJournal.end(context, journalId);
+
+        // Pending intents created by older versions do not have the extra and were only
+        // created if plugin host app was waiting for the result
+        if (intent.getBooleanExtra(PluginUtils.EXTRA_WAIT_FOR_RESULT, true) && !timedOut && !cancelled)
+            PluginUtils.sendPendingResultToPluginHostApp(context, intent, errCode, errmsg, outputCache);
     }
 
 }
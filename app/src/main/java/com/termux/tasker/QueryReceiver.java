@@ -0,0 +1,88 @@
+package com.termux.tasker;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.execution.ProgressReporter;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+/**
+ * This is the "query" BroadcastReceiver for the "Command Progress" event condition of the Locale Plug-in.
+ *
+ * The plugin host app queries the event condition after the {@link ProgressReporter} requested it
+ * with the progress of an execution as pass-through data. The condition is satisfied if the
+ * message id of the data was added by the {@link ProgressReporter} and the executable of the
+ * execution matches the {@link PluginBundleManager#EXTRA_EXECUTABLE_FILTER} of the condition.
+ */
+public final class QueryReceiver extends BroadcastReceiver {
+
+    private static final String LOG_TAG = "QueryReceiver";
+
+    public void onReceive(final Context context, final Intent intent) {
+        // If wrong action passed, then just return
+        if (!com.twofortyfouram.locale.Intent.ACTION_QUERY_CONDITION.equals(intent.getAction())) {
+            Logger.logError(LOG_TAG, "Unexpected intent action: " + intent.getAction());
+            return;
+        }
+
+        // Load the log level from shared preferences, like the FireReceiver in the same process
+        TermuxTaskerApplication.setLogConfig(context, false);
+
+        BundleScrubber.scrub(intent);
+        final Bundle bundle = intent.getBundleExtra(com.twofortyfouram.locale.Intent.EXTRA_BUNDLE);
+        BundleScrubber.scrub(bundle);
+
+        setResultCode(com.twofortyfouram.locale.Intent.RESULT_CONDITION_UNSATISFIED);
+
+        String errmsg = PluginBundleManager.parseBundle(context, bundle);
+        if (errmsg != null) {
+            Logger.logError(LOG_TAG, errmsg);
+            return;
+        }
+
+        if (!PluginBundleManager.VALUE_EXTRA_COMMAND_ACTION_PROGRESS_EVENT.equals(bundle.getString(PluginBundleManager.EXTRA_COMMAND_ACTION)))
+            return;
+
+        // Queries not requested by the ProgressReporter, like when the profile is enabled, are not events
+        final int messageId = TaskerPlugin.Event.retrievePassThroughMessageID(intent);
+        if (messageId < 0 || !ProgressReporter.isValidMessageId(messageId)) {
+            Logger.logVerbose(LOG_TAG, "Ignoring query with unknown message id " + messageId);
+            return;
+        }
+
+        final Bundle data = TaskerPlugin.Event.retrievePassThroughData(intent);
+        final String executable = data.getString(ProgressReporter.DATA_EXECUTABLE, "");
+        final String executableFilter = bundle.getString(PluginBundleManager.EXTRA_EXECUTABLE_FILTER);
+        if (!matchesExecutableFilter(executable, executableFilter))
+            return;
+
+        final int progress = data.getInt(ProgressReporter.DATA_PROGRESS, -1);
+        if (TaskerPlugin.Condition.hostSupportsVariableReturn(intent.getExtras())) {
+            Bundle variables = new Bundle();
+            variables.putString(PluginUtils.PLUGIN_VARIABLE_COMMAND_ID, String.valueOf(data.getInt(ProgressReporter.DATA_COMMAND_ID, -1)));
+            variables.putString(PluginUtils.PLUGIN_VARIABLE_COMMAND_EXECUTABLE, executable);
+            variables.putString(PluginUtils.PLUGIN_VARIABLE_PROGRESS, progress < 0 ? "" : String.valueOf(progress));
+            variables.putString(PluginUtils.PLUGIN_VARIABLE_PROGRESS_MESSAGE, data.getString(ProgressReporter.DATA_MESSAGE, ""));
+            TaskerPlugin.addVariableBundle(getResultExtras(true), variables);
+        }
+
+        setResultCode(com.twofortyfouram.locale.Intent.RESULT_CONDITION_SATISFIED);
+    }
+
+    /**
+     * Check whether an executable matches the executable filter of a condition. The filter matches
+     * if it is not set, if it is equal to the executable path or if it is equal to the file name or
+     * trailing path components of the executable.
+     */
+    public static boolean matchesExecutableFilter(String executable, String executableFilter) {
+        if (DataUtils.isNullOrEmpty(executableFilter)) return true;
+        if (executable == null) return false;
+        return executable.equals(executableFilter) || executable.endsWith("/" + executableFilter);
+    }
+
+}
@@ -2,18 +2,48 @@ package com.termux.tasker;
 
 import android.app.Application;
 import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.termux.crash.TermuxCrashUtils;
 import com.termux.shared.termux.settings.preferences.TermuxTaskerAppSharedPreferences;
+import com.termux.tasker.execution.CommandGateway;
+import com.termux.tasker.execution.ExecutionJournal;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.StartupTrace;
 
 public class TermuxTaskerApplication extends Application {
 
+    /**
+     * The {@link SystemClock#elapsedRealtime()} at which the current app process was started.
+     * This is used to measure the latency of cold fires of the {@link FireReceiver}.
+     */
+    private static long PROCESS_START_TIME = SystemClock.elapsedRealtime();
+
+    /**
+     * Whether the current app process has already been warmed up, either by a previous fire of
+     * the {@link FireReceiver} or by the {@link KeepWarmService}.
+     */
+    private static volatile boolean PROCESS_WARM = false;
+
+    /** The suffix of the name of the process in which the {@link FireReceiver} runs. */
+    public static final String BACKGROUND_PROCESS_SUFFIX = ":background"; // Default: ":background"
+
     public static final String LOG_TAG = "TermuxTaskerApplication";
 
     public void onCreate() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            PROCESS_START_TIME = Process.getStartElapsedRealtime();
+        StartupTrace.mark(StartupTrace.STAGE_PROCESS_START, PROCESS_START_TIME * 1000000);
+        StartupTrace.mark(StartupTrace.STAGE_APPLICATION_CREATE);
+
         super.onCreate();
 
         Log.i(LOG_TAG, "AppInit");
@@ -22,9 +52,22 @@ public class TermuxTaskerApplication extends Application {
 
         // Set crash handler for the app
         TermuxCrashUtils.setCrashHandler(context);
+        StartupTrace.mark(StartupTrace.STAGE_CRASH_HANDLER_SET);
 
         // Set log config for the app
         setLogConfig(context, true);
+        StartupTrace.mark(StartupTrace.STAGE_LOG_CONFIG_SET);
+
+        // Init the properties of the plugin, they are loaded from disk when first read
+        PluginProperties.init(context);
+
+        if (PluginMetrics.getProcessName().endsWith(BACKGROUND_PROCESS_SUFFIX)) {
+            // Fail the in-flight executions whose result was lost if the previous `:background` process died
+            ExecutionJournal.replayDelayed(context);
+
+            // Start the command gateway, it keeps the process alive while it is running
+            CommandGateway.startIfEnabled(context);
+        }
     }
 
     public static void setLogConfig(Context context, boolean commitToFile) {
@@ -36,4 +79,26 @@ public class TermuxTaskerApplication extends Application {
         preferences.setLogLevel(null, preferences.getLogLevel(true), commitToFile);
     }
 
+    /** Get the {@link SystemClock#elapsedRealtime()} at which the current app process was started. */
+    public static long getProcessStartTime() {
+        return PROCESS_START_TIME;
+    }
+
+    /** Check whether the current app process has already been warmed up. */
+    public static boolean isProcessWarm() {
+        return PROCESS_WARM;
+    }
+
+    /** Mark the current app process as warmed up. */
+    public static void setProcessWarm() {
+        PROCESS_WARM = true;
+    }
+
+    /** Reset the state of the current app process as if it had just been started. */
+    @VisibleForTesting
+    static void resetProcessState() {
+        PROCESS_START_TIME = SystemClock.elapsedRealtime();
+        PROCESS_WARM = false;
+    }
+
 }
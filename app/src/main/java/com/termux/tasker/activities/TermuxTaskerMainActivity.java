@@ -1,9 +1,12 @@
 package com.termux.tasker.activities;
 
+import android.content.Context;
 import android.os.Bundle;
 import android.widget.Button;
 import android.widget.TextView;
 
+import com.google.android.material.switchmaterial.SwitchMaterial;
+
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.termux.shared.activity.media.AppCompatActivityUtils;
@@ -13,11 +16,27 @@ import com.termux.shared.markdown.MarkdownUtils;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.termux.theme.TermuxThemeUtils;
 import com.termux.shared.theme.NightMode;
+import com.termux.tasker.KeepWarmService;
 import com.termux.tasker.R;
 import com.termux.tasker.TermuxTaskerApplication;
+import com.termux.tasker.execution.ResultDelivery;
+import com.termux.tasker.settings.preferences.PluginSharedPreferences;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TermuxTaskerMainActivity extends AppCompatActivity {
 
+    /** The executor that reads the dead letters and metrics from their files off the UI thread. */
+    private static ExecutorService LOAD_EXECUTOR;
+
     public static final String LOG_TAG = "TermuxTaskerMainActivity";
 
     @Override
@@ -47,6 +66,8 @@ public class TermuxTaskerMainActivity extends AppCompatActivity {
         Logger.logVerbose(LOG_TAG, "onResume");
 
         setChangeLauncherActivityStateViews();
+        setKeepWarmViews();
+        loadDeadLettersAndMetricsViews();
     }
 
 
@@ -97,4 +118,96 @@ public class TermuxTaskerMainActivity extends AppCompatActivity {
         });
     }
 
+
+
+    private void setKeepWarmViews() {
+        SwitchMaterial keepWarmSwitch = findViewById(R.id.switch_keep_warm);
+
+        PluginSharedPreferences preferences = PluginSharedPreferences.build(this);
+        if (preferences == null) {
+            keepWarmSwitch.setEnabled(false);
+            return;
+        }
+
+        keepWarmSwitch.setOnCheckedChangeListener(null);
+        keepWarmSwitch.setChecked(preferences.isKeepWarmEnabled());
+        keepWarmSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            Logger.logInfo(LOG_TAG, (isChecked ? "Enabling" : "Disabling") + " keep-warm mode");
+            preferences.setKeepWarmEnabled(isChecked);
+            if (isChecked)
+                KeepWarmService.start(this);
+            else
+                KeepWarmService.stop(this);
+        });
+    }
+
+    /** Read the dead letters and metrics on the {@link #LOAD_EXECUTOR} and then set their views. */
+    private void loadDeadLettersAndMetricsViews() {
+        final Context appContext = getApplicationContext();
+        getLoadExecutor().execute(() -> {
+            List<ResultDelivery.DeadLetter> deadLetters = ResultDelivery.getDeadLetters(appContext);
+            String metrics = PluginMetrics.getPersistedMetricsString(appContext);
+            runOnUiThread(() -> {
+                if (isFinishing() || isDestroyed()) return;
+                setDeadLettersViews(deadLetters);
+                setMetricsViews(metrics);
+            });
+        });
+    }
+
+    private void setDeadLettersViews(List<ResultDelivery.DeadLetter> deadLetters) {
+        StringBuilder markdown = new StringBuilder("# " + getString(R.string.title_dead_letters) + "\n\n" +
+                getString(R.string.msg_dead_letters_info) + "\n\n");
+        if (deadLetters.isEmpty()) {
+            markdown.append(getString(R.string.msg_no_dead_letters));
+        } else {
+            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+            for (ResultDelivery.DeadLetter deadLetter : deadLetters) {
+                String errmsg = deadLetter.vars != null ? deadLetter.vars.getString(PluginUtils.PLUGIN_VARIABLE_ERRMSG) : null;
+                markdown.append(getString(R.string.msg_dead_letter, dateFormat.format(new Date(deadLetter.time)),
+                        deadLetter.resultCode, errmsg == null || errmsg.isEmpty() ? "-" : errmsg)).append("\n");
+            }
+        }
+
+        TextView deadLettersTextView = findViewById(R.id.textview_dead_letters);
+        deadLettersTextView.setText(MarkdownUtils.getSpannedMarkdownText(this, markdown.toString()));
+
+        Button replayButton = findViewById(R.id.button_replay_dead_letters);
+        Button clearButton = findViewById(R.id.button_clear_dead_letters);
+        replayButton.setEnabled(!deadLetters.isEmpty());
+        clearButton.setEnabled(!deadLetters.isEmpty());
+
+        final Context appContext = getApplicationContext();
+        replayButton.setOnClickListener(v -> {
+            replayButton.setEnabled(false);
+            clearButton.setEnabled(false);
+            getLoadExecutor().execute(() -> {
+                int delivered = ResultDelivery.replayDeadLetters(appContext);
+                runOnUiThread(() -> Logger.showToast(appContext, getString(R.string.msg_dead_letters_replayed, delivered, deadLetters.size()), true));
+                loadDeadLettersAndMetricsViews();
+            });
+        });
+        clearButton.setOnClickListener(v -> {
+            replayButton.setEnabled(false);
+            clearButton.setEnabled(false);
+            Logger.logInfo(LOG_TAG, "Clearing " + deadLetters.size() + " dead letters");
+            getLoadExecutor().execute(() -> {
+                ResultDelivery.clearDeadLetters(appContext);
+                loadDeadLettersAndMetricsViews();
+            });
+        });
+    }
+
+    private void setMetricsViews(String metrics) {
+        TextView metricsTextView = findViewById(R.id.textview_metrics);
+        metricsTextView.setText(MarkdownUtils.getSpannedMarkdownText(this,
+                "# " + getString(R.string.title_metrics) + "\n\n" + metrics));
+    }
+
+    private static synchronized ExecutorService getLoadExecutor() {
+        if (LOAD_EXECUTOR == null)
+            LOAD_EXECUTOR = Executors.newSingleThreadExecutor();
+        return LOAD_EXECUTOR;
+    }
+
 }
@@ -0,0 +1,240 @@
+package com.termux.tasker.blobs;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.utils.PluginMetrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * A content-addressed store for large payloads of plugin actions, like stdin, so that the
+ * plugin bundles only need to contain the SHA-256 hash of the payload instead of a copy of it,
+ * which the plugin host app stores for each action and sends on every fire.
+ *
+ * Each blob is stored once in a file named by its hash under {@link #BLOBS_DIR_NAME} in the app
+ * files directory. The plugin host app does not tell the plugin when actions are deleted, copied
+ * or imported, so it cannot be known whether a blob is still referenced, and blobs are never
+ * deleted. The {@link #collectGarbage(Context)} only deletes the stale temp files of interrupted
+ * writes.
+ *
+ * The blob files are never modified after they are written, so they can be read by the
+ * `:background` process while blobs are stored by the main app process.
+ */
+public class BlobStore {
+
+    /** The directory name under app files directory where blobs are stored. */
+    public static final String BLOBS_DIR_NAME = "blobs"; // Default: "blobs"
+
+    /** The time since a temp file of an interrupted write was last modified after which it is deleted. */
+    public static final long GARBAGE_COLLECTION_GRACE_PERIOD_MS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+    private static final String LOG_TAG = "BlobStore";
+
+    /**
+     * Store a blob if it is not already stored.
+     *
+     * @param context The {@link Context} for operations.
+     * @param data The data of the blob.
+     * @return Returns the hash of the blob, or {@code null} if it could not be stored.
+     */
+    @Nullable
+    public static synchronized String put(@NonNull Context context, @NonNull byte[] data) {
+        String hash = getHash(data);
+        File blobFile = getBlobFile(context, hash);
+        if (blobFile.isFile()) {
+            touch(blobFile);
+            PluginMetrics.incrementCounter("blob_store_deduplicated");
+            return hash;
+        }
+
+        File blobsDir = blobFile.getParentFile();
+        if (blobsDir != null && !blobsDir.isDirectory() && !blobsDir.mkdirs()) {
+            Logger.logError(LOG_TAG, "Failed to create blobs directory at \"" + blobsDir.getAbsolutePath() + "\"");
+            return null;
+        }
+
+        // Write to a temp file first so that a blob is never partially written
+        File tempFile = new File(blobFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile, false)) {
+            outputStream.write(data);
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write blob \"" + hash + "\"", e);
+            tempFile.delete();
+            return null;
+        }
+        if (!tempFile.renameTo(blobFile)) {
+            Logger.logError(LOG_TAG, "Failed to rename \"" + tempFile.getAbsolutePath() + "\" to \"" + blobFile.getAbsolutePath() + "\"");
+            tempFile.delete();
+            return null;
+        }
+
+        Logger.logDebug(LOG_TAG, "Stored blob \"" + hash + "\" of " + data.length + " bytes");
+        PluginMetrics.incrementCounter("blob_store_writes");
+        return hash;
+    }
+
+    /**
+     * Store a {@code String} blob as UTF-8 if it is not already stored.
+     *
+     * @param context The {@link Context} for operations.
+     * @param value The value of the blob.
+     * @return Returns the hash of the blob, or {@code null} if it could not be stored.
+     */
+    @Nullable
+    public static String putString(@NonNull Context context, @NonNull String value) {
+        return put(context, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read a blob.
+     *
+     * @param context The {@link Context} for operations.
+     * @param hash The hash of the blob.
+     * @return Returns the data of the blob, or {@code null} if it is not stored or is corrupt.
+     */
+    @Nullable
+    public static byte[] get(@NonNull Context context, String hash) {
+        if (!isValidHash(hash)) return null;
+
+        File blobFile = getBlobFile(context, hash);
+        byte[] data = readFile(blobFile);
+        if (data == null) {
+            PluginMetrics.incrementCounter("blob_store_misses");
+            return null;
+        }
+
+        if (!hash.equals(getHash(data))) {
+            Logger.logError(LOG_TAG, "The blob \"" + hash + "\" is corrupt");
+            PluginMetrics.incrementCounter("blob_store_misses");
+            return null;
+        }
+
+        touch(blobFile);
+        PluginMetrics.incrementCounter("blob_store_reads");
+        return data;
+    }
+
+    /**
+     * Read a {@code String} blob stored as UTF-8.
+     *
+     * @param context The {@link Context} for operations.
+     * @param hash The hash of the blob.
+     * @return Returns the value of the blob, or {@code null} if it is not stored or is corrupt.
+     */
+    @Nullable
+    public static String getString(@NonNull Context context, String hash) {
+        byte[] data = get(context, hash);
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Delete the temp files of interrupted writes that have not been modified for
+     * {@link #GARBAGE_COLLECTION_GRACE_PERIOD_MS}. Blobs are not deleted, since plugin actions
+     * in the plugin host app may still reference them.
+     *
+     * @param context The {@link Context} for operations.
+     * @return Returns the number of temp files deleted.
+     */
+    public static synchronized int collectGarbage(@NonNull Context context) {
+        File blobsDir = new File(context.getFilesDir(), BLOBS_DIR_NAME);
+        File[] files = blobsDir.listFiles();
+        if (files == null) return 0;
+
+        long deleteBefore = System.currentTimeMillis() - GARBAGE_COLLECTION_GRACE_PERIOD_MS;
+        int deleted = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".tmp") || file.lastModified() >= deleteBefore) continue;
+
+            if (file.delete())
+                deleted++;
+            else
+                Logger.logError(LOG_TAG, "Failed to delete blob temp file \"" + file.getAbsolutePath() + "\"");
+        }
+
+        if (deleted > 0) {
+            Logger.logDebug(LOG_TAG, "Deleted " + deleted + " blob temp files");
+            PluginMetrics.addToCounter("blob_store_garbage_collected", deleted);
+        }
+        return deleted;
+    }
+
+    /** Check whether a string is a valid blob hash. */
+    public static boolean isValidHash(String hash) {
+        return hash != null && HASH_PATTERN.matcher(hash).matches();
+    }
+
+    /** Get the lowercase hex SHA-256 hash of data. */
+    @NonNull
+    public static String getHash(@NonNull byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required to be supported by all Java platforms
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get the lowercase hex SHA-256 hash of a file.
+     *
+     * @param file The file.
+     * @return Returns the hash, or {@code null} if the file could not be read.
+     */
+    @Nullable
+    public static String getFileHash(@NonNull File file) {
+        byte[] data = readFile(file);
+        return data == null ? null : getHash(data);
+    }
+
+
+
+    @NonNull
+    private static File getBlobFile(@NonNull Context context, @NonNull String hash) {
+        return new File(new File(context.getFilesDir(), BLOBS_DIR_NAME), hash);
+    }
+
+    /** Update the last modified time of a blob file, which is used as its last used time. */
+    private static void touch(@NonNull File blobFile) {
+        if (!blobFile.setLastModified(System.currentTimeMillis()))
+            Logger.logVerbose(LOG_TAG, "Failed to set last modified time of \"" + blobFile.getAbsolutePath() + "\"");
+    }
+
+    @Nullable
+    private static byte[] readFile(@NonNull File file) {
+        if (!file.isFile()) return null;
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) return null;
+            byte[] data = new byte[(int) length];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = inputStream.read(data, offset, data.length - offset);
+                if (read < 0) return null;
+                offset += read;
+            }
+            return data;
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read \"" + file.getAbsolutePath() + "\"", e);
+            return null;
+        }
+    }
+
+}
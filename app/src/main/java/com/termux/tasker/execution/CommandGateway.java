@@ -0,0 +1,483 @@
+package com.termux.tasker.execution;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.Credentials;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Process;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.file.filesystem.FileType;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+import com.termux.shared.termux.TermuxUtils;
+import com.termux.shared.termux.file.TermuxFileUtils;
+import com.termux.tasker.KeepWarmService;
+import com.termux.tasker.R;
+import com.termux.tasker.output.SecretRedactor;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A gateway that listens on the {@link #SOCKET_NAME} abstract unix domain socket for requests to
+ * run commands from trusted local clients, like scripts and other apps, without the overhead of
+ * sending a plugin action broadcast for each command.
+ *
+ * Clients are authenticated with the uid of the peer credentials of the socket and are only
+ * accepted if they have the same uid as the plugin app, like Termux scripts, or have been granted
+ * the {@link TermuxConstants#PERMISSION_RUN_COMMAND} permission. The executables of requests are
+ * validated like for plugin actions and are run with the {@link DirectExecutor}. Requests are
+ * submitted to the {@link ExecutionRegistry}, so that they are counted as running instances of
+ * their executable for the max concurrent instances limit of plugin actions, and to the
+ * {@link ExecutionRateLimiter}, so that they are subject to the same rate limits as plugin actions.
+ *
+ * All integers are big endian and strings are sent as an {@code int32} length of their UTF-8
+ * bytes followed by the bytes, or a length of {@code -1} for {@code null}. Every frame is sent as
+ * an {@code int32} length of the payload followed by the payload, whose first byte is its type.
+ *
+ * - {@link #FRAME_TYPE_HELLO} sent by the gateway on connection: {@code int32} protocol version.
+ * - {@link #FRAME_TYPE_REQUEST} sent by the client: {@code int32} request id, {@code string}
+ *   executable, {@code int32} arguments count, the arguments {@code string}s, {@code string}
+ *   working directory and {@code string} stdin.
+ * - {@link #FRAME_TYPE_RESULT} sent by the gateway: {@code int32} request id, {@code int32} err,
+ *   {@code string} errmsg, {@code byte} 1 if the exit code is set or 0 otherwise, {@code int32}
+ *   exit code, {@code string} stdout and {@code string} stderr.
+ *
+ * Requests can be pipelined, i.e clients can send more requests without waiting for the result of
+ * the previous ones. Up to {@link PluginProperties#KEY_COMMAND_GATEWAY_MAX_IN_FLIGHT} requests of a
+ * connection are run at the same time, and results are sent as soon as each command exits, so
+ * they may not be in the same order as the requests and must be matched with the request id.
+ * The output is not streamed while the command runs, since the {@link com.termux.shared.shell.command.runner.app.AppShell}
+ * only returns it once the command has exited.
+ *
+ * The gateway is started when the `:background` process is started or receives a fire if
+ * {@link PluginProperties#KEY_COMMAND_GATEWAY_ENABLED} is enabled, and it holds the
+ * {@link KeepWarmService} while it is running, since it must keep the process alive.
+ */
+public class CommandGateway {
+
+    /** The name of the abstract unix domain socket of the gateway. */
+    public static final String SOCKET_NAME = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".gateway"; // Default: "com.termux.tasker.gateway"
+
+    /** The version of the protocol sent in the {@link #FRAME_TYPE_HELLO} frame. */
+    public static final int PROTOCOL_VERSION = 1;
+
+    public static final byte FRAME_TYPE_HELLO = 0;
+    public static final byte FRAME_TYPE_REQUEST = 1;
+    public static final byte FRAME_TYPE_RESULT = 2;
+
+    /** The max length of the payload of a frame sent by a client. */
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    /** The max number of arguments of a request. */
+    private static final int MAX_ARGUMENTS_COUNT = 1000;
+
+    /** The max time to wait for a request of a connection to exit before checking if the gateway was stopped. */
+    private static final long IN_FLIGHT_WAIT_TIMEOUT_MS = 1000;
+
+    private static LocalServerSocket SERVER_SOCKET;
+    private static Context APP_CONTEXT;
+    private static final Set<Connection> CONNECTIONS = new HashSet<>();
+
+    private static final String LOG_TAG = "CommandGateway";
+
+    /**
+     * Start the gateway if {@link PluginProperties#KEY_COMMAND_GATEWAY_ENABLED} is enabled and it
+     * is not already running, and hold the {@link KeepWarmService} till it is stopped.
+     *
+     * This must be called from the `:background` process.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    public static synchronized void startIfEnabled(@NonNull Context context) {
+        if (SERVER_SOCKET != null) return;
+        if (!PluginProperties.getBoolean(PluginProperties.KEY_COMMAND_GATEWAY_ENABLED,
+                PluginProperties.DEFAULT_VALUE_COMMAND_GATEWAY_ENABLED)) return;
+
+        final LocalServerSocket serverSocket;
+        try {
+            serverSocket = new LocalServerSocket(SOCKET_NAME);
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to listen on \"" + SOCKET_NAME + "\" socket", e);
+            return;
+        }
+
+        SERVER_SOCKET = serverSocket;
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        APP_CONTEXT = appContext;
+        KeepWarmService.hold(appContext);
+        Thread acceptThread = new Thread(() -> acceptConnections(appContext, serverSocket), LOG_TAG);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        Logger.logInfo(LOG_TAG, "Listening on \"" + SOCKET_NAME + "\" socket");
+    }
+
+    /**
+     * Stop the gateway, close all its connections and release the {@link KeepWarmService}.
+     * Commands that are already running are not killed.
+     */
+    public static synchronized void stop() {
+        if (SERVER_SOCKET == null) return;
+
+        Logger.logInfo(LOG_TAG, "Stopping");
+        try {
+            // Closing the socket does not unblock the accept() call, but shutting it down does
+            Os.shutdown(SERVER_SOCKET.getFileDescriptor(), OsConstants.SHUT_RDWR);
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to shutdown server socket", e);
+        }
+        closeQuietly(SERVER_SOCKET);
+        SERVER_SOCKET = null;
+
+        for (Connection connection : CONNECTIONS)
+            connection.close();
+        CONNECTIONS.clear();
+
+        KeepWarmService.release(APP_CONTEXT);
+        APP_CONTEXT = null;
+    }
+
+    /** Check whether the gateway is running. */
+    public static synchronized boolean isRunning() {
+        return SERVER_SOCKET != null;
+    }
+
+
+
+    private static void acceptConnections(@NonNull Context context, @NonNull LocalServerSocket serverSocket) {
+        while (true) {
+            LocalSocket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                synchronized (CommandGateway.class) {
+                    if (SERVER_SOCKET != serverSocket) return;
+                }
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to accept connection", e);
+                continue;
+            }
+
+            Credentials credentials;
+            try {
+                credentials = socket.getPeerCredentials();
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to get peer credentials", e);
+                closeQuietly(socket);
+                continue;
+            }
+
+            if (!isTrustedPeer(context, credentials)) {
+                Logger.logWarn(LOG_TAG, "Rejected connection from untrusted uid " + credentials.getUid());
+                PluginMetrics.incrementCounter("gateway_connections_rejected");
+                closeQuietly(socket);
+                continue;
+            }
+
+            final Connection connection = new Connection(context, socket, credentials.getUid());
+            int maxConnections = PluginProperties.getInt(PluginProperties.KEY_COMMAND_GATEWAY_MAX_CONNECTIONS,
+                    PluginProperties.DEFAULT_VALUE_COMMAND_GATEWAY_MAX_CONNECTIONS, 1, 100);
+            synchronized (CommandGateway.class) {
+                if (SERVER_SOCKET != serverSocket) {
+                    connection.close();
+                    return;
+                }
+                if (CONNECTIONS.size() >= maxConnections) {
+                    Logger.logWarn(LOG_TAG, "Rejected connection from uid " + credentials.getUid() +
+                            " since max " + maxConnections + " connections are already open");
+                    PluginMetrics.incrementCounter("gateway_connections_rejected");
+                    connection.close();
+                    continue;
+                }
+                CONNECTIONS.add(connection);
+            }
+
+            PluginMetrics.incrementCounter("gateway_connections");
+            Thread connectionThread = new Thread(connection, LOG_TAG + "-" + credentials.getUid());
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    /**
+     * Check whether a peer is allowed to run commands, i.e it has the same uid as the plugin app or
+     * has been granted the {@link TermuxConstants#PERMISSION_RUN_COMMAND} permission.
+     */
+    private static boolean isTrustedPeer(@NonNull Context context, @NonNull Credentials credentials) {
+        if (credentials.getUid() == Process.myUid()) return true;
+        return context.checkPermission(TermuxConstants.PERMISSION_RUN_COMMAND, credentials.getPid(),
+                credentials.getUid()) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static synchronized void removeConnection(@NonNull Connection connection) {
+        CONNECTIONS.remove(connection);
+    }
+
+    /**
+     * Validate the executable and working directory of a request like the
+     * {@link com.termux.tasker.FireReceiver} does and create the execution intent for it.
+     *
+     * @return Returns the errmsg if validation failed, otherwise {@code null}.
+     */
+    private static String createExecutionIntent(@NonNull Context context, @NonNull Request request, @NonNull Intent executionIntent) {
+        String errmsg = TermuxUtils.isTermuxAppAccessible(context);
+        if (errmsg != null) return errmsg;
+
+        if (request.executable == null || request.executable.isEmpty())
+            return context.getString(R.string.error_null_or_empty_executable);
+
+        String executable = TermuxFileUtils.getCanonicalPath(request.executable, TermuxConstants.TERMUX_TASKER_SCRIPTS_DIR_PATH, true);
+
+        errmsg = PluginUtils.checkIfTermuxTaskerAllowExternalAppsPolicyIsViolated(context, executable);
+        if (errmsg != null)
+            return errmsg + "\n" + context.getString(R.string.msg_executable_absolute_path, executable);
+
+        Error error = FileUtils.validateRegularFileExistenceAndPermissions("executable", executable,
+                TermuxConstants.TERMUX_TASKER_SCRIPTS_DIR_PATH,
+                FileUtils.APP_EXECUTABLE_FILE_PERMISSIONS,
+                true, true,
+                false);
+        if (error != null) return error.getMinimalErrorString();
+
+        String workingDirectory = null;
+        if (request.workingDirectory != null && !request.workingDirectory.isEmpty()) {
+            workingDirectory = TermuxFileUtils.getCanonicalPath(request.workingDirectory, null, true);
+            error = TermuxFileUtils.validateDirectoryFileExistenceAndPermissions("working", workingDirectory,
+                    true, true, true,
+                    false, true);
+            if (error != null) return error.getMinimalErrorString();
+        }
+
+        // Use the applet symlink for coreutils/busybox instead of its canonical path, like the FireReceiver does
+        String expandedExecutable = TermuxFileUtils.getExpandedTermuxPath(request.executable);
+        if (FileUtils.getFileType(expandedExecutable, false) == FileType.SYMLINK)
+            executable = expandedExecutable;
+
+        executionIntent.setAction(TERMUX_SERVICE.ACTION_SERVICE_EXECUTE);
+        executionIntent.setData(new Uri.Builder().scheme(TERMUX_SERVICE.URI_SCHEME_SERVICE_EXECUTE).path(executable).build());
+        executionIntent.putExtra(TERMUX_SERVICE.EXTRA_ARGUMENTS, request.arguments);
+        executionIntent.putExtra(TERMUX_SERVICE.EXTRA_WORKDIR, workingDirectory);
+        executionIntent.putExtra(TERMUX_SERVICE.EXTRA_STDIN, request.stdin);
+        executionIntent.putExtra(TERMUX_SERVICE.EXTRA_BACKGROUND, true);
+        return null;
+    }
+
+    private static void closeQuietly(LocalServerSocket serverSocket) {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static void closeQuietly(LocalSocket socket) {
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException ignored) {}
+    }
+
+
+
+    /** A request read from a {@link #FRAME_TYPE_REQUEST} frame. */
+    private static class Request {
+        int id;
+        String executable;
+        String[] arguments;
+        String workingDirectory;
+        String stdin;
+    }
+
+    /** A client connection that reads requests and writes their results. */
+    private static class Connection implements Runnable {
+
+        private final Context mContext;
+        private final LocalSocket mSocket;
+        private final int mUid;
+        private DataOutputStream mOutputStream;
+        private Semaphore mInFlight;
+        private volatile Thread mThread;
+        private volatile boolean mClosed;
+
+        Connection(@NonNull Context context, @NonNull LocalSocket socket, int uid) {
+            mContext = context;
+            mSocket = socket;
+            mUid = uid;
+        }
+
+        @Override
+        public void run() {
+            mThread = Thread.currentThread();
+            Logger.logDebug(LOG_TAG, "Accepted connection from uid " + mUid);
+            try {
+                mOutputStream = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+                mInFlight = new Semaphore(PluginProperties.getInt(PluginProperties.KEY_COMMAND_GATEWAY_MAX_IN_FLIGHT,
+                        PluginProperties.DEFAULT_VALUE_COMMAND_GATEWAY_MAX_IN_FLIGHT, 1, 1000));
+
+                ByteArrayOutputStream hello = new ByteArrayOutputStream();
+                DataOutputStream helloStream = new DataOutputStream(hello);
+                helloStream.writeByte(FRAME_TYPE_HELLO);
+                helloStream.writeInt(PROTOCOL_VERSION);
+                writeFrame(hello.toByteArray());
+
+                DataInputStream inputStream = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+                while (true) {
+                    int length;
+                    try {
+                        length = inputStream.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (length <= 0 || length > MAX_FRAME_LENGTH)
+                        throw new IOException("Invalid frame length " + length);
+
+                    byte[] payload = new byte[length];
+                    inputStream.readFully(payload);
+
+                    // Do not read more requests until a running one exits if max are already running,
+                    // but stop waiting if the connection was closed, like when the gateway is stopped
+                    while (!mInFlight.tryAcquire(IN_FLIGHT_WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        if (mClosed) return;
+                    }
+                    processFrame(payload);
+                }
+            } catch (InterruptedException ignored) {
+            } catch (IOException e) {
+                if (!mSocket.isClosed() && isRunning())
+                    Logger.logError(LOG_TAG, "Closing connection from uid " + mUid + ": " + e.getMessage());
+            } finally {
+                Logger.logDebug(LOG_TAG, "Closed connection from uid " + mUid);
+                removeConnection(this);
+                close();
+            }
+        }
+
+        private void processFrame(@NonNull byte[] payload) throws IOException {
+            DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = frame.readByte();
+            if (type != FRAME_TYPE_REQUEST)
+                throw new IOException("Invalid frame type " + type);
+
+            final Request request = new Request();
+            request.id = frame.readInt();
+            request.executable = readString(frame);
+            int argumentsCount = frame.readInt();
+            if (argumentsCount < 0 || argumentsCount > MAX_ARGUMENTS_COUNT)
+                throw new IOException("Invalid arguments count " + argumentsCount);
+            request.arguments = new String[argumentsCount];
+            for (int i = 0; i < argumentsCount; i++)
+                request.arguments[i] = readString(frame);
+            request.workingDirectory = readString(frame);
+            request.stdin = readString(frame);
+
+            PluginMetrics.incrementCounter("gateway_requests");
+            Logger.logVerbose(LOG_TAG, "Request " + request.id + " from uid " + mUid + " to run \"" + request.executable + "\"");
+
+            Intent executionIntent = new Intent();
+            String errmsg = createExecutionIntent(mContext, request, executionIntent);
+            if (errmsg != null) {
+                Logger.logError(LOG_TAG, "Request " + request.id + " from uid " + mUid + " failed: " + errmsg);
+                PluginMetrics.incrementCounter("gateway_requests_failed");
+                sendResult(request.id, DirectExecutor.createErrorResultBundle(TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg));
+                return;
+            }
+
+            // Count the request as a running instance of its executable, without a limit of its own
+            String executable = executionIntent.getData().getPath();
+            int executionId = PluginUtils.getLastPendingIntentRequestCode(mContext);
+            DirectExecutor.setDirectExecutionIntent(executionIntent, null);
+            ExecutionRegistry.submit(mContext, new TrackedExecution(executionId, executable, new Intent(), executionIntent,
+                    false, null, -1, ExecutionPriority.DEFAULT), 0, OverflowPolicy.QUEUE);
+
+            // The slot is released by the dispatch once the command has exited or if it is not run
+            ExecutionRateLimiter.Dispatch dispatch = new ExecutionRateLimiter.Dispatch(new Intent(), executionIntent,
+                    executable, false, executionId, -1, -1, -1, -1, ExecutionPriority.DEFAULT);
+            dispatch.resultCallback = resultBundle -> sendResult(request.id, resultBundle);
+            PluginUtils.dispatchQueuedExecution(mContext, dispatch);
+        }
+
+        private void sendResult(int requestId, @NonNull Bundle resultBundle) {
+            mInFlight.release();
+            try {
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                DataOutputStream resultStream = new DataOutputStream(result);
+                resultStream.writeByte(FRAME_TYPE_RESULT);
+                resultStream.writeInt(requestId);
+                resultStream.writeInt(resultBundle.getInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR, TaskerPlugin.Setting.RESULT_CODE_FAILED));
+                writeString(resultStream, SecretRedactor.redactText(resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG)));
+                boolean hasExitCode = resultBundle.containsKey(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE);
+                resultStream.writeByte(hasExitCode ? 1 : 0);
+                resultStream.writeInt(resultBundle.getInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE, 0));
+                // Redact secrets like the results sent to the plugin host app are
+                writeString(resultStream, SecretRedactor.redactText(resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT)));
+                writeString(resultStream, SecretRedactor.redactText(resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR)));
+                writeFrame(result.toByteArray());
+            } catch (IOException e) {
+                // The client may have closed the connection before the command exited
+                Logger.logVerbose(LOG_TAG, "Failed to send result of request " + requestId + " to uid " + mUid + ": " + e.getMessage());
+            }
+        }
+
+        private void writeFrame(@NonNull byte[] payload) throws IOException {
+            // Results are written from the threads of the commands that exited
+            synchronized (this) {
+                mOutputStream.writeInt(payload.length);
+                mOutputStream.write(payload);
+                mOutputStream.flush();
+            }
+        }
+
+        void close() {
+            mClosed = true;
+            closeQuietly(mSocket);
+            // Stop waiting for a running request to exit if max are already running
+            Thread thread = mThread;
+            if (thread != null && thread != Thread.currentThread())
+                thread.interrupt();
+        }
+
+        private static String readString(@NonNull DataInputStream inputStream) throws IOException {
+            int length = inputStream.readInt();
+            if (length == -1) return null;
+            if (length < 0 || length > MAX_FRAME_LENGTH)
+                throw new IOException("Invalid string length " + length);
+            byte[] bytes = new byte[length];
+            inputStream.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static void writeString(@NonNull DataOutputStream outputStream, String value) throws IOException {
+            if (value == null) {
+                outputStream.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            outputStream.writeInt(bytes.length);
+            outputStream.write(bytes);
+        }
+
+    }
+
+}
@@ -0,0 +1,317 @@
+package com.termux.tasker.execution;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.errors.Errno;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.shell.command.result.ResultData;
+import com.termux.shared.shell.command.runner.app.AppShell;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
+import com.termux.tasker.KeepWarmService;
+import com.termux.tasker.PluginBundleManager;
+import com.termux.tasker.PluginResultsService;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the background commands of plugin actions directly in the plugin process with the
+ * {@link AppShell} of termux-shared, instead of sending their execution intent to the
+ * {@link TERMUX_SERVICE} and receiving their result back in the {@link PluginResultsService}
+ * via a {@link PendingIntent}.
+ *
+ * This is possible since the plugin app shares the uid of the Termux app with `android:sharedUserId`
+ * and so can run commands in the Termux environment itself. The execution intent is still built
+ * and processed like for the {@link TERMUX_SERVICE}, so that all other features work the same, but
+ * it is marked with {@link #EXTRA_DIRECT} and its {@link #EXTRA_RESULT_INTENT} extra contains the
+ * intent that would have been sent by the {@link PendingIntent}, and the result is processed directly with
+ * {@link PluginResultsService#processResult(Context, Intent)} when the command exits.
+ *
+ * Since the result is processed in the same process, it is never parcelled, so if the output
+ * options of the plugin action need the full stdout and stderr, then they are passed untruncated
+ * in the result bundle and only the variables are truncated after the options are applied.
+ *
+ * Commands run this way are children of the plugin process and so are killed with it. They are
+ * started on a background thread, since setting up the shell environment and starting the process
+ * would otherwise block the main thread of the {@link com.termux.tasker.FireReceiver}, and the
+ * {@link KeepWarmService} is held while they run so that the process is kept in the foreground.
+ */
+public class DirectExecutor {
+
+    /**
+     * The {@code Intent} extra of the execution intent for the intent to process the result of the
+     * command with. It is not set if the result is not required.
+     */
+    public static final String EXTRA_RESULT_INTENT = "com.termux.tasker.execution.DirectExecutor.EXTRA_RESULT_INTENT"; // Default: "com.termux.tasker.execution.DirectExecutor.EXTRA_RESULT_INTENT"
+
+    /** The {@code boolean} extra of the execution intent that marks it to be run directly. */
+    public static final String EXTRA_DIRECT = "com.termux.tasker.execution.DirectExecutor.EXTRA_DIRECT"; // Default: "com.termux.tasker.execution.DirectExecutor.EXTRA_DIRECT"
+
+    private static boolean SHELL_ENVIRONMENT_INITIALIZED = false;
+    private static ExecutorService START_EXECUTOR;
+
+    private static final String LOG_TAG = "DirectExecutor";
+
+    /** The callback for the result of a command run by {@link #execute(Context, Intent, int, ResultCallback)}. */
+    public interface ResultCallback {
+        /**
+         * Called on a background thread when the command has exited or failed to start.
+         *
+         * @param resultBundle The result {@link Bundle} with the same keys as the
+         *                     {@link TERMUX_SERVICE#EXTRA_PLUGIN_RESULT_BUNDLE} sent by the
+         *                     {@link TERMUX_SERVICE}.
+         */
+        void onResult(@NonNull Bundle resultBundle);
+    }
+
+    /**
+     * Mark an execution intent to be run directly by the {@link DirectExecutor}.
+     *
+     * @param executionIntent The execution {@link Intent} built for the {@link TERMUX_SERVICE}.
+     * @param resultIntent The {@link Intent} for the {@link PluginResultsService} that was set in the
+     *                     {@link PendingIntent} of the execution intent, or {@code null} if there is none.
+     */
+    public static void setDirectExecutionIntent(@NonNull Intent executionIntent, Intent resultIntent) {
+        executionIntent.putExtra(EXTRA_DIRECT, true);
+        if (resultIntent != null)
+            executionIntent.putExtra(EXTRA_RESULT_INTENT, resultIntent);
+    }
+
+    /** Check whether an execution intent is to be run directly by the {@link DirectExecutor}. */
+    public static boolean isDirectExecutionIntent(@NonNull Intent executionIntent) {
+        return executionIntent.getBooleanExtra(EXTRA_DIRECT, false);
+    }
+
+    /**
+     * Run the command of an execution intent marked with {@link #EXTRA_DIRECT} on a background
+     * thread and process its result with the {@link PluginResultsService} when it exits if it has
+     * an {@link #EXTRA_RESULT_INTENT}. The {@link PendingIntent} of the execution intent is
+     * cancelled since it is not used.
+     *
+     * @param context The {@link Context} for operations.
+     * @param executionIntent The execution {@link Intent} built for the {@link TERMUX_SERVICE}.
+     * @param pendingResult The {@link BroadcastReceiver.PendingResult} returned by
+     *                      {@link BroadcastReceiver#goAsync()} if called from a receiver, which is
+     *                      finished once the command has been started, otherwise {@code null}.
+     */
+    public static void execute(@NonNull final Context context, @NonNull final Intent executionIntent,
+                               @Nullable final BroadcastReceiver.PendingResult pendingResult) {
+        final Intent resultIntent = executionIntent.getParcelableExtra(EXTRA_RESULT_INTENT);
+        PendingIntent pendingIntent = executionIntent.getParcelableExtra(TERMUX_SERVICE.EXTRA_PENDING_INTENT);
+        if (pendingIntent != null)
+            pendingIntent.cancel();
+
+        // Pass the full outputs if the output options of the plugin action need them
+        final boolean fullOutput = resultIntent != null &&
+                isFullOutputRequired(PluginUtils.getPluginBundle(resultIntent.getParcelableExtra(PluginUtils.EXTRA_ORIGINAL_INTENT)));
+
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        getStartExecutor().execute(() -> {
+            try {
+                execute(appContext, executionIntent, -1, fullOutput, resultBundle -> {
+                    if (resultIntent == null) return;
+                    Intent intent = new Intent(resultIntent);
+                    intent.putExtra(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE, resultBundle);
+                    PluginResultsService.processResult(appContext, intent);
+                });
+            } finally {
+                if (pendingResult != null)
+                    pendingResult.finish();
+            }
+        });
+    }
+
+    /**
+     * Run the command of an execution intent with the {@link AppShell} on a background thread.
+     *
+     * @param context The {@link Context} for operations.
+     * @param executionIntent The execution {@link Intent} built for the {@link TERMUX_SERVICE}.
+     * @param callback The {@link ResultCallback} for the result of the command.
+     */
+    public static void executeInBackground(@NonNull final Context context, @NonNull final Intent executionIntent,
+                                           @NonNull final ResultCallback callback) {
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        getStartExecutor().execute(() -> execute(appContext, executionIntent, -1, false, callback));
+    }
+
+    /**
+     * Run the command of an execution intent with the {@link AppShell}.
+     *
+     * @param context The {@link Context} for operations.
+     * @param executionIntent The execution {@link Intent} built for the {@link TERMUX_SERVICE}.
+     * @param id The id for the {@link ExecutionCommand}, or {@code -1}.
+     * @param callback The {@link ResultCallback} for the result of the command.
+     */
+    public static void execute(@NonNull final Context context, @NonNull Intent executionIntent, int id,
+                               @NonNull final ResultCallback callback) {
+        execute(context, executionIntent, id, false, callback);
+    }
+
+    /**
+     * Run the command of an execution intent with the {@link AppShell} on the calling thread. The
+     * {@link KeepWarmService} is held till the callback has returned.
+     *
+     * @param context The {@link Context} for operations.
+     * @param executionIntent The execution {@link Intent} built for the {@link TERMUX_SERVICE}.
+     * @param id The id for the {@link ExecutionCommand}, or {@code -1}.
+     * @param fullOutput Whether to pass the full stdout and stderr in the result bundle, which
+     *                   must then not be parcelled.
+     * @param callback The {@link ResultCallback} for the result of the command.
+     */
+    public static void execute(@NonNull final Context context, @NonNull Intent executionIntent, int id,
+                               final boolean fullOutput, @NonNull final ResultCallback callback) {
+        synchronized (DirectExecutor.class) {
+            if (!SHELL_ENVIRONMENT_INITIALIZED) {
+                TermuxShellEnvironment.init(context);
+                SHELL_ENVIRONMENT_INITIALIZED = true;
+            }
+        }
+
+        String executable = executionIntent.getData() != null ? executionIntent.getData().getPath() : null;
+        final ExecutionCommand executionCommand = new ExecutionCommand(id, executable,
+                executionIntent.getStringArrayExtra(TERMUX_SERVICE.EXTRA_ARGUMENTS),
+                executionIntent.getStringExtra(TERMUX_SERVICE.EXTRA_STDIN),
+                executionIntent.getStringExtra(TERMUX_SERVICE.EXTRA_WORKDIR),
+                ExecutionCommand.Runner.APP_SHELL.getName(), false);
+        executionCommand.commandLabel = executable != null ? FileUtils.getFileBasename(executable) : null;
+        int backgroundCustomLogLevel = DataUtils.getIntFromString(executionIntent.getStringExtra(TERMUX_SERVICE.EXTRA_BACKGROUND_CUSTOM_LOG_LEVEL), -1);
+        if (backgroundCustomLogLevel >= 0)
+            executionCommand.backgroundCustomLogLevel = backgroundCustomLogLevel;
+        executionCommand.isPluginExecutionCommand = true;
+        executionCommand.setShellCommandShellEnvironment = true;
+
+        final long startTime = SystemClock.elapsedRealtime();
+        Logger.logDebug(LOG_TAG, "Running \"" + executable + "\" directly");
+        PluginMetrics.incrementCounter("direct_executions");
+
+        // The command is a child of the plugin process, so keep it in the foreground till it exits
+        KeepWarmService.hold(context);
+        AppShell appShell = null;
+        try {
+            appShell = AppShell.execute(context, executionCommand, exitedAppShell -> {
+                try {
+                    PluginMetrics.recordLatency("direct_execution_runtime", SystemClock.elapsedRealtime() - startTime);
+                    callback.onResult(createResultBundle(exitedAppShell.getExecutionCommand(), fullOutput));
+                } finally {
+                    KeepWarmService.release(context);
+                }
+            }, new TermuxShellEnvironment(), null, false);
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to run \"" + executable + "\" directly", e);
+        }
+
+        if (appShell == null) {
+            // The AppShell does not call the client if the command failed to start
+            try {
+                Logger.logError(LOG_TAG, "Failed to run \"" + executable + "\" directly");
+                PluginMetrics.incrementCounter("direct_executions_failed");
+                if (!executionCommand.isStateFailed())
+                    executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), "Failed to run \"" + executable + "\"");
+                callback.onResult(createResultBundle(executionCommand));
+            } finally {
+                KeepWarmService.release(context);
+            }
+        }
+    }
+
+    /**
+     * Create the result {@link Bundle} of a command that was not run, with the same keys as the
+     * {@link TERMUX_SERVICE#EXTRA_PLUGIN_RESULT_BUNDLE} sent by the {@link TERMUX_SERVICE}.
+     *
+     * @param errCode The err of the result.
+     * @param errmsg The errmsg of the result.
+     * @return Returns the result {@link Bundle}.
+     */
+    @NonNull
+    public static Bundle createErrorResultBundle(int errCode, String errmsg) {
+        Bundle resultBundle = new Bundle();
+        resultBundle.putInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR, errCode);
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG, errmsg);
+        return resultBundle;
+    }
+
+    /**
+     * Create the result {@link Bundle} of an {@link ExecutionCommand}, with the stdout and stderr
+     * truncated like the {@link TERMUX_SERVICE} does so that they fit in the result sent to the
+     * plugin host app.
+     */
+    @NonNull
+    public static Bundle createResultBundle(@NonNull ExecutionCommand executionCommand) {
+        return createResultBundle(executionCommand, false);
+    }
+
+    /**
+     * Create the result {@link Bundle} of an {@link ExecutionCommand}, with the stdout and stderr
+     * truncated like the {@link TERMUX_SERVICE} does so that they fit in the result sent to the
+     * plugin host app. If {@code fullOutput} is {@code true}, then they are only truncated if they
+     * are longer than {@link PluginProperties#KEY_DIRECT_EXECUTION_MAX_OUTPUT_LENGTH}, so the
+     * bundle must then not be parcelled.
+     */
+    @NonNull
+    public static Bundle createResultBundle(@NonNull ExecutionCommand executionCommand, boolean fullOutput) {
+        ResultData resultData = executionCommand.resultData;
+        String stdout = resultData.stdout.toString();
+        String stderr = resultData.stderr.toString();
+
+        // If both stdout and stderr are set, then they share the limit
+        int maxLength = DataUtils.isNullOrEmpty(stdout) || DataUtils.isNullOrEmpty(stderr) ?
+                DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES : DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES / 2;
+        // The result is not sent to the plugin host app as is if the full outputs are passed
+        if (fullOutput)
+            maxLength = Math.max(maxLength, PluginProperties.getInt(PluginProperties.KEY_DIRECT_EXECUTION_MAX_OUTPUT_LENGTH,
+                    PluginProperties.DEFAULT_VALUE_DIRECT_EXECUTION_MAX_OUTPUT_LENGTH, 0, 67108864));
+        String truncatedStdout = DataUtils.getTruncatedCommandOutput(stdout, maxLength, false, false, false);
+        String truncatedStderr = DataUtils.getTruncatedCommandOutput(stderr, maxLength, false, false, false);
+
+        Bundle resultBundle = new Bundle();
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT, truncatedStdout);
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT_ORIGINAL_LENGTH,
+                truncatedStdout != null && truncatedStdout.length() != stdout.length() ? String.valueOf(stdout.length()) : null);
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR, truncatedStderr);
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR_ORIGINAL_LENGTH,
+                truncatedStderr != null && truncatedStderr.length() != stderr.length() ? String.valueOf(stderr.length()) : null);
+        if (resultData.exitCode != null)
+            resultBundle.putInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE, resultData.exitCode);
+        resultBundle.putInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR, resultData.getErrCode());
+        if (executionCommand.isStateFailed())
+            resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG, ResultData.getErrorsListMinimalString(resultData));
+        return resultBundle;
+    }
+
+
+
+    private static synchronized ExecutorService getStartExecutor() {
+        if (START_EXECUTOR == null)
+            START_EXECUTOR = Executors.newSingleThreadExecutor();
+        return START_EXECUTOR;
+    }
+
+    /**
+     * Check whether the full outputs are required by the output options of a plugin action, which
+     * is the case if they may reduce stdout before it is returned or return it without sending it
+     * to the plugin host app.
+     */
+    private static boolean isFullOutputRequired(Bundle pluginBundle) {
+        if (pluginBundle == null) return false;
+        return pluginBundle.getString(PluginBundleManager.EXTRA_OUTPUT_FILTER) != null ||
+                pluginBundle.getString(PluginBundleManager.EXTRA_JSON_OUTPUT) != null ||
+                pluginBundle.getString(PluginBundleManager.EXTRA_DELTA_OUTPUT_KEY) != null ||
+                pluginBundle.getBoolean(PluginBundleManager.EXTRA_OUTPUT_URI, false);
+    }
+
+}
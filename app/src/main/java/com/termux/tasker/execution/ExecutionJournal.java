@@ -0,0 +1,370 @@
+package com.termux.tasker.execution;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.PluginResultsService;
+import com.termux.tasker.R;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only journal of the in-flight executions whose result the plugin host app is waiting
+ * for, so that if the `:background` process dies after the execution intent was sent but before
+ * the result was sent to the plugin host app, the plugin action can be failed quickly on the next
+ * process start instead of hanging till its timeout.
+ *
+ * A begin record containing the request code of the result {@link PendingIntent}, the pid of the
+ * process, the start time, the watchdog deadline, the executable and the original fire intent URI
+ * returned by {@link ResultDelivery#getStoredIntentUri(Intent)}, which does not contain the
+ * arguments, stdin or secrets of the command, is written when the execution intent is sent, and
+ * an end record is written once the result has been sent. Records are written by a single background thread with group commit, i.e. all
+ * records added while a write is in progress are written and fsynced together, so that callers on
+ * the fire path only pay for adding a record to memory. The journal is compacted to the open
+ * entries once it contains {@link #MAX_RECORDS} records.
+ *
+ * On process start, {@link #replay(Context)} is called after {@link #REPLAY_DELAY_MS}, so that
+ * results already delivered to the {@link PluginResultsService} are handled first. Open entries
+ * of dead processes whose result {@link PendingIntent} has already been sent or no longer exists
+ * are failed, since their result was lost, and the rest are watched again by the
+ * {@link ExecutionWatchdog} since the execution service may still send their result.
+ */
+public class ExecutionJournal {
+
+    /** The directory name under app files directory where the journal is stored. */
+    public static final String JOURNAL_DIR_NAME = "journal"; // Default: "journal"
+
+    /** The file name of the journal. */
+    public static final String JOURNAL_FILE_NAME = "executions.journal"; // Default: "executions.journal"
+
+    /** The number of records in the journal after which it is compacted. */
+    public static final int MAX_RECORDS = 1000;
+
+    /** The delay after process start after which the journal is replayed. */
+    public static final long REPLAY_DELAY_MS = 5000;
+
+    /** The max age of open entries that are replayed, which is the max timeout of plugin actions. */
+    public static final long MAX_REPLAY_AGE_MS = TaskerPlugin.Setting.REQUESTED_TIMEOUT_MS_MAX;
+
+    private static final String RECORD_BEGIN = "B";
+    private static final String RECORD_END = "E";
+
+    private static final Object LOCK = new Object();
+    /** The records waiting to be written. */
+    private static List<String> PENDING = new ArrayList<>();
+    /** The begin records of open entries of the current process and the replayed entries still in flight. */
+    private static final Map<Integer, String> OPEN = new LinkedHashMap<>();
+    private static boolean COMMIT_SCHEDULED = false;
+    /** Whether the journal has been replayed, before which it must not be compacted. */
+    private static boolean REPLAYED = false;
+
+    private static FileOutputStream JOURNAL_STREAM;
+    private static int RECORD_COUNT;
+    private static ExecutorService WRITE_EXECUTOR;
+
+    private static final String LOG_TAG = "ExecutionJournal";
+
+    /**
+     * Add the begin record for an execution.
+     *
+     * @param context The {@link Context} for operations.
+     * @param id The id of the execution, which is the request code of its result {@link PendingIntent}.
+     * @param originalIntent The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}.
+     * @param executable The path of the executable of the execution.
+     * @param watchdogDelay The delay after which the {@link ExecutionWatchdog} will send the timeout
+     *                      result, otherwise {@code -1} if the execution is not watched.
+     */
+    public static void begin(@NonNull final Context context, int id, @NonNull Intent originalIntent,
+                             @Nullable String executable, long watchdogDelay) {
+        long startTime = System.currentTimeMillis();
+        String record = RECORD_BEGIN + "\t" + id + "\t" + Process.myPid() + "\t" + startTime + "\t" +
+                (watchdogDelay > 0 ? startTime + watchdogDelay : -1) + "\t" +
+                Uri.encode(executable == null ? "" : executable) + "\t" +
+                ResultDelivery.getStoredIntentUri(originalIntent);
+
+        synchronized (LOCK) {
+            OPEN.put(id, record);
+            addRecord(context, record);
+        }
+    }
+
+    /**
+     * Add the end record for an execution once its result has been sent to the plugin host app.
+     * This is ignored if there is no open entry for the execution.
+     *
+     * @param context The {@link Context} for operations.
+     * @param id The id of the execution.
+     */
+    public static void end(@NonNull final Context context, int id) {
+        synchronized (LOCK) {
+            if (OPEN.remove(id) == null) return;
+            addRecord(context, RECORD_END + "\t" + id);
+        }
+    }
+
+    /** Schedule {@link #replay(Context)} to be run after {@link #REPLAY_DELAY_MS}. */
+    public static void replayDelayed(@NonNull final Context context) {
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        new Handler(Looper.getMainLooper()).postDelayed(() ->
+                getWriteExecutor().execute(() -> replay(appContext)), REPLAY_DELAY_MS);
+    }
+
+    /**
+     * Replay the open entries of dead processes in the journal. This must be called on the write
+     * thread, or by tests after the journal is idle.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    @VisibleForTesting
+    static void replay(@NonNull final Context context) {
+        // Write the records of the current process first so that their end records are read
+        commit(context);
+
+        Map<Integer, String[]> openEntries = new LinkedHashMap<>();
+        for (String line : readLines(getJournalFile(context))) {
+            String[] fields = line.split("\t", 7);
+            int id = parseInt(fields.length > 1 ? fields[1] : null);
+            if (id < 0) continue;
+            if (RECORD_BEGIN.equals(fields[0]) && fields.length == 7)
+                openEntries.put(id, fields);
+            else if (RECORD_END.equals(fields[0]))
+                openEntries.remove(id);
+        }
+
+        int myPid = Process.myPid();
+        long currentTime = System.currentTimeMillis();
+        int failed = 0, pending = 0, expired = 0;
+        for (Map.Entry<Integer, String[]> entry : openEntries.entrySet()) {
+            int id = entry.getKey();
+            String[] fields = entry.getValue();
+            if (parseInt(fields[2]) == myPid) continue;
+
+            long startTime = parseLong(fields[3]);
+            long deadline = parseLong(fields[4]);
+            String executable = Uri.decode(fields[5]);
+            String record = String.join("\t", fields);
+
+            Intent originalIntent;
+            try {
+                originalIntent = Intent.parseUri(fields[6], Intent.URI_INTENT_SCHEME);
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to parse original intent of journal entry with id " + id, e);
+                originalIntent = null;
+            }
+
+            synchronized (LOCK) {
+                if (originalIntent == null || currentTime - startTime > MAX_REPLAY_AGE_MS ||
+                        (deadline >= 0 && currentTime >= deadline)) {
+                    // The plugin host app is no longer waiting for the result
+                    expired++;
+                    PENDING.add(RECORD_END + "\t" + id);
+                } else if (isResultPendingIntentActive(context, id)) {
+                    // The execution service may still send the result
+                    pending++;
+                    OPEN.put(id, record);
+                    if (deadline >= 0)
+                        ExecutionWatchdog.watch(context, id, originalIntent, executable, null, false, deadline - currentTime);
+                } else {
+                    failed++;
+                    PENDING.add(RECORD_END + "\t" + id);
+                    String errmsg = context.getString(R.string.error_execution_result_lost, executable, currentTime - startTime);
+                    Logger.logError(LOG_TAG, errmsg);
+                    ResultDelivery.signalFinish(context, originalIntent, TaskerPlugin.Setting.RESULT_CODE_FAILED,
+                            PluginUtils.createVariablesBundle(null, null, null, null, null, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg));
+                }
+            }
+        }
+
+        synchronized (LOCK) {
+            REPLAYED = true;
+        }
+        commit(context);
+
+        if (failed + pending + expired > 0)
+            Logger.logInfo(LOG_TAG, "Replayed journal: " + failed + " failed, " + pending + " pending, " + expired + " expired");
+        PluginMetrics.addToCounter("journal_replay_failed", failed);
+        PluginMetrics.addToCounter("journal_replay_pending", pending);
+        PluginMetrics.addToCounter("journal_replay_expired", expired);
+        PluginMetrics.persist(context);
+    }
+
+    /** Wait till all records added so far have been written. */
+    @VisibleForTesting
+    static void awaitIdle(long timeoutMs) throws Exception {
+        // Commits are run in order on the write thread, so once a later task runs, the records have been written
+        getWriteExecutor().submit(() -> { }).get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+
+
+    private static void addRecord(@NonNull final Context context, @NonNull String record) {
+        PENDING.add(record);
+        if (COMMIT_SCHEDULED) return;
+        COMMIT_SCHEDULED = true;
+
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        getWriteExecutor().execute(() -> commit(appContext));
+    }
+
+    /** Write and fsync all pending records at once, compacting the journal first if required. */
+    private static void commit(@NonNull final Context context) {
+        List<String> records;
+        List<String> openRecords = null;
+        synchronized (LOCK) {
+            COMMIT_SCHEDULED = false;
+            if (PENDING.isEmpty()) return;
+            records = PENDING;
+            PENDING = new ArrayList<>();
+            if (REPLAYED && RECORD_COUNT + records.size() >= MAX_RECORDS)
+                openRecords = new ArrayList<>(OPEN.values());
+        }
+
+        long startTime = SystemClock.uptimeMillis();
+        File journalFile = getJournalFile(context);
+        try {
+            if (openRecords != null) {
+                compact(journalFile, openRecords);
+            } else {
+                FileOutputStream outputStream = getJournalStream(journalFile);
+                outputStream.write(join(records));
+                outputStream.getFD().sync();
+                RECORD_COUNT += records.size();
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write journal at \"" + journalFile.getAbsolutePath() + "\"", e);
+            closeJournalStream();
+            return;
+        }
+
+        PluginMetrics.incrementCounter("journal_commits");
+        PluginMetrics.addToCounter("journal_records", records.size());
+        PluginMetrics.recordLatency("journal_commit_time", SystemClock.uptimeMillis() - startTime);
+    }
+
+    /** Replace the journal with the begin records of the open entries. */
+    private static void compact(@NonNull File journalFile, @NonNull List<String> openRecords) throws IOException {
+        closeJournalStream();
+
+        // Write to a temp file first so that the journal is never partially written
+        File tempFile = new File(journalFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile, false)) {
+            outputStream.write(join(openRecords));
+            outputStream.getFD().sync();
+        }
+        if (!tempFile.renameTo(journalFile))
+            throw new IOException("Failed to rename \"" + tempFile.getAbsolutePath() + "\" to \"" + journalFile.getAbsolutePath() + "\"");
+
+        RECORD_COUNT = openRecords.size();
+        Logger.logDebug(LOG_TAG, "Compacted journal to " + RECORD_COUNT + " open entries");
+    }
+
+    @NonNull
+    private static FileOutputStream getJournalStream(@NonNull File journalFile) throws IOException {
+        if (JOURNAL_STREAM != null) return JOURNAL_STREAM;
+
+        File journalDir = journalFile.getParentFile();
+        if (journalDir != null && !journalDir.isDirectory() && !journalDir.mkdirs())
+            throw new IOException("Failed to create journal directory at \"" + journalDir.getAbsolutePath() + "\"");
+
+        RECORD_COUNT = readLines(journalFile).size();
+        JOURNAL_STREAM = new FileOutputStream(journalFile, true);
+        return JOURNAL_STREAM;
+    }
+
+    private static void closeJournalStream() {
+        if (JOURNAL_STREAM == null) return;
+        try {
+            JOURNAL_STREAM.close();
+        } catch (IOException ignored) {
+        }
+        JOURNAL_STREAM = null;
+    }
+
+    private static boolean isResultPendingIntentActive(@NonNull final Context context, int id) {
+        // The PendingIntent is FLAG_ONE_SHOT, so it no longer exists once the execution service has
+        // sent the result, or if it was cancelled or the device was rebooted
+        return PendingIntent.getService(context, id, new Intent(context, PluginResultsService.class),
+                PendingIntent.FLAG_NO_CREATE | (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_MUTABLE : 0)) != null;
+    }
+
+    @NonNull
+    private static byte[] join(@NonNull List<String> records) {
+        StringBuilder data = new StringBuilder();
+        for (String record : records)
+            data.append(record).append("\n");
+        return data.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @NonNull
+    private static List<String> readLines(@NonNull final File file) {
+        List<String> lines = new ArrayList<>();
+        if (!file.isFile()) return lines;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read journal at \"" + file.getAbsolutePath() + "\"", e);
+        }
+
+        return lines;
+    }
+
+    private static int parseInt(@Nullable String value) {
+        try {
+            return value == null ? -1 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseLong(@Nullable String value) {
+        try {
+            return value == null ? -1 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static synchronized ExecutorService getWriteExecutor() {
+        if (WRITE_EXECUTOR == null)
+            WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+        return WRITE_EXECUTOR;
+    }
+
+    @NonNull
+    private static File getJournalFile(@NonNull final Context context) {
+        return new File(new File(context.getFilesDir(), JOURNAL_DIR_NAME), JOURNAL_FILE_NAME);
+    }
+
+}
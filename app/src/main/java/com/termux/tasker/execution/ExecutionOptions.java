@@ -0,0 +1,44 @@
+package com.termux.tasker.execution;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The options of a plugin action that control how its execution intent is sent to the execution
+ * service by {@link com.termux.tasker.utils.PluginUtils#sendExecuteIntentToExecuteService}.
+ */
+public class ExecutionOptions {
+
+    /** The max number of instances of the executable that can run concurrently. If {@code <= 0}, then there is no limit. */
+    public int maxConcurrentInstances = 0;
+
+    /** The {@link OverflowPolicy} to use if {@link #maxConcurrentInstances} limit has been reached. */
+    @NonNull public OverflowPolicy overflowPolicy = OverflowPolicy.DEFAULT;
+
+    /** The {@link ExecutionPriority} of the execution. */
+    @NonNull public ExecutionPriority priority = ExecutionPriority.DEFAULT;
+
+    /** The timeout hint of the plugin host app for the plugin action, otherwise {@code -1}. */
+    public int hostTimeout = -1;
+
+    /** Whether the command should be killed by the {@link ExecutionWatchdog} if it times out. */
+    public boolean killOnTimeout = false;
+
+    /** Whether the command can be killed by the "Cancel Command" plugin action with {@link RunningExecutions}. */
+    public boolean cancellable = false;
+
+    /** Whether the progress written by the command is sent to the plugin host app by the {@link ProgressReporter}. */
+    public boolean reportProgress = false;
+
+    /** Whether background commands are run directly in the plugin process by the {@link DirectExecutor}. */
+    public boolean directExecution = false;
+
+    /** The key for {@link FireCoalescer} to merge identical fires with. If {@code null}, then fires are not coalesced. */
+    public String coalesceKey;
+
+    /** The window in milliseconds in which identical fires are coalesced. */
+    public int coalesceWindow = 0;
+
+    /** The id of the {@link FireCoalescer} group the execution is the leader of, otherwise {@code -1}. */
+    public int coalesceGroupId = -1;
+
+}
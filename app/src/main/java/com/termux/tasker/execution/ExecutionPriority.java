@@ -0,0 +1,65 @@
+package com.termux.tasker.execution;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The priority of the executions of a plugin action, which decides the lane of the
+ * {@link PriorityLanes} the execution waits in if it cannot be sent to the execution service
+ * immediately. The values are ordered from the highest to the lowest priority.
+ */
+public enum ExecutionPriority {
+
+    /** For time critical actions, like toggling the lock screen. */
+    HIGH("high", 4),
+
+    /** For normal actions. */
+    NORMAL("normal", 2),
+
+    /** For low value actions that can be delayed, like logging. */
+    BULK("bulk", 1);
+
+    /** The default priority if one is not set for the plugin action. */
+    public static final ExecutionPriority DEFAULT = NORMAL;
+
+    private final String name;
+    private final int weight;
+
+    ExecutionPriority(final String name, final int weight) {
+        this.name = name;
+        this.weight = weight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Get the number of executions dequeued from the lane of the priority in each round. */
+    public int getWeight() {
+        return weight;
+    }
+
+    public boolean equalsPriority(String priority) {
+        return priority != null && priority.equals(this.name);
+    }
+
+    /** Get {@link ExecutionPriority} for {@code name} if found, otherwise {@code null}. */
+    @Nullable
+    public static ExecutionPriority priorityOf(String name) {
+        for (ExecutionPriority v : ExecutionPriority.values()) {
+            if (v.name.equals(name)) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    /** Get the names of all the priorities. */
+    public static String[] getNames() {
+        ExecutionPriority[] values = ExecutionPriority.values();
+        String[] names = new String[values.length];
+        for (int i = 0; i < values.length; i++)
+            names[i] = values[i].name;
+        return names;
+    }
+
+}
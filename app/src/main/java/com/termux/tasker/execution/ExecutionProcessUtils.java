@@ -0,0 +1,198 @@
+package com.termux.tasker.execution;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A util class to track and signal the processes of commands run by the execution service.
+ *
+ * The execution service does not return the pid of the processes it starts, so the execution
+ * intent is wrapped with {@link #wrapExecutionIntentForPidTracking(Intent, String)} to run the
+ * command under a shell that writes its pid to a file before replacing itself with the command
+ * with `exec`. Since the plugin app runs with the same shared user id as the Termux app, the
+ * processes can then be signalled with {@link Process#sendSignal(int, int)}.
+ */
+public class ExecutionProcessUtils {
+
+    /** The directory under {@link TermuxConstants#TERMUX_TMP_PREFIX_DIR_PATH} where pid files are written. */
+    public static final String PID_FILES_DIR_PATH = TermuxConstants.TERMUX_TMP_PREFIX_DIR_PATH + "/termux-tasker/pids"; // Default: "/data/data/com.termux/files/usr/tmp/termux-tasker/pids"
+
+    /** The shell used to run the wrapper script. */
+    public static final String WRAPPER_SHELL_PATH = "/system/bin/sh"; // Default: "/system/bin/sh"
+
+    /**
+     * The wrapper script run with `sh -c`. The `$1` argument is the pid file path, followed by the
+     * executable and its arguments.
+     */
+    public static final String WRAPPER_SCRIPT = "echo $$ > \"$1\"; shift; exec \"$@\"";
+
+    /** The signal number for SIGTERM, which is not defined in {@link Process}. */
+    public static final int SIGNAL_TERM = 15;
+
+    private static final String LOG_TAG = "ExecutionProcessUtils";
+
+    /** Get the path to the pid file for the execution with {@code id}. */
+    @NonNull
+    public static String getPidFilePath(int id) {
+        return PID_FILES_DIR_PATH + "/" + id + ".pid";
+    }
+
+    /**
+     * Wrap the execution intent so that the pid of the command process is written to {@code pidFilePath}.
+     *
+     * @param executionIntent The {@link Intent} to be sent to the execution service. Its data
+     *                        {@link Uri} path must be the executable path and its
+     *                        {@link TERMUX_SERVICE#EXTRA_ARGUMENTS} extra the arguments.
+     * @param pidFilePath The path to the file to write the pid to.
+     * @return Returns {@code true} if the intent was wrapped, otherwise {@code false}.
+     */
+    public static boolean wrapExecutionIntentForPidTracking(@NonNull Intent executionIntent, @NonNull String pidFilePath) {
+        if (executionIntent.getData() == null || executionIntent.getData().getPath() == null) return false;
+
+        File pidFilesDir = new File(pidFilePath).getParentFile();
+        if (pidFilesDir != null && !pidFilesDir.isDirectory() && !pidFilesDir.mkdirs()) {
+            Logger.logError(LOG_TAG, "Failed to create pid files directory at \"" + pidFilesDir.getAbsolutePath() + "\"");
+            return false;
+        }
+
+        return wrapExecutionIntent(executionIntent, WRAPPER_SCRIPT, pidFilePath);
+    }
+
+    /**
+     * Wrap the execution intent so that the command is run with `sh -c` under {@code script}.
+     * The {@code scriptArguments} are passed to the script as `$1`, `$2`, etc, followed by the
+     * executable and its arguments, and the script must `shift` them and then `exec "$@"` so that
+     * the command keeps the pid of the script. Wrapped intents can be wrapped again.
+     *
+     * @param executionIntent The {@link Intent} to be sent to the execution service. Its data
+     *                        {@link Uri} path must be the executable path and its
+     *                        {@link TERMUX_SERVICE#EXTRA_ARGUMENTS} extra the arguments.
+     * @param script The wrapper script.
+     * @param scriptArguments The arguments for the wrapper script.
+     * @return Returns {@code true} if the intent was wrapped, otherwise {@code false}.
+     */
+    public static boolean wrapExecutionIntent(@NonNull Intent executionIntent, @NonNull String script,
+                                              @NonNull String... scriptArguments) {
+        Uri executableUri = executionIntent.getData();
+        if (executableUri == null || executableUri.getPath() == null) return false;
+
+        List<String> wrapperArguments = new ArrayList<>();
+        wrapperArguments.add("-c");
+        wrapperArguments.add(script);
+        wrapperArguments.add(TermuxConstants.TERMUX_TASKER_APP_NAME.replaceAll("[: ]", "")); // $0
+        wrapperArguments.addAll(Arrays.asList(scriptArguments));
+        wrapperArguments.add(executableUri.getPath());
+        String[] arguments = executionIntent.getStringArrayExtra(TERMUX_SERVICE.EXTRA_ARGUMENTS);
+        if (arguments != null)
+            wrapperArguments.addAll(Arrays.asList(arguments));
+
+        executionIntent.setData(new Uri.Builder().scheme(executableUri.getScheme()).path(WRAPPER_SHELL_PATH).build());
+        executionIntent.putExtra(TERMUX_SERVICE.EXTRA_ARGUMENTS, wrapperArguments.toArray(new String[0]));
+        return true;
+    }
+
+    /**
+     * Send a signal to the process of an execution.
+     *
+     * The pid is only signalled if the process still exists and its command line contains the
+     * executable, so that a pid reused by an unrelated process is not signalled.
+     *
+     * @param pidFilePath The path to the pid file of the execution.
+     * @param executable The executable of the execution.
+     * @param signal The signal to send.
+     * @return Returns {@code true} if the signal was sent, otherwise {@code false}.
+     */
+    public static boolean signalExecution(@Nullable String pidFilePath, @NonNull String executable, int signal) {
+        Integer pid = readPid(pidFilePath);
+        if (pid == null) return false;
+
+        String cmdline = readProcessCmdline(pid);
+        if (cmdline == null || !cmdline.contains(executable)) {
+            Logger.logDebug(LOG_TAG, "Not sending signal " + signal + " to pid " + pid + " since it is not running \"" + executable + "\"");
+            return false;
+        }
+
+        Logger.logDebug(LOG_TAG, "Sending signal " + signal + " to pid " + pid + " running \"" + executable + "\"");
+        Process.sendSignal(pid, signal);
+        return true;
+    }
+
+    /**
+     * Check whether the process of an execution has exited. This is the case if its pid has been
+     * written, but the process no longer exists or does not run the executable any more.
+     *
+     * @param pidFilePath The path to the pid file of the execution.
+     * @param executable The executable of the execution.
+     * @return Returns {@code true} if the process has exited, otherwise {@code false}, including
+     * if the execution has no pid file or its pid has not been written yet.
+     */
+    public static boolean hasExecutionExited(@Nullable String pidFilePath, @NonNull String executable) {
+        Integer pid = readPid(pidFilePath);
+        if (pid == null) return false;
+
+        String cmdline = readProcessCmdline(pid);
+        return cmdline == null || !cmdline.contains(executable);
+    }
+
+    /** Delete the pid file at {@code pidFilePath} if it exists. */
+    public static void deletePidFile(@Nullable String pidFilePath) {
+        if (pidFilePath == null) return;
+        File pidFile = new File(pidFilePath);
+        if (pidFile.exists() && !pidFile.delete())
+            Logger.logWarn(LOG_TAG, "Failed to delete pid file at \"" + pidFilePath + "\"");
+    }
+
+    @Nullable
+    private static Integer readPid(@Nullable String pidFilePath) {
+        if (pidFilePath == null) return null;
+        String pidString = readFile(new File(pidFilePath), 32);
+        if (pidString == null) return null;
+
+        try {
+            int pid = Integer.parseInt(pidString.trim());
+            return pid > 0 ? pid : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String readProcessCmdline(int pid) {
+        String cmdline = readFile(new File("/proc/" + pid + "/cmdline"), 4096);
+        return cmdline == null ? null : cmdline.replace('\0', ' ');
+    }
+
+    @Nullable
+    private static String readFile(@NonNull File file, int maxLength) {
+        if (!file.isFile()) return null;
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            byte[] data = new byte[maxLength];
+            int read = 0;
+            while (read < data.length) {
+                int count = inputStream.read(data, read, data.length - read);
+                if (count < 0) break;
+                read += count;
+            }
+            return new String(data, 0, read, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+}
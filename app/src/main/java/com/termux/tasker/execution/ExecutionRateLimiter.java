@@ -0,0 +1,321 @@
+package com.termux.tasker.execution;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A rate limiter for the execution intents sent to the execution service, so that a burst of fires
+ * does not flood the execution service with start requests and push the device into memory pressure.
+ *
+ * A global {@link TokenBucket} limits the rate of all executions and a {@link TokenBucket} for each
+ * executable limits the rate of executions of the same executable. Executions for which tokens are
+ * not available are added to a bounded admission queue with a lane for each {@link ExecutionPriority},
+ * which is drained on the main thread with {@link PriorityLanes} as tokens get refilled. If the
+ * queue is full, then the newest execution in a lower priority lane is shed to make room, otherwise
+ * the execution is rejected and the plugin action should return {@link PluginUtils#RESULT_CODE_RATE_LIMITED}.
+ *
+ * The rates, burst sizes and queue size are loaded from the {@link PluginProperties}. A rate of
+ * {@code 0} disables the respective limit.
+ */
+public class ExecutionRateLimiter {
+
+    /** The max number of buckets for executables that are kept in memory if they are not full. */
+    public static final int MAX_EXECUTABLE_BUCKETS = 200;
+
+    /** The max value for rates and burst sizes in {@link PluginProperties}. */
+    public static final int MAX_VALUE_RATE = 1000;
+
+    /** The max value for queue size in {@link PluginProperties}. */
+    public static final int MAX_VALUE_QUEUE_SIZE = 1000;
+
+    /** The decision for an execution submitted to the rate limiter. */
+    public enum Decision {
+        /** The execution was admitted and its execution intent must be sent now. */
+        START,
+        /** The execution was queued and its execution intent will be sent by the rate limiter later. */
+        QUEUE,
+        /** The execution must be rejected. */
+        REJECT
+    }
+
+    /** An execution intent waiting to be sent to the execution service. */
+    public static class Dispatch {
+        /** The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}. */
+        @NonNull public final Intent originalIntent;
+        /** The {@link Intent} to be sent to the execution service. */
+        @NonNull public final Intent executionIntent;
+        /** The path of the executable, or an empty string if it is not known. */
+        @NonNull public final String executable;
+        /** Whether the plugin host app is waiting for the result of the execution. */
+        public final boolean waitForResult;
+        /** The {@link TrackedExecution#id} if execution is tracked by the {@link ExecutionRegistry}, otherwise {@code -1}. */
+        public final int executionId;
+        /** The {@link ExecutionOptions#coalesceGroupId} of the execution. */
+        public final int coalesceGroupId;
+        /** The id of the execution if it is watched by the {@link ExecutionWatchdog}, otherwise {@code -1}. */
+        public final int watchdogId;
+        /** The id of the entry of the execution in the {@link ExecutionJournal}, otherwise {@code -1}. */
+        public final int journalId;
+        /** The id of the execution in {@link RunningExecutions}, otherwise {@code -1}. */
+        public final int runningId;
+        /** The {@link ExecutionPriority} of the execution. */
+        @NonNull public final ExecutionPriority priority;
+        /** The {@link SystemClock#elapsedRealtime()} at which the execution was submitted. */
+        final long submitTime;
+        /**
+         * The callback for the result of an execution whose execution intent is run by the
+         * {@link DirectExecutor} and whose result is not processed by the
+         * {@link com.termux.tasker.PluginResultsService}, like the requests of the {@link CommandGateway}.
+         * It is also called with the failure result if the execution intent is not sent.
+         */
+        @Nullable public DirectExecutor.ResultCallback resultCallback;
+
+        public Dispatch(@NonNull Intent originalIntent, @NonNull Intent executionIntent, @Nullable String executable,
+                        boolean waitForResult, int executionId, int coalesceGroupId, int watchdogId,
+                        int journalId, int runningId, @NonNull ExecutionPriority priority) {
+            this.originalIntent = originalIntent;
+            this.executionIntent = executionIntent;
+            this.executable = executable != null ? executable : "";
+            this.waitForResult = waitForResult;
+            this.executionId = executionId;
+            this.coalesceGroupId = coalesceGroupId;
+            this.watchdogId = watchdogId;
+            this.journalId = journalId;
+            this.runningId = runningId;
+            this.priority = priority;
+            this.submitTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static final PriorityLanes QUEUE = new PriorityLanes();
+    private static final Map<String, TokenBucket> EXECUTABLE_BUCKETS = new HashMap<>();
+    private static TokenBucket GLOBAL_BUCKET;
+
+    private static int GLOBAL_PER_SECOND;
+    private static int GLOBAL_BURST;
+    private static int EXECUTABLE_PER_SECOND;
+    private static int EXECUTABLE_BURST;
+    private static int QUEUE_SIZE;
+
+    private static Context APP_CONTEXT;
+    private static Handler HANDLER;
+    private static boolean DRAIN_SCHEDULED;
+
+    private static final String LOG_TAG = "ExecutionRateLimiter";
+
+    /**
+     * Submit an execution to the rate limiter.
+     *
+     * @param context The {@link Context} for operations.
+     * @param dispatch The {@link Dispatch} for the execution.
+     * @return Returns the {@link Decision} for the execution.
+     */
+    @NonNull
+    public static Decision submit(@NonNull final Context context, @NonNull final Dispatch dispatch) {
+        Decision decision;
+        int queueDepth;
+        Dispatch shed = null;
+
+        synchronized (ExecutionRateLimiter.class) {
+            if (APP_CONTEXT == null) APP_CONTEXT = context.getApplicationContext();
+
+            long currentTime = SystemClock.elapsedRealtime();
+            loadConfig(currentTime);
+
+            // Only take a token if no execution of the same or a higher priority and no execution
+            // for the same executable is already waiting, so that they are not overtaken
+            if (!QUEUE.hasQueuedAtOrAbove(dispatch.priority) && !QUEUE.isQueued(dispatch.executable) &&
+                    tryAcquire(dispatch.executable, currentTime)) {
+                decision = Decision.START;
+            } else {
+                if (QUEUE.size() >= QUEUE_SIZE)
+                    shed = QUEUE.removeNewestBelow(dispatch.priority);
+
+                if (QUEUE.size() < QUEUE_SIZE) {
+                    QUEUE.add(dispatch);
+                    scheduleDrain(getTimeUntilNextDispatch(currentTime));
+                    decision = Decision.QUEUE;
+                } else {
+                    decision = Decision.REJECT;
+                }
+            }
+
+            queueDepth = QUEUE.size();
+            updateGauges(currentTime);
+        }
+
+        if (decision != Decision.START)
+            Logger.logDebug(LOG_TAG, "Rate limit decision for \"" + dispatch.executable + "\" with " + dispatch.priority.getName() +
+                    " priority: " + decision.name() + " (queue depth: " + queueDepth + ")");
+        else
+            recordDispatchLatency(dispatch);
+        PluginMetrics.incrementCounter("rate_limit_" + decision.name().toLowerCase(Locale.ROOT));
+
+        if (shed != null) {
+            Logger.logInfo(LOG_TAG, "Shedding queued execution for \"" + shed.executable + "\" with " + shed.priority.getName() +
+                    " priority to make room for one with " + dispatch.priority.getName() + " priority");
+            PluginMetrics.incrementCounter("priority_" + shed.priority.getName() + "_shed");
+            PluginUtils.rejectQueuedDispatch(context, shed);
+        }
+
+        return decision;
+    }
+
+    /** Get the number of executions waiting in the admission queue. */
+    public static synchronized int getQueuedCount() {
+        return QUEUE.size();
+    }
+
+    /** Get the max number of executions that can wait in the admission queue. */
+    public static synchronized int getQueueSize() {
+        return QUEUE_SIZE;
+    }
+
+
+
+    private static void drain() {
+        List<Dispatch> ready = new ArrayList<>();
+        Context context;
+
+        synchronized (ExecutionRateLimiter.class) {
+            DRAIN_SCHEDULED = false;
+            context = APP_CONTEXT;
+
+            long currentTime = SystemClock.elapsedRealtime();
+            loadConfig(currentTime);
+
+            // Skip executables whose bucket is empty so that they do not block other executables,
+            // but keep the order of executions of the same executable
+            Set<String> blockedExecutables = new HashSet<>();
+            while (!QUEUE.isEmpty()) {
+                if (GLOBAL_PER_SECOND > 0 && !GLOBAL_BUCKET.hasToken(currentTime)) break;
+
+                Dispatch dispatch = QUEUE.poll(currentTime, blockedExecutables,
+                        queued -> tryAcquire(queued.executable, currentTime));
+                if (dispatch == null) break;
+                ready.add(dispatch);
+            }
+
+            if (!QUEUE.isEmpty())
+                scheduleDrain(getTimeUntilNextDispatch(currentTime));
+            updateGauges(currentTime);
+        }
+
+        for (Dispatch dispatch : ready) {
+            long waitTime = SystemClock.elapsedRealtime() - dispatch.submitTime;
+            Logger.logDebug(LOG_TAG, "Sending execution intent for \"" + dispatch.executable + "\" after waiting " + waitTime + "ms for rate limit");
+            PluginMetrics.recordLatency("rate_limit_queue_wait", waitTime);
+            recordDispatchLatency(dispatch);
+            PluginUtils.dispatchExecutionIntent(context, null, dispatch);
+        }
+
+        if (context != null)
+            PluginMetrics.persist(context);
+    }
+
+    private static void scheduleDrain(long delay) {
+        if (DRAIN_SCHEDULED) return;
+        if (HANDLER == null) HANDLER = new Handler(Looper.getMainLooper());
+        DRAIN_SCHEDULED = true;
+        HANDLER.postDelayed(ExecutionRateLimiter::drain, Math.max(10, delay));
+    }
+
+    private static boolean tryAcquire(@NonNull String executable, long currentTime) {
+        if (GLOBAL_PER_SECOND > 0 && !GLOBAL_BUCKET.hasToken(currentTime))
+            return false;
+
+        if (EXECUTABLE_PER_SECOND > 0 && !getExecutableBucket(executable, currentTime).tryAcquire(currentTime))
+            return false;
+
+        if (GLOBAL_PER_SECOND > 0)
+            GLOBAL_BUCKET.tryAcquire(currentTime);
+        return true;
+    }
+
+    private static long getTimeUntilNextDispatch(long currentTime) {
+        long globalDelay = GLOBAL_PER_SECOND > 0 ? GLOBAL_BUCKET.getTimeUntilNextToken(currentTime) : 0;
+        if (EXECUTABLE_PER_SECOND <= 0) return globalDelay;
+
+        long executableDelay = Long.MAX_VALUE;
+        for (String executable : QUEUE.getExecutables())
+            executableDelay = Math.min(executableDelay, getExecutableBucket(executable, currentTime).getTimeUntilNextToken(currentTime));
+        return Math.max(globalDelay, executableDelay == Long.MAX_VALUE ? 0 : executableDelay);
+    }
+
+    @NonNull
+    private static TokenBucket getExecutableBucket(@NonNull String executable, long currentTime) {
+        TokenBucket bucket = EXECUTABLE_BUCKETS.get(executable);
+        if (bucket == null) {
+            // Full buckets are the same as new buckets, so they can be removed
+            if (EXECUTABLE_BUCKETS.size() >= MAX_EXECUTABLE_BUCKETS)
+                EXECUTABLE_BUCKETS.values().removeIf(existingBucket -> existingBucket.isFull(currentTime));
+
+            bucket = new TokenBucket(EXECUTABLE_BURST, EXECUTABLE_PER_SECOND, currentTime);
+            EXECUTABLE_BUCKETS.put(executable, bucket);
+        }
+        return bucket;
+    }
+
+    private static void loadConfig(long currentTime) {
+        int globalPerSecond = PluginProperties.getInt(PluginProperties.KEY_RATE_LIMIT_GLOBAL_PER_SECOND,
+                PluginProperties.DEFAULT_VALUE_RATE_LIMIT_GLOBAL_PER_SECOND, 0, MAX_VALUE_RATE);
+        int globalBurst = PluginProperties.getInt(PluginProperties.KEY_RATE_LIMIT_GLOBAL_BURST,
+                PluginProperties.DEFAULT_VALUE_RATE_LIMIT_GLOBAL_BURST, 1, MAX_VALUE_RATE);
+        int executablePerSecond = PluginProperties.getInt(PluginProperties.KEY_RATE_LIMIT_EXECUTABLE_PER_SECOND,
+                PluginProperties.DEFAULT_VALUE_RATE_LIMIT_EXECUTABLE_PER_SECOND, 0, MAX_VALUE_RATE);
+        int executableBurst = PluginProperties.getInt(PluginProperties.KEY_RATE_LIMIT_EXECUTABLE_BURST,
+                PluginProperties.DEFAULT_VALUE_RATE_LIMIT_EXECUTABLE_BURST, 1, MAX_VALUE_RATE);
+        QUEUE_SIZE = PluginProperties.getInt(PluginProperties.KEY_RATE_LIMIT_QUEUE_SIZE,
+                PluginProperties.DEFAULT_VALUE_RATE_LIMIT_QUEUE_SIZE, 0, MAX_VALUE_QUEUE_SIZE);
+
+        if (GLOBAL_BUCKET == null) {
+            GLOBAL_BUCKET = new TokenBucket(globalBurst, globalPerSecond, currentTime);
+        } else if (globalPerSecond != GLOBAL_PER_SECOND || globalBurst != GLOBAL_BURST) {
+            GLOBAL_BUCKET.configure(globalBurst, globalPerSecond, currentTime);
+        }
+
+        if (executablePerSecond != EXECUTABLE_PER_SECOND || executableBurst != EXECUTABLE_BURST) {
+            for (TokenBucket bucket : EXECUTABLE_BUCKETS.values())
+                bucket.configure(executableBurst, executablePerSecond, currentTime);
+        }
+
+        GLOBAL_PER_SECOND = globalPerSecond;
+        GLOBAL_BURST = globalBurst;
+        EXECUTABLE_PER_SECOND = executablePerSecond;
+        EXECUTABLE_BURST = executableBurst;
+    }
+
+    private static void recordDispatchLatency(@NonNull Dispatch dispatch) {
+        PluginMetrics.incrementCounter("priority_" + dispatch.priority.getName() + "_dispatched");
+        PluginMetrics.recordLatency("priority_" + dispatch.priority.getName() + "_dispatch_latency",
+                SystemClock.elapsedRealtime() - dispatch.submitTime);
+    }
+
+    private static void updateGauges(long currentTime) {
+        PluginMetrics.setGauge("rate_limit_queue_depth", QUEUE.size());
+        for (ExecutionPriority priority : ExecutionPriority.values())
+            PluginMetrics.setGauge("priority_" + priority.getName() + "_queue_depth", QUEUE.size(priority));
+        if (GLOBAL_PER_SECOND > 0)
+            PluginMetrics.setGauge("rate_limit_global_tokens", GLOBAL_BUCKET.getAvailableTokens(currentTime));
+    }
+
+}
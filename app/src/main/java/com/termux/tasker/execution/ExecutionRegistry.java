@@ -0,0 +1,317 @@
+package com.termux.tasker.execution;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A registry of the in-flight executions of the plugin to enforce the max concurrent instances
+ * limit of plugin actions for their executables.
+ *
+ * Executions are submitted with {@link #submit(Context, TrackedExecution, int, OverflowPolicy)}
+ * from {@link PluginUtils#sendExecuteIntentToExecuteService} before the execution intent is sent,
+ * and released with {@link #release(Context, int)} from the {@link com.termux.tasker.PluginResultsService}
+ * when their result is received, at which point the next queued execution for the executable, if
+ * any, is started. Its execution intent is then submitted to the {@link ExecutionRateLimiter} like
+ * the execution intents of new fires.
+ *
+ * Since the result of an execution may never be received, for example if the execution service
+ * is killed, the slots of executions are also reclaimed without their result. An execution is
+ * released by the {@link ExecutionWatchdog} once its timeout result has been sent, since the plugin
+ * host app is no longer waiting for it. When the limit of an executable is reached, the running
+ * executions whose pid is tracked and whose process has exited are released before the overflow
+ * policy is applied, since their result would have been received by then unless it was lost.
+ *
+ * The registry only exists in memory of the `:background` process, in which both the
+ * {@link com.termux.tasker.FireReceiver} and the {@link com.termux.tasker.PluginResultsService} run.
+ */
+public class ExecutionRegistry {
+
+    /** The max number of executions that can be queued for an executable. */
+    public static final int MAX_QUEUED_EXECUTIONS_PER_EXECUTABLE = 50;
+
+    /** The decision for an execution submitted to the registry. */
+    public enum Decision {
+        /** The execution was registered and its execution intent must be sent now. */
+        START,
+        /** The execution was queued and its execution intent will be sent by the registry later. */
+        QUEUE,
+        /** The execution must be dropped. */
+        DROP,
+        /** The execution must be rejected. */
+        REJECT
+    }
+
+    private static final Map<String, List<TrackedExecution>> RUNNING = new HashMap<>();
+    private static final Map<String, ArrayDeque<TrackedExecution>> QUEUED = new HashMap<>();
+    private static final Map<Integer, TrackedExecution> REPLACED = new HashMap<>();
+
+    private static final String LOG_TAG = "ExecutionRegistry";
+
+    /**
+     * Submit an execution to the registry.
+     *
+     * @param context The {@link Context} for operations.
+     * @param execution The {@link TrackedExecution} to submit.
+     * @param maxConcurrentInstances The max number of instances of the executable that can run
+     *                               concurrently. If this is {@code <= 0}, then there is no limit.
+     * @param overflowPolicy The {@link OverflowPolicy} to use if the limit has been reached.
+     * @return Returns the {@link Decision} for the execution.
+     */
+    @NonNull
+    public static Decision submit(@NonNull final Context context, @NonNull final TrackedExecution execution,
+                                  int maxConcurrentInstances, @NonNull OverflowPolicy overflowPolicy) {
+        if (maxConcurrentInstances > 0)
+            reclaimExited(context, execution.executable, maxConcurrentInstances);
+
+        synchronized (ExecutionRegistry.class) {
+            return submitLocked(context, execution, maxConcurrentInstances, overflowPolicy);
+        }
+    }
+
+    /**
+     * Release an execution whose result has been received or whose slot is reclaimed and start the
+     * next queued execution for its executable, if any.
+     *
+     * @param context The {@link Context} for operations.
+     * @param id The {@link TrackedExecution#id} of the execution.
+     * @return Returns the released {@link TrackedExecution}, otherwise {@code null} if it was not
+     * registered.
+     */
+    @Nullable
+    public static TrackedExecution release(@NonNull final Context context, int id) {
+        TrackedExecution released;
+        TrackedExecution next = null;
+
+        synchronized (ExecutionRegistry.class) {
+            released = REPLACED.remove(id);
+            if (released == null) {
+                released = removeRunning(id);
+                if (released != null)
+                    next = pollQueued(released.executable);
+            }
+
+            if (released != null) {
+                ExecutionProcessUtils.deletePidFile(released.pidFilePath);
+                PluginMetrics.recordLatency("concurrency_run_time", SystemClock.elapsedRealtime() - released.startTime);
+            }
+
+            if (next != null) {
+                next.startTime = SystemClock.elapsedRealtime();
+                getRunning(next.executable).add(next);
+                PluginMetrics.recordLatency("concurrency_queue_wait", next.startTime - next.submitTime);
+            }
+
+            updateGauges();
+        }
+
+        if (released == null) {
+            Logger.logDebug(LOG_TAG, "Ignoring release of unregistered execution with id " + id);
+            return null;
+        }
+
+        Logger.logDebug(LOG_TAG, "Released " + released + (released.replaced ? " (replaced)" : ""));
+
+        if (next != null) {
+            if (RunningExecutions.isCancelled(next.id)) {
+                // The result was already sent when the execution was cancelled while it was queued,
+                // and it is not sent through the rate limiter, which would not send it but take a
+                // token. Its followers, watchdog, journal entry and slot are released the same way
+                // as if it was cancelled while queued by the rate limiter.
+                Logger.logDebug(LOG_TAG, "Not starting queued " + next + " since it was cancelled");
+                PluginUtils.dispatchExecutionIntent(context, null, next.createDispatch());
+            } else {
+                // Send it through the rate limiter like the execution intents of new fires, which
+                // also abandons its coalesce group and releases it again if it is not sent
+                Logger.logDebug(LOG_TAG, "Starting queued " + next + " after " + (next.startTime - next.submitTime) + "ms");
+                PluginUtils.dispatchQueuedExecution(context, next.createDispatch());
+            }
+        }
+
+        PluginMetrics.persist(context);
+        return released;
+    }
+
+    /** Get the number of running executions for {@code executable}. */
+    public static synchronized int getRunningCount(@NonNull String executable) {
+        List<TrackedExecution> running = RUNNING.get(executable);
+        return running == null ? 0 : running.size();
+    }
+
+    /** Get the number of queued executions for {@code executable}. */
+    public static synchronized int getQueuedCount(@NonNull String executable) {
+        ArrayDeque<TrackedExecution> queued = QUEUED.get(executable);
+        return queued == null ? 0 : queued.size();
+    }
+
+    /** Remove all running and queued executions without starting or releasing them. */
+    @VisibleForTesting
+    static synchronized void clear() {
+        RUNNING.clear();
+        QUEUED.clear();
+        REPLACED.clear();
+    }
+
+
+
+    @NonNull
+    private static Decision submitLocked(@NonNull final Context context, @NonNull final TrackedExecution execution,
+                                         int maxConcurrentInstances, @NonNull OverflowPolicy overflowPolicy) {
+        List<TrackedExecution> running = getRunning(execution.executable);
+
+        Decision decision;
+        if (maxConcurrentInstances <= 0 || running.size() < maxConcurrentInstances) {
+            decision = Decision.START;
+        } else {
+            switch (overflowPolicy) {
+                case DROP_NEW:
+                    decision = Decision.DROP;
+                    break;
+                case REJECT:
+                    decision = Decision.REJECT;
+                    break;
+                case REPLACE_OLDEST:
+                    if (replaceOldest(running)) {
+                        decision = Decision.START;
+                        break;
+                    }
+                    // If oldest instance could not be killed, then fallback to queueing
+                    Logger.logWarn(LOG_TAG, "Queueing " + execution + " since the oldest instance could not be replaced");
+                case QUEUE:
+                default:
+                    decision = queue(execution) ? Decision.QUEUE : Decision.REJECT;
+                    break;
+            }
+        }
+
+        if (decision == Decision.START) {
+            execution.startTime = SystemClock.elapsedRealtime();
+            running.add(execution);
+        }
+
+        Logger.logDebug(LOG_TAG, "Submitted " + execution + ": " + decision.name() +
+                " (running: " + running.size() + ", limit: " + maxConcurrentInstances + ", policy: " + overflowPolicy.getName() + ")");
+        PluginMetrics.incrementCounter("concurrency_" + decision.name().toLowerCase(Locale.ROOT));
+        updateGauges();
+        PluginMetrics.persist(context);
+        return decision;
+    }
+
+    /**
+     * Release the running executions of an executable whose process has exited if its limit has
+     * been reached. Only executions whose pid is tracked can be checked.
+     */
+    private static void reclaimExited(@NonNull final Context context, @NonNull String executable, int maxConcurrentInstances) {
+        List<Integer> exitedIds = new ArrayList<>();
+        synchronized (ExecutionRegistry.class) {
+            List<TrackedExecution> running = RUNNING.get(executable);
+            if (running == null || running.size() < maxConcurrentInstances) return;
+
+            for (TrackedExecution execution : running) {
+                if (ExecutionProcessUtils.hasExecutionExited(execution.pidFilePath, execution.executable))
+                    exitedIds.add(execution.id);
+            }
+        }
+
+        for (int id : exitedIds) {
+            Logger.logWarn(LOG_TAG, "Reclaiming slot of execution with id " + id + " since its process has exited without its result being received");
+            PluginMetrics.incrementCounter("concurrency_reclaimed");
+            release(context, id);
+            ProgressReporter.stop(id);
+        }
+    }
+
+    @NonNull
+    private static List<TrackedExecution> getRunning(@NonNull String executable) {
+        List<TrackedExecution> running = RUNNING.get(executable);
+        if (running == null) {
+            running = new ArrayList<>();
+            RUNNING.put(executable, running);
+        }
+        return running;
+    }
+
+    @Nullable
+    private static TrackedExecution removeRunning(int id) {
+        for (Map.Entry<String, List<TrackedExecution>> entry : RUNNING.entrySet()) {
+            List<TrackedExecution> running = entry.getValue();
+            for (int i = 0; i < running.size(); i++) {
+                if (running.get(i).id == id) {
+                    TrackedExecution execution = running.remove(i);
+                    if (running.isEmpty()) RUNNING.remove(entry.getKey());
+                    return execution;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean queue(@NonNull TrackedExecution execution) {
+        ArrayDeque<TrackedExecution> queued = QUEUED.get(execution.executable);
+        if (queued == null) {
+            queued = new ArrayDeque<>();
+            QUEUED.put(execution.executable, queued);
+        }
+
+        if (queued.size() >= MAX_QUEUED_EXECUTIONS_PER_EXECUTABLE) {
+            Logger.logWarn(LOG_TAG, "Rejecting " + execution + " since " + queued.size() + " executions are already queued");
+            return false;
+        }
+
+        queued.addLast(execution);
+        return true;
+    }
+
+    @Nullable
+    private static TrackedExecution pollQueued(@NonNull String executable) {
+        ArrayDeque<TrackedExecution> queued = QUEUED.get(executable);
+        if (queued == null) return null;
+        TrackedExecution next = queued.pollFirst();
+        if (queued.isEmpty()) QUEUED.remove(executable);
+        return next;
+    }
+
+    private static boolean replaceOldest(@NonNull List<TrackedExecution> running) {
+        if (running.isEmpty()) return false;
+
+        TrackedExecution oldest = running.get(0);
+        if (!ExecutionProcessUtils.signalExecution(oldest.pidFilePath, oldest.executable, ExecutionProcessUtils.SIGNAL_TERM))
+            return false;
+
+        Logger.logDebug(LOG_TAG, "Replaced oldest " + oldest);
+        running.remove(0);
+        oldest.replaced = true;
+        // Keep it till its result is received so that the replaced err can be returned for it
+        REPLACED.put(oldest.id, oldest);
+        PluginMetrics.incrementCounter("concurrency_replaced");
+        return true;
+    }
+
+    private static void updateGauges() {
+        int runningCount = 0;
+        for (List<TrackedExecution> running : RUNNING.values())
+            runningCount += running.size();
+
+        int queuedCount = 0;
+        for (ArrayDeque<TrackedExecution> queued : QUEUED.values())
+            queuedCount += queued.size();
+
+        PluginMetrics.setGauge("concurrency_running", runningCount);
+        PluginMetrics.setGauge("concurrency_queue_depth", queuedCount);
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.termux.tasker.execution;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.R;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A watchdog for the executions whose result the plugin host app is waiting for.
+ *
+ * The plugin host app sends the timeout of the plugin action as a hint, which is read with
+ * {@link TaskerPlugin.Setting#getHintTimeoutMS(android.os.Bundle)}. If the result of an execution
+ * has not been received by the {@link com.termux.tasker.PluginResultsService} shortly before the
+ * timeout, then the watchdog sends the {@link PluginUtils#RESULT_CODE_TIMEOUT} result to the plugin
+ * host app itself so that it does not have to block till its own timeout, optionally kills the
+ * command if its pid is being tracked and releases its slot in the {@link ExecutionRegistry}. The
+ * result received later for the execution is ignored.
+ *
+ * The timeout is scheduled against {@link SystemClock#elapsedRealtime()}, since the plugin host app
+ * also measures its timeout in real time, including the time the device spends in deep sleep.
+ * On Android {@code >= 7} it is scheduled with a listener based {@link AlarmManager} alarm that
+ * wakes up the device. On older versions, where listener based alarms do not exist, it is
+ * scheduled with a {@link Handler}, whose clock stops in deep sleep, so the remaining time is
+ * recomputed from the real time every {@link #MAX_MARGIN_MS} and the timeout result is sent as
+ * soon as the device wakes up if it has elapsed.
+ */
+public class ExecutionWatchdog {
+
+    /** The max time before the host timeout at which the timeout result is sent. */
+    public static final long MAX_MARGIN_MS = 1000;
+
+    /** The max number of ids of executions that timed out that are remembered till their result is received. */
+    private static final int MAX_TIMED_OUT_IDS = 500;
+
+    private static final Map<Integer, WatchedExecution> WATCHED = new HashMap<>();
+    private static final Set<Integer> TIMED_OUT = new LinkedHashSet<>();
+    private static Handler HANDLER;
+
+    private static final String LOG_TAG = "ExecutionWatchdog";
+
+    /**
+     * Get the delay after which the timeout result should be sent for a plugin action.
+     *
+     * @param hostTimeout The timeout hint of the plugin host app.
+     * @return Returns the delay in milliseconds, otherwise {@code -1} if the host did not send a
+     * hint or will not wait for the result or will wait for it forever.
+     */
+    public static long getTimeoutDelay(int hostTimeout) {
+        if (hostTimeout <= TaskerPlugin.Setting.REQUESTED_TIMEOUT_MS_NONE ||
+                hostTimeout > TaskerPlugin.Setting.REQUESTED_TIMEOUT_MS_MAX)
+            return -1;
+        return hostTimeout - Math.min(MAX_MARGIN_MS, hostTimeout / 10);
+    }
+
+    /**
+     * Start watching an execution.
+     *
+     * @param context The {@link Context} that will be used to send the timeout result.
+     * @param id The id of the execution, which is the request code of its result {@link android.app.PendingIntent}.
+     * @param originalIntent The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}.
+     * @param executable The path of the executable of the execution.
+     * @param pidFilePath The path to the pid file of the execution if the command should be killed
+     *                    on timeout, otherwise {@code null}.
+     * @param ownsPidFile Whether the pid file must be deleted by the watchdog when the execution completes.
+     * @param timeoutDelay The delay returned by {@link #getTimeoutDelay(int)}.
+     */
+    public static synchronized void watch(@NonNull final Context context, int id, @NonNull Intent originalIntent,
+                                          @Nullable String executable, @Nullable String pidFilePath,
+                                          boolean ownsPidFile, long timeoutDelay) {
+        if (HANDLER == null) HANDLER = new Handler(Looper.getMainLooper());
+
+        final Context appContext = context.getApplicationContext();
+        WatchedExecution execution = new WatchedExecution(id, originalIntent, executable, pidFilePath, ownsPidFile, timeoutDelay);
+        WATCHED.put(id, execution);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            AlarmManager alarmManager = (AlarmManager) appContext.getSystemService(Context.ALARM_SERVICE);
+            execution.timeoutListener = () -> onTimeout(appContext, id);
+            alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, execution.startTime + timeoutDelay,
+                    LOG_TAG, execution.timeoutListener, HANDLER);
+            execution.alarmManager = alarmManager;
+        } else {
+            execution.timeoutRunnable = () -> onTimeoutCheck(appContext, id);
+            HANDLER.postDelayed(execution.timeoutRunnable, Math.min(timeoutDelay, MAX_MARGIN_MS));
+        }
+        PluginMetrics.setGauge("watchdog_watched", WATCHED.size());
+    }
+
+    /**
+     * Stop watching an execution whose result has been received.
+     *
+     * @param id The id of the execution.
+     * @return Returns {@code false} if the timeout result has already been sent for the execution
+     * and the result must be ignored, otherwise {@code true}.
+     */
+    public static synchronized boolean complete(int id) {
+        WatchedExecution execution = WATCHED.remove(id);
+        PluginMetrics.setGauge("watchdog_watched", WATCHED.size());
+        if (execution != null) {
+            cancelTimeout(execution);
+            if (execution.ownsPidFile)
+                ExecutionProcessUtils.deletePidFile(execution.pidFilePath);
+            return true;
+        }
+
+        if (TIMED_OUT.remove(id)) {
+            Logger.logDebug(LOG_TAG, "Ignoring result of execution with id " + id + " since its timeout result has already been sent");
+            PluginMetrics.incrementCounter("watchdog_late_results");
+            return false;
+        }
+
+        return true;
+    }
+
+
+
+    private static void cancelTimeout(@NonNull WatchedExecution execution) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && execution.timeoutListener != null)
+            execution.alarmManager.cancel(execution.timeoutListener);
+        if (HANDLER != null && execution.timeoutRunnable != null)
+            HANDLER.removeCallbacks(execution.timeoutRunnable);
+    }
+
+    /** Send the timeout result if the timeout has elapsed in real time, otherwise check again later. */
+    private static void onTimeoutCheck(@NonNull final Context context, int id) {
+        synchronized (ExecutionWatchdog.class) {
+            WatchedExecution execution = WATCHED.get(id);
+            if (execution == null) return;
+
+            long remainingTime = execution.startTime + execution.timeoutDelay - SystemClock.elapsedRealtime();
+            if (remainingTime > 0) {
+                HANDLER.postDelayed(execution.timeoutRunnable, Math.min(remainingTime, MAX_MARGIN_MS));
+                return;
+            }
+        }
+
+        onTimeout(context, id);
+    }
+
+    private static void onTimeout(@NonNull final Context context, int id) {
+        WatchedExecution execution;
+        synchronized (ExecutionWatchdog.class) {
+            execution = WATCHED.remove(id);
+            if (execution == null) return;
+
+            TIMED_OUT.add(id);
+            if (TIMED_OUT.size() > MAX_TIMED_OUT_IDS) {
+                Iterator<Integer> iterator = TIMED_OUT.iterator();
+                iterator.next();
+                iterator.remove();
+            }
+            PluginMetrics.setGauge("watchdog_watched", WATCHED.size());
+        }
+
+        boolean killed = false;
+        if (execution.pidFilePath != null && execution.executable != null) {
+            killed = ExecutionProcessUtils.signalExecution(execution.pidFilePath, execution.executable, ExecutionProcessUtils.SIGNAL_TERM);
+            if (execution.ownsPidFile)
+                ExecutionProcessUtils.deletePidFile(execution.pidFilePath);
+        }
+
+        long elapsedTime = SystemClock.elapsedRealtime() - execution.startTime;
+        String errmsg = context.getString(killed ? R.string.error_execution_timed_out_and_killed : R.string.error_execution_timed_out,
+                execution.executable, elapsedTime);
+        Logger.logError(LOG_TAG, errmsg);
+
+        PluginMetrics.incrementCounter("watchdog_timeouts");
+        if (killed)
+            PluginMetrics.incrementCounter("watchdog_killed");
+        PluginMetrics.persist(context);
+
+        ResultDelivery.signalFinish(context, execution.originalIntent, PluginUtils.RESULT_CODE_TIMEOUT,
+                PluginUtils.createVariablesBundle(null, null, null, null, null, PluginUtils.RESULT_CODE_TIMEOUT, errmsg));
+        ExecutionJournal.end(context, id);
+
+        // Release its slot and stop reporting its progress since its result may never be received,
+        // which are ignored if it is not tracked or its progress is not reported
+        ExecutionRegistry.release(context, id);
+        ProgressReporter.stop(id);
+    }
+
+    private static class WatchedExecution {
+        final int id;
+        @NonNull final Intent originalIntent;
+        @Nullable final String executable;
+        @Nullable final String pidFilePath;
+        final boolean ownsPidFile;
+        final long timeoutDelay;
+        final long startTime;
+        /** The alarm listener of the timeout on Android {@code >= 7}. */
+        AlarmManager.OnAlarmListener timeoutListener;
+        AlarmManager alarmManager;
+        /** The {@link Handler} callback of the timeout on Android {@code < 7}. */
+        Runnable timeoutRunnable;
+
+        WatchedExecution(int id, @NonNull Intent originalIntent, @Nullable String executable,
+                         @Nullable String pidFilePath, boolean ownsPidFile, long timeoutDelay) {
+            this.id = id;
+            this.originalIntent = originalIntent;
+            this.executable = executable;
+            this.pidFilePath = pidFilePath;
+            this.ownsPidFile = ownsPidFile;
+            this.timeoutDelay = timeoutDelay;
+            this.startTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+package com.termux.tasker.execution;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+import com.termux.tasker.R;
+import com.termux.tasker.output.OutputCache;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A coalescer for identical fires of plugin actions received by the {@link com.termux.tasker.FireReceiver}.
+ *
+ * Fires are identical if their {@link #getCoalesceKey(ExecutionCommand)} is the same, i.e. the
+ * command to be run is the same after the plugin host app has substituted the variables in the
+ * plugin action. The first fire for a key starts a group and is its leader, which is executed
+ * normally. All identical fires received within the coalesce window from the leader fire are
+ * merged into the group as followers and are not executed. When the result of the leader is
+ * received by the {@link com.termux.tasker.PluginResultsService}, it is sent to each follower
+ * waiting for result with its own original intent. Followers received after the leader has
+ * finished but still within the window are sent the cached result of the leader immediately.
+ *
+ * The groups only exist in memory of the `:background` process, in which both the
+ * {@link com.termux.tasker.FireReceiver} and the {@link com.termux.tasker.PluginResultsService} run.
+ */
+public class FireCoalescer {
+
+    /** The max number of groups that are kept in memory. */
+    public static final int MAX_GROUPS = 100;
+
+    /** The max number of followers of a group, after which a new group is started. */
+    public static final int MAX_FOLLOWERS_PER_GROUP = 100;
+
+    private static final Map<Integer, CoalesceGroup> GROUPS = new LinkedHashMap<>();
+    private static final Map<String, CoalesceGroup> CURRENT_GROUPS = new HashMap<>();
+    private static int NEXT_GROUP_ID = 0;
+
+    private static final String LOG_TAG = "FireCoalescer";
+
+    /**
+     * Get the key to coalesce fires of an {@link ExecutionCommand} with.
+     *
+     * @param executionCommand The {@link ExecutionCommand} of the fire, whose variables must have
+     *                         already been substituted.
+     * @return Returns the SHA-256 hex digest of the command fields that affect the execution.
+     */
+    @NonNull
+    public static String getCoalesceKey(@NonNull ExecutionCommand executionCommand) {
+        StringBuilder builder = new StringBuilder();
+        appendKeyField(builder, executionCommand.executable);
+        if (executionCommand.arguments != null) {
+            builder.append(executionCommand.arguments.length).append('\0');
+            for (String argument : executionCommand.arguments)
+                appendKeyField(builder, argument);
+        }
+        appendKeyField(builder, executionCommand.workingDirectory);
+        appendKeyField(builder, executionCommand.stdin);
+        appendKeyField(builder, executionCommand.runner);
+        appendKeyField(builder, executionCommand.sessionAction);
+        appendKeyField(builder, executionCommand.backgroundCustomLogLevel == null ? null :
+                executionCommand.backgroundCustomLogLevel.toString());
+
+        byte[] data = builder.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                key.append(String.format("%02x", b & 0xff));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Should not happen since SHA-256 is required to be supported by all platforms
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Coalesce a fire into the current group for its key, if one exists and its window has not
+     * elapsed, otherwise start a new group with the fire as its leader.
+     *
+     * If the fire is merged into a group, then its result is set for the {@code receiver}, i.e.
+     * {@link TaskerPlugin.Setting#RESULT_CODE_PENDING} if it is waiting for the result of the
+     * leader that has not finished yet, otherwise the result of the leader if it has finished, or
+     * {@link TaskerPlugin.Setting#RESULT_CODE_OK} if it is not waiting for result.
+     *
+     * If more than {@link #MAX_GROUPS} groups exist after a new group is started, then the oldest
+     * finished groups are evicted first, and only then the oldest groups whose leader has not
+     * finished yet, whose followers are sent a failure result, since the result of their leader
+     * would otherwise be ignored.
+     *
+     * @param context The {@link Context} that will be used to send results to plugin host app.
+     * @param receiver The {@link BroadcastReceiver} of the originalIntent.
+     * @param originalIntent The {@link Intent} received by {@link com.termux.tasker.FireReceiver}.
+     * @param coalesceKey The key returned by {@link #getCoalesceKey(ExecutionCommand)} for the fire.
+     * @param coalesceWindow The window in milliseconds from the leader fire in which fires are merged.
+     * @param waitForResult Whether plugin host app is waiting for the result of the fire.
+     * @return Returns the id of the new group if the fire must be executed as its leader, otherwise
+     * {@code -1} if it was merged into an existing group.
+     */
+    public static int coalesce(@NonNull final Context context, final BroadcastReceiver receiver, @NonNull final Intent originalIntent,
+                               @NonNull String coalesceKey, int coalesceWindow, boolean waitForResult) {
+        CoalesceGroup group;
+        boolean merged = false;
+        boolean finished = false;
+        List<CoalesceGroup> evicted = null;
+
+        synchronized (FireCoalescer.class) {
+            long currentTime = SystemClock.elapsedRealtime();
+            removeExpiredGroups(currentTime);
+
+            group = CURRENT_GROUPS.get(coalesceKey);
+            if (group != null && currentTime - group.fireTime < coalesceWindow &&
+                    group.followers.size() < MAX_FOLLOWERS_PER_GROUP) {
+                merged = true;
+                group.mergedCount++;
+                finished = group.finished;
+                if (!finished && waitForResult)
+                    group.followers.add(originalIntent);
+            } else {
+                group = new CoalesceGroup(NEXT_GROUP_ID++, coalesceKey, coalesceWindow, currentTime);
+                if (NEXT_GROUP_ID < 0) NEXT_GROUP_ID = 0;
+                GROUPS.put(group.id, group);
+                CURRENT_GROUPS.put(coalesceKey, group);
+                evicted = evictOldestGroupsIfRequired();
+            }
+        }
+
+        if (evicted != null && !evicted.isEmpty()) {
+            String errmsg = context.getString(R.string.error_coalesce_group_evicted, MAX_GROUPS);
+            for (CoalesceGroup evictedGroup : evicted)
+                sendResultToFollowers(context, evictedGroup.followers, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+        }
+
+        if (!merged) {
+            Logger.logDebug(LOG_TAG, "Started " + group);
+            PluginMetrics.incrementCounter("coalesce_leaders");
+            return group.id;
+        }
+
+        Logger.logInfo(LOG_TAG, "Merged fire into " + group + (finished ? " that has already finished" : ""));
+        PluginMetrics.incrementCounter("coalesce_merged");
+
+        if (!waitForResult)
+            PluginUtils.sendImmediateResultToPluginHostApp(receiver, originalIntent, TaskerPlugin.Setting.RESULT_CODE_OK, null);
+        else if (finished)
+            PluginUtils.sendImmediateResultToPluginHostApp(receiver, originalIntent, group.resultBundle, group.errCode, group.errmsg,
+                    group.outputCache);
+        else if (receiver != null)
+            receiver.setResultCode(TaskerPlugin.Setting.RESULT_CODE_PENDING);
+
+        return -1;
+    }
+
+    /**
+     * Complete a group whose leader has finished executing and send its result to the followers
+     * waiting for it.
+     *
+     * @param context The {@link Context} that will be used to send the result to plugin host app.
+     * @param groupId The id of the group.
+     * @param intent The {@link Intent} containing result and original intent of the leader received
+     *               by the {@link com.termux.tasker.PluginResultsService}.
+     * @param errCode The value for {@link PluginUtils#PLUGIN_VARIABLE_ERR} to send instead of the
+     *                one in the result bundle. Ignored if {@code null}.
+     * @param errmsg The value for {@link PluginUtils#PLUGIN_VARIABLE_ERRMSG} to send instead of the
+     *               one in the result bundle if {@code errCode} is not {@code null}.
+     * @param outputCache The {@link OutputCache} of the execution of the leader, which is also used
+     *                    for the followers received later.
+     */
+    public static void complete(@NonNull final Context context, int groupId, @NonNull final Intent intent,
+                                @Nullable Integer errCode, @Nullable String errmsg, @NonNull OutputCache outputCache) {
+        CoalesceGroup group;
+        List<Intent> followers;
+
+        synchronized (FireCoalescer.class) {
+            group = GROUPS.get(groupId);
+            if (group == null) {
+                Logger.logDebug(LOG_TAG, "Ignoring result of unknown coalesce group with id " + groupId);
+                return;
+            }
+
+            Bundle resultBundle = intent.getBundleExtra(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE);
+            group.resultBundle = resultBundle != null ? new Bundle(resultBundle) : new Bundle();
+            group.errCode = errCode;
+            group.errmsg = errmsg;
+            group.outputCache = outputCache;
+            group.finished = true;
+
+            followers = new ArrayList<>(group.followers);
+            group.followers.clear();
+            removeExpiredGroups(SystemClock.elapsedRealtime());
+        }
+
+        Logger.logDebug(LOG_TAG, "Completed " + group + ", sending result to " + followers.size() + " followers");
+        PluginMetrics.recordLatency("coalesce_group_run_time", SystemClock.elapsedRealtime() - group.fireTime);
+
+        for (Intent followerOriginalIntent : followers) {
+            Intent followerIntent = new Intent(intent);
+            followerIntent.putExtra(PluginUtils.EXTRA_ORIGINAL_INTENT, followerOriginalIntent);
+            PluginUtils.sendPendingResultToPluginHostApp(context, followerIntent, errCode, errmsg, outputCache);
+        }
+
+        PluginMetrics.persist(context);
+    }
+
+    /**
+     * Abandon a group whose leader was not executed, so that next identical fires are not merged
+     * into it, and send the result of the leader to the followers waiting for it, if any.
+     *
+     * @param context The {@link Context} that will be used to send the result to plugin host app.
+     * @param groupId The id of the group.
+     * @param errCode The value for {@link PluginUtils#PLUGIN_VARIABLE_ERR} of the leader.
+     * @param errmsg The value for {@link PluginUtils#PLUGIN_VARIABLE_ERRMSG} of the leader.
+     */
+    public static void abandon(@NonNull final Context context, int groupId, int errCode, @Nullable String errmsg) {
+        CoalesceGroup group;
+        List<Intent> followers;
+
+        synchronized (FireCoalescer.class) {
+            group = GROUPS.remove(groupId);
+            if (group == null) return;
+            if (CURRENT_GROUPS.get(group.key) == group)
+                CURRENT_GROUPS.remove(group.key);
+
+            followers = new ArrayList<>(group.followers);
+            group.followers.clear();
+        }
+
+        Logger.logDebug(LOG_TAG, "Abandoned " + group + (followers.isEmpty() ? "" : ", sending result to " + followers.size() + " followers"));
+        sendResultToFollowers(context, followers, errCode, errmsg);
+    }
+
+
+    /** Get the number of groups kept in memory. */
+    @VisibleForTesting
+    static synchronized int getGroupCount() {
+        return GROUPS.size();
+    }
+
+    /** Remove all groups without sending results to their followers. */
+    @VisibleForTesting
+    static synchronized void clear() {
+        GROUPS.clear();
+        CURRENT_GROUPS.clear();
+    }
+
+
+
+    private static void appendKeyField(@NonNull StringBuilder builder, @Nullable String field) {
+        // Distinguish null from empty fields and prevent fields from running into each other
+        if (field == null)
+            builder.append('\1');
+        else
+            builder.append(field.length()).append(':').append(field);
+        builder.append('\0');
+    }
+
+    private static void removeExpiredGroups(long currentTime) {
+        Iterator<CoalesceGroup> iterator = GROUPS.values().iterator();
+        while (iterator.hasNext()) {
+            CoalesceGroup group = iterator.next();
+            if (currentTime - group.fireTime < group.window) continue;
+
+            if (CURRENT_GROUPS.get(group.key) == group)
+                CURRENT_GROUPS.remove(group.key);
+            // Groups whose leader has not finished yet must be kept till their followers get the result
+            if (group.finished)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Evict the oldest groups if more than {@link #MAX_GROUPS} groups exist. The finished groups
+     * are evicted first since nothing is waiting for them, then the groups without followers, and
+     * only then the groups with followers, which must then be sent a failure result by the caller.
+     *
+     * @return Returns the evicted groups whose followers must be sent a failure result.
+     */
+    @NonNull
+    private static List<CoalesceGroup> evictOldestGroupsIfRequired() {
+        List<CoalesceGroup> evictedWithFollowers = new ArrayList<>();
+        for (int pass = 0; pass < 3 && GROUPS.size() > MAX_GROUPS; pass++) {
+            Iterator<CoalesceGroup> iterator = GROUPS.values().iterator();
+            while (GROUPS.size() > MAX_GROUPS && iterator.hasNext()) {
+                CoalesceGroup group = iterator.next();
+                if ((pass == 0 && !group.finished) || (pass == 1 && !group.followers.isEmpty())) continue;
+
+                Logger.logWarn(LOG_TAG, "Evicting " + group + " since " + MAX_GROUPS + " groups already exist" +
+                        (group.followers.isEmpty() ? "" : ", sending failure result to its " + group.followers.size() + " followers"));
+                if (CURRENT_GROUPS.get(group.key) == group)
+                    CURRENT_GROUPS.remove(group.key);
+                iterator.remove();
+                PluginMetrics.incrementCounter("coalesce_evicted");
+                if (!group.followers.isEmpty())
+                    evictedWithFollowers.add(group);
+            }
+        }
+        return evictedWithFollowers;
+    }
+
+    private static void sendResultToFollowers(@NonNull final Context context, @NonNull List<Intent> followers,
+                                              int errCode, @Nullable String errmsg) {
+        for (Intent followerOriginalIntent : followers) {
+            ResultDelivery.signalFinish(context, followerOriginalIntent, errCode,
+                    PluginUtils.createVariablesBundle(null, null, null, null, null, errCode, errmsg));
+        }
+    }
+
+    private static class CoalesceGroup {
+        final int id;
+        @NonNull final String key;
+        final int window;
+        /** The {@link SystemClock#elapsedRealtime()} at which the leader fire was received. */
+        final long fireTime;
+        /** The original intents of the followers waiting for the result of the leader. */
+        @NonNull final List<Intent> followers = new ArrayList<>();
+        int mergedCount;
+
+        boolean finished;
+        Bundle resultBundle;
+        Integer errCode;
+        String errmsg;
+        OutputCache outputCache;
+
+        CoalesceGroup(int id, @NonNull String key, int window, long fireTime) {
+            this.id = id;
+            this.key = key;
+            this.window = window;
+            this.fireTime = fireTime;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "CoalesceGroup{id=" + id + ", merged=" + mergedCount + ", window=" + window + "ms}";
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.termux.tasker.execution;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The policy for what to do with a new execution of an executable if the max concurrent instances
+ * limit of the plugin action for the executable has been reached.
+ */
+public enum OverflowPolicy {
+
+    /** Queue the new execution and start it once a running instance has finished. */
+    QUEUE("queue"),
+
+    /** Drop the new execution and return success to the plugin host app. */
+    DROP_NEW("drop_new"),
+
+    /** Kill the oldest running instance and start the new execution. */
+    REPLACE_OLDEST("replace_oldest"),
+
+    /** Reject the new execution with the {@link com.termux.tasker.utils.PluginUtils#RESULT_CODE_CONCURRENCY_LIMIT_REACHED} `%err`. */
+    REJECT("reject");
+
+    /** The default policy if one is not set for the plugin action. */
+    public static final OverflowPolicy DEFAULT = QUEUE;
+
+    private final String name;
+
+    OverflowPolicy(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean equalsPolicy(String policy) {
+        return policy != null && policy.equals(this.name);
+    }
+
+    /** Get {@link OverflowPolicy} for {@code name} if found, otherwise {@code null}. */
+    @Nullable
+    public static OverflowPolicy policyOf(String name) {
+        for (OverflowPolicy v : OverflowPolicy.values()) {
+            if (v.name.equals(name)) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    /** Get the names of all the policies. */
+    public static String[] getNames() {
+        OverflowPolicy[] values = OverflowPolicy.values();
+        String[] names = new String[values.length];
+        for (int i = 0; i < values.length; i++)
+            names[i] = values[i].name;
+        return names;
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.termux.tasker.execution;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A streaming estimator for a single quantile of a distribution with the P² algorithm by
+ * Jain and Chlamtac, which uses only 5 markers regardless of the number of observations.
+ *
+ * The first 5 observations are stored as is and the quantile is computed exactly from them. After
+ * that, the heights of the markers are adjusted with a piecewise-parabolic prediction as
+ * observations are added, with the middle marker estimating the quantile.
+ *
+ * The estimator is not thread safe and callers must synchronize access to it.
+ */
+public class P2QuantileEstimator {
+
+    /** The number of values returned by {@link #getState()}. */
+    public static final int STATE_SIZE = 17;
+
+    private final double p;
+    private long count;
+
+    /** The heights of the markers. */
+    private final double[] q = new double[5];
+    /** The actual positions of the markers. */
+    private final double[] n = new double[5];
+    /** The desired positions of the markers. */
+    private final double[] np = new double[5];
+    /** The increments of the desired positions of the markers. */
+    private final double[] dn = new double[5];
+
+    /**
+     * Create a {@link P2QuantileEstimator}.
+     *
+     * @param p The quantile to estimate, in between {@code 0} and {@code 1} exclusive.
+     */
+    public P2QuantileEstimator(double p) {
+        if (!(p > 0 && p < 1))
+            throw new IllegalArgumentException("The quantile must be in between 0 and 1 exclusive: " + p);
+        this.p = p;
+        dn[0] = 0;
+        dn[1] = p / 2;
+        dn[2] = p;
+        dn[3] = (1 + p) / 2;
+        dn[4] = 1;
+    }
+
+    /** Get the quantile estimated. */
+    public double getP() {
+        return p;
+    }
+
+    /** Get the number of observations added. */
+    public long getCount() {
+        return count;
+    }
+
+    /** Add an observation. */
+    public void add(double x) {
+        if (count < 5) {
+            q[(int) count++] = x;
+            if (count == 5) {
+                Arrays.sort(q);
+                for (int i = 0; i < 5; i++)
+                    n[i] = i;
+                np[0] = 0;
+                np[1] = 2 * p;
+                np[2] = 4 * p;
+                np[3] = 2 + 2 * p;
+                np[4] = 4;
+            }
+            return;
+        }
+
+        // Find the cell of the observation and update the extreme markers
+        int k;
+        if (x < q[0]) {
+            q[0] = x;
+            k = 0;
+        } else if (x >= q[4]) {
+            q[4] = x;
+            k = 3;
+        } else {
+            k = 0;
+            while (k < 3 && x >= q[k + 1])
+                k++;
+        }
+
+        for (int i = k + 1; i < 5; i++)
+            n[i]++;
+        for (int i = 0; i < 5; i++)
+            np[i] += dn[i];
+        count++;
+
+        // Adjust the heights of the middle markers if they are off their desired positions
+        for (int i = 1; i <= 3; i++) {
+            double d = np[i] - n[i];
+            if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                int sign = d > 0 ? 1 : -1;
+                double height = parabolic(i, sign);
+                if (q[i - 1] < height && height < q[i + 1])
+                    q[i] = height;
+                else
+                    q[i] = linear(i, sign);
+                n[i] += sign;
+            }
+        }
+    }
+
+    /**
+     * Get the estimate of the quantile.
+     *
+     * @return Returns the estimate, otherwise {@link Double#NaN} if no observations have been added.
+     */
+    public double getQuantile() {
+        if (count == 0) return Double.NaN;
+        if (count < 5) {
+            double[] values = Arrays.copyOf(q, (int) count);
+            Arrays.sort(values);
+            return values[(int) Math.round(p * (count - 1))];
+        }
+        return q[2];
+    }
+
+    /** Get the max observation added, otherwise {@link Double#NaN} if no observations have been added. */
+    public double getMax() {
+        if (count == 0) return Double.NaN;
+        if (count < 5) {
+            double max = q[0];
+            for (int i = 1; i < count; i++)
+                max = Math.max(max, q[i]);
+            return max;
+        }
+        return q[4];
+    }
+
+    /** Get the state of the estimator that can be passed to {@link #fromState(double[])}. */
+    @NonNull
+    public double[] getState() {
+        double[] state = new double[STATE_SIZE];
+        state[0] = p;
+        state[1] = count;
+        System.arraycopy(q, 0, state, 2, 5);
+        System.arraycopy(n, 0, state, 7, 5);
+        System.arraycopy(np, 0, state, 12, 5);
+        return state;
+    }
+
+    /**
+     * Create a {@link P2QuantileEstimator} from the state returned by {@link #getState()}.
+     *
+     * @param state The state of the estimator.
+     * @return Returns the estimator, otherwise {@code null} if state is invalid.
+     */
+    @Nullable
+    public static P2QuantileEstimator fromState(@Nullable double[] state) {
+        if (state == null || state.length != STATE_SIZE) return null;
+        if (!(state[0] > 0 && state[0] < 1) || state[1] < 0) return null;
+
+        P2QuantileEstimator estimator = new P2QuantileEstimator(state[0]);
+        estimator.count = (long) state[1];
+        System.arraycopy(state, 2, estimator.q, 0, 5);
+        System.arraycopy(state, 7, estimator.n, 0, 5);
+        System.arraycopy(state, 12, estimator.np, 0, 5);
+        return estimator;
+    }
+
+
+
+    private double parabolic(int i, int d) {
+        return q[i] + d / (n[i + 1] - n[i - 1]) * (
+                (n[i] - n[i - 1] + d) * (q[i + 1] - q[i]) / (n[i + 1] - n[i]) +
+                (n[i + 1] - n[i] - d) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+    }
+
+    private double linear(int i, int d) {
+        return q[i] + d * (q[i + d] - q[i]) / (n[i + d] - n[i]);
+    }
+
+}
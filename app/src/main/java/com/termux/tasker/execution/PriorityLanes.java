@@ -0,0 +1,199 @@
+package com.termux.tasker.execution;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * The queues of the {@link ExecutionRateLimiter.Dispatch} waiting to be sent to the execution
+ * service, with a separate lane for each {@link ExecutionPriority}.
+ *
+ * Lanes are dequeued with weighted round robin, i.e. in each round up to
+ * {@link ExecutionPriority#getWeight()} dispatches are dequeued from a lane before moving to the
+ * next lower priority lane, so that lower lanes still progress while higher lanes are busy. A
+ * dispatch that has waited longer than {@link #STARVATION_THRESHOLD_MS} is dequeued before any
+ * other regardless of its lane.
+ *
+ * The lanes are not thread safe and callers must synchronize access to them.
+ */
+public class PriorityLanes {
+
+    /** The time after which a waiting dispatch is dequeued before any other. */
+    public static final long STARVATION_THRESHOLD_MS = 5000;
+
+    /** Admits a dispatch being dequeued, like by acquiring the tokens required to send it. */
+    public interface Admitter {
+        /** Return {@code true} if dispatch can be dequeued now, otherwise {@code false}. */
+        boolean admit(@NonNull ExecutionRateLimiter.Dispatch dispatch);
+    }
+
+    private final ArrayDeque<ExecutionRateLimiter.Dispatch>[] lanes;
+    private final int[] credits;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public PriorityLanes() {
+        ExecutionPriority[] priorities = ExecutionPriority.values();
+        lanes = new ArrayDeque[priorities.length];
+        credits = new int[priorities.length];
+        for (int i = 0; i < priorities.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+            credits[i] = priorities[i].getWeight();
+        }
+    }
+
+    /** Add a dispatch to the end of the lane of its priority. */
+    public void add(@NonNull ExecutionRateLimiter.Dispatch dispatch) {
+        lanes[dispatch.priority.ordinal()].addLast(dispatch);
+        size++;
+    }
+
+    /** Get the number of dispatches in all lanes. */
+    public int size() {
+        return size;
+    }
+
+    /** Get the number of dispatches in the lane of {@code priority}. */
+    public int size(@NonNull ExecutionPriority priority) {
+        return lanes[priority.ordinal()].size();
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Whether any dispatch is waiting in the lanes of {@code priority} or higher. */
+    public boolean hasQueuedAtOrAbove(@NonNull ExecutionPriority priority) {
+        for (int i = 0; i <= priority.ordinal(); i++) {
+            if (!lanes[i].isEmpty()) return true;
+        }
+        return false;
+    }
+
+    /** Whether any dispatch for {@code executable} is waiting in any lane. */
+    public boolean isQueued(@NonNull String executable) {
+        for (ArrayDeque<ExecutionRateLimiter.Dispatch> lane : lanes) {
+            for (ExecutionRateLimiter.Dispatch dispatch : lane) {
+                if (dispatch.executable.equals(executable)) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Get the executables of the dispatches waiting in all lanes. */
+    @NonNull
+    public Set<String> getExecutables() {
+        Set<String> executables = new HashSet<>();
+        for (ArrayDeque<ExecutionRateLimiter.Dispatch> lane : lanes) {
+            for (ExecutionRateLimiter.Dispatch dispatch : lane)
+                executables.add(dispatch.executable);
+        }
+        return executables;
+    }
+
+    /**
+     * Remove the newest dispatch from the lowest non-empty lane with a lower priority than
+     * {@code priority}, so that it can be shed to make room for a dispatch with {@code priority}.
+     *
+     * @return Returns the removed dispatch, otherwise {@code null} if all lower lanes are empty.
+     */
+    @Nullable
+    public ExecutionRateLimiter.Dispatch removeNewestBelow(@NonNull ExecutionPriority priority) {
+        for (int i = lanes.length - 1; i > priority.ordinal(); i--) {
+            if (!lanes[i].isEmpty()) {
+                size--;
+                return lanes[i].pollLast();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Dequeue the next dispatch that is admitted by the {@code admitter}.
+     *
+     * Dispatches for executables in {@code blockedExecutables} are skipped, and the executable of
+     * a dispatch that is not admitted is added to it, so that dispatches for the same executable
+     * are dequeued in order.
+     *
+     * @param currentTime The current time in milliseconds.
+     * @param blockedExecutables The executables whose dispatches must be skipped.
+     * @param admitter The {@link Admitter} for the dispatches.
+     * @return Returns the dequeued dispatch, otherwise {@code null} if no dispatch was admitted.
+     */
+    @Nullable
+    public ExecutionRateLimiter.Dispatch poll(long currentTime, @NonNull Set<String> blockedExecutables,
+                                              @NonNull Admitter admitter) {
+        ExecutionRateLimiter.Dispatch dispatch = pollStarving(currentTime, blockedExecutables, admitter);
+        if (dispatch != null) return dispatch;
+
+        // Try lanes with credits left in this round first, then start a new round
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < lanes.length; i++) {
+                if (credits[i] <= 0) continue;
+                dispatch = pollLane(i, blockedExecutables, admitter);
+                if (dispatch != null) {
+                    credits[i]--;
+                    return dispatch;
+                }
+            }
+
+            ExecutionPriority[] priorities = ExecutionPriority.values();
+            for (int i = 0; i < priorities.length; i++)
+                credits[i] = priorities[i].getWeight();
+        }
+
+        return null;
+    }
+
+
+
+    @Nullable
+    private ExecutionRateLimiter.Dispatch pollStarving(long currentTime, @NonNull Set<String> blockedExecutables,
+                                                       @NonNull Admitter admitter) {
+        // Only the oldest dispatch of each lane needs to be checked since lanes are in order of submission
+        int oldestLane = -1;
+        for (int i = 0; i < lanes.length; i++) {
+            ExecutionRateLimiter.Dispatch head = lanes[i].peekFirst();
+            if (head == null || blockedExecutables.contains(head.executable) ||
+                    currentTime - head.submitTime < STARVATION_THRESHOLD_MS)
+                continue;
+            if (oldestLane < 0 || head.submitTime < lanes[oldestLane].peekFirst().submitTime)
+                oldestLane = i;
+        }
+
+        if (oldestLane < 0) return null;
+
+        ExecutionRateLimiter.Dispatch head = lanes[oldestLane].peekFirst();
+        if (!admitter.admit(head)) {
+            blockedExecutables.add(head.executable);
+            return null;
+        }
+
+        lanes[oldestLane].pollFirst();
+        size--;
+        return head;
+    }
+
+    @Nullable
+    private ExecutionRateLimiter.Dispatch pollLane(int lane, @NonNull Set<String> blockedExecutables,
+                                                   @NonNull Admitter admitter) {
+        Iterator<ExecutionRateLimiter.Dispatch> iterator = lanes[lane].iterator();
+        while (iterator.hasNext()) {
+            ExecutionRateLimiter.Dispatch dispatch = iterator.next();
+            if (blockedExecutables.contains(dispatch.executable)) continue;
+
+            if (admitter.admit(dispatch)) {
+                iterator.remove();
+                size--;
+                return dispatch;
+            }
+            blockedExecutables.add(dispatch.executable);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,341 @@
+package com.termux.tasker.execution;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.tasker.CommandActionActivity;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forwards the progress reported by long-running commands to the plugin host app as events of
+ * the "Command Progress" event plugin.
+ *
+ * The execution intent is wrapped with {@link #WRAPPER_SCRIPT} so that the path to a progress
+ * file is exported in the {@link #ENV_PROGRESS_FILE} environment variable to the command, which
+ * can append lines of the form `<percent> [<message>]` to it, where `<percent>` is an integer
+ * between 0 and 100 or `-` if it is not known. The file is watched with a {@link FileObserver},
+ * so updates are received when they are written instead of polling.
+ *
+ * An append-only file is used instead of a FIFO, since writers of a FIFO would block forever if
+ * the plugin process was killed while the command is running.
+ *
+ * Updates are throttled per execution to at most one every
+ * {@link PluginProperties#KEY_PROGRESS_MIN_INTERVAL} milliseconds, keeping only the latest
+ * update, and are sent to the plugin host app with {@link com.twofortyfouram.locale.Intent#ACTION_REQUEST_QUERY}
+ * with the update as pass-through data. The {@link com.termux.tasker.QueryReceiver} then returns
+ * it as variables when the plugin host app queries the event.
+ */
+public class ProgressReporter {
+
+    /** The directory under {@link TermuxConstants#TERMUX_TMP_PREFIX_DIR_PATH} where progress files are created. */
+    public static final String PROGRESS_FILES_DIR_PATH = TermuxConstants.TERMUX_TMP_PREFIX_DIR_PATH + "/termux-tasker/progress"; // Default: "/data/data/com.termux/files/usr/tmp/termux-tasker/progress"
+
+    /** The environment variable exported to the command containing the path to its progress file. */
+    public static final String ENV_PROGRESS_FILE = "TERMUX_TASKER_PROGRESS_FILE"; // Default: "TERMUX_TASKER_PROGRESS_FILE"
+
+    /** The wrapper script run with `sh -c`. The `$1` argument is the progress file path. */
+    public static final String WRAPPER_SCRIPT = "export " + ENV_PROGRESS_FILE + "=\"$1\"; shift; exec \"$@\"";
+
+    /** The pass-through data {@code int} key for the id of the execution. */
+    public static final String DATA_COMMAND_ID = "commandId"; // Default: "commandId"
+    /** The pass-through data {@code String} key for the executable of the execution. */
+    public static final String DATA_EXECUTABLE = "executable"; // Default: "executable"
+    /** The pass-through data {@code int} key for the progress percent, or {@code -1} if not known. */
+    public static final String DATA_PROGRESS = "progress"; // Default: "progress"
+    /** The pass-through data {@code String} key for the progress message. */
+    public static final String DATA_MESSAGE = "message"; // Default: "message"
+
+    /** The max length in bytes of a progress line. Longer lines are truncated. */
+    public static final int MAX_LINE_LENGTH = 1000;
+
+    /** The size of the buffer the progress file is read with. */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** The max number of message ids of sent events that are remembered to verify queries. */
+    private static final int MAX_MESSAGE_IDS = 100;
+
+    private static final Map<Integer, Reporter> REPORTERS = new HashMap<>();
+    private static final Set<Integer> MESSAGE_IDS = new LinkedHashSet<>();
+    private static Handler HANDLER;
+
+    private static final String LOG_TAG = "ProgressReporter";
+
+    /** A progress update parsed from a line written by the command. */
+    public static class Progress {
+        /** The progress percent between 0 and 100, or {@code -1} if it is not known. */
+        public final int percent;
+        /** The progress message, or {@code null} if not set. */
+        @Nullable public final String message;
+
+        Progress(int percent, @Nullable String message) {
+            this.percent = percent;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Start reporting the progress of an execution.
+     *
+     * @param context The {@link Context} that will be used to send the events.
+     * @param executionIntent The {@link Intent} to be sent to the execution service, which is wrapped
+     *                        to export the {@link #ENV_PROGRESS_FILE}.
+     * @param id The id of the execution, which is the request code of its result {@link android.app.PendingIntent}.
+     * @param executable The path of the executable of the execution.
+     * @return Returns {@code true} if progress is being reported, otherwise {@code false}.
+     */
+    public static boolean start(@NonNull final Context context, @NonNull Intent executionIntent, int id,
+                                @NonNull String executable) {
+        File progressFile = new File(PROGRESS_FILES_DIR_PATH, id + ".progress");
+        File progressFilesDir = progressFile.getParentFile();
+        if (progressFilesDir != null && !progressFilesDir.isDirectory() && !progressFilesDir.mkdirs()) {
+            Logger.logError(LOG_TAG, "Failed to create progress files directory at \"" + progressFilesDir.getAbsolutePath() + "\"");
+            return false;
+        }
+
+        // Truncate the file left by an earlier execution with the same id
+        try (FileOutputStream ignored = new FileOutputStream(progressFile, false)) {
+            Logger.logVerbose(LOG_TAG, "Created progress file at \"" + progressFile.getAbsolutePath() + "\"");
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create progress file at \"" + progressFile.getAbsolutePath() + "\"", e);
+            return false;
+        }
+
+        if (!ExecutionProcessUtils.wrapExecutionIntent(executionIntent, WRAPPER_SCRIPT, progressFile.getAbsolutePath())) {
+            deleteFile(progressFile);
+            return false;
+        }
+
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        Reporter reporter = new Reporter(appContext, id, executable, progressFile);
+        synchronized (ProgressReporter.class) {
+            if (HANDLER == null) HANDLER = new Handler(Looper.getMainLooper());
+            REPORTERS.put(id, reporter);
+        }
+        reporter.startWatching();
+        return true;
+    }
+
+    /**
+     * Stop reporting the progress of an execution whose result has been received, that did not
+     * run, or whose result may never be received, like if it timed out or its process has exited.
+     * Any update written since the last event is sent now.
+     *
+     * @param id The id of the execution.
+     */
+    public static void stop(int id) {
+        Reporter reporter;
+        synchronized (ProgressReporter.class) {
+            reporter = REPORTERS.remove(id);
+        }
+        if (reporter == null) return;
+
+        reporter.finish();
+        deleteFile(reporter.progressFile);
+    }
+
+    /**
+     * Check whether a message id was added to an event sent by the plugin, so that events
+     * forged by other apps are not accepted.
+     */
+    public static synchronized boolean isValidMessageId(int messageId) {
+        return MESSAGE_IDS.contains(messageId);
+    }
+
+    /**
+     * Parse a line written by a command to its progress file.
+     *
+     * @param line The line without the line terminator.
+     * @return Returns the {@link Progress}, otherwise {@code null} if the line is not valid.
+     */
+    @Nullable
+    public static Progress parseLine(@NonNull String line) {
+        line = line.trim();
+        if (line.isEmpty()) return null;
+
+        int separatorIndex = line.indexOf(' ');
+        String percentString = separatorIndex < 0 ? line : line.substring(0, separatorIndex);
+        String message = separatorIndex < 0 ? null : line.substring(separatorIndex + 1).trim();
+        if (message != null && message.isEmpty()) message = null;
+
+        int percent;
+        if (percentString.equals("-")) {
+            percent = -1;
+        } else {
+            if (percentString.endsWith("%"))
+                percentString = percentString.substring(0, percentString.length() - 1);
+            try {
+                percent = Integer.parseInt(percentString);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (percent < 0 || percent > 100) return null;
+        }
+
+        return new Progress(percent, message);
+    }
+
+
+
+    private static void send(@NonNull final Context context, int id, @NonNull String executable, @NonNull Progress progress) {
+        Bundle data = new Bundle();
+        data.putInt(DATA_COMMAND_ID, id);
+        data.putString(DATA_EXECUTABLE, executable);
+        data.putInt(DATA_PROGRESS, progress.percent);
+        if (progress.message != null)
+            data.putString(DATA_MESSAGE, progress.message);
+
+        Intent intent = new Intent(com.twofortyfouram.locale.Intent.ACTION_REQUEST_QUERY);
+        intent.putExtra(com.twofortyfouram.locale.Intent.EXTRA_ACTIVITY, CommandActionActivity.COMMAND_PROGRESS_EVENT_ACTIVITY_NAME);
+        TaskerPlugin.Event.addPassThroughData(intent, data);
+        int messageId = TaskerPlugin.Event.addPassThroughMessageID(intent);
+
+        synchronized (ProgressReporter.class) {
+            MESSAGE_IDS.add(messageId);
+            if (MESSAGE_IDS.size() > MAX_MESSAGE_IDS) {
+                Iterator<Integer> iterator = MESSAGE_IDS.iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
+        Logger.logVerbose(LOG_TAG, "Sending progress " + progress.percent + " of execution with id " + id);
+        try {
+            context.sendBroadcast(intent);
+            PluginMetrics.incrementCounter("progress_events_sent");
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to send progress event", e);
+        }
+    }
+
+    private static void deleteFile(@NonNull File file) {
+        if (file.exists() && !file.delete())
+            Logger.logWarn(LOG_TAG, "Failed to delete progress file at \"" + file.getAbsolutePath() + "\"");
+    }
+
+    /** Watches the progress file of an execution. */
+    private static class Reporter extends FileObserver {
+        @NonNull final Context context;
+        final int id;
+        @NonNull final String executable;
+        @NonNull final File progressFile;
+        /** The bytes of the line being read, which are only decoded once the line is complete. */
+        final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        long offset = 0;
+        boolean finished = false;
+        Progress pendingProgress;
+        long lastSentTime = -1;
+        boolean flushScheduled = false;
+        final Runnable flushRunnable = this::flush;
+
+        @SuppressWarnings("deprecation")
+        Reporter(@NonNull Context context, int id, @NonNull String executable, @NonNull File progressFile) {
+            super(progressFile.getAbsolutePath(), FileObserver.MODIFY | FileObserver.CLOSE_WRITE);
+            this.context = context;
+            this.id = id;
+            this.executable = executable;
+            this.progressFile = progressFile;
+        }
+
+        @Override
+        public void onEvent(int event, @Nullable String path) {
+            read();
+        }
+
+        /** Read the lines appended since the last read and schedule the latest update to be sent. */
+        synchronized void read() {
+            if (finished) return;
+
+            Progress progress = null;
+            try (RandomAccessFile file = new RandomAccessFile(progressFile, "r")) {
+                // The file was truncated
+                if (file.length() < offset) {
+                    offset = 0;
+                    partialLine.reset();
+                }
+
+                // Read till the end of the file, since a single event may be received for
+                // multiple writes. Lines are split on bytes, since a '\n' byte is never part of a
+                // multi-byte UTF-8 character.
+                file.seek(offset);
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                int read;
+                while ((read = file.read(buffer)) > 0) {
+                    offset += read;
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            Progress lineProgress = parseLine(new String(partialLine.toByteArray(), StandardCharsets.UTF_8));
+                            if (lineProgress != null)
+                                progress = lineProgress;
+                            else
+                                Logger.logVerbose(LOG_TAG, "Ignoring invalid progress line of execution with id " + id);
+                            partialLine.reset();
+                        } else if (partialLine.size() < MAX_LINE_LENGTH) {
+                            partialLine.write(buffer[i]);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Logger.logError(LOG_TAG, "Failed to read progress file at \"" + progressFile.getAbsolutePath() + "\": " + e.getMessage());
+                return;
+            }
+
+            if (progress == null) return;
+            PluginMetrics.incrementCounter("progress_updates_received");
+            pendingProgress = progress;
+
+            long minInterval = PluginProperties.getInt(PluginProperties.KEY_PROGRESS_MIN_INTERVAL,
+                    PluginProperties.DEFAULT_VALUE_PROGRESS_MIN_INTERVAL, 100, 60000);
+            long delay = lastSentTime < 0 ? 0 : lastSentTime + minInterval - SystemClock.elapsedRealtime();
+            if (delay <= 0) {
+                flush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                HANDLER.postDelayed(flushRunnable, delay);
+            }
+        }
+
+        /** Stop watching the file, send any update written since the last event and ignore later events. */
+        synchronized void finish() {
+            stopWatching();
+            read();
+            flush();
+            finished = true;
+        }
+
+        /** Send the pending update, if any. */
+        synchronized void flush() {
+            flushScheduled = false;
+            HANDLER.removeCallbacks(flushRunnable);
+            if (pendingProgress == null) return;
+
+            send(context, id, executable, pendingProgress);
+            pendingProgress = null;
+            lastSentTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+}
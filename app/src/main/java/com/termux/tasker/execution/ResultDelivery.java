@@ -0,0 +1,295 @@
+package com.termux.tasker.execution;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.history.HistoryStore;
+import com.termux.tasker.output.SecretRedactor;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Delivers the results of plugin actions to the plugin host app with
+ * {@link TaskerPlugin.Setting#signalFinish(Context, Intent, int, Bundle)}.
+ *
+ * If a delivery fails, like if the completion intent of the plugin host app cannot be started
+ * because of background restrictions, then it is retried on a separate thread with exponential
+ * backoff starting at {@link #INITIAL_RETRY_DELAY_MS}. Each retry is a single attempt posted
+ * separately, so a failing delivery never blocks other deliveries. Deliveries that still fail
+ * after {@link #MAX_ATTEMPTS} attempts are added to a persistent dead-letter store, from where
+ * they can be viewed and replayed in the main activity. The secrets of the {@link SecretRedactor}
+ * are redacted from dead letters, and only the parts of the original intent returned by
+ * {@link #getStoredIntentUri(Intent)} are stored.
+ */
+public class ResultDelivery {
+
+    /** The max number of attempts for a delivery before it is added to the dead-letter store. */
+    public static final int MAX_ATTEMPTS = 6;
+
+    /** The delay before the first retry of a failed delivery, which doubles for each retry. */
+    public static final long INITIAL_RETRY_DELAY_MS = 1000;
+
+    /** The name of the {@link HistoryStore} history for dead letters. */
+    public static final String DEAD_LETTERS_HISTORY_NAME = "dead_letters"; // Default: "dead_letters"
+
+    /** The max number of dead letters that are kept. */
+    public static final int MAX_DEAD_LETTERS = 100;
+
+    /** The key of the values of {@code String[]} variables in dead letter records, since {@code ArrayList<String>} variables are stored as plain arrays. */
+    private static final String STRING_ARRAY_KEY = "string_array";
+
+    private static Handler RETRY_HANDLER;
+
+    private static final String LOG_TAG = "ResultDelivery";
+
+    /** A delivery of a result that failed after all attempts. */
+    public static class DeadLetter {
+        /** The {@link System#currentTimeMillis()} at which the delivery was added to the store. */
+        public final long time;
+        /** The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}. */
+        @NonNull public final Intent originalIntent;
+        /** The result code of the plugin action. */
+        public final int resultCode;
+        /** The variables of the result. */
+        @Nullable public final Bundle vars;
+
+        DeadLetter(long time, @NonNull Intent originalIntent, int resultCode, @Nullable Bundle vars) {
+            this.time = time;
+            this.originalIntent = originalIntent;
+            this.resultCode = resultCode;
+            this.vars = vars;
+        }
+    }
+
+    /**
+     * Deliver a result to the plugin host app, retrying it asynchronously if it fails.
+     *
+     * @param context The {@link Context} for operations.
+     * @param originalIntent The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}.
+     * @param resultCode The result code of the plugin action.
+     * @param vars The variables of the result.
+     * @return Returns {@code true} if the result was delivered by the first attempt, otherwise
+     * {@code false} if it will be retried or the plugin host app is not waiting for the result.
+     */
+    public static boolean signalFinish(@NonNull final Context context, @NonNull final Intent originalIntent,
+                                       int resultCode, @Nullable Bundle vars) {
+        // The plugin host app is not waiting for a result if it did not send a completion intent
+        if (!TaskerPlugin.Setting.hasCompletionIntent(originalIntent)) return false;
+
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        Delivery delivery = new Delivery(originalIntent, resultCode, vars);
+        if (attempt(appContext, delivery)) return true;
+
+        scheduleRetry(appContext, delivery);
+        return false;
+    }
+
+    /**
+     * Get the URI of an original intent to store for sending its result later. Only its completion
+     * intent is required for that, so the plugin action bundle and blurb, which contain the
+     * arguments and stdin of the command, are not stored, and the secrets of the
+     * {@link SecretRedactor} are redacted from the rest.
+     *
+     * @param originalIntent The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}.
+     * @return Returns the {@link Intent#URI_INTENT_SCHEME} URI to store.
+     */
+    @NonNull
+    static String getStoredIntentUri(@NonNull Intent originalIntent) {
+        Intent intent = new Intent(originalIntent);
+        intent.removeExtra(com.twofortyfouram.locale.Intent.EXTRA_BUNDLE);
+        intent.removeExtra(com.twofortyfouram.locale.Intent.EXTRA_STRING_BLURB);
+        return SecretRedactor.redactText(intent.toUri(Intent.URI_INTENT_SCHEME));
+    }
+
+    /** Get the dead letters, from the oldest to the most recent. */
+    @NonNull
+    public static List<DeadLetter> getDeadLetters(@NonNull final Context context) {
+        List<DeadLetter> deadLetters = new ArrayList<>();
+        for (JSONObject record : HistoryStore.getRecords(context, DEAD_LETTERS_HISTORY_NAME)) {
+            DeadLetter deadLetter = fromRecord(record);
+            if (deadLetter != null)
+                deadLetters.add(deadLetter);
+        }
+        return deadLetters;
+    }
+
+    /**
+     * Replay all dead letters. Their deliveries are retried again if they fail.
+     *
+     * @param context The {@link Context} for operations.
+     * @return Returns the number of dead letters that were delivered by the first attempt.
+     */
+    public static int replayDeadLetters(@NonNull final Context context) {
+        List<DeadLetter> deadLetters = getDeadLetters(context);
+        HistoryStore.clear(context, DEAD_LETTERS_HISTORY_NAME);
+
+        int delivered = 0;
+        for (DeadLetter deadLetter : deadLetters) {
+            if (signalFinish(context, deadLetter.originalIntent, deadLetter.resultCode, deadLetter.vars))
+                delivered++;
+        }
+
+        Logger.logInfo(LOG_TAG, "Replayed " + deadLetters.size() + " dead letters, " + delivered + " delivered");
+        PluginMetrics.addToCounter("result_delivery_dead_letters_replayed", deadLetters.size());
+        PluginMetrics.persist(context);
+        return delivered;
+    }
+
+    /** Delete all dead letters. */
+    public static void clearDeadLetters(@NonNull final Context context) {
+        HistoryStore.clear(context, DEAD_LETTERS_HISTORY_NAME);
+    }
+
+
+
+    private static boolean attempt(@NonNull final Context context, @NonNull Delivery delivery) {
+        delivery.attempts++;
+        try {
+            if (TaskerPlugin.Setting.signalFinish(context, delivery.originalIntent, delivery.resultCode, delivery.vars))
+                return true;
+            Logger.logError(LOG_TAG, "Failed to deliver result to plugin host app, attempt " + delivery.attempts + "/" + MAX_ATTEMPTS);
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to deliver result to plugin host app, attempt " + delivery.attempts + "/" + MAX_ATTEMPTS, e);
+        }
+        PluginMetrics.incrementCounter("result_delivery_failures");
+        return false;
+    }
+
+    private static void scheduleRetry(@NonNull final Context context, @NonNull final Delivery delivery) {
+        if (delivery.attempts >= MAX_ATTEMPTS) {
+            addDeadLetter(context, delivery);
+            return;
+        }
+
+        long delay = INITIAL_RETRY_DELAY_MS << (delivery.attempts - 1);
+        getRetryHandler().postDelayed(() -> {
+            if (attempt(context, delivery)) {
+                Logger.logInfo(LOG_TAG, "Delivered result to plugin host app after " + delivery.attempts + " attempts");
+                PluginMetrics.incrementCounter("result_delivery_retries_succeeded");
+                PluginMetrics.persist(context);
+            } else {
+                scheduleRetry(context, delivery);
+            }
+        }, delay);
+    }
+
+    private static void addDeadLetter(@NonNull final Context context, @NonNull Delivery delivery) {
+        Logger.logError(LOG_TAG, "Adding result to dead letters since it could not be delivered to plugin host app after " + delivery.attempts + " attempts");
+        PluginMetrics.incrementCounter("result_delivery_dead_letters");
+        PluginMetrics.persist(context);
+
+        try {
+            JSONObject vars = new JSONObject();
+            if (delivery.vars != null) {
+                for (String key : delivery.vars.keySet()) {
+                    Object value = delivery.vars.get(key);
+                    if (value instanceof Integer) {
+                        vars.put(key, value);
+                    } else if (value instanceof String) {
+                        vars.put(key, SecretRedactor.redactText((String) value));
+                    } else if (value instanceof String[]) {
+                        JSONObject array = new JSONObject();
+                        array.put(STRING_ARRAY_KEY, toRedactedJSONArray(Arrays.asList((String[]) value)));
+                        vars.put(key, array);
+                    } else if (value instanceof ArrayList) {
+                        vars.put(key, toRedactedJSONArray((ArrayList<?>) value));
+                    }
+                }
+            }
+
+            JSONObject record = new JSONObject();
+            record.put("time", System.currentTimeMillis());
+            record.put("intent", getStoredIntentUri(delivery.originalIntent));
+            record.put("result_code", delivery.resultCode);
+            record.put("vars", vars);
+            HistoryStore.appendRecord(context, DEAD_LETTERS_HISTORY_NAME, record, MAX_DEAD_LETTERS);
+        } catch (JSONException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create dead letter record", e);
+        }
+    }
+
+    @NonNull
+    private static JSONArray toRedactedJSONArray(@NonNull List<?> values) {
+        JSONArray array = new JSONArray();
+        for (Object value : values)
+            array.put(value == null ? JSONObject.NULL : SecretRedactor.redactText(String.valueOf(value)));
+        return array;
+    }
+
+    @NonNull
+    private static ArrayList<String> fromJSONArray(@NonNull JSONArray array) throws JSONException {
+        ArrayList<String> values = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++)
+            values.add(array.isNull(i) ? null : array.getString(i));
+        return values;
+    }
+
+    @Nullable
+    private static DeadLetter fromRecord(@NonNull JSONObject record) {
+        try {
+            Intent originalIntent = Intent.parseUri(record.getString("intent"), Intent.URI_INTENT_SCHEME);
+
+            Bundle vars = new Bundle();
+            JSONObject varsObject = record.getJSONObject("vars");
+            Iterator<String> keys = varsObject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = varsObject.get(key);
+                if (value instanceof Integer) {
+                    vars.putInt(key, (Integer) value);
+                } else if (value instanceof JSONArray) {
+                    vars.putStringArrayList(key, fromJSONArray((JSONArray) value));
+                } else if (value instanceof JSONObject) {
+                    ArrayList<String> values = fromJSONArray(((JSONObject) value).getJSONArray(STRING_ARRAY_KEY));
+                    vars.putStringArray(key, values.toArray(new String[0]));
+                } else {
+                    vars.putString(key, String.valueOf(value));
+                }
+            }
+
+            return new DeadLetter(record.getLong("time"), originalIntent, record.getInt("result_code"), vars);
+        } catch (Exception e) {
+            Logger.logError(LOG_TAG, "Ignoring invalid dead letter record: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static synchronized Handler getRetryHandler() {
+        if (RETRY_HANDLER == null) {
+            HandlerThread handlerThread = new HandlerThread(LOG_TAG);
+            handlerThread.start();
+            RETRY_HANDLER = new Handler(handlerThread.getLooper());
+        }
+        return RETRY_HANDLER;
+    }
+
+    private static class Delivery {
+        @NonNull final Intent originalIntent;
+        final int resultCode;
+        @Nullable final Bundle vars;
+        int attempts;
+
+        Delivery(@NonNull Intent originalIntent, int resultCode, @Nullable Bundle vars) {
+            this.originalIntent = originalIntent;
+            this.resultCode = resultCode;
+            this.vars = vars;
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.termux.tasker.execution;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.R;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A registry of the in-flight executions of plugin actions that have a result
+ * {@link android.app.PendingIntent}, from when their execution intent is sent till their result
+ * is received back by the {@link com.termux.tasker.PluginResultsService}.
+ *
+ * The registry is used by the "List Running Commands" plugin action to list the executions and by
+ * the "Cancel Command" plugin action to cancel them. A cancelled execution is killed if its pid is
+ * being tracked, and if the plugin host app is waiting for its result, then the
+ * {@link PluginUtils#RESULT_CODE_CANCELLED} result is sent to it. The result received later for a
+ * cancelled execution is ignored. The {@link ProgressReporter} of an execution is stopped when it
+ * is unregistered or cancelled.
+ */
+public class RunningExecutions {
+
+    /** The max number of ids of cancelled executions that are remembered till their result is received. */
+    private static final int MAX_CANCELLED_IDS = 500;
+
+    private static final Map<Integer, RunningExecution> RUNNING = new LinkedHashMap<>();
+    private static final Set<Integer> CANCELLED = new LinkedHashSet<>();
+
+    private static final String LOG_TAG = "RunningExecutions";
+
+    /** An in-flight execution. */
+    public static class RunningExecution {
+        /** The id of the execution, which is the request code of its result {@link android.app.PendingIntent}. */
+        public final int id;
+        /** The path of the executable of the execution. */
+        @NonNull public final String executable;
+        /** The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}. */
+        @NonNull public final Intent originalIntent;
+        /** Whether the plugin host app is waiting for the result of the execution. */
+        public final boolean waitForResult;
+        /** The path to the pid file of the execution if it can be killed, otherwise {@code null}. */
+        @Nullable public final String pidFilePath;
+        /** The {@link SystemClock#elapsedRealtime()} at which the execution was registered. */
+        public final long startTime;
+
+        RunningExecution(int id, @NonNull String executable, @NonNull Intent originalIntent,
+                         boolean waitForResult, @Nullable String pidFilePath) {
+            this.id = id;
+            this.executable = executable;
+            this.originalIntent = originalIntent;
+            this.waitForResult = waitForResult;
+            this.pidFilePath = pidFilePath;
+            this.startTime = SystemClock.elapsedRealtime();
+        }
+
+        /** Get the time in milliseconds since the execution was registered. */
+        public long getElapsedTime() {
+            return SystemClock.elapsedRealtime() - startTime;
+        }
+    }
+
+    /**
+     * Register an execution whose execution intent has been sent or queued.
+     *
+     * @param id The id of the execution.
+     * @param executable The path of the executable of the execution.
+     * @param originalIntent The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}.
+     * @param waitForResult Whether the plugin host app is waiting for the result of the execution.
+     * @param pidFilePath The path to the pid file of the execution if it can be killed, otherwise {@code null}.
+     */
+    public static synchronized void register(int id, @Nullable String executable, @NonNull Intent originalIntent,
+                                             boolean waitForResult, @Nullable String pidFilePath) {
+        RUNNING.put(id, new RunningExecution(id, executable != null ? executable : "", originalIntent,
+                waitForResult, pidFilePath));
+        PluginMetrics.setGauge("running_executions", RUNNING.size());
+    }
+
+    /**
+     * Unregister an execution whose result has been received or whose execution intent could
+     * not be sent.
+     *
+     * @param id The id of the execution.
+     * @return Returns {@code false} if the execution was cancelled and its result must be ignored,
+     * otherwise {@code true}.
+     */
+    public static boolean unregister(int id) {
+        // The final progress is sent outside the lock
+        ProgressReporter.stop(id);
+
+        synchronized (RunningExecutions.class) {
+            RunningExecution execution = RUNNING.remove(id);
+            PluginMetrics.setGauge("running_executions", RUNNING.size());
+            if (execution != null) {
+                ExecutionProcessUtils.deletePidFile(execution.pidFilePath);
+                return true;
+            }
+
+            if (CANCELLED.remove(id)) {
+                // The pid file is deleted now since it may be written by the execution after it was cancelled
+                ExecutionProcessUtils.deletePidFile(ExecutionProcessUtils.getPidFilePath(id));
+                Logger.logDebug(LOG_TAG, "Ignoring result of execution with id " + id + " since it was cancelled");
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /** Check whether the execution with {@code id} was cancelled and its result has not been received yet. */
+    public static synchronized boolean isCancelled(int id) {
+        return CANCELLED.contains(id);
+    }
+
+    /** Get the in-flight executions, from the oldest to the most recent. */
+    @NonNull
+    public static synchronized List<RunningExecution> getAll() {
+        return new ArrayList<>(RUNNING.values());
+    }
+
+    /**
+     * Cancel an in-flight execution.
+     *
+     * @param context The {@link Context} for operations.
+     * @param id The id of the execution.
+     * @return Returns the {@code errmsg} if the execution is not running, otherwise {@code null}.
+     */
+    @Nullable
+    public static String cancel(@NonNull final Context context, int id) {
+        RunningExecution execution;
+        synchronized (RunningExecutions.class) {
+            execution = RUNNING.remove(id);
+            if (execution == null)
+                return context.getString(R.string.error_command_not_running, id);
+
+            CANCELLED.add(id);
+            if (CANCELLED.size() > MAX_CANCELLED_IDS) {
+                Iterator<Integer> iterator = CANCELLED.iterator();
+                iterator.next();
+                iterator.remove();
+            }
+            PluginMetrics.setGauge("running_executions", RUNNING.size());
+        }
+
+        boolean killed = execution.pidFilePath != null &&
+                ExecutionProcessUtils.signalExecution(execution.pidFilePath, execution.executable, ExecutionProcessUtils.SIGNAL_TERM);
+
+        String errmsg = context.getString(killed ? R.string.error_execution_cancelled_and_killed : R.string.error_execution_cancelled,
+                execution.executable, execution.getElapsedTime());
+        Logger.logInfo(LOG_TAG, errmsg);
+
+        PluginMetrics.incrementCounter("executions_cancelled");
+        if (killed)
+            PluginMetrics.incrementCounter("executions_cancelled_killed");
+        PluginMetrics.persist(context);
+
+        // The plugin host app is no longer waiting for the result from the watchdog or the journal
+        ProgressReporter.stop(id);
+        ExecutionWatchdog.complete(id);
+        ExecutionJournal.end(context, id);
+        if (execution.waitForResult)
+            ResultDelivery.signalFinish(context, execution.originalIntent, PluginUtils.RESULT_CODE_CANCELLED,
+                    PluginUtils.createVariablesBundle(null, null, null, null, null, PluginUtils.RESULT_CODE_CANCELLED, errmsg));
+        return null;
+    }
+
+}
@@ -0,0 +1,266 @@
+package com.termux.tasker.execution;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The runtime distributions of executables, i.e. the time from a fire of a plugin action till
+ * its result is received, used to suggest the timeout of plugin actions.
+ *
+ * A {@link P2QuantileEstimator} is kept for each of the {@link #TRACKED_PERCENTILES} of each
+ * executable so that memory stays constant regardless of the number of executions. The stats of
+ * at most {@link #MAX_EXECUTABLES} recently used executables are kept and are persisted to
+ * {@link #RUNTIME_STATS_FILE_NAME} in the app files directory so that they survive process
+ * restarts and can be read by the {@link com.termux.tasker.EditConfigurationActivity}.
+ */
+public class RuntimeStats {
+
+    /** The file name under app files directory where the stats are stored. */
+    public static final String RUNTIME_STATS_FILE_NAME = "runtime_stats.json"; // Default: "runtime_stats.json"
+
+    /** The percentiles tracked for each executable. */
+    public static final int[] TRACKED_PERCENTILES = {50, 90, 95, 99};
+
+    /** The max number of executables whose stats are kept. */
+    public static final int MAX_EXECUTABLES = 200;
+
+    /** The min number of runtimes required for an executable before a timeout is suggested for it. */
+    public static final int MIN_SAMPLES = 10;
+
+    private static final long PERSIST_DELAY_MS = 1000;
+
+    /** The stats of executables in least recently used order. */
+    private static final LinkedHashMap<String, P2QuantileEstimator[]> STATS = new LinkedHashMap<>(16, 0.75f, true);
+    private static long STATS_LAST_MODIFIED = -1;
+    private static boolean PERSIST_SCHEDULED = false;
+    private static ScheduledExecutorService PERSIST_EXECUTOR;
+
+    private static final String LOG_TAG = "RuntimeStats";
+
+    /** A timeout suggested for an executable. */
+    public static class TimeoutSuggestion {
+        /** The suggested timeout in milliseconds. */
+        public final int timeout;
+        /** The percentile the timeout is based on. */
+        public final int percentile;
+        /** The estimated runtime at the {@link #percentile} in milliseconds. */
+        public final long runtime;
+        /** The number of runtimes recorded for the executable. */
+        public final long sampleCount;
+
+        TimeoutSuggestion(int timeout, int percentile, long runtime, long sampleCount) {
+            this.timeout = timeout;
+            this.percentile = percentile;
+            this.runtime = runtime;
+            this.sampleCount = sampleCount;
+        }
+    }
+
+    /**
+     * Record the runtime of an execution.
+     *
+     * @param context The {@link Context} for operations.
+     * @param executable The path of the executable of the execution.
+     * @param runtime The runtime in milliseconds.
+     */
+    public static synchronized void record(@NonNull final Context context, @NonNull String executable, long runtime) {
+        if (runtime < 0) return;
+        loadIfModified(context);
+
+        P2QuantileEstimator[] estimators = STATS.get(executable);
+        if (estimators == null) {
+            estimators = new P2QuantileEstimator[TRACKED_PERCENTILES.length];
+            for (int i = 0; i < TRACKED_PERCENTILES.length; i++)
+                estimators[i] = new P2QuantileEstimator(TRACKED_PERCENTILES[i] / 100.0);
+            STATS.put(executable, estimators);
+            trim();
+        }
+
+        for (P2QuantileEstimator estimator : estimators)
+            estimator.add(runtime);
+
+        schedulePersist(context);
+    }
+
+    /**
+     * Get the suggested timeout for an executable, which is the runtime at the percentile set by
+     * the {@link PluginProperties#KEY_ADAPTIVE_TIMEOUT_PERCENTILE} property plus the margin set by
+     * the {@link PluginProperties#KEY_ADAPTIVE_TIMEOUT_MARGIN_PERCENT} property, rounded up to
+     * whole seconds.
+     *
+     * @param context The {@link Context} for operations.
+     * @param executable The path of the executable.
+     * @return Returns the {@link TimeoutSuggestion}, otherwise {@code null} if less than
+     * {@link #MIN_SAMPLES} runtimes have been recorded for the executable.
+     */
+    @Nullable
+    public static synchronized TimeoutSuggestion getTimeoutSuggestion(@NonNull final Context context, @Nullable String executable) {
+        if (executable == null) return null;
+        loadIfModified(context);
+
+        P2QuantileEstimator[] estimators = STATS.get(executable);
+        if (estimators == null || estimators[0].getCount() < MIN_SAMPLES) return null;
+
+        int percentile = getPercentile();
+        P2QuantileEstimator estimator = estimators[0];
+        for (int i = 0; i < TRACKED_PERCENTILES.length; i++) {
+            if (TRACKED_PERCENTILES[i] == percentile)
+                estimator = estimators[i];
+        }
+
+        int marginPercent = PluginProperties.getInt(PluginProperties.KEY_ADAPTIVE_TIMEOUT_MARGIN_PERCENT,
+                PluginProperties.DEFAULT_VALUE_ADAPTIVE_TIMEOUT_MARGIN_PERCENT, 0, 1000);
+        long runtime = (long) Math.ceil(estimator.getQuantile());
+
+        // Add the margin at which the ExecutionWatchdog sends the timeout result before the timeout
+        double timeout = runtime * (1 + marginPercent / 100.0) + ExecutionWatchdog.MAX_MARGIN_MS;
+        timeout = Math.ceil(timeout / 1000) * 1000;
+        timeout = Math.max(1000, Math.min(TaskerPlugin.Setting.REQUESTED_TIMEOUT_MS_MAX, timeout));
+
+        return new TimeoutSuggestion((int) timeout, percentile, runtime, estimator.getCount());
+    }
+
+
+
+    private static int getPercentile() {
+        int percentile = PluginProperties.getInt(PluginProperties.KEY_ADAPTIVE_TIMEOUT_PERCENTILE,
+                PluginProperties.DEFAULT_VALUE_ADAPTIVE_TIMEOUT_PERCENTILE, 1, 99);
+        for (int trackedPercentile : TRACKED_PERCENTILES) {
+            if (trackedPercentile == percentile) return percentile;
+        }
+
+        Logger.logWarn(LOG_TAG, "The value \"" + percentile + "\" for the \"" + PluginProperties.KEY_ADAPTIVE_TIMEOUT_PERCENTILE +
+                "\" property is not a tracked percentile, using default value \"" + PluginProperties.DEFAULT_VALUE_ADAPTIVE_TIMEOUT_PERCENTILE + "\"");
+        return PluginProperties.DEFAULT_VALUE_ADAPTIVE_TIMEOUT_PERCENTILE;
+    }
+
+    private static void trim() {
+        Iterator<String> iterator = STATS.keySet().iterator();
+        while (STATS.size() > MAX_EXECUTABLES && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Load the stats from the file if it has been modified by another process since it was last
+     * loaded. Stats that have not been persisted yet are not replaced.
+     */
+    private static void loadIfModified(@NonNull final Context context) {
+        if (PERSIST_SCHEDULED) return;
+
+        File file = getRuntimeStatsFile(context);
+        long lastModified = file.isFile() ? file.lastModified() : 0;
+        if (lastModified == STATS_LAST_MODIFIED) return;
+
+        STATS.clear();
+        STATS_LAST_MODIFIED = lastModified;
+        if (lastModified == 0) return;
+
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int count = inputStream.read(data, read, data.length - read);
+                if (count < 0) break;
+                read += count;
+            }
+
+            JSONArray entries = new JSONArray(new String(data, 0, read, StandardCharsets.UTF_8));
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                JSONArray states = entry.getJSONArray("estimators");
+                if (states.length() != TRACKED_PERCENTILES.length) continue;
+
+                boolean valid = true;
+                P2QuantileEstimator[] estimators = new P2QuantileEstimator[TRACKED_PERCENTILES.length];
+                for (int j = 0; j < estimators.length; j++) {
+                    JSONArray stateArray = states.getJSONArray(j);
+                    double[] state = new double[stateArray.length()];
+                    for (int k = 0; k < state.length; k++)
+                        state[k] = stateArray.getDouble(k);
+                    estimators[j] = P2QuantileEstimator.fromState(state);
+                    if (estimators[j] == null) valid = false;
+                }
+
+                if (valid)
+                    STATS.put(entry.getString("executable"), estimators);
+            }
+            trim();
+        } catch (IOException | JSONException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load runtime stats from \"" + file.getAbsolutePath() + "\"", e);
+        }
+    }
+
+    private static void schedulePersist(@NonNull final Context context) {
+        if (PERSIST_SCHEDULED) return;
+        PERSIST_SCHEDULED = true;
+
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        if (PERSIST_EXECUTOR == null)
+            PERSIST_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+        PERSIST_EXECUTOR.schedule(() -> persist(appContext), PERSIST_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized void persist(@NonNull final Context context) {
+        PERSIST_SCHEDULED = false;
+
+        File file = getRuntimeStatsFile(context);
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        try {
+            JSONArray entries = new JSONArray();
+            for (Map.Entry<String, P2QuantileEstimator[]> stats : STATS.entrySet()) {
+                JSONArray states = new JSONArray();
+                for (P2QuantileEstimator estimator : stats.getValue()) {
+                    JSONArray stateArray = new JSONArray();
+                    for (double value : estimator.getState())
+                        stateArray.put(value);
+                    states.put(stateArray);
+                }
+
+                JSONObject entry = new JSONObject();
+                entry.put("executable", stats.getKey());
+                entry.put("estimators", states);
+                entries.put(entry);
+            }
+
+            // Write to a temp file first so that the other process never reads a partial file
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile, false)) {
+                outputStream.write(entries.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tempFile.renameTo(file))
+                throw new IOException("Failed to rename \"" + tempFile.getAbsolutePath() + "\" to \"" + file.getAbsolutePath() + "\"");
+            STATS_LAST_MODIFIED = file.lastModified();
+        } catch (IOException | JSONException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write runtime stats to \"" + file.getAbsolutePath() + "\"", e);
+        }
+    }
+
+    @NonNull
+    private static File getRuntimeStatsFile(@NonNull final Context context) {
+        return new File(context.getFilesDir(), RUNTIME_STATS_FILE_NAME);
+    }
+
+}
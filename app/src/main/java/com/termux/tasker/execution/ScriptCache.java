@@ -0,0 +1,105 @@
+package com.termux.tasker.execution;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.tasker.blobs.BlobStore;
+import com.termux.tasker.utils.PluginMetrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A cache of the inline scripts of plugin actions, which are written once to an executable file
+ * in {@link #SCRIPTS_CACHE_DIR_PATH} named by the SHA-256 hash of the script, so that they can be
+ * run like script files in `~/.termux/tasker/`.
+ *
+ * The files are never modified after they are written and are made read-only, so once a file has
+ * been written or verified to contain the script with its hash by the current process, later fires
+ * only need to check that it still exists, instead of writing a temp file or validating and fixing
+ * its permissions on every fire.
+ */
+public class ScriptCache {
+
+    /** The directory under the Termux app cache directory where inline scripts are written. */
+    public static final String SCRIPTS_CACHE_DIR_PATH = TermuxConstants.TERMUX_INTERNAL_PRIVATE_APP_DATA_DIR_PATH + "/cache/termux-tasker/scripts"; // Default: "/data/data/com.termux/cache/termux-tasker/scripts"
+
+    /** The permissions of the script files, read and execute only for the owner. */
+    private static final int SCRIPT_FILE_MODE = 0500;
+
+    /** The hashes of the scripts whose files have been written or verified by the current process. */
+    private static final Set<String> VERIFIED_HASHES = new HashSet<>();
+
+    private static final String LOG_TAG = "ScriptCache";
+
+    /**
+     * Get the path to the executable file of an inline script, writing it if required.
+     *
+     * @param script The inline script.
+     * @return Returns the path to the script file.
+     * @throws IOException If the script file could not be written.
+     */
+    @NonNull
+    public static String getScriptFilePath(@NonNull String script) throws IOException {
+        byte[] data = script.getBytes(StandardCharsets.UTF_8);
+        String hash = BlobStore.getHash(data);
+        File scriptFile = new File(SCRIPTS_CACHE_DIR_PATH, hash);
+
+        synchronized (VERIFIED_HASHES) {
+            // The cache directory may have been cleared by Android since the file was verified
+            if (VERIFIED_HASHES.contains(hash) && scriptFile.isFile()) {
+                PluginMetrics.incrementCounter("script_cache_hits");
+                return scriptFile.getAbsolutePath();
+            }
+
+            if (scriptFile.isFile() && hash.equals(BlobStore.getFileHash(scriptFile)) && scriptFile.canExecute()) {
+                Logger.logVerbose(LOG_TAG, "Verified cached script \"" + hash + "\"");
+            } else {
+                writeScriptFile(scriptFile, data);
+                Logger.logDebug(LOG_TAG, "Cached script \"" + hash + "\" of " + data.length + " bytes");
+            }
+
+            PluginMetrics.incrementCounter("script_cache_misses");
+            VERIFIED_HASHES.add(hash);
+            return scriptFile.getAbsolutePath();
+        }
+    }
+
+
+
+    private static void writeScriptFile(@NonNull File scriptFile, @NonNull byte[] data) throws IOException {
+        File scriptsDir = scriptFile.getParentFile();
+        if (scriptsDir != null && !scriptsDir.isDirectory() && !scriptsDir.mkdirs())
+            throw new IOException("Failed to create scripts cache directory at \"" + scriptsDir.getAbsolutePath() + "\"");
+
+        // Write to a temp file first so that a script is never run while partially written
+        File tempFile = new File(scriptFile.getAbsolutePath() + ".tmp");
+        tempFile.delete();
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile, false)) {
+            outputStream.write(data);
+            outputStream.getFD().sync();
+            Os.chmod(tempFile.getAbsolutePath(), SCRIPT_FILE_MODE);
+        } catch (ErrnoException e) {
+            tempFile.delete();
+            throw new IOException("Failed to set permissions of \"" + tempFile.getAbsolutePath() + "\"", e);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        // The file of a corrupt script is read-only, but can still be replaced since the directory is writable
+        if (!tempFile.renameTo(scriptFile)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename \"" + tempFile.getAbsolutePath() + "\" to \"" + scriptFile.getAbsolutePath() + "\"");
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+package com.termux.tasker.execution;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.file.TermuxFileUtils;
+import com.termux.tasker.utils.PluginMetrics;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the stdin of background commands from a file path or a `content://` URI, instead of
+ * sending it as a {@code String} extra through the plugin bundle and execution intent, which
+ * limits its size to the Binder transaction limit and keeps copies of it in memory.
+ *
+ * The execution intent is wrapped with {@link ExecutionProcessUtils#wrapExecutionIntent(Intent, String, String...)}
+ * to run the command under a shell that opens the file as its stdin before replacing itself with
+ * the command with `exec`, so that the data is read by the command directly from the file.
+ *
+ * Since the Termux app cannot read content URIs granted to the plugin app, for them a fifo is
+ * created in {@link #STDIN_PIPES_DIR_PATH} instead, and the content is copied to it from the
+ * {@link ParcelFileDescriptor} of the URI on a background thread while the command reads it. The
+ * URI is opened when the fire is received, but the fifo is only created by {@link #start(Intent)}
+ * when the execution intent is actually sent, or the URI is closed by {@link #discard(Intent)} if
+ * it will not be sent. If the command has not opened the fifo within {@link #PIPE_OPEN_TIMEOUT},
+ * like if it failed to start, then the fifo is removed.
+ */
+public class StdinStreamer {
+
+    /** The directory under {@link TermuxConstants#TERMUX_TMP_PREFIX_DIR_PATH} where fifos are created. */
+    public static final String STDIN_PIPES_DIR_PATH = TermuxConstants.TERMUX_TMP_PREFIX_DIR_PATH + "/termux-tasker/stdin"; // Default: "/data/data/com.termux/files/usr/tmp/termux-tasker/stdin"
+
+    /**
+     * The wrapper script run with `sh -c`. The `$1` argument is the stdin file path, followed by
+     * the executable and its arguments.
+     */
+    public static final String WRAPPER_SCRIPT = "exec 0<\"$1\"; shift; exec \"$@\"";
+
+    /** The max time in milliseconds to wait for the command to open the fifo. */
+    public static final int PIPE_OPEN_TIMEOUT = 60000;
+
+    /** The permissions required for the stdin file. */
+    private static final String STDIN_FILE_PERMISSIONS = "r--";
+
+    private static final int PIPE_OPEN_POLL_INTERVAL = 50;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicInteger PIPE_COUNTER = new AtomicInteger();
+
+    /** The opened URIs of the execution intents that have not been sent yet, by execution intent instance. */
+    private static final Map<Intent, PendingPipe> PENDING_PIPES = new IdentityHashMap<>();
+
+    private static final String LOG_TAG = "StdinStreamer";
+
+    /**
+     * Set the stdin of the command of an execution intent to the content of a file or URI.
+     *
+     * @param context The {@link Context} for operations.
+     * @param executionIntent The execution {@link Intent} built for the execution service.
+     * @param stdinFile The file path or `content://` URI to read stdin from.
+     * @return Returns the errmsg if failed, otherwise {@code null}.
+     */
+    public static String setStdinFile(@NonNull Context context, @NonNull Intent executionIntent, @NonNull String stdinFile) {
+        Uri uri = Uri.parse(stdinFile);
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()))
+            return setStdinUri(context, executionIntent, uri);
+
+        String stdinFilePath = TermuxFileUtils.getCanonicalPath(stdinFile, null, true);
+        Error error = FileUtils.validateRegularFileExistenceAndPermissions("stdin", stdinFilePath,
+                null, STDIN_FILE_PERMISSIONS,
+                false, false,
+                false);
+        if (error != null) return error.getMinimalErrorString();
+
+        if (!ExecutionProcessUtils.wrapExecutionIntent(executionIntent, WRAPPER_SCRIPT, stdinFilePath))
+            return "Failed to set stdin file \"" + stdinFilePath + "\" for execution intent";
+
+        Logger.logVerbose(LOG_TAG, "Streaming stdin from \"" + stdinFilePath + "\"");
+        PluginMetrics.incrementCounter("stdin_files");
+        return null;
+    }
+
+
+
+    /**
+     * Create the fifo of an execution intent whose stdin is streamed from a `content://` URI and
+     * start copying the content of the URI to it. This must be called right before the execution
+     * intent is sent, and not when the fire is received, since it may be queued by the
+     * {@link ExecutionRegistry} or {@link ExecutionRateLimiter} for longer than
+     * {@link #PIPE_OPEN_TIMEOUT}. This is ignored if the stdin of the execution intent is not
+     * streamed from a URI or the fifo has already been created.
+     *
+     * @param executionIntent The execution {@link Intent} passed to {@link #setStdinFile(Context, Intent, String)}.
+     * @return Returns the errmsg if failed, otherwise {@code null}.
+     */
+    public static String start(@NonNull Intent executionIntent) {
+        final PendingPipe pendingPipe;
+        synchronized (PENDING_PIPES) {
+            pendingPipe = PENDING_PIPES.remove(executionIntent);
+        }
+        if (pendingPipe == null) return null;
+
+        File pipesDir = new File(STDIN_PIPES_DIR_PATH);
+        try {
+            if (!pipesDir.isDirectory() && !pipesDir.mkdirs())
+                throw new IOException("Failed to create stdin pipes directory at \"" + STDIN_PIPES_DIR_PATH + "\"");
+            new File(pendingPipe.pipePath).delete();
+            Os.mkfifo(pendingPipe.pipePath, 0600);
+        } catch (IOException | ErrnoException e) {
+            closeQuietly(pendingPipe.inputFileDescriptor);
+            return "Failed to create stdin pipe \"" + pendingPipe.pipePath + "\": " + e.getMessage();
+        }
+
+        Logger.logVerbose(LOG_TAG, "Streaming stdin from \"" + pendingPipe.uri + "\" through \"" + pendingPipe.pipePath + "\"");
+        Thread thread = new Thread(() -> streamToPipe(pendingPipe.inputFileDescriptor, pendingPipe.pipePath), LOG_TAG);
+        thread.setDaemon(true);
+        thread.start();
+        return null;
+    }
+
+    /**
+     * Close the `content://` URI of an execution intent that will not be sent. This is ignored if
+     * the stdin of the execution intent is not streamed from a URI or the fifo has already been
+     * created by {@link #start(Intent)}.
+     *
+     * @param executionIntent The execution {@link Intent} passed to {@link #setStdinFile(Context, Intent, String)}.
+     */
+    public static void discard(@NonNull Intent executionIntent) {
+        PendingPipe pendingPipe;
+        synchronized (PENDING_PIPES) {
+            pendingPipe = PENDING_PIPES.remove(executionIntent);
+        }
+        if (pendingPipe == null) return;
+
+        Logger.logVerbose(LOG_TAG, "Not streaming stdin from \"" + pendingPipe.uri + "\" since execution intent was not sent");
+        closeQuietly(pendingPipe.inputFileDescriptor);
+    }
+
+
+
+    private static String setStdinUri(@NonNull Context context, @NonNull Intent executionIntent, @NonNull Uri uri) {
+        // Open the URI now, since the plugin host app may only grant access to it for the fire
+        final ParcelFileDescriptor inputFileDescriptor;
+        try {
+            inputFileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (inputFileDescriptor == null) return "Failed to open stdin uri \"" + uri + "\"";
+        } catch (Exception e) {
+            return "Failed to open stdin uri \"" + uri + "\": " + e.getMessage();
+        }
+
+        final String pipePath = STDIN_PIPES_DIR_PATH + "/" + android.os.Process.myPid() + "-" +
+                PIPE_COUNTER.incrementAndGet() + ".fifo";
+        if (!ExecutionProcessUtils.wrapExecutionIntent(executionIntent, WRAPPER_SCRIPT, pipePath)) {
+            closeQuietly(inputFileDescriptor);
+            return "Failed to set stdin pipe \"" + pipePath + "\" for execution intent";
+        }
+
+        synchronized (PENDING_PIPES) {
+            PENDING_PIPES.put(executionIntent, new PendingPipe(uri, inputFileDescriptor, pipePath));
+        }
+        PluginMetrics.incrementCounter("stdin_uris");
+        return null;
+    }
+
+    /** Copy the content of a file descriptor to a fifo once the command has opened it for reading. */
+    private static void streamToPipe(@NonNull ParcelFileDescriptor inputFileDescriptor, @NonNull String pipePath) {
+        FileDescriptor pipeFileDescriptor = null;
+        try {
+            // Opening a fifo for writing blocks till it is opened for reading, which may never
+            // happen if the command fails to start, so poll with O_NONBLOCK till the timeout
+            long deadline = SystemClock.elapsedRealtime() + PIPE_OPEN_TIMEOUT;
+            FileDescriptor nonBlockingFileDescriptor = null;
+            while (nonBlockingFileDescriptor == null) {
+                try {
+                    nonBlockingFileDescriptor = Os.open(pipePath, OsConstants.O_WRONLY | OsConstants.O_NONBLOCK, 0);
+                } catch (ErrnoException e) {
+                    if (e.errno != OsConstants.ENXIO) throw e;
+                    if (SystemClock.elapsedRealtime() >= deadline) {
+                        Logger.logError(LOG_TAG, "The command did not open the stdin pipe \"" + pipePath + "\" within " + PIPE_OPEN_TIMEOUT + "ms");
+                        PluginMetrics.incrementCounter("stdin_pipes_expired");
+                        return;
+                    }
+                    SystemClock.sleep(PIPE_OPEN_POLL_INTERVAL);
+                }
+            }
+
+            // The fifo now has a reader, so a blocking open returns immediately
+            pipeFileDescriptor = Os.open(pipePath, OsConstants.O_WRONLY, 0);
+            Os.close(nonBlockingFileDescriptor);
+            new File(pipePath).delete();
+
+            long length = 0;
+            try (InputStream inputStream = new FileInputStream(inputFileDescriptor.getFileDescriptor());
+                 OutputStream outputStream = new FileOutputStream(pipeFileDescriptor)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                    length += read;
+                }
+            }
+            pipeFileDescriptor = null;
+            Logger.logVerbose(LOG_TAG, "Streamed " + length + " bytes to stdin pipe \"" + pipePath + "\"");
+        } catch (ErrnoException | IOException e) {
+            // The command may exit without reading all of stdin
+            Logger.logVerbose(LOG_TAG, "Failed to stream to stdin pipe \"" + pipePath + "\": " + e.getMessage());
+        } finally {
+            if (pipeFileDescriptor != null) {
+                try {
+                    Os.close(pipeFileDescriptor);
+                } catch (ErrnoException ignored) {}
+            }
+            closeQuietly(inputFileDescriptor);
+            new File(pipePath).delete();
+        }
+    }
+
+    /** A `content://` URI opened for an execution intent whose fifo has not been created yet. */
+    private static class PendingPipe {
+        @NonNull final Uri uri;
+        @NonNull final ParcelFileDescriptor inputFileDescriptor;
+        @NonNull final String pipePath;
+
+        PendingPipe(@NonNull Uri uri, @NonNull ParcelFileDescriptor inputFileDescriptor, @NonNull String pipePath) {
+            this.uri = uri;
+            this.inputFileDescriptor = inputFileDescriptor;
+            this.pipePath = pipePath;
+        }
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor fileDescriptor) {
+        try {
+            fileDescriptor.close();
+        } catch (IOException ignored) {}
+    }
+
+}
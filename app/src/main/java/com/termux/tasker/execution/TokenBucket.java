@@ -0,0 +1,87 @@
+package com.termux.tasker.execution;
+
+/**
+ * A token bucket that allows {@link #capacity} operations in a burst and then refills at
+ * {@link #refillPerSecond} tokens per second.
+ *
+ * The bucket is not thread safe and callers must synchronize access to it.
+ */
+public class TokenBucket {
+
+    /** The max number of tokens the bucket can hold. */
+    private int capacity;
+
+    /** The number of tokens added to the bucket per second. */
+    private int refillPerSecond;
+
+    private double tokens;
+    private long lastRefillTime;
+
+    /**
+     * Create a full {@link TokenBucket}.
+     *
+     * @param capacity The max number of tokens the bucket can hold.
+     * @param refillPerSecond The number of tokens added to the bucket per second.
+     * @param currentTime The current time in milliseconds.
+     */
+    public TokenBucket(int capacity, int refillPerSecond, long currentTime) {
+        this.capacity = Math.max(1, capacity);
+        this.refillPerSecond = Math.max(1, refillPerSecond);
+        this.tokens = this.capacity;
+        this.lastRefillTime = currentTime;
+    }
+
+    /** Update the capacity and refill rate of the bucket, keeping the tokens it currently holds. */
+    public void configure(int capacity, int refillPerSecond, long currentTime) {
+        refill(currentTime);
+        this.capacity = Math.max(1, capacity);
+        this.refillPerSecond = Math.max(1, refillPerSecond);
+        tokens = Math.min(tokens, this.capacity);
+    }
+
+    /** Whether a token is available at {@code currentTime}. */
+    public boolean hasToken(long currentTime) {
+        refill(currentTime);
+        return tokens >= 1;
+    }
+
+    /**
+     * Take a token from the bucket.
+     *
+     * @param currentTime The current time in milliseconds.
+     * @return Returns {@code true} if a token was taken, otherwise {@code false}.
+     */
+    public boolean tryAcquire(long currentTime) {
+        refill(currentTime);
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    /** Get the time in milliseconds after {@code currentTime} at which a token will be available. */
+    public long getTimeUntilNextToken(long currentTime) {
+        refill(currentTime);
+        if (tokens >= 1) return 0;
+        return (long) Math.ceil((1 - tokens) * 1000 / refillPerSecond);
+    }
+
+    /** Whether the bucket is full at {@code currentTime}, i.e. it has not been used recently. */
+    public boolean isFull(long currentTime) {
+        refill(currentTime);
+        return tokens >= capacity;
+    }
+
+    /** Get the number of whole tokens available at {@code currentTime}. */
+    public int getAvailableTokens(long currentTime) {
+        refill(currentTime);
+        return (int) tokens;
+    }
+
+    private void refill(long currentTime) {
+        long elapsed = currentTime - lastRefillTime;
+        if (elapsed <= 0) return;
+        tokens = Math.min(capacity, tokens + (elapsed * refillPerSecond) / 1000.0);
+        lastRefillTime = currentTime;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.termux.tasker.execution;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An execution of a plugin action whose execution intent is tracked by the {@link ExecutionRegistry}
+ * from when it is sent to the execution service till its result is received back by the
+ * {@link com.termux.tasker.PluginResultsService}.
+ */
+public class TrackedExecution {
+
+    /** The unique id of the execution, which is the request code of its result {@link android.app.PendingIntent}. */
+    public final int id;
+
+    /** The canonical path of the executable of the execution. */
+    @NonNull public final String executable;
+
+    /** The original {@link Intent} received by the {@link com.termux.tasker.FireReceiver}. */
+    @NonNull public final Intent originalIntent;
+
+    /** The {@link Intent} to be sent to the execution service. */
+    @NonNull public final Intent executionIntent;
+
+    /** Whether the plugin host app is waiting for the result of the execution. */
+    public final boolean waitForResult;
+
+    /**
+     * The path to the file the pid of the execution process is written to if the execution
+     * intent has been wrapped with {@link ExecutionProcessUtils#wrapExecutionIntentForPidTracking(Intent, String)}.
+     */
+    @Nullable public final String pidFilePath;
+
+    /** The {@link ExecutionOptions#coalesceGroupId} of the execution, or {@code -1} if it is not coalesced. */
+    public final int coalesceGroupId;
+
+    /** The {@link ExecutionPriority} of the execution. */
+    @NonNull public final ExecutionPriority priority;
+
+    /** The {@link SystemClock#elapsedRealtime()} at which the execution was submitted. */
+    public final long submitTime;
+
+    /** The {@link SystemClock#elapsedRealtime()} at which the execution intent was sent. */
+    public long startTime;
+
+    /** Whether the execution was killed since it was replaced by a newer execution. */
+    public boolean replaced;
+
+    public TrackedExecution(int id, @NonNull String executable, @NonNull Intent originalIntent,
+                            @NonNull Intent executionIntent, boolean waitForResult, @Nullable String pidFilePath,
+                            int coalesceGroupId, @NonNull ExecutionPriority priority) {
+        this.id = id;
+        this.executable = executable;
+        this.originalIntent = originalIntent;
+        this.executionIntent = executionIntent;
+        this.waitForResult = waitForResult;
+        this.pidFilePath = pidFilePath;
+        this.coalesceGroupId = coalesceGroupId;
+        this.priority = priority;
+        this.submitTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Create the {@link ExecutionRateLimiter.Dispatch} to send the execution intent of a queued
+     * execution with. Its watchdog, journal entry and {@link RunningExecutions} entry were added
+     * with the id of the execution when it was queued.
+     */
+    @NonNull
+    public ExecutionRateLimiter.Dispatch createDispatch() {
+        return new ExecutionRateLimiter.Dispatch(originalIntent, executionIntent, executable, waitForResult,
+                id, coalesceGroupId, id, waitForResult ? id : -1, id, priority);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "TrackedExecution{id=" + id + ", executable=\"" + executable + "\"}";
+    }
+
+}
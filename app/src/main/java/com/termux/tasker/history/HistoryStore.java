@@ -0,0 +1,183 @@
+package com.termux.tasker.history;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A store for history records of the plugin, like startup traces of the `:background` process.
+ *
+ * Each history is an append-only file with one {@link JSONObject} record per line under
+ * {@link #HISTORY_DIR_NAME} in the app files directory. Once a history file reaches
+ * {@code 2 * maxRecords} records, it is compacted to the most recent {@code maxRecords} records
+ * so that appends stay cheap and files stay bounded. Appends are done on a single background
+ * thread so that callers on the fire path are not blocked by disk I/O.
+ */
+public class HistoryStore {
+
+    /** The directory name under app files directory where history files are stored. */
+    public static final String HISTORY_DIR_NAME = "history"; // Default: "history"
+
+    /** The file extension of history files. */
+    public static final String HISTORY_FILE_EXTENSION = ".jsonl"; // Default: ".jsonl"
+
+    /** The cached number of records in each history file, so that files are not read on every append. */
+    private static final Map<String, Integer> RECORD_COUNTS = new HashMap<>();
+
+    private static ExecutorService WRITE_EXECUTOR;
+
+    private static final String LOG_TAG = "HistoryStore";
+
+    /**
+     * Append a record to a history asynchronously.
+     *
+     * @param context The {@link Context} for operations.
+     * @param historyName The name of the history.
+     * @param record The record to append.
+     * @param maxRecords The number of most recent records that must be kept for the history.
+     */
+    public static void appendRecord(final Context context, @NonNull final String historyName,
+                                    @NonNull final JSONObject record, final int maxRecords) {
+        if (context == null) return;
+
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        final String line = record.toString();
+        getWriteExecutor().execute(() -> appendLine(appContext, historyName, line, maxRecords));
+    }
+
+    /**
+     * Get the records of a history, from the oldest to the most recent.
+     *
+     * @param context The {@link Context} for operations.
+     * @param historyName The name of the history.
+     * @return Returns the {@link List} of records. Invalid lines are ignored.
+     */
+    @NonNull
+    public static List<JSONObject> getRecords(@NonNull final Context context, @NonNull final String historyName) {
+        List<JSONObject> records = new ArrayList<>();
+        synchronized (RECORD_COUNTS) {
+            for (String line : readLines(getHistoryFile(context, historyName))) {
+                try {
+                    records.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    Logger.logError(LOG_TAG, "Ignoring invalid record in \"" + historyName + "\" history: " + e.getMessage());
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Delete all records of a history.
+     *
+     * @param context The {@link Context} for operations.
+     * @param historyName The name of the history.
+     */
+    public static void clear(@NonNull final Context context, @NonNull final String historyName) {
+        synchronized (RECORD_COUNTS) {
+            File historyFile = getHistoryFile(context, historyName);
+            if (historyFile.exists() && !historyFile.delete())
+                Logger.logError(LOG_TAG, "Failed to delete history file at \"" + historyFile.getAbsolutePath() + "\"");
+            RECORD_COUNTS.remove(historyName);
+        }
+    }
+
+
+
+    private static synchronized ExecutorService getWriteExecutor() {
+        if (WRITE_EXECUTOR == null)
+            WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+        return WRITE_EXECUTOR;
+    }
+
+    private static void appendLine(@NonNull final Context context, @NonNull final String historyName,
+                                   @NonNull final String line, final int maxRecords) {
+        synchronized (RECORD_COUNTS) {
+            File historyFile = getHistoryFile(context, historyName);
+            File historyDir = historyFile.getParentFile();
+            if (historyDir != null && !historyDir.isDirectory() && !historyDir.mkdirs()) {
+                Logger.logError(LOG_TAG, "Failed to create history directory at \"" + historyDir.getAbsolutePath() + "\"");
+                return;
+            }
+
+            Integer recordCount = RECORD_COUNTS.get(historyName);
+            if (recordCount == null)
+                recordCount = readLines(historyFile).size();
+
+            if (recordCount + 1 >= 2 * maxRecords) {
+                // Compact the file to the most recent records, including the new one
+                List<String> lines = readLines(historyFile);
+                lines.add(line);
+                lines = lines.subList(Math.max(0, lines.size() - maxRecords), lines.size());
+                if (writeLines(historyFile, lines, false))
+                    RECORD_COUNTS.put(historyName, lines.size());
+                else
+                    RECORD_COUNTS.remove(historyName);
+            } else {
+                List<String> lines = new ArrayList<>();
+                lines.add(line);
+                if (writeLines(historyFile, lines, true))
+                    RECORD_COUNTS.put(historyName, recordCount + 1);
+                else
+                    RECORD_COUNTS.remove(historyName);
+            }
+        }
+    }
+
+    @NonNull
+    private static List<String> readLines(@NonNull final File file) {
+        List<String> lines = new ArrayList<>();
+        if (!file.isFile()) return lines;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read history file at \"" + file.getAbsolutePath() + "\"", e);
+        }
+
+        return lines;
+    }
+
+    private static boolean writeLines(@NonNull final File file, @NonNull final List<String> lines, boolean append) {
+        StringBuilder data = new StringBuilder();
+        for (String line : lines)
+            data.append(line).append("\n");
+
+        try (FileOutputStream outputStream = new FileOutputStream(file, append)) {
+            outputStream.write(data.toString().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write history file at \"" + file.getAbsolutePath() + "\"", e);
+            return false;
+        }
+    }
+
+    @NonNull
+    private static File getHistoryFile(@NonNull final Context context, @NonNull final String historyName) {
+        return new File(new File(context.getFilesDir(), HISTORY_DIR_NAME),
+                historyName.replaceAll("[^a-zA-Z0-9._-]", "_") + HISTORY_FILE_EXTENSION);
+    }
+
+}
@@ -0,0 +1,347 @@
+package com.termux.tasker.output;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.tasker.blobs.BlobStore;
+import com.termux.tasker.utils.PluginMetrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Returns only the changes to the stdout of commands since the last run of a plugin action, so
+ * that tasks that poll the same command every few seconds can skip their work cheaply if its
+ * output has not changed.
+ *
+ * The last stdout for each delta output key is saved in a file under {@link #DELTA_DIR_PATH},
+ * named by the SHA-256 hash of the key and starting with the SHA-256 hash of the stdout. The hash
+ * is cached in memory along with the last modified time of the file, so if stdout has not changed,
+ * only its hash is computed and the previous stdout is not read. Otherwise, the unified diff of the
+ * lines of the previous and current stdout is returned, computed with the Myers algorithm after
+ * removing the lines they start and end with in common. At most {@link #MAX_STATES} keys are kept,
+ * and the least recently used ones are removed first.
+ */
+public class DeltaOutput {
+
+    /** Plugin variable for whether stdout has changed since the last run with the delta output key. */
+    public static final String PLUGIN_VARIABLE_CHANGED = "%changed"; // Default: "%changed"
+
+    /** The directory under the Termux app cache directory where the last stdout for each key is saved. */
+    public static final String DELTA_DIR_PATH = TermuxConstants.TERMUX_INTERNAL_PRIVATE_APP_DATA_DIR_PATH + "/cache/termux-tasker/delta"; // Default: "/data/data/com.termux/cache/termux-tasker/delta"
+
+    /** The max number of keys whose last stdout is kept. */
+    public static final int MAX_STATES = 100;
+
+    /** The number of unchanged lines shown before and after the changed lines of the diff. */
+    public static final int CONTEXT_LINES = 3;
+
+    /** The max number of changed lines the Myers algorithm searches for before all differing lines
+     * are returned as changed, which bounds its time and the memory of its trace. */
+    public static final int MAX_EDIT_DISTANCE = 1000;
+
+    private static final byte OP_EQUAL = 0;
+    private static final byte OP_DELETE = 1;
+    private static final byte OP_INSERT = 2;
+
+    /** The hashes of the last stdout for each key and the last modified time of their files. */
+    private static final Map<String, State> STATES = new LinkedHashMap<String, State>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, State> eldest) {
+            return size() > MAX_STATES;
+        }
+    };
+
+    private static final String LOG_TAG = "DeltaOutput";
+
+    /**
+     * Compare stdout with the last stdout for a key and add the {@link #PLUGIN_VARIABLE_CHANGED}
+     * variable to the variables bundle.
+     *
+     * @param key The delta output key.
+     * @param stdout The stdout of the command.
+     * @param variablesBundle The variables {@link Bundle} to add the variables to.
+     * @return Returns the unified diff of the last and current stdout if it has changed, otherwise
+     * an empty string.
+     */
+    @NonNull
+    public static String apply(@NonNull String key, @NonNull String stdout, @NonNull Bundle variablesBundle) {
+        long startTime = System.currentTimeMillis();
+        String hash = BlobStore.getHash(stdout.getBytes(StandardCharsets.UTF_8));
+        File stateFile = new File(DELTA_DIR_PATH, BlobStore.getHash(key.getBytes(StandardCharsets.UTF_8)));
+
+        String diff;
+        synchronized (STATES) {
+            // The file may have been written by another process since the hash was cached
+            State state = STATES.get(key);
+            long lastModified = stateFile.isFile() ? stateFile.lastModified() : 0;
+            if (state == null || state.lastModified != lastModified)
+                state = new State(lastModified == 0 ? null : readStateHash(stateFile), lastModified);
+
+            if (hash.equals(state.hash)) {
+                // Mark the key as recently used so that it is not removed before keys that change
+                long currentTime = System.currentTimeMillis();
+                if (stateFile.setLastModified(currentTime)) state = new State(hash, stateFile.lastModified());
+                STATES.put(key, state);
+                diff = null;
+            } else {
+                String previousStdout = state.hash == null ? "" : readStateStdout(stateFile);
+                diff = getUnifiedDiff(previousStdout, stdout);
+                STATES.put(key, new State(hash, writeState(stateFile, hash, stdout, lastModified == 0)));
+            }
+        }
+
+        PluginMetrics.recordLatency("delta_output", System.currentTimeMillis() - startTime);
+        PluginMetrics.incrementCounter(diff == null ? "delta_outputs_unchanged" : "delta_outputs_changed");
+        variablesBundle.putString(PLUGIN_VARIABLE_CHANGED, Boolean.toString(diff != null));
+        return diff == null ? "" : diff;
+    }
+
+    /**
+     * Get the unified diff of the lines of two texts, with {@link #CONTEXT_LINES} lines of context.
+     * Lines are split like {@link OutputSplitter#split}, so a trailing newline and carriage
+     * returns at the end of lines are ignored.
+     *
+     * @param previous The previous text.
+     * @param current The current text.
+     * @return Returns the unified diff, or an empty string if the lines are equal.
+     */
+    @NonNull
+    public static String getUnifiedDiff(@NonNull String previous, @NonNull String current) {
+        ArrayList<String> a = new ArrayList<>();
+        ArrayList<String> b = new ArrayList<>();
+        OutputSplitter.split(previous, "\n", Integer.MAX_VALUE, a);
+        OutputSplitter.split(current, "\n", Integer.MAX_VALUE, b);
+
+        // Compare lines by id instead of with equals()
+        Map<String, Integer> ids = new HashMap<>();
+        int[] aIds = getLineIds(a, ids);
+        int[] bIds = getLineIds(b, ids);
+
+        int prefix = 0;
+        while (prefix < aIds.length && prefix < bIds.length && aIds[prefix] == bIds[prefix]) prefix++;
+        int suffix = 0;
+        while (suffix < aIds.length - prefix && suffix < bIds.length - prefix &&
+                aIds[aIds.length - 1 - suffix] == bIds[bIds.length - 1 - suffix]) suffix++;
+        if (prefix == aIds.length && prefix == bIds.length) return "";
+
+        byte[] middleOps = getEditScript(Arrays.copyOfRange(aIds, prefix, aIds.length - suffix),
+                Arrays.copyOfRange(bIds, prefix, bIds.length - suffix));
+        byte[] ops = new byte[prefix + middleOps.length + suffix];
+        System.arraycopy(middleOps, 0, ops, prefix, middleOps.length);
+
+        return formatUnifiedDiff(ops, a, b);
+    }
+
+
+
+    @NonNull
+    private static int[] getLineIds(@NonNull List<String> lines, @NonNull Map<String, Integer> ids) {
+        int[] lineIds = new int[lines.size()];
+        for (int i = 0; i < lineIds.length; i++) {
+            Integer id = ids.get(lines.get(i));
+            if (id == null) {
+                id = ids.size();
+                ids.put(lines.get(i), id);
+            }
+            lineIds[i] = id;
+        }
+        return lineIds;
+    }
+
+    /**
+     * Get the shortest edit script to turn {@code a} into {@code b} with the Myers algorithm. If it
+     * needs more than {@link #MAX_EDIT_DISTANCE} edits, then all lines of {@code a} are deleted and
+     * all lines of {@code b} inserted instead.
+     */
+    @NonNull
+    private static byte[] getEditScript(@NonNull int[] a, @NonNull int[] b) {
+        final int n = a.length;
+        final int m = b.length;
+        final int maxD = Math.min(n + m, MAX_EDIT_DISTANCE);
+
+        // The furthest x reached on each diagonal k, at v[k + offset]. The v of each d is saved
+        // in the trace, but only for the diagonals -d to d that the next d can read from.
+        final int offset = maxD + 1;
+        int[] v = new int[2 * maxD + 3];
+        List<int[]> trace = new ArrayList<>();
+        int found = -1;
+        for (int d = 0; d <= maxD && found < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[k - 1 + offset] < v[k + 1 + offset])) ? v[k + 1 + offset] : v[k - 1 + offset] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[x] == b[y]) { x++; y++; }
+                v[k + offset] = x;
+                if (x >= n && y >= m) { found = d; break; }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+
+        if (found < 0) {
+            Logger.logVerbose(LOG_TAG, "More than " + MAX_EDIT_DISTANCE + " lines changed, returning all of them as changed");
+            byte[] ops = new byte[n + m];
+            Arrays.fill(ops, 0, n, OP_DELETE);
+            Arrays.fill(ops, n, n + m, OP_INSERT);
+            return ops;
+        }
+
+        // Backtrack from the end through the trace, emitting the ops in reverse
+        byte[] ops = new byte[n + m];
+        int count = 0;
+        int x = n;
+        int y = m;
+        for (int d = found; d > 0; d--) {
+            int[] previousV = trace.get(d - 1);
+            int k = x - y;
+            int previousK = (k == -d || (k != d && previousV[k - 1 + d - 1] < previousV[k + 1 + d - 1])) ? k + 1 : k - 1;
+            int previousX = previousV[previousK + d - 1];
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) { ops[count++] = OP_EQUAL; x--; y--; }
+            if (x == previousX) { ops[count++] = OP_INSERT; y--; } else { ops[count++] = OP_DELETE; x--; }
+        }
+        while (x > 0 && y > 0) { ops[count++] = OP_EQUAL; x--; y--; }
+
+        byte[] script = new byte[count];
+        for (int i = 0; i < count; i++)
+            script[i] = ops[count - 1 - i];
+        return script;
+    }
+
+    @NonNull
+    private static String formatUnifiedDiff(@NonNull byte[] ops, @NonNull List<String> a, @NonNull List<String> b) {
+        // The lines of a and b before each op
+        int[] aLines = new int[ops.length + 1];
+        int[] bLines = new int[ops.length + 1];
+        for (int i = 0; i < ops.length; i++) {
+            aLines[i + 1] = aLines[i] + (ops[i] != OP_INSERT ? 1 : 0);
+            bLines[i + 1] = bLines[i] + (ops[i] != OP_DELETE ? 1 : 0);
+        }
+
+        StringBuilder diff = new StringBuilder("--- previous\n+++ current\n");
+        int index = 0;
+        while (true) {
+            int firstChange = index;
+            while (firstChange < ops.length && ops[firstChange] == OP_EQUAL) firstChange++;
+            if (firstChange == ops.length) break;
+
+            // Extend the hunk while the next change is close enough for their contexts to overlap
+            int lastChange = firstChange;
+            for (int i = firstChange + 1; i < ops.length && i <= lastChange + 2 * CONTEXT_LINES + 1; i++) {
+                if (ops[i] != OP_EQUAL) lastChange = i;
+            }
+
+            int start = Math.max(index, firstChange - CONTEXT_LINES);
+            int end = Math.min(ops.length, lastChange + 1 + CONTEXT_LINES);
+            diff.append("@@ -").append(getHunkRange(aLines[start], aLines[end] - aLines[start]))
+                    .append(" +").append(getHunkRange(bLines[start], bLines[end] - bLines[start])).append(" @@\n");
+            for (int i = start; i < end; i++) {
+                if (ops[i] == OP_INSERT)
+                    diff.append('+').append(b.get(bLines[i])).append('\n');
+                else
+                    diff.append(ops[i] == OP_DELETE ? '-' : ' ').append(a.get(aLines[i])).append('\n');
+            }
+            index = end;
+        }
+        return diff.toString();
+    }
+
+    /** Get the range of a hunk like GNU diff, where the start of an empty range is the line before it. */
+    @NonNull
+    private static String getHunkRange(int start, int count) {
+        if (count == 1) return Integer.toString(start + 1);
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    private static String readStateHash(@NonNull File stateFile) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8), 128)) {
+            return reader.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    private static String readStateStdout(@NonNull File stateFile) {
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8)) {
+            StringBuilder builder = new StringBuilder((int) Math.min(stateFile.length(), Integer.MAX_VALUE - 8));
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) >= 0)
+                builder.append(buffer, 0, read);
+            int separator = builder.indexOf("\n");
+            return separator < 0 ? "" : builder.substring(separator + 1);
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read previous stdout from \"" + stateFile.getAbsolutePath() + "\"", e);
+            return "";
+        }
+    }
+
+    /** Write the state file and return its last modified time, or 0 if it could not be written. */
+    private static long writeState(@NonNull File stateFile, @NonNull String hash, @NonNull String stdout, boolean isNewKey) {
+        File deltaDir = stateFile.getParentFile();
+        if (deltaDir != null && !deltaDir.isDirectory() && !deltaDir.mkdirs()) {
+            Logger.logError(LOG_TAG, "Failed to create delta directory at \"" + deltaDir.getAbsolutePath() + "\"");
+            return 0;
+        }
+
+        // Write to a temp file first so that a partially written stdout is never read
+        File tempFile = new File(stateFile.getAbsolutePath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile, false), StandardCharsets.UTF_8)) {
+            writer.write(hash);
+            writer.write('\n');
+            writer.write(stdout);
+        } catch (IOException e) {
+            tempFile.delete();
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write stdout to \"" + tempFile.getAbsolutePath() + "\"", e);
+            return 0;
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            tempFile.delete();
+            Logger.logError(LOG_TAG, "Failed to rename \"" + tempFile.getAbsolutePath() + "\" to \"" + stateFile.getAbsolutePath() + "\"");
+            return 0;
+        }
+
+        if (isNewKey && deltaDir != null)
+            removeLeastRecentlyUsedStates(deltaDir);
+        return stateFile.lastModified();
+    }
+
+    private static void removeLeastRecentlyUsedStates(@NonNull File deltaDir) {
+        File[] files = deltaDir.listFiles();
+        if (files == null || files.length <= MAX_STATES) return;
+
+        Arrays.sort(files, (file1, file2) -> Long.compare(file1.lastModified(), file2.lastModified()));
+        for (int i = 0; i < files.length - MAX_STATES; i++) {
+            if (files[i].delete())
+                Logger.logVerbose(LOG_TAG, "Removed least recently used delta state \"" + files[i].getName() + "\"");
+        }
+    }
+
+    /** The hash of the last stdout of a key and the last modified time of its file. */
+    private static class State {
+        final String hash;
+        final long lastModified;
+
+        State(String hash, long lastModified) {
+            this.hash = hash;
+            this.lastModified = lastModified;
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.termux.tasker.output;
+
+import android.os.Bundle;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Parses the JSON printed to stdout by commands into plugin host app variables, so that tasks
+ * do not have to parse `%stdout` themselves, like with JavaScriptlets in Tasker.
+ *
+ * The JSON is read with a {@link JsonReader} pull parser, so only the values of the selected
+ * paths are materialized and all other values are skipped without being converted to objects.
+ * The value at a path is returned in a variable named after the path, with the keys lowercased
+ * and any characters other than `a-z`, `0-9` and `_` replaced with `_`, like `battery.level` in
+ * `%json_battery_level`. Array elements are addressed with indexes starting from `1` like
+ * Tasker arrays, like `items.1.name` in `%json_items1_name`. Arrays that only contain primitive
+ * values are returned as plugin host app arrays, like `%json_items()`.
+ *
+ * The nesting depth and the number of variables are limited by the
+ * {@link PluginProperties#KEY_JSON_OUTPUT_MAX_DEPTH} and {@link PluginProperties#KEY_JSON_OUTPUT_MAX_VARIABLES}
+ * properties, and the total length of the values by the max length passed, since stdout is
+ * parsed before it is truncated and a single large value would otherwise exceed the size of the
+ * result that can be sent to the plugin host app. If stdout is not valid JSON or a limit is
+ * reached, then the variables parsed till then are returned along with {@link #PLUGIN_VARIABLE_JSON_ERROR}.
+ */
+public class JsonOutputParser {
+
+    /** The prefix of the plugin variables of the values of stdout. */
+    public static final String PLUGIN_VARIABLE_PREFIX = "%json"; // Default: "%json"
+
+    /** Plugin variable for the error if stdout could not be parsed or a limit was reached. */
+    public static final String PLUGIN_VARIABLE_JSON_ERROR = "%json_error"; // Default: "%json_error"
+
+    /** The {@link com.termux.tasker.PluginBundleManager#EXTRA_JSON_OUTPUT} value to return the
+     * values at all paths. */
+    public static final String VALUE_ALL_PATHS = "*"; // Default: "*"
+
+    private static final String LOG_TAG = "JsonOutputParser";
+
+    /** The selected paths, or {@code null} if all paths are selected. */
+    private final Set<String> mPaths;
+    /** The proper prefixes of the selected paths, which must be descended into to reach them. */
+    private final Set<String> mPathPrefixes;
+    private final int mMaxDepth;
+    private final int mMaxVariables;
+    private final int mMaxLength;
+
+    private final Bundle mVariablesBundle;
+    private int mVariablesCount;
+    private int mLength;
+    private int mInvalidNamesCount;
+
+    private JsonOutputParser(@NonNull Bundle variablesBundle, @NonNull String paths, int maxLength) {
+        mVariablesBundle = variablesBundle;
+        mMaxLength = maxLength;
+        mMaxDepth = PluginProperties.getInt(PluginProperties.KEY_JSON_OUTPUT_MAX_DEPTH,
+                PluginProperties.DEFAULT_VALUE_JSON_OUTPUT_MAX_DEPTH, 1, 64);
+        mMaxVariables = PluginProperties.getInt(PluginProperties.KEY_JSON_OUTPUT_MAX_VARIABLES,
+                PluginProperties.DEFAULT_VALUE_JSON_OUTPUT_MAX_VARIABLES, 1, 10000);
+
+        if (VALUE_ALL_PATHS.equals(paths.trim())) {
+            mPaths = null;
+            mPathPrefixes = null;
+            return;
+        }
+
+        mPaths = new HashSet<>();
+        mPathPrefixes = new HashSet<>();
+        for (String path : paths.split(",")) {
+            path = path.trim();
+            if (path.isEmpty()) continue;
+            mPaths.add(path);
+            for (int i = path.indexOf('.'); i > 0; i = path.indexOf('.', i + 1))
+                mPathPrefixes.add(path.substring(0, i));
+        }
+    }
+
+    /**
+     * Parse the JSON in stdout and add the values at the selected paths to the variables bundle.
+     *
+     * @param variablesBundle The variables {@link Bundle} to add the variables to.
+     * @param stdout The stdout of the command.
+     * @param paths The comma separated paths whose values should be returned, or
+     *              {@link #VALUE_ALL_PATHS} to return the values at all paths.
+     * @param maxLength The max total length of the values returned.
+     */
+    public static void addVariables(@NonNull Bundle variablesBundle, String stdout, @NonNull String paths, int maxLength) {
+        if (stdout == null || stdout.isEmpty()) return;
+
+        long startTime = System.currentTimeMillis();
+        JsonOutputParser parser = new JsonOutputParser(variablesBundle, paths, maxLength);
+        String errmsg = parser.parse(stdout);
+        PluginMetrics.recordLatency("json_output_parse", System.currentTimeMillis() - startTime);
+
+        if (errmsg != null) {
+            Logger.logWarn(LOG_TAG, "Failed to parse stdout as JSON: " + errmsg);
+            PluginMetrics.incrementCounter("json_outputs_failed");
+            variablesBundle.putString(PLUGIN_VARIABLE_JSON_ERROR, errmsg);
+        } else {
+            PluginMetrics.incrementCounter("json_outputs_parsed");
+        }
+
+        Logger.logVerbose(LOG_TAG, "Parsed " + parser.mVariablesCount + " values from stdout" +
+                (parser.mInvalidNamesCount > 0 ? ", ignored " + parser.mInvalidNamesCount + " values with invalid variable names" : ""));
+    }
+
+
+
+    /** Parse the JSON and return the errmsg if failed, otherwise {@code null}. */
+    private String parse(@NonNull String json) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            readValue(reader, "", PLUGIN_VARIABLE_PREFIX, mPaths == null, 0);
+            if (reader.peek() != JsonToken.END_DOCUMENT)
+                return "Unexpected content after the JSON value";
+            return null;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return e.getMessage();
+        }
+    }
+
+    private void readValue(@NonNull JsonReader reader, @NonNull String path, @NonNull String name,
+                           boolean selected, int depth) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+            // Recursion is limited by the max depth, so deeply nested values cannot overflow the stack
+            if (depth >= mMaxDepth)
+                throw new LimitReachedException("The max depth " + mMaxDepth + " was reached at path \"" + path + "\"");
+            if (token == JsonToken.BEGIN_OBJECT)
+                readObject(reader, path, name, selected, depth);
+            else
+                readArray(reader, path, name, selected, depth);
+        } else if (selected) {
+            putString(path, name, readPrimitive(reader));
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    private void readObject(@NonNull JsonReader reader, @NonNull String path, @NonNull String name,
+                            boolean selected, int depth) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            String childPath = path.isEmpty() ? key : path + "." + key;
+            boolean childSelected = selected || mPaths.contains(childPath);
+            String namePart = PluginUtils.getPluginHostAppVariableNamePart(key);
+            if ((!childSelected && !mPathPrefixes.contains(childPath)) || namePart.isEmpty()) {
+                reader.skipValue();
+                continue;
+            }
+            readValue(reader, childPath, name + "_" + namePart, childSelected, depth + 1);
+        }
+        reader.endObject();
+    }
+
+    private void readArray(@NonNull JsonReader reader, @NonNull String path, @NonNull String name,
+                           boolean selected, int depth) throws IOException {
+        // The primitive values of a selected array, with null for nested values
+        ArrayList<String> values = selected ? new ArrayList<>() : null;
+        boolean primitivesOnly = true;
+
+        reader.beginArray();
+        for (int index = 1; reader.hasNext(); index++) {
+            String childPath = path.isEmpty() ? Integer.toString(index) : path + "." + index;
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+                primitivesOnly = false;
+                if (values != null) values.add(null);
+                boolean childSelected = selected || mPaths.contains(childPath);
+                if (childSelected || mPathPrefixes.contains(childPath))
+                    readValue(reader, childPath, name + index, childSelected, depth + 1);
+                else
+                    reader.skipValue();
+            } else if (values != null) {
+                checkVariablesCount();
+                values.add(checkLength(childPath, readPrimitive(reader)));
+            } else if (mPaths.contains(childPath)) {
+                putString(childPath, name + index, readPrimitive(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+
+        if (values == null) return;
+        if (primitivesOnly) {
+            if (isVariableNameValid(name))
+                mVariablesBundle.putStringArrayList(name, values);
+            return;
+        }
+
+        // Mixed arrays are returned as separate variables like the elements of an array would be
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) != null)
+                putVariable(name + (i + 1), values.get(i));
+        }
+    }
+
+    @NonNull
+    private static String readPrimitive(@NonNull JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BOOLEAN:
+                return Boolean.toString(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return "";
+            default:
+                // Numbers are returned as is instead of being converted to a double
+                return reader.nextString();
+        }
+    }
+
+    private void putString(@NonNull String path, @NonNull String name, @NonNull String value) throws LimitReachedException {
+        checkVariablesCount();
+        putVariable(name, checkLength(path, value));
+    }
+
+    private void putVariable(@NonNull String name, @NonNull String value) {
+        if (isVariableNameValid(name))
+            mVariablesBundle.putString(name, value);
+    }
+
+    private void checkVariablesCount() throws LimitReachedException {
+        if (mVariablesCount >= mMaxVariables)
+            throw new LimitReachedException("The max variables count " + mMaxVariables + " was reached");
+        mVariablesCount++;
+    }
+
+    @NonNull
+    private String checkLength(@NonNull String path, @NonNull String value) throws LimitReachedException {
+        if (value.length() > mMaxLength - mLength)
+            throw new LimitReachedException("The max length " + mMaxLength + " of the values was reached at path \"" + path + "\"");
+        mLength += value.length();
+        return value;
+    }
+
+    private boolean isVariableNameValid(@NonNull String name) {
+        if (TaskerPlugin.variableNameValid(name)) return true;
+        mInvalidNamesCount++;
+        return false;
+    }
+
+    /** Thrown if the max depth, variables count or length was reached. */
+    private static class LimitReachedException extends IOException {
+        LimitReachedException(String message) {
+            super(message);
+        }
+    }
+
+}
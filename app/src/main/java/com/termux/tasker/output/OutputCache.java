@@ -0,0 +1,114 @@
+package com.termux.tasker.output;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+
+import com.termux.tasker.utils.PluginMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache of the output options of a single execution whose result is sent to multiple plugin
+ * actions, like the leader and followers of a {@link com.termux.tasker.execution.FireCoalescer}
+ * group, so that the stateful options are only applied once per execution.
+ *
+ * The {@link DeltaOutput} of a key is only applied once for the same stdout, since applying it
+ * again would compare stdout with itself and return it as unchanged to all but the first plugin
+ * action. Plugin actions with different output filters for the same key still apply it to their
+ * own stdout.
+ *
+ * The outputs returned as content URIs by the {@link OutputProvider} are only written once for the
+ * same stdout and stderr, and all plugin actions are returned the same URIs.
+ */
+public class OutputCache {
+
+    /** The delta output applied for each delta output key. */
+    private final Map<String, AppliedDeltaOutput> deltaOutputs = new HashMap<>();
+
+    /** The outputs written to spool files by the {@link OutputProvider}. */
+    private final List<SpooledOutput> spooledOutputs = new ArrayList<>();
+
+    /**
+     * Apply the {@link DeltaOutput} for a key with {@link DeltaOutput#apply(String, String, Bundle)},
+     * unless it has already been applied for the same stdout, in which case its result is returned
+     * again.
+     *
+     * @param key The delta output key.
+     * @param stdout The stdout of the command.
+     * @param variablesBundle The variables {@link Bundle} to add the variables to.
+     * @return Returns the unified diff of the last and current stdout if it has changed, otherwise
+     * an empty string.
+     */
+    @NonNull
+    public synchronized String applyDeltaOutput(@NonNull String key, @NonNull String stdout, @NonNull Bundle variablesBundle) {
+        AppliedDeltaOutput deltaOutput = deltaOutputs.get(key);
+        if (deltaOutput != null && deltaOutput.stdout.equals(stdout)) {
+            PluginMetrics.incrementCounter("delta_outputs_reused");
+        } else {
+            Bundle deltaVariablesBundle = new Bundle();
+            deltaOutput = new AppliedDeltaOutput(stdout, DeltaOutput.apply(key, stdout, deltaVariablesBundle), deltaVariablesBundle);
+            deltaOutputs.put(key, deltaOutput);
+        }
+
+        variablesBundle.putAll(deltaOutput.variablesBundle);
+        return deltaOutput.diff;
+    }
+
+    /**
+     * Write stdout and stderr to spool files and add their URIs to the variables bundle with
+     * {@link OutputProvider#addVariables(Bundle, String, String)}, unless they have already been
+     * written, in which case the URIs of the existing files are added.
+     *
+     * @param variablesBundle The variables {@link Bundle} to add the variables to.
+     * @param stdout The stdout of the command.
+     * @param stderr The stderr of the command.
+     * @return Returns {@code true} if the URIs were added, otherwise {@code false}.
+     */
+    public synchronized boolean addOutputUriVariables(@NonNull Bundle variablesBundle, String stdout, String stderr) {
+        for (SpooledOutput spooledOutput : spooledOutputs) {
+            if (Objects.equals(spooledOutput.stdout, stdout) && Objects.equals(spooledOutput.stderr, stderr)) {
+                PluginMetrics.incrementCounter("output_uris_reused");
+                variablesBundle.putAll(spooledOutput.variablesBundle);
+                return true;
+            }
+        }
+
+        Bundle uriVariablesBundle = new Bundle();
+        if (!OutputProvider.addVariables(uriVariablesBundle, stdout, stderr))
+            return false;
+
+        spooledOutputs.add(new SpooledOutput(stdout, stderr, uriVariablesBundle));
+        variablesBundle.putAll(uriVariablesBundle);
+        return true;
+    }
+
+    private static class AppliedDeltaOutput {
+        @NonNull final String stdout;
+        @NonNull final String diff;
+        @NonNull final Bundle variablesBundle;
+
+        AppliedDeltaOutput(@NonNull String stdout, @NonNull String diff, @NonNull Bundle variablesBundle) {
+            this.stdout = stdout;
+            this.diff = diff;
+            this.variablesBundle = variablesBundle;
+        }
+    }
+
+    private static class SpooledOutput {
+        final String stdout;
+        final String stderr;
+        @NonNull final Bundle variablesBundle;
+
+        SpooledOutput(String stdout, String stderr, @NonNull Bundle variablesBundle) {
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.variablesBundle = variablesBundle;
+        }
+    }
+
+}
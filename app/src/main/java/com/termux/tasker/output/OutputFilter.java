@@ -0,0 +1,340 @@
+package com.termux.tasker.output;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A filter applied by the plugin to the stdout of commands before it is returned to the plugin
+ * host app, so that large outputs can be reduced to the few values that are needed on-device
+ * instead of sending all of it to the plugin host app.
+ *
+ * A filter is defined by one or more stages separated by newlines, each of the form
+ * `<name> [<argument>]`. The lines of stdout are streamed through the stages one at a time, so
+ * the only lines held in memory are the ones buffered by {@link #STAGE_TAIL} stages and the lines
+ * of the result. If a {@link #STAGE_HEAD} stage has received all its lines and no stage before
+ * it buffers lines or returns variables, then the rest of stdout is not read.
+ *
+ * - {@link #STAGE_GREP}: Keep lines that match a regex.
+ * - {@link #STAGE_EXCLUDE}: Drop lines that match a regex.
+ * - {@link #STAGE_EXTRACT}: Replace lines that match a regex with the text matched by its first
+ *   group, or the whole match if it has no groups, and drop other lines.
+ * - {@link #STAGE_HEAD}: Keep the first N lines.
+ * - {@link #STAGE_TAIL}: Keep the last N lines.
+ * - {@link #STAGE_KV}: Keep lines of the form `key=value` whose key is in the optional comma
+ *   separated list of keys, and return their values in `%kv_<key>` variables. At most
+ *   {@link #MAX_KV_VARIABLES} variables are returned, and values are not returned once their
+ *   total length would exceed the max length passed, since the filter is applied before stdout
+ *   is truncated.
+ *
+ * Parsed filters are cached, since the same filter is applied to every result of a plugin action.
+ */
+public class OutputFilter {
+
+    /** The stage to keep lines that match a regex. */
+    public static final String STAGE_GREP = "grep"; // Default: "grep"
+    /** The stage to drop lines that match a regex. */
+    public static final String STAGE_EXCLUDE = "exclude"; // Default: "exclude"
+    /** The stage to extract the text matched by a regex from lines. */
+    public static final String STAGE_EXTRACT = "extract"; // Default: "extract"
+    /** The stage to keep the first N lines. */
+    public static final String STAGE_HEAD = "head"; // Default: "head"
+    /** The stage to keep the last N lines. */
+    public static final String STAGE_TAIL = "tail"; // Default: "tail"
+    /** The stage to keep `key=value` lines and return their values in variables. */
+    public static final String STAGE_KV = "kv"; // Default: "kv"
+
+    /** The prefix of the plugin variables of the values of {@link #STAGE_KV} stages. */
+    public static final String PLUGIN_VARIABLE_PREFIX_KV = "%kv"; // Default: "%kv"
+
+    /** The max number of variables returned by {@link #STAGE_KV} stages. */
+    public static final int MAX_KV_VARIABLES = 500;
+
+    /** The max number of parsed filters that are cached. */
+    private static final int MAX_CACHED_FILTERS = 16;
+
+    private static final Map<String, OutputFilter> CACHE = new LinkedHashMap<String, OutputFilter>(MAX_CACHED_FILTERS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OutputFilter> eldest) {
+            return size() > MAX_CACHED_FILTERS;
+        }
+    };
+
+    private static final String LOG_TAG = "OutputFilter";
+
+    private final List<Stage> mStages;
+    /** The index of the first stage that must receive all lines, since it buffers them or returns variables. */
+    private final int mFirstStatefulStageIndex;
+
+    private OutputFilter(@NonNull List<Stage> stages) {
+        mStages = stages;
+        int index = 0;
+        while (index < stages.size() && !STAGE_TAIL.equals(stages.get(index).name) &&
+                !STAGE_KV.equals(stages.get(index).name)) index++;
+        mFirstStatefulStageIndex = index;
+    }
+
+    /**
+     * Validate a filter.
+     *
+     * @param filter The filter.
+     * @return Returns the errmsg if the filter is not valid, otherwise {@code null}.
+     */
+    public static String validate(@NonNull String filter) {
+        try {
+            getFilter(filter);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Apply a filter to stdout.
+     *
+     * @param filter The filter.
+     * @param stdout The stdout of the command.
+     * @param variablesBundle The variables {@link Bundle} to add the variables of {@link #STAGE_KV}
+     *                        stages to.
+     * @param maxLength The max total length of the values of the variables of {@link #STAGE_KV} stages.
+     * @return Returns the filtered stdout. If the filter is not valid, then {@code stdout} is returned.
+     */
+    public static String apply(@NonNull String filter, String stdout, @NonNull Bundle variablesBundle, int maxLength) {
+        if (stdout == null) return null;
+
+        OutputFilter outputFilter;
+        try {
+            outputFilter = getFilter(filter);
+        } catch (IllegalArgumentException e) {
+            Logger.logError(LOG_TAG, "Ignoring invalid output filter: " + e.getMessage());
+            return stdout;
+        }
+
+        long startTime = System.currentTimeMillis();
+        String result = outputFilter.apply(stdout, variablesBundle, maxLength);
+        PluginMetrics.recordLatency("output_filter", System.currentTimeMillis() - startTime);
+        PluginMetrics.addToCounter("output_filter_chars_removed", stdout.length() - result.length());
+        Logger.logVerbose(LOG_TAG, "Filtered stdout from " + stdout.length() + " to " + result.length() + " characters");
+        return result;
+    }
+
+
+
+    @NonNull
+    private static OutputFilter getFilter(@NonNull String filter) {
+        synchronized (CACHE) {
+            OutputFilter outputFilter = CACHE.get(filter);
+            if (outputFilter == null) {
+                outputFilter = parse(filter);
+                CACHE.put(filter, outputFilter);
+            }
+            return outputFilter;
+        }
+    }
+
+    @NonNull
+    private static OutputFilter parse(@NonNull String filter) {
+        List<Stage> stages = new ArrayList<>();
+        for (String line : filter.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            int separator = line.indexOf(' ');
+            String name = (separator < 0 ? line : line.substring(0, separator)).toLowerCase(Locale.ROOT);
+            String argument = separator < 0 ? "" : line.substring(separator + 1).trim();
+            stages.add(new Stage(name, argument));
+        }
+
+        if (stages.isEmpty())
+            throw new IllegalArgumentException("The output filter does not have any stages");
+        return new OutputFilter(stages);
+    }
+
+    @NonNull
+    private String apply(@NonNull String stdout, @NonNull Bundle variablesBundle, int maxLength) {
+        State state = new State(mStages.size(), maxLength);
+
+        final int length = stdout.length();
+        int start = 0;
+        while (start < length && !state.isDone(mFirstStatefulStageIndex)) {
+            int end = stdout.indexOf('\n', start);
+            if (end < 0) end = length;
+            push(state, 0, stdout.substring(start, end));
+            start = end + 1;
+        }
+
+        // Flush the buffered lines of tail stages through the stages after them in order
+        for (int i = 0; i < mStages.size(); i++) {
+            ArrayDeque<String> tail = state.tails[i];
+            if (tail == null) continue;
+            for (String line : tail)
+                push(state, i + 1, line);
+        }
+
+        if (state.droppedVariablesCount > 0) {
+            Logger.logWarn(LOG_TAG, "Ignored " + state.droppedVariablesCount + " kv values since the max length " + maxLength + " of the values was reached");
+            PluginMetrics.addToCounter("output_filter_kv_values_dropped", state.droppedVariablesCount);
+        }
+        if (!state.variables.isEmpty())
+            variablesBundle.putAll(state.variables);
+        return state.output.toString();
+    }
+
+    private void push(@NonNull State state, int index, @NonNull String line) {
+        for (; index < mStages.size(); index++) {
+            Stage stage = mStages.get(index);
+            switch (stage.name) {
+                case STAGE_GREP:
+                    if (!stage.pattern.matcher(line).find()) return;
+                    break;
+                case STAGE_EXCLUDE:
+                    if (stage.pattern.matcher(line).find()) return;
+                    break;
+                case STAGE_EXTRACT:
+                    Matcher matcher = stage.pattern.matcher(line);
+                    if (!matcher.find()) return;
+                    line = matcher.groupCount() > 0 && matcher.group(1) != null ? matcher.group(1) : matcher.group();
+                    break;
+                case STAGE_HEAD:
+                    if (state.counts[index] >= stage.count) return;
+                    state.counts[index]++;
+                    break;
+                case STAGE_TAIL:
+                    if (state.tails[index] == null) state.tails[index] = new ArrayDeque<>();
+                    if (stage.count == 0) return;
+                    if (state.tails[index].size() == stage.count) state.tails[index].removeFirst();
+                    state.tails[index].addLast(line);
+                    return;
+                case STAGE_KV:
+                    int separator = line.indexOf('=');
+                    if (separator <= 0) return;
+                    String key = line.substring(0, separator).trim();
+                    if (stage.keys != null && !stage.keys.contains(key)) return;
+                    addKeyValueVariable(state, key, line.substring(separator + 1).trim());
+                    break;
+            }
+        }
+
+        if (state.hasOutput) state.output.append('\n');
+        state.output.append(line);
+        state.hasOutput = true;
+    }
+
+    private static void addKeyValueVariable(@NonNull State state, @NonNull String key, @NonNull String value) {
+        String name = PLUGIN_VARIABLE_PREFIX_KV + "_" + PluginUtils.getPluginHostAppVariableNamePart(key);
+        if (!state.variables.containsKey(name) && state.variables.size() >= MAX_KV_VARIABLES) return;
+        if (!TaskerPlugin.variableNameValid(name)) return;
+
+        // Keep the previous value of the key if the new one does not fit in the max length
+        String previousValue = state.variables.getString(name);
+        int variablesLength = state.variablesLength - (previousValue != null ? previousValue.length() : 0) + value.length();
+        if (variablesLength > state.maxLength) {
+            state.droppedVariablesCount++;
+            return;
+        }
+
+        state.variables.putString(name, value);
+        state.variablesLength = variablesLength;
+    }
+
+    /** A stage of a filter. */
+    private static class Stage {
+        final String name;
+        final Pattern pattern;
+        final int count;
+        /** The keys of a {@link #STAGE_KV} stage, or {@code null} for all keys. */
+        final Set<String> keys;
+
+        Stage(@NonNull String name, @NonNull String argument) {
+            this.name = name;
+            Pattern pattern = null;
+            int count = 0;
+            Set<String> keys = null;
+
+            switch (name) {
+                case STAGE_GREP:
+                case STAGE_EXCLUDE:
+                case STAGE_EXTRACT:
+                    if (argument.isEmpty())
+                        throw new IllegalArgumentException("The \"" + name + "\" output filter stage requires a regex");
+                    try {
+                        pattern = Pattern.compile(argument);
+                    } catch (PatternSyntaxException e) {
+                        throw new IllegalArgumentException("The regex of the \"" + name + "\" output filter stage is not valid: " + e.getDescription());
+                    }
+                    break;
+                case STAGE_HEAD:
+                case STAGE_TAIL:
+                    try {
+                        count = Integer.parseInt(argument);
+                    } catch (NumberFormatException e) {
+                        count = -1;
+                    }
+                    if (count < 0)
+                        throw new IllegalArgumentException("The \"" + name + "\" output filter stage requires a line count >= 0");
+                    break;
+                case STAGE_KV:
+                    if (!argument.isEmpty()) {
+                        keys = new HashSet<>();
+                        for (String key : argument.split(","))
+                            if (!key.trim().isEmpty()) keys.add(key.trim());
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("The output filter stage \"" + name + "\" must be one of: " +
+                            STAGE_GREP + ", " + STAGE_EXCLUDE + ", " + STAGE_EXTRACT + ", " + STAGE_HEAD + ", " + STAGE_TAIL + ", " + STAGE_KV);
+            }
+
+            this.pattern = pattern;
+            this.count = count;
+            this.keys = keys;
+        }
+    }
+
+    /** The state of a filter while it is applied to stdout. */
+    private class State {
+        final int[] counts;
+        final ArrayDeque<String>[] tails;
+        final StringBuilder output = new StringBuilder();
+        final Bundle variables = new Bundle();
+        /** The max total length of the values of {@link #variables}. */
+        final int maxLength;
+        int variablesLength;
+        int droppedVariablesCount;
+        boolean hasOutput;
+
+        @SuppressWarnings("unchecked")
+        State(int stagesCount, int maxLength) {
+            counts = new int[stagesCount];
+            tails = new ArrayDeque[stagesCount];
+            this.maxLength = maxLength;
+        }
+
+        /** Check whether a head stage up to {@code lastIndex} has received all its lines. */
+        boolean isDone(int lastIndex) {
+            for (int i = 0; i < lastIndex && i < mStages.size(); i++) {
+                Stage stage = mStages.get(i);
+                if (STAGE_HEAD.equals(stage.name) && counts[i] >= stage.count) return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+package com.termux.tasker.output;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link ContentProvider} that serves the stdout and stderr of commands from spool files, so
+ * that large outputs can be read lazily and in chunks by the plugin host app or any other app
+ * that has the `com.termux.permission.RUN_COMMAND` permission, instead of being sent to the
+ * plugin host app in variables.
+ *
+ * The outputs are written to files under {@link #OUTPUTS_DIR_PATH} named by a random token, and
+ * the `content://` URIs of the form `content://{@link #AUTHORITY}/<token>/<stream>` are returned in
+ * the {@link #PLUGIN_VARIABLE_STDOUT_URI} and {@link #PLUGIN_VARIABLE_STDERR_URI} variables. The
+ * {@link #openFile(Uri, String)} function returns a read-only {@link ParcelFileDescriptor} of the
+ * file, so the output is never loaded in memory by the provider. The outputs can be deleted with
+ * {@link #delete(Uri, String, String[])} once they have been read, otherwise they are deleted
+ * after {@link PluginProperties#KEY_OUTPUT_URI_MAX_AGE} seconds, and at most {@link #MAX_OUTPUTS}
+ * outputs are kept.
+ */
+public class OutputProvider extends ContentProvider {
+
+    /** The authority of the provider. */
+    public static final String AUTHORITY = TermuxConstants.TERMUX_TASKER_PACKAGE_NAME + ".output"; // Default: "com.termux.tasker.output"
+
+    /** The directory under the Termux app cache directory where the outputs are written. */
+    public static final String OUTPUTS_DIR_PATH = TermuxConstants.TERMUX_INTERNAL_PRIVATE_APP_DATA_DIR_PATH + "/cache/termux-tasker/outputs"; // Default: "/data/data/com.termux/cache/termux-tasker/outputs"
+
+    /** Plugin variable for the content URI of the stdout of the command. */
+    public static final String PLUGIN_VARIABLE_STDOUT_URI = "%stdout_uri"; // Default: "%stdout_uri"
+    /** Plugin variable for the content URI of the stderr of the command. */
+    public static final String PLUGIN_VARIABLE_STDERR_URI = "%stderr_uri"; // Default: "%stderr_uri"
+
+    /** The stream path segment of the URI of stdout. */
+    public static final String STREAM_STDOUT = "stdout"; // Default: "stdout"
+    /** The stream path segment of the URI of stderr. */
+    public static final String STREAM_STDERR = "stderr"; // Default: "stderr"
+
+    /** The max number of outputs that are kept. */
+    public static final int MAX_OUTPUTS = 100;
+
+    /** The MIME type of the outputs. */
+    private static final String MIME_TYPE = "text/plain";
+
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("[0-9a-f]{32}");
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final String LOG_TAG = "OutputProvider";
+
+    /**
+     * Write stdout and stderr to spool files and add their URIs to the variables bundle.
+     *
+     * @param variablesBundle The variables {@link Bundle} to add the variables to.
+     * @param stdout The stdout of the command.
+     * @param stderr The stderr of the command.
+     * @return Returns {@code true} if the outputs were written, otherwise {@code false}, in which
+     * case the variables are not added.
+     */
+    public static boolean addVariables(@NonNull Bundle variablesBundle, String stdout, String stderr) {
+        long startTime = System.currentTimeMillis();
+        File outputsDir = new File(OUTPUTS_DIR_PATH);
+        if (!outputsDir.isDirectory() && !outputsDir.mkdirs()) {
+            Logger.logError(LOG_TAG, "Failed to create outputs directory at \"" + OUTPUTS_DIR_PATH + "\"");
+            return false;
+        }
+
+        removeExpiredOutputs(outputsDir);
+
+        byte[] tokenBytes = new byte[16];
+        RANDOM.nextBytes(tokenBytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : tokenBytes)
+            token.append(String.format("%02x", b & 0xff));
+
+        File stdoutFile = getOutputFile(token.toString(), STREAM_STDOUT);
+        File stderrFile = getOutputFile(token.toString(), STREAM_STDERR);
+        try {
+            writeOutputFile(stdoutFile, stdout);
+            writeOutputFile(stderrFile, stderr);
+        } catch (IOException e) {
+            stdoutFile.delete();
+            stderrFile.delete();
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write outputs to \"" + OUTPUTS_DIR_PATH + "\"", e);
+            return false;
+        }
+
+        variablesBundle.putString(PLUGIN_VARIABLE_STDOUT_URI, getOutputUri(token.toString(), STREAM_STDOUT).toString());
+        variablesBundle.putString(PLUGIN_VARIABLE_STDERR_URI, getOutputUri(token.toString(), STREAM_STDERR).toString());
+        PluginMetrics.recordLatency("output_uri_write", System.currentTimeMillis() - startTime);
+        PluginMetrics.incrementCounter("output_uris_created");
+        return true;
+    }
+
+    /** Get the content URI of a stream of an output. */
+    @NonNull
+    public static Uri getOutputUri(@NonNull String token, @NonNull String stream) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).appendPath(token).appendPath(stream).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        File file = getFileForUri(uri);
+        if (file == null || !file.isFile()) return null;
+
+        if (projection == null)
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i]))
+                row[i] = file.getName() + ".txt";
+            else if (OpenableColumns.SIZE.equals(projection[i]))
+                row[i] = file.length();
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return getFileForUri(uri) != null ? MIME_TYPE : null;
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode))
+            throw new FileNotFoundException("The outputs can only be opened in the \"r\" mode");
+
+        File file = getFileForUri(uri);
+        if (file == null || !file.isFile() || isExpired(file))
+            throw new FileNotFoundException("The output at \"" + uri + "\" does not exist or has expired");
+
+        PluginMetrics.incrementCounter("output_uris_opened");
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Outputs cannot be inserted");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        File file = getFileForUri(uri);
+        return file != null && file.delete() ? 1 : 0;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Outputs cannot be updated");
+    }
+
+
+
+    /** Get the file for a URI, or {@code null} if it is not a valid output URI. */
+    @Nullable
+    private static File getFileForUri(@NonNull Uri uri) {
+        if (!AUTHORITY.equals(uri.getAuthority())) return null;
+
+        // Only known names are allowed in the path, so that files outside the directory cannot be opened
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !TOKEN_PATTERN.matcher(segments.get(0)).matches()) return null;
+        if (!STREAM_STDOUT.equals(segments.get(1)) && !STREAM_STDERR.equals(segments.get(1))) return null;
+        return getOutputFile(segments.get(0), segments.get(1));
+    }
+
+    @NonNull
+    private static File getOutputFile(@NonNull String token, @NonNull String stream) {
+        return new File(OUTPUTS_DIR_PATH, token + "-" + stream);
+    }
+
+    private static void writeOutputFile(@NonNull File file, String output) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8)) {
+            if (output != null) writer.write(output);
+        }
+    }
+
+    private static boolean isExpired(@NonNull File file) {
+        long maxAge = PluginProperties.getInt(PluginProperties.KEY_OUTPUT_URI_MAX_AGE,
+                PluginProperties.DEFAULT_VALUE_OUTPUT_URI_MAX_AGE, 60, 604800) * 1000L;
+        return System.currentTimeMillis() - file.lastModified() > maxAge;
+    }
+
+    /** Remove the expired outputs, and the oldest ones if there are more than {@link #MAX_OUTPUTS}
+     * outputs, so that there is room for one more. */
+    private static void removeExpiredOutputs(@NonNull File outputsDir) {
+        File[] files = outputsDir.listFiles();
+        if (files == null || files.length == 0) return;
+
+        Arrays.sort(files, (file1, file2) -> Long.compare(file1.lastModified(), file2.lastModified()));
+        // Each output has a stdout and stderr file
+        int removeCount = Math.max(0, files.length - 2 * (MAX_OUTPUTS - 1));
+        int removed = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (i >= removeCount && !isExpired(files[i])) break;
+            if (files[i].delete()) removed++;
+        }
+        if (removed > 0)
+            Logger.logVerbose(LOG_TAG, "Removed " + removed + " expired output files");
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.termux.tasker.output;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+import com.termux.tasker.utils.PluginUtils;
+
+import java.util.ArrayList;
+
+/**
+ * Splits the stdout of commands on a delimiter, like a newline, and returns the parts in the
+ * {@link PluginUtils#PLUGIN_VARIABLE_STDOUT} plugin host app array instead of a single variable,
+ * so that tasks do not have to split `%stdout` themselves, like with the `Variable Split` action
+ * in Tasker.
+ *
+ * The stdout is split in a single pass with {@link String#indexOf(String, int)} instead of a regex.
+ * At most {@link PluginProperties#KEY_SPLIT_STDOUT_MAX_PARTS} parts are returned to keep the
+ * result within the limits of the plugin host app, but all parts are still counted for
+ * {@link #PLUGIN_VARIABLE_STDOUT_PARTS_COUNT}.
+ */
+public class OutputSplitter {
+
+    /** Plugin variable for the number of parts of stdout before it was capped. */
+    public static final String PLUGIN_VARIABLE_STDOUT_PARTS_COUNT = "%stdout_parts_count"; // Default: "%stdout_parts_count"
+
+    private static final String LOG_TAG = "OutputSplitter";
+
+    /**
+     * Split stdout and add its parts to the variables bundle, replacing the
+     * {@link PluginUtils#PLUGIN_VARIABLE_STDOUT} variable.
+     *
+     * @param variablesBundle The variables {@link Bundle} to add the variables to.
+     * @param stdout The stdout of the command.
+     * @param delimiter The delimiter to split on, where `\n`, `\t` and `\\` are replaced with a
+     *                  newline, tab and backslash.
+     */
+    public static void addVariables(@NonNull Bundle variablesBundle, String stdout, @NonNull String delimiter) {
+        delimiter = unescapeDelimiter(delimiter);
+        if (delimiter.isEmpty()) return;
+
+        int maxParts = PluginProperties.getInt(PluginProperties.KEY_SPLIT_STDOUT_MAX_PARTS,
+                PluginProperties.DEFAULT_VALUE_SPLIT_STDOUT_MAX_PARTS, 1, 100000);
+
+        ArrayList<String> parts = new ArrayList<>();
+        int count = split(stdout == null ? "" : stdout, delimiter, maxParts, parts);
+        if (count > parts.size())
+            Logger.logVerbose(LOG_TAG, "Returning " + parts.size() + " of " + count + " parts of stdout");
+
+        variablesBundle.putStringArrayList(PluginUtils.PLUGIN_VARIABLE_STDOUT, parts);
+        variablesBundle.putString(PLUGIN_VARIABLE_STDOUT_PARTS_COUNT, Integer.toString(count));
+        PluginMetrics.incrementCounter("stdout_splits");
+    }
+
+    /**
+     * Split text on a delimiter. An empty text has no parts and a delimiter at the end of the text
+     * does not start a new part, so that the trailing newline of command output is ignored. If
+     * the delimiter is a newline, then any carriage return before it is removed.
+     *
+     * @param text The text to split.
+     * @param delimiter The non-empty delimiter to split on.
+     * @param maxParts The max number of parts to add to {@code parts}.
+     * @param parts The list to add the parts to.
+     * @return Returns the number of parts of the text, which may be greater than {@code maxParts}.
+     */
+    public static int split(@NonNull String text, @NonNull String delimiter, int maxParts, @NonNull ArrayList<String> parts) {
+        final int length = text.length();
+        final boolean stripCarriageReturn = delimiter.equals("\n");
+        int count = 0;
+        int start = 0;
+        while (start < length) {
+            int end = text.indexOf(delimiter, start);
+            if (end < 0) end = length;
+
+            if (count < maxParts) {
+                int partEnd = end;
+                if (stripCarriageReturn && partEnd > start && text.charAt(partEnd - 1) == '\r') partEnd--;
+                parts.add(text.substring(start, partEnd));
+            }
+            count++;
+            start = end + delimiter.length();
+        }
+        return count;
+    }
+
+    /** Replace the `\n`, `\t` and `\\` escape sequences in a delimiter. */
+    @NonNull
+    public static String unescapeDelimiter(@NonNull String delimiter) {
+        if (delimiter.indexOf('\\') < 0) return delimiter;
+
+        StringBuilder builder = new StringBuilder(delimiter.length());
+        for (int i = 0; i < delimiter.length(); i++) {
+            char c = delimiter.charAt(i);
+            if (c == '\\' && i + 1 < delimiter.length()) {
+                char next = delimiter.charAt(i + 1);
+                if (next == 'n') c = '\n';
+                else if (next == 't') c = '\t';
+                else if (next == '\\') c = '\\';
+                else next = 0;
+                if (next != 0) i++;
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+}
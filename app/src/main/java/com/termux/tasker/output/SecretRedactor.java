@@ -0,0 +1,376 @@
+package com.termux.tasker.output;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.tasker.settings.properties.PluginProperties;
+import com.termux.tasker.utils.PluginMetrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Redacts secrets like tokens and passwords from the stdout, stderr and errmsg of commands and
+ * from log messages before they leave the plugin, replacing them with {@link #REPLACEMENT}.
+ *
+ * The literal secrets and regex patterns to redact are loaded from the {@link #SECRETS_FILE_PATH}
+ * file, with one secret per line and patterns prefixed with {@link #PATTERN_PREFIX}. If a pattern
+ * has capturing groups, then only the text of the first group that matched is redacted, so that
+ * the key before a secret can be matched without being redacted. Empty lines and lines starting
+ * with `#` are ignored. If the {@link PluginProperties#KEY_REDACT_BUILTIN_PATTERNS} property is
+ * enabled, then the {@link #BUILTIN_PATTERN} for common tokens and `key=value` passwords is
+ * redacted as well. The file is only read again if its last modified time has changed, so
+ * {@link #redactText(String)} can be called for every result and log message.
+ *
+ * The literal secrets are searched for in a single pass over the text with an Aho-Corasick
+ * automaton, whose failure links are folded into a complete transition table over only the
+ * characters that occur in the secrets, so each character of the text costs one table lookup
+ * regardless of the number of secrets. All patterns are combined into a single alternation that
+ * is matched in one more pass if any are set. Text without secrets is returned as is without
+ * being copied.
+ */
+public class SecretRedactor {
+
+    /** The path to the secrets file of the plugin. */
+    public static final String SECRETS_FILE_PATH = TermuxConstants.TERMUX_DATA_HOME_DIR_PATH + "/termux-tasker.secrets"; // Default: "/data/data/com.termux/files/home/.termux/termux-tasker.secrets"
+
+    /** The prefix of the lines of the secrets file that are regex patterns instead of literal secrets. */
+    public static final String PATTERN_PREFIX = "regex:"; // Default: "regex:"
+
+    /** The text secrets are replaced with. */
+    public static final String REPLACEMENT = "[REDACTED]"; // Default: "[REDACTED]"
+
+    /** The min length of literal secrets, so that short lines cannot redact most of the output. */
+    public static final int MIN_SECRET_LENGTH = 4;
+
+    /**
+     * The pattern redacted if {@link PluginProperties#KEY_REDACT_BUILTIN_PATTERNS} is enabled for
+     * the values of `password`, `token`, `secret` and `api_key` like keys followed by `=` or `:`,
+     * `Bearer` tokens of authorization headers, GitHub tokens and AWS access key ids. The lookahead
+     * for the first characters of the alternatives lets the matcher skip most positions without
+     * trying each alternative.
+     */
+    public static final String BUILTIN_PATTERN = "(?=[pPsStTaAbBgG])\\b(?i:" +
+            "(?:pass(?:word|wd|phrase)|pwd|token|secret|(?:api|access)[_-]?key)[\"']?[ \\t]*[=:][ \\t]*[\"']?([^\\s\"',;]+)|" +
+            "bearer[ \\t]+([a-z0-9._~+/=-]+)|" +
+            "(gh[pousr]_[a-z0-9]{36,})|" +
+            "(?-i:(AKIA[0-9A-Z]{16}))\\b)";
+
+    private static SecretRedactor INSTANCE = new SecretRedactor(null, null);
+    private static long SECRETS_LAST_MODIFIED = -1;
+    private static boolean BUILTIN_PATTERNS_ENABLED;
+
+    private static final String LOG_TAG = "SecretRedactor";
+
+    /** The columns of the transition table of the ASCII characters, or -1 if not in any secret. */
+    private final int[] mAsciiColumns = new int[128];
+    /** The columns of the transition table of the other characters in the secrets. */
+    private final Map<Character, Integer> mColumns = new HashMap<>();
+    private final int mColumnsCount;
+    /** The transition table, with the next state for a state and column at {@code state * mColumnsCount + column}. */
+    private final int[] mTransitions;
+    /** The length of the longest secret that ends at a state, or 0 if none. */
+    private final int[] mMatchLengths;
+    /** The alternation of all patterns, or {@code null} if none. */
+    private final Pattern mPattern;
+    /** The index of the group of each pattern in {@link #mPattern}. */
+    private final int[] mPatternGroups;
+    /** The number of capturing groups of each pattern. */
+    private final int[] mPatternGroupCounts;
+
+    /**
+     * Create a redactor.
+     *
+     * @param secrets The literal secrets to redact. Secrets shorter than {@link #MIN_SECRET_LENGTH}
+     *                are ignored.
+     * @param patterns The regex patterns to redact.
+     * @throws PatternSyntaxException If a pattern is not valid.
+     */
+    public SecretRedactor(Collection<String> secrets, Collection<String> patterns) {
+        Arrays.fill(mAsciiColumns, -1);
+
+        // Build the trie of the secrets
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        children.add(new HashMap<>());
+        lengths.add(0);
+        List<Character> alphabet = new ArrayList<>();
+        if (secrets != null) {
+            for (String secret : secrets) {
+                if (secret == null || secret.length() < MIN_SECRET_LENGTH) continue;
+                int state = 0;
+                for (int i = 0; i < secret.length(); i++) {
+                    char c = secret.charAt(i);
+                    if (getColumn(c) < 0) {
+                        if (c < 128) mAsciiColumns[c] = alphabet.size();
+                        else mColumns.put(c, alphabet.size());
+                        alphabet.add(c);
+                    }
+                    Integer next = children.get(state).get(c);
+                    if (next == null) {
+                        next = children.size();
+                        children.get(state).put(c, next);
+                        children.add(new HashMap<>());
+                        lengths.add(0);
+                    }
+                    state = next;
+                }
+                lengths.set(state, secret.length());
+            }
+        }
+
+        // Fold the failure links into the transitions in breadth first order, so that the failure
+        // state of a state, which is always shallower, is complete before the state itself
+        mColumnsCount = alphabet.size();
+        mTransitions = new int[children.size() * mColumnsCount];
+        mMatchLengths = new int[children.size()];
+        int[] failures = new int[children.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            mMatchLengths[state] = Math.max(lengths.get(state), mMatchLengths[failures[state]]);
+            for (int column = 0; column < mColumnsCount; column++) {
+                Integer next = children.get(state).get(alphabet.get(column));
+                int failureNext = state == 0 ? 0 : mTransitions[failures[state] * mColumnsCount + column];
+                if (next == null) {
+                    mTransitions[state * mColumnsCount + column] = failureNext;
+                } else {
+                    mTransitions[state * mColumnsCount + column] = next;
+                    failures[next] = failureNext;
+                    queue.add(next);
+                }
+            }
+        }
+
+        if (patterns == null || patterns.isEmpty()) {
+            mPattern = null;
+            mPatternGroups = null;
+            mPatternGroupCounts = null;
+        } else {
+            // Each pattern is wrapped in a group, so that the pattern that matched and its own
+            // groups can be found from the groups of the alternation
+            mPatternGroups = new int[patterns.size()];
+            mPatternGroupCounts = new int[patterns.size()];
+            StringBuilder alternation = new StringBuilder();
+            int group = 1;
+            int index = 0;
+            for (String pattern : patterns) {
+                // Validate each pattern on its own so that a pattern cannot break out of its group
+                int groupCount = Pattern.compile(pattern).matcher("").groupCount();
+                mPatternGroups[index] = group;
+                mPatternGroupCounts[index] = groupCount;
+                group += 1 + groupCount;
+                index++;
+                if (alternation.length() > 0) alternation.append('|');
+                alternation.append('(').append(pattern).append(')');
+            }
+            mPattern = Pattern.compile(alternation.toString());
+        }
+    }
+
+    /**
+     * Redact the secrets of the {@link #SECRETS_FILE_PATH} file from text.
+     *
+     * @param text The text to redact.
+     * @return Returns the redacted text, or {@code text} if it does not contain any secrets.
+     */
+    public static String redactText(String text) {
+        if (text == null || text.isEmpty()) return text;
+        return getInstance().redact(text);
+    }
+
+    /** Get the redactor for the {@link #SECRETS_FILE_PATH} file, reloading it if it has been modified. */
+    @NonNull
+    public static synchronized SecretRedactor getInstance() {
+        File file = new File(SECRETS_FILE_PATH);
+        long lastModified = file.isFile() ? file.lastModified() : 0;
+        boolean builtinPatternsEnabled = PluginProperties.getBoolean(PluginProperties.KEY_REDACT_BUILTIN_PATTERNS,
+                PluginProperties.DEFAULT_VALUE_REDACT_BUILTIN_PATTERNS);
+        if (lastModified == SECRETS_LAST_MODIFIED && builtinPatternsEnabled == BUILTIN_PATTERNS_ENABLED)
+            return INSTANCE;
+
+        List<String> secrets = new ArrayList<>();
+        List<String> patterns = new ArrayList<>();
+        if (builtinPatternsEnabled)
+            patterns.add(BUILTIN_PATTERN);
+        if (lastModified != 0)
+            loadSecretsFile(file, secrets, patterns);
+
+        INSTANCE = new SecretRedactor(secrets, patterns);
+        SECRETS_LAST_MODIFIED = lastModified;
+        BUILTIN_PATTERNS_ENABLED = builtinPatternsEnabled;
+        return INSTANCE;
+    }
+
+    /** Check whether the redactor does not have any secrets or patterns to redact. */
+    public boolean isEmpty() {
+        return mColumnsCount == 0 && mPattern == null;
+    }
+
+    /**
+     * Redact the secrets and patterns of the redactor from text.
+     *
+     * @param text The text to redact.
+     * @return Returns the redacted text, or {@code text} if it does not contain any secrets.
+     */
+    public String redact(String text) {
+        if (text == null || text.isEmpty() || isEmpty()) return text;
+
+        Ranges ranges = new Ranges();
+        if (mColumnsCount > 0) {
+            final int length = text.length();
+            int state = 0;
+            for (int i = 0; i < length; i++) {
+                int column = getColumn(text.charAt(i));
+                state = column < 0 ? 0 : mTransitions[state * mColumnsCount + column];
+                int matchLength = mMatchLengths[state];
+                if (matchLength > 0) ranges.add(i + 1 - matchLength, i + 1);
+            }
+        }
+
+        if (mPattern != null) {
+            Matcher matcher = mPattern.matcher(text);
+            while (matcher.find()) {
+                int group = getMatchedGroup(matcher);
+                if (matcher.end(group) > matcher.start(group)) ranges.add(matcher.start(group), matcher.end(group));
+            }
+        }
+
+        if (ranges.count == 0) return text;
+
+        ranges.sort();
+        StringBuilder builder = new StringBuilder(text.length());
+        int redactedCount = 1;
+        int copiedEnd = 0;
+        int start = ranges.starts[0];
+        int end = ranges.ends[0];
+        for (int i = 1; i < ranges.count; i++) {
+            // Merge overlapping and adjacent ranges so they are replaced once
+            if (ranges.starts[i] <= end) {
+                end = Math.max(end, ranges.ends[i]);
+                continue;
+            }
+            builder.append(text, copiedEnd, start).append(REPLACEMENT);
+            redactedCount++;
+            copiedEnd = end;
+            start = ranges.starts[i];
+            end = ranges.ends[i];
+        }
+        builder.append(text, copiedEnd, start).append(REPLACEMENT).append(text, end, text.length());
+
+        PluginMetrics.addToCounter("secrets_redacted", redactedCount);
+        return builder.toString();
+    }
+
+
+
+    private int getColumn(char c) {
+        if (c < 128) return mAsciiColumns[c];
+        Integer column = mColumns.get(c);
+        return column == null ? -1 : column;
+    }
+
+    /**
+     * Get the group to redact of the pattern that matched, which is the first of its own groups
+     * that matched, or the whole pattern if it has none.
+     */
+    private int getMatchedGroup(@NonNull Matcher matcher) {
+        for (int i = 0; i < mPatternGroups.length; i++) {
+            int group = mPatternGroups[i];
+            if (matcher.start(group) < 0) continue;
+            for (int j = 1; j <= mPatternGroupCounts[i]; j++) {
+                if (matcher.start(group + j) >= 0) return group + j;
+            }
+            return group;
+        }
+        return 0;
+    }
+
+    private static void loadSecretsFile(@NonNull File file, @NonNull List<String> secrets, @NonNull List<String> patterns) {
+        int ignoredCount = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Secrets may have leading or trailing spaces, so only a trailing carriage return is removed
+                if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+                if (line.trim().isEmpty() || line.startsWith("#")) continue;
+
+                if (line.startsWith(PATTERN_PREFIX)) {
+                    String pattern = line.substring(PATTERN_PREFIX.length());
+                    try {
+                        Pattern.compile(pattern);
+                        patterns.add(pattern);
+                    } catch (PatternSyntaxException e) {
+                        Logger.logError(LOG_TAG, "Ignoring invalid pattern in secrets file: " + e.getDescription());
+                        ignoredCount++;
+                    }
+                } else if (line.length() < MIN_SECRET_LENGTH) {
+                    ignoredCount++;
+                } else {
+                    secrets.add(line);
+                }
+            }
+            // The secrets themselves are never logged
+            Logger.logDebug(LOG_TAG, "Loaded " + secrets.size() + " secrets and " + patterns.size() +
+                    " patterns from \"" + SECRETS_FILE_PATH + "\"" +
+                    (ignoredCount > 0 ? ", ignored " + ignoredCount + " invalid or shorter than " + MIN_SECRET_LENGTH + " characters" : ""));
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load secrets from \"" + SECRETS_FILE_PATH + "\"", e);
+        }
+    }
+
+    /** The ranges of text to redact. */
+    private static class Ranges {
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int count;
+        /** Whether the ranges were added in order of their start. */
+        boolean sorted = true;
+
+        void add(int start, int end) {
+            // Consecutive matches of the automaton usually overlap the last range, like the
+            // shorter secrets that end inside a longer one, so they are merged right away
+            if (count > 0 && start >= starts[count - 1] && start <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], end);
+                return;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            if (count > 0 && start < starts[count - 1]) sorted = false;
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        void sort() {
+            if (sorted) return;
+            long[] packed = new long[count];
+            for (int i = 0; i < count; i++)
+                packed[i] = ((long) starts[i] << 32) | (ends[i] & 0xffffffffL);
+            Arrays.sort(packed);
+            for (int i = 0; i < count; i++) {
+                starts[i] = (int) (packed[i] >>> 32);
+                ends[i] = (int) packed[i];
+            }
+            sorted = true;
+        }
+    }
+
+}
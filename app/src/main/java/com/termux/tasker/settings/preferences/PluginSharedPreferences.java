@@ -0,0 +1,59 @@
+package com.termux.tasker.settings.preferences;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Shared preferences of the plugin that are not part of
+ * {@link com.termux.shared.termux.settings.preferences.TermuxTaskerAppSharedPreferences}.
+ *
+ * The preferences are opened with {@link Context#MODE_MULTI_PROCESS} since they are set from the
+ * main app process but are read from the `:background` process the
+ * {@link com.termux.tasker.FireReceiver} runs in.
+ */
+@SuppressWarnings("deprecation")
+public class PluginSharedPreferences {
+
+    /** The name of the shared preferences file. */
+    public static final String PREFERENCES_FILE_NAME = "plugin_preferences"; // Default: "plugin_preferences"
+
+    /** Defines the key for whether keep-warm mode is enabled for the `:background` process. */
+    public static final String KEY_KEEP_WARM_ENABLED = "keep_warm_enabled"; // Default: "keep_warm_enabled"
+    public static final boolean DEFAULT_VALUE_KEEP_WARM_ENABLED = false;
+
+    private final SharedPreferences mSharedPreferences;
+
+    private PluginSharedPreferences(@NonNull SharedPreferences sharedPreferences) {
+        mSharedPreferences = sharedPreferences;
+    }
+
+    /**
+     * Get {@link PluginSharedPreferences}.
+     *
+     * @param context The {@link Context} to use to get the shared preferences.
+     * @return Returns the {@link PluginSharedPreferences}. This will be {@code null} if an exception is raised.
+     */
+    @Nullable
+    public static PluginSharedPreferences build(@NonNull final Context context) {
+        try {
+            return new PluginSharedPreferences(context.getSharedPreferences(PREFERENCES_FILE_NAME,
+                    Context.MODE_PRIVATE | Context.MODE_MULTI_PROCESS));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+
+    public boolean isKeepWarmEnabled() {
+        return mSharedPreferences.getBoolean(KEY_KEEP_WARM_ENABLED, DEFAULT_VALUE_KEEP_WARM_ENABLED);
+    }
+
+    public void setKeepWarmEnabled(boolean value) {
+        mSharedPreferences.edit().putBoolean(KEY_KEEP_WARM_ENABLED, value).commit();
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.termux.tasker.settings.properties;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.settings.properties.SharedProperties;
+import com.termux.shared.settings.properties.SharedPropertiesParser;
+import com.termux.shared.termux.TermuxConstants;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The global tunables of the plugin that are not specific to a plugin action, loaded from the
+ * {@link #PROPERTIES_FILE_PATH} file with the {@link SharedProperties} of termux-shared.
+ *
+ * The properties are loaded once {@link #init(Context)} has been called by the
+ * {@link com.termux.tasker.TermuxTaskerApplication}, till then the getters return the defaults.
+ * The file is only loaded again if its last modified time has changed since it was last loaded,
+ * so the getters can be called for every fire.
+ */
+public class PluginProperties {
+
+    /** The path to the properties file of the plugin. */
+    public static final String PROPERTIES_FILE_PATH = TermuxConstants.TERMUX_DATA_HOME_DIR_PATH + "/termux-tasker.properties"; // Default: "/data/data/com.termux/files/home/.termux/termux-tasker.properties"
+
+
+    /** The max number of executions per second that can be sent to the execution service for all
+     * executables. If {@code 0}, then the limit is disabled, which is the default. */
+    public static final String KEY_RATE_LIMIT_GLOBAL_PER_SECOND = "rate-limit-global-per-second"; // Default: "rate-limit-global-per-second"
+    public static final int DEFAULT_VALUE_RATE_LIMIT_GLOBAL_PER_SECOND = 0;
+
+    /** The max number of executions that can be sent to the execution service for all executables in a burst. */
+    public static final String KEY_RATE_LIMIT_GLOBAL_BURST = "rate-limit-global-burst"; // Default: "rate-limit-global-burst"
+    public static final int DEFAULT_VALUE_RATE_LIMIT_GLOBAL_BURST = 40;
+
+    /** The max number of executions per second that can be sent to the execution service for an
+     * executable. If {@code 0}, then the limit is disabled, which is the default. */
+    public static final String KEY_RATE_LIMIT_EXECUTABLE_PER_SECOND = "rate-limit-executable-per-second"; // Default: "rate-limit-executable-per-second"
+    public static final int DEFAULT_VALUE_RATE_LIMIT_EXECUTABLE_PER_SECOND = 0;
+
+    /** The max number of executions that can be sent to the execution service for an executable in a burst. */
+    public static final String KEY_RATE_LIMIT_EXECUTABLE_BURST = "rate-limit-executable-burst"; // Default: "rate-limit-executable-burst"
+    public static final int DEFAULT_VALUE_RATE_LIMIT_EXECUTABLE_BURST = 10;
+
+    /** The max number of executions that can wait for the rate limit before new ones are rejected. */
+    public static final String KEY_RATE_LIMIT_QUEUE_SIZE = "rate-limit-queue-size"; // Default: "rate-limit-queue-size"
+    public static final int DEFAULT_VALUE_RATE_LIMIT_QUEUE_SIZE = 100;
+
+    /** The percentile of the runtimes of an executable the suggested timeout of plugin actions is based on. */
+    public static final String KEY_ADAPTIVE_TIMEOUT_PERCENTILE = "adaptive-timeout-percentile"; // Default: "adaptive-timeout-percentile"
+    public static final int DEFAULT_VALUE_ADAPTIVE_TIMEOUT_PERCENTILE = 99;
+
+    /** The margin in percent added to the runtime at the percentile for the suggested timeout of plugin actions. */
+    public static final String KEY_ADAPTIVE_TIMEOUT_MARGIN_PERCENT = "adaptive-timeout-margin-percent"; // Default: "adaptive-timeout-margin-percent"
+    public static final int DEFAULT_VALUE_ADAPTIVE_TIMEOUT_MARGIN_PERCENT = 50;
+
+    /** The min interval in milliseconds between the progress events sent for an execution. */
+    public static final String KEY_PROGRESS_MIN_INTERVAL = "progress-min-interval"; // Default: "progress-min-interval"
+    public static final int DEFAULT_VALUE_PROGRESS_MIN_INTERVAL = 1000;
+
+    /** The min length in characters of stdin without plugin host app variables that is saved in
+     * the {@link com.termux.tasker.blobs.BlobStore} instead of the plugin bundle. If {@code 0},
+     * then the store is not used, which is the default, since plugin actions using it are not
+     * portable with the exports and backups of the plugin host app. */
+    public static final String KEY_BLOB_STORE_MIN_LENGTH = "blob-store-min-length"; // Default: "blob-store-min-length"
+    public static final int DEFAULT_VALUE_BLOB_STORE_MIN_LENGTH = 0;
+
+    /** Whether the {@link com.termux.tasker.execution.CommandGateway} is started in the `:background` process. */
+    public static final String KEY_COMMAND_GATEWAY_ENABLED = "command-gateway-enabled"; // Default: "command-gateway-enabled"
+    public static final boolean DEFAULT_VALUE_COMMAND_GATEWAY_ENABLED = false;
+
+    /** The max number of clients that can be connected to the command gateway at the same time. */
+    public static final String KEY_COMMAND_GATEWAY_MAX_CONNECTIONS = "command-gateway-max-connections"; // Default: "command-gateway-max-connections"
+    public static final int DEFAULT_VALUE_COMMAND_GATEWAY_MAX_CONNECTIONS = 8;
+
+    /** The max number of pipelined requests of a client connection that can run at the same time. */
+    public static final String KEY_COMMAND_GATEWAY_MAX_IN_FLIGHT = "command-gateway-max-in-flight"; // Default: "command-gateway-max-in-flight"
+    public static final int DEFAULT_VALUE_COMMAND_GATEWAY_MAX_IN_FLIGHT = 16;
+
+    /** The max nesting depth of the JSON stdout parsed by the {@link com.termux.tasker.output.JsonOutputParser}. */
+    public static final String KEY_JSON_OUTPUT_MAX_DEPTH = "json-output-max-depth"; // Default: "json-output-max-depth"
+    public static final int DEFAULT_VALUE_JSON_OUTPUT_MAX_DEPTH = 16;
+
+    /** The max number of values of the JSON stdout returned as plugin host app variables. */
+    public static final String KEY_JSON_OUTPUT_MAX_VARIABLES = "json-output-max-variables"; // Default: "json-output-max-variables"
+    public static final int DEFAULT_VALUE_JSON_OUTPUT_MAX_VARIABLES = 500;
+
+    /** The max number of parts of stdout returned by the {@link com.termux.tasker.output.OutputSplitter}. */
+    public static final String KEY_SPLIT_STDOUT_MAX_PARTS = "split-stdout-max-parts"; // Default: "split-stdout-max-parts"
+    public static final int DEFAULT_VALUE_SPLIT_STDOUT_MAX_PARTS = 1000;
+
+    /** Whether the {@link com.termux.tasker.output.SecretRedactor#BUILTIN_PATTERN} for common tokens and passwords are redacted. */
+    public static final String KEY_REDACT_BUILTIN_PATTERNS = "redact-builtin-patterns"; // Default: "redact-builtin-patterns"
+    public static final boolean DEFAULT_VALUE_REDACT_BUILTIN_PATTERNS = false;
+
+    /** The max age in seconds of the outputs served by the {@link com.termux.tasker.output.OutputProvider}. */
+    public static final String KEY_OUTPUT_URI_MAX_AGE = "output-uri-max-age"; // Default: "output-uri-max-age"
+    public static final int DEFAULT_VALUE_OUTPUT_URI_MAX_AGE = 3600;
+
+    /** The max length of the full stdout and stderr of direct executions passed to the output options by the {@link com.termux.tasker.execution.DirectExecutor}. */
+    public static final String KEY_DIRECT_EXECUTION_MAX_OUTPUT_LENGTH = "direct-execution-max-output-length"; // Default: "direct-execution-max-output-length"
+    public static final int DEFAULT_VALUE_DIRECT_EXECUTION_MAX_OUTPUT_LENGTH = 10485760;
+
+
+    /** The keys of all properties of the plugin, the other properties in the file are ignored. */
+    public static final Set<String> PLUGIN_PROPERTIES_LIST = new HashSet<>(Arrays.asList(
+            KEY_RATE_LIMIT_GLOBAL_PER_SECOND,
+            KEY_RATE_LIMIT_GLOBAL_BURST,
+            KEY_RATE_LIMIT_EXECUTABLE_PER_SECOND,
+            KEY_RATE_LIMIT_EXECUTABLE_BURST,
+            KEY_RATE_LIMIT_QUEUE_SIZE,
+            KEY_ADAPTIVE_TIMEOUT_PERCENTILE,
+            KEY_ADAPTIVE_TIMEOUT_MARGIN_PERCENT,
+            KEY_PROGRESS_MIN_INTERVAL,
+            KEY_BLOB_STORE_MIN_LENGTH,
+            KEY_COMMAND_GATEWAY_ENABLED,
+            KEY_COMMAND_GATEWAY_MAX_CONNECTIONS,
+            KEY_COMMAND_GATEWAY_MAX_IN_FLIGHT,
+            KEY_JSON_OUTPUT_MAX_DEPTH,
+            KEY_JSON_OUTPUT_MAX_VARIABLES,
+            KEY_SPLIT_STDOUT_MAX_PARTS,
+            KEY_REDACT_BUILTIN_PATTERNS,
+            KEY_OUTPUT_URI_MAX_AGE,
+            KEY_DIRECT_EXECUTION_MAX_OUTPUT_LENGTH
+    ));
+
+
+    private static SharedProperties SHARED_PROPERTIES;
+    private static long PROPERTIES_LAST_MODIFIED = -1;
+
+    private static final String LOG_TAG = "PluginProperties";
+
+    /**
+     * Initialize the properties of the plugin. This must be called when the app process is started.
+     *
+     * @param context The {@link Context} for the {@link SharedProperties}.
+     */
+    public static synchronized void init(@NonNull Context context) {
+        if (SHARED_PROPERTIES != null) return;
+        Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        SHARED_PROPERTIES = new SharedProperties(appContext, new File(PROPERTIES_FILE_PATH),
+                PLUGIN_PROPERTIES_LIST, new PluginPropertiesParser());
+    }
+
+    /**
+     * Get the {@code int} value for {@code key} from the properties file.
+     *
+     * @param key The key to get.
+     * @param def The default value if key is not set or is not a valid {@code int}.
+     * @param min The min valid value.
+     * @param max The max valid value.
+     * @return Returns the value if it is in between {@code min} and {@code max}, otherwise {@code def}.
+     */
+    public static int getInt(@NonNull String key, int def, int min, int max) {
+        String stringValue = getProperty(key);
+        if (stringValue == null) return def;
+
+        return SharedProperties.getDefaultIfNotInRange(key, DataUtils.getIntFromString(stringValue.trim(), def),
+                def, min, max, true, false);
+    }
+
+    /**
+     * Get the {@code boolean} value for {@code key} from the properties file.
+     *
+     * @param key The key to get.
+     * @param def The default value if key is not set or is not `true` or `false`.
+     * @return Returns the value.
+     */
+    public static boolean getBoolean(@NonNull String key, boolean def) {
+        String stringValue = getProperty(key);
+        if (stringValue == null) return def;
+
+        return SharedProperties.getBooleanValueForStringValue(key, stringValue.trim(), def, true, LOG_TAG);
+    }
+
+    /**
+     * Get the value for {@code key} from the properties file, loading it again if it has been
+     * modified.
+     *
+     * @param key The key to get.
+     * @return Returns the value, or {@code null} if it is not set or the properties have not been
+     * initialized.
+     */
+    @Nullable
+    public static synchronized String getProperty(@NonNull String key) {
+        if (SHARED_PROPERTIES == null) return null;
+
+        File file = new File(PROPERTIES_FILE_PATH);
+        long lastModified = file.isFile() ? file.lastModified() : 0;
+        if (lastModified != PROPERTIES_LAST_MODIFIED) {
+            SHARED_PROPERTIES.loadPropertiesFromDisk();
+            PROPERTIES_LAST_MODIFIED = lastModified;
+        }
+
+        return SHARED_PROPERTIES.getProperty(key, true);
+    }
+
+
+
+    /**
+     * The {@link SharedPropertiesParser} for the properties of the plugin. The values are kept as
+     * strings, since their defaults and valid ranges are passed by the callers of the getters.
+     */
+    private static class PluginPropertiesParser implements SharedPropertiesParser {
+
+        @NonNull
+        @Override
+        public Properties preProcessPropertiesOnReadFromDisk(@NonNull Context context, @NonNull Properties properties) {
+            return properties;
+        }
+
+        @Override
+        public Object getInternalPropertyValueFromValue(Context context, String key, String value) {
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,263 @@
+package com.termux.tasker.utils;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A util class to maintain simple in-memory counters, gauges and latency stats for the plugin.
+ *
+ * The metrics are maintained separately for each app process, since the {@link com.termux.tasker.FireReceiver}
+ * runs in the `:background` process. The metrics of a process are periodically persisted to
+ * {@link #METRICS_DIR_NAME} in the app files directory so that they can be viewed from the main
+ * app process with {@link #getPersistedMetricsString(Context)}.
+ */
+public class PluginMetrics {
+
+    /** The directory name under app files directory where metrics of each process are persisted. */
+    public static final String METRICS_DIR_NAME = "metrics"; // Default: "metrics"
+
+    /** The minimum delay between two writes of metrics to disk. */
+    private static final long PERSIST_DELAY_MS = 1000;
+
+    private static final Map<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyStats> LATENCIES = new ConcurrentHashMap<>();
+
+    private static final AtomicBoolean PERSIST_SCHEDULED = new AtomicBoolean(false);
+    private static ScheduledExecutorService PERSIST_EXECUTOR;
+
+    private static String PROCESS_NAME;
+
+    private static final String LOG_TAG = "PluginMetrics";
+
+    /** Increment the counter with {@code name} by 1. */
+    public static void incrementCounter(@NonNull String name) {
+        addToCounter(name, 1);
+    }
+
+    /** Add {@code delta} to the counter with {@code name}. */
+    public static void addToCounter(@NonNull String name, long delta) {
+        AtomicLong counter = COUNTERS.get(name);
+        if (counter == null) {
+            COUNTERS.putIfAbsent(name, new AtomicLong());
+            counter = COUNTERS.get(name);
+        }
+        counter.addAndGet(delta);
+    }
+
+    /** Set the gauge with {@code name} to {@code value}. */
+    public static void setGauge(@NonNull String name, long value) {
+        AtomicLong gauge = GAUGES.get(name);
+        if (gauge == null) {
+            GAUGES.putIfAbsent(name, new AtomicLong());
+            gauge = GAUGES.get(name);
+        }
+        gauge.set(value);
+    }
+
+    /** Record {@code latencyMs} for the latency stats with {@code name}. */
+    public static void recordLatency(@NonNull String name, long latencyMs) {
+        LatencyStats stats = LATENCIES.get(name);
+        if (stats == null) {
+            LATENCIES.putIfAbsent(name, new LatencyStats());
+            stats = LATENCIES.get(name);
+        }
+        stats.record(latencyMs);
+    }
+
+    /** Get the current value of the counter with {@code name}, or {@code 0} if it is not set. */
+    public static long getCounter(@NonNull String name) {
+        AtomicLong counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+
+
+    /** Get a markdown {@link String} for the metrics of the current process. */
+    @NonNull
+    public static String getMetricsMarkdownString() {
+        StringBuilder markdownString = new StringBuilder();
+
+        markdownString.append("## ").append(getProcessName()).append("\n");
+
+        if (COUNTERS.isEmpty() && GAUGES.isEmpty() && LATENCIES.isEmpty()) {
+            markdownString.append("\n-");
+            return markdownString.toString();
+        }
+
+        if (!COUNTERS.isEmpty()) {
+            markdownString.append("\n### Counters\n");
+            for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(COUNTERS).entrySet())
+                markdownString.append("\n").append("**").append(entry.getKey()).append("**: `").append(entry.getValue().get()).append("`  ");
+            markdownString.append("\n");
+        }
+
+        if (!GAUGES.isEmpty()) {
+            markdownString.append("\n### Gauges\n");
+            for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(GAUGES).entrySet())
+                markdownString.append("\n").append("**").append(entry.getKey()).append("**: `").append(entry.getValue().get()).append("`  ");
+            markdownString.append("\n");
+        }
+
+        if (!LATENCIES.isEmpty()) {
+            markdownString.append("\n### Latencies (ms)\n");
+            for (Map.Entry<String, LatencyStats> entry : new TreeMap<>(LATENCIES).entrySet())
+                markdownString.append("\n").append("**").append(entry.getKey()).append("**: `").append(entry.getValue().toString()).append("`  ");
+            markdownString.append("\n");
+        }
+
+        return markdownString.toString();
+    }
+
+    /**
+     * Schedule the metrics of the current process to be written to disk. Multiple calls within
+     * {@link #PERSIST_DELAY_MS} will only result in a single write.
+     *
+     * @param context The {@link Context} for operations.
+     */
+    public static void persist(final Context context) {
+        if (context == null) return;
+        if (!PERSIST_SCHEDULED.compareAndSet(false, true)) return;
+
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        getPersistExecutor().schedule(() -> {
+            PERSIST_SCHEDULED.set(false);
+            writeMetricsFile(appContext);
+        }, PERSIST_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the metrics persisted by all app processes.
+     *
+     * @param context The {@link Context} for operations.
+     * @return Returns the markdown {@link String} for the metrics.
+     */
+    @NonNull
+    public static String getPersistedMetricsString(@NonNull final Context context) {
+        File[] files = getMetricsDir(context).listFiles();
+        if (files == null || files.length == 0) return "-";
+
+        Arrays.sort(files);
+        StringBuilder metricsString = new StringBuilder();
+        for (File file : files) {
+            try (FileInputStream inputStream = new FileInputStream(file)) {
+                byte[] data = new byte[(int) file.length()];
+                int read = 0;
+                while (read < data.length) {
+                    int count = inputStream.read(data, read, data.length - read);
+                    if (count < 0) break;
+                    read += count;
+                }
+                if (metricsString.length() > 0) metricsString.append("\n\n");
+                metricsString.append(new String(data, 0, read, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read metrics file at \"" + file.getAbsolutePath() + "\"", e);
+            }
+        }
+
+        return metricsString.toString();
+    }
+
+
+
+    private static synchronized ScheduledExecutorService getPersistExecutor() {
+        if (PERSIST_EXECUTOR == null)
+            PERSIST_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+        return PERSIST_EXECUTOR;
+    }
+
+    private static void writeMetricsFile(@NonNull final Context context) {
+        File metricsDir = getMetricsDir(context);
+        if (!metricsDir.isDirectory() && !metricsDir.mkdirs()) {
+            Logger.logError(LOG_TAG, "Failed to create metrics directory at \"" + metricsDir.getAbsolutePath() + "\"");
+            return;
+        }
+
+        File metricsFile = new File(metricsDir, getProcessName().replaceAll("[^a-zA-Z0-9._-]", "_") + ".md");
+        try (FileOutputStream outputStream = new FileOutputStream(metricsFile, false)) {
+            outputStream.write(getMetricsMarkdownString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write metrics file at \"" + metricsFile.getAbsolutePath() + "\"", e);
+        }
+    }
+
+    private static File getMetricsDir(@NonNull final Context context) {
+        return new File(context.getFilesDir(), METRICS_DIR_NAME);
+    }
+
+    /** Get the name of the current process from {@code /proc/self/cmdline}. */
+    @NonNull
+    public static synchronized String getProcessName() {
+        if (PROCESS_NAME != null) return PROCESS_NAME;
+
+        String processName = null;
+        try (FileInputStream inputStream = new FileInputStream("/proc/self/cmdline")) {
+            byte[] data = new byte[256];
+            int count = inputStream.read(data);
+            if (count > 0) {
+                int end = 0;
+                while (end < count && data[end] != 0) end++;
+                processName = new String(data, 0, end, StandardCharsets.UTF_8).trim();
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read process name", e);
+        }
+
+        PROCESS_NAME = (processName == null || processName.isEmpty()) ? "unknown" : processName;
+        return PROCESS_NAME;
+    }
+
+
+
+    /** Simple latency stats of count, min, max, mean and last recorded value. */
+    public static class LatencyStats {
+
+        private long mCount;
+        private long mSum;
+        private long mMin = Long.MAX_VALUE;
+        private long mMax = Long.MIN_VALUE;
+        private long mLast;
+
+        public synchronized void record(long value) {
+            mCount++;
+            mSum += value;
+            if (value < mMin) mMin = value;
+            if (value > mMax) mMax = value;
+            mLast = value;
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        @NonNull
+        @Override
+        public synchronized String toString() {
+            if (mCount == 0) return "count=0";
+            return "count=" + mCount + ", mean=" + getMean() + ", min=" + mMin + ", max=" + mMax + ", last=" + mLast;
+        }
+    }
+
+}
@@ -9,6 +9,9 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
 
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.errors.Errno;
@@ -23,12 +26,36 @@ import com.termux.shared.termux.settings.preferences.TermuxPreferenceConstants.T
 import com.termux.shared.termux.settings.preferences.TermuxTaskerAppSharedPreferences;
 import com.termux.shared.termux.shell.command.runner.terminal.TermuxSession;
 import com.termux.tasker.FireReceiver;
+import com.termux.tasker.PluginBundleManager;
 import com.termux.tasker.PluginResultsService;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
 import com.termux.shared.settings.properties.SharedProperties;
 import com.termux.tasker.R;
-
+import com.termux.tasker.execution.CommandGateway;
+import com.termux.tasker.execution.DirectExecutor;
+import com.termux.tasker.execution.ExecutionJournal;
+import com.termux.tasker.execution.ExecutionOptions;
+import com.termux.tasker.execution.ExecutionProcessUtils;
+import com.termux.tasker.execution.ExecutionRateLimiter;
+import com.termux.tasker.execution.ExecutionRegistry;
+import com.termux.tasker.execution.ExecutionWatchdog;
+import com.termux.tasker.execution.FireCoalescer;
+import com.termux.tasker.execution.ProgressReporter;
+import com.termux.tasker.execution.ResultDelivery;
+import com.termux.tasker.execution.RunningExecutions;
+import com.termux.tasker.execution.RuntimeStats;
+import com.termux.tasker.execution.StdinStreamer;
+import com.termux.tasker.execution.TrackedExecution;
+import com.termux.tasker.output.DeltaOutput;
+import com.termux.tasker.output.JsonOutputParser;
+import com.termux.tasker.output.OutputCache;
+import com.termux.tasker.output.OutputFilter;
+import com.termux.tasker.output.OutputProvider;
+import com.termux.tasker.output.OutputSplitter;
+import com.termux.tasker.output.SecretRedactor;
+
+import java.util.Locale;
 import java.util.regex.Pattern;
 
 /**
@@ -86,7 +113,7 @@ import java.util.regex.Pattern;
  * 4. The {@link #sendPendingResultToPluginHostApp} function extracts the original intent and the
  * result bundle from the intent received and calls the {@link #createVariablesBundle} function
  * to create the variables bundle to be sent back to plugin host and then sends it with
- * {@link TaskerPlugin.Setting#signalFinish} function. If any of the Integer keys
+ * {@link ResultDelivery#signalFinish} function, which retries failed deliveries. If any of the Integer keys
  * do not exist in the result bundle or if the values of String keys are null or empty in the result
  * bundle, then they are not sent back to the plugin host. The flow ends here.
  *
@@ -127,9 +154,61 @@ public class PluginUtils {
     /** Plugin variable for errmsg value of termux command */
     public static final String PLUGIN_VARIABLE_ERRMSG = "%errmsg"; // Default: "%errmsg"
 
+    /** Plugin array variable for ids of running commands returned by the "List Running Commands" plugin action */
+    public static final String PLUGIN_VARIABLE_COMMAND_IDS = "%command_ids"; // Default: "%command_ids"
+    /** Plugin array variable for executables of running commands returned by the "List Running Commands" plugin action */
+    public static final String PLUGIN_VARIABLE_COMMAND_EXECUTABLES = "%command_executables"; // Default: "%command_executables"
+    /** Plugin array variable for elapsed time in milliseconds of running commands returned by the "List Running Commands" plugin action */
+    public static final String PLUGIN_VARIABLE_COMMAND_ELAPSED = "%command_elapsed"; // Default: "%command_elapsed"
+
+    /** Plugin variable for the id of the command of the "Command Progress" event */
+    public static final String PLUGIN_VARIABLE_COMMAND_ID = "%command_id"; // Default: "%command_id"
+    /** Plugin variable for the executable of the command of the "Command Progress" event */
+    public static final String PLUGIN_VARIABLE_COMMAND_EXECUTABLE = "%command_executable"; // Default: "%command_executable"
+    /** Plugin variable for the progress percent of the "Command Progress" event, empty if not known */
+    public static final String PLUGIN_VARIABLE_PROGRESS = "%progress"; // Default: "%progress"
+    /** Plugin variable for the progress message of the "Command Progress" event */
+    public static final String PLUGIN_VARIABLE_PROGRESS_MESSAGE = "%progress_message"; // Default: "%progress_message"
+
+    /** Plugin %err value if command was rejected since the max concurrent instances limit of its executable was reached */
+    public static final int RESULT_CODE_CONCURRENCY_LIMIT_REACHED = TaskerPlugin.Setting.RESULT_CODE_FAILED_PLUGIN_FIRST; // Default: 10
+    /** Plugin %err value if command was killed since it was replaced by a newer instance of its executable */
+    public static final int RESULT_CODE_REPLACED = TaskerPlugin.Setting.RESULT_CODE_FAILED_PLUGIN_FIRST + 1; // Default: 11
+    /** Plugin %err value if command was rejected since the rate limit was reached and the admission queue was full */
+    public static final int RESULT_CODE_RATE_LIMITED = TaskerPlugin.Setting.RESULT_CODE_FAILED_PLUGIN_FIRST + 2; // Default: 12
+    /** Plugin %err value if result of command was not received before the timeout of the plugin action */
+    public static final int RESULT_CODE_TIMEOUT = TaskerPlugin.Setting.RESULT_CODE_FAILED_PLUGIN_FIRST + 3; // Default: 13
+    /** Plugin %err value if command was cancelled by the "Cancel Command" plugin action */
+    public static final int RESULT_CODE_CANCELLED = TaskerPlugin.Setting.RESULT_CODE_FAILED_PLUGIN_FIRST + 4; // Default: 14
+
     /** Intent {@code Parcelable} extra containing original intent received from plugin host app by FireReceiver */
     public static final String EXTRA_ORIGINAL_INTENT = "originalIntent"; // Default: "originalIntent"
 
+    /** Intent {@code int} extra containing the id of the execution tracked by the {@link ExecutionRegistry} */
+    public static final String EXTRA_EXECUTION_ID = "executionId"; // Default: "executionId"
+
+    /** Intent {@code int} extra containing the id of the {@link FireCoalescer} group the execution is the leader of */
+    public static final String EXTRA_COALESCE_GROUP_ID = "coalesceGroupId"; // Default: "coalesceGroupId"
+
+    /** Intent {@code int} extra containing the id of the execution watched by the {@link ExecutionWatchdog} */
+    public static final String EXTRA_WATCHDOG_ID = "watchdogId"; // Default: "watchdogId"
+
+    /** Intent {@code int} extra containing the id of the entry of the execution in the {@link ExecutionJournal} */
+    public static final String EXTRA_JOURNAL_ID = "journalId"; // Default: "journalId"
+
+    /** Intent {@code int} extra containing the id of the execution in {@link RunningExecutions} */
+    public static final String EXTRA_RUNNING_EXECUTION_ID = "runningExecutionId"; // Default: "runningExecutionId"
+
+    /** Intent {@code long} extra containing the {@link SystemClock#elapsedRealtime()} at which the
+     * execution intent was created, used to record the runtime of the execution in {@link RuntimeStats} */
+    public static final String EXTRA_FIRE_TIME = "fireTime"; // Default: "fireTime"
+
+    /** Intent {@code String} extra containing the path of the executable of the execution */
+    public static final String EXTRA_EXECUTABLE = "executable"; // Default: "executable"
+
+    /** Intent {@code boolean} extra for whether plugin host app is waiting for the result of the execution */
+    public static final String EXTRA_WAIT_FOR_RESULT = "waitForResult"; // Default: "waitForResult"
+
     /**
      * A regex to validate if a string matches a valid plugin host variable name with the percent sign "%" prefix.
      * Valid values: A string containing a percent sign character "%", followed by 1 alphanumeric character,
@@ -153,6 +232,50 @@ public class PluginUtils {
     public static void sendExecuteIntentToExecuteService(final Context context, final BroadcastReceiver receiver,
                                                          final Intent originalIntent, final Intent executionIntent,
                                                          boolean waitForResult) {
+        sendExecuteIntentToExecuteService(context, receiver, originalIntent, executionIntent, waitForResult,
+                new ExecutionOptions());
+    }
+
+    /**
+     * Send execution intent to execution service containing command information and original intent
+     * received by {@link FireReceiver}.
+     *
+     * If {@link ExecutionOptions#coalesceKey} is set, then the fire is first coalesced with the
+     * {@link FireCoalescer}, and if it gets merged into the group of an identical fire, then
+     * execution intent is not sent at all.
+     *
+     * If {@link ExecutionOptions#maxConcurrentInstances} is greater than {@code 0}, then the execution
+     * is submitted to the {@link ExecutionRegistry}, which will decide with the
+     * {@link ExecutionOptions#overflowPolicy} whether the execution intent is to be sent now, queued,
+     * dropped or rejected.
+     *
+     * If plugin action waits for result and the plugin host app sent a timeout hint, then the
+     * execution is watched by the {@link ExecutionWatchdog} till its result is received. If plugin
+     * action waits for result, then the execution is also added to the {@link ExecutionJournal}
+     * so that it can be failed if the process dies before its result is sent.
+     *
+     * The execution intents that are to be sent now are then submitted to the {@link ExecutionRateLimiter},
+     * which will decide whether they are to be sent now, queued till tokens are available or rejected.
+     *
+     * Tracked, coalesced, cancellable and progress reporting executions always get a {@link PendingIntent} for
+     * {@link PluginResultsService} so that their slot is released and their result is sent to their
+     * followers when their result is received, even if plugin action does not wait for result.
+     * All executions with a {@link PendingIntent} are added to {@link RunningExecutions} so that
+     * they can be listed and cancelled by the plugin actions for them. If the plugin action reports
+     * progress, then the progress written by the execution is sent by the {@link ProgressReporter}
+     * till it is unregistered.
+     *
+     * @param context The {@link Context} that will be used to send execution intent to the execution service.
+     * @param receiver The {@link BroadcastReceiver} of the originalIntent.
+     * @param originalIntent The {@link Intent} received by {@link FireReceiver}.
+     * @param executionIntent The {@link Intent} to be sent to execution service containing command information.
+     * @param waitForResult This must be set to {@link true} if plugin action should wait for result
+     *                      from the execution service that should be sent back to plugin host synchronously.
+     * @param options The {@link ExecutionOptions} of the plugin action.
+     */
+    public static void sendExecuteIntentToExecuteService(final Context context, final BroadcastReceiver receiver,
+                                                         final Intent originalIntent, final Intent executionIntent,
+                                                         boolean waitForResult, @NonNull ExecutionOptions options) {
         if (context == null) return;
 
         if (executionIntent == null) {
@@ -169,42 +292,318 @@ public class PluginUtils {
 
         // If timeout for plugin action is greater than 0 and plugin action should wait for results
         waitForResult = (receiver != null && receiver.isOrderedBroadcast() && waitForResult);
+
+        options.coalesceGroupId = -1;
+        if (options.coalesceKey != null && options.coalesceWindow > 0) {
+            options.coalesceGroupId = FireCoalescer.coalesce(context, receiver, originalIntent, options.coalesceKey,
+                    options.coalesceWindow, waitForResult);
+            // If fire was merged into the group of an identical fire, then its result has already been set
+            if (options.coalesceGroupId < 0) return;
+        }
+
         Logger.logDebug(LOG_TAG, "Sending execution intent to " + executionIntent.getComponent().toString() + (waitForResult ? " and " : " without ") + "waiting for result");
 
-        if (waitForResult) {
-            // Notify plugin host app that result will be sent later
-            // Result should be sent to PluginResultsService via a PendingIntent by execution service
-            // after commands have finished executing
-            receiver.setResultCode(TaskerPlugin.Setting.RESULT_CODE_PENDING);
+        String executable = executionIntent.getData() != null ? executionIntent.getData().getPath() : null;
+        boolean track = options.maxConcurrentInstances > 0 && executable != null;
+        boolean coalesce = options.coalesceGroupId >= 0;
+        long timeoutDelay = waitForResult ? ExecutionWatchdog.getTimeoutDelay(options.hostTimeout) : -1;
+        boolean watch = timeoutDelay > 0;
+        boolean direct = options.directExecution &&
+                ExecutionCommand.Runner.APP_SHELL.equalsRunner(executionIntent.getStringExtra(TERMUX_SERVICE.EXTRA_RUNNER));
+        boolean terminalSession = ExecutionCommand.Runner.TERMINAL_SESSION.equalsRunner(executionIntent.getStringExtra(TERMUX_SERVICE.EXTRA_RUNNER));
+
+        TrackedExecution execution = null;
+        PendingIntent pendingIntent = null;
+        int executionId = -1;
+        String pidFilePath = null;
+        if (waitForResult || track || coalesce || options.cancellable || options.reportProgress) {
+            executionId = getLastPendingIntentRequestCode(context);
 
             // Create intent for PluginResultsService class and add original intent received by
             // FireReceiver to it
             Intent pluginResultsServiceIntent = new Intent(context, PluginResultsService.class);
             pluginResultsServiceIntent.putExtra(EXTRA_ORIGINAL_INTENT, originalIntent);
+            pluginResultsServiceIntent.putExtra(EXTRA_WAIT_FOR_RESULT, waitForResult);
+            pluginResultsServiceIntent.putExtra(EXTRA_RUNNING_EXECUTION_ID, executionId);
+            if (track)
+                pluginResultsServiceIntent.putExtra(EXTRA_EXECUTION_ID, executionId);
+            if (coalesce)
+                pluginResultsServiceIntent.putExtra(EXTRA_COALESCE_GROUP_ID, options.coalesceGroupId);
+            if (watch)
+                pluginResultsServiceIntent.putExtra(EXTRA_WATCHDOG_ID, executionId);
+            if (waitForResult)
+                pluginResultsServiceIntent.putExtra(EXTRA_JOURNAL_ID, executionId);
+            if (waitForResult && executable != null) {
+                pluginResultsServiceIntent.putExtra(EXTRA_EXECUTABLE, executable);
+                pluginResultsServiceIntent.putExtra(EXTRA_FIRE_TIME, SystemClock.elapsedRealtime());
+            }
 
             // Create PendingIntent that can be used by execution service to send result of commands
             // back to PluginResultsService
-            PendingIntent pendingIntent = PendingIntent.getService(context, getLastPendingIntentRequestCode(context), pluginResultsServiceIntent,
+            pendingIntent = PendingIntent.getService(context, executionId, pluginResultsServiceIntent,
                     PendingIntent.FLAG_ONE_SHOT | (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_MUTABLE : 0));
             executionIntent.putExtra(TERMUX_SERVICE.EXTRA_PENDING_INTENT, pendingIntent);
+
+            // Background commands are run directly in the plugin process instead of by the execution
+            // service if enabled, in which case their result is processed without the PendingIntent
+            if (direct)
+                DirectExecutor.setDirectExecutionIntent(executionIntent, pluginResultsServiceIntent);
+
+            // The progress file must be wrapped first so that the pid wrapper script is the one run by the execution service
+            if (options.reportProgress && executable != null)
+                ProgressReporter.start(context, executionIntent, executionId, executable);
+
+            // The pid of the execution is only required to kill it if it gets replaced, times out or
+            // is cancelled, or to reclaim its slot if its process exits without its result being
+            // received. The pid of commands run in terminal sessions is not used, since they are
+            // run by the shell of the session.
+            if (!terminalSession && (track || (watch && options.killOnTimeout) || options.cancellable)) {
+                pidFilePath = ExecutionProcessUtils.getPidFilePath(executionId);
+                if (!ExecutionProcessUtils.wrapExecutionIntentForPidTracking(executionIntent, pidFilePath))
+                    pidFilePath = null;
+            }
+
+            if (track) {
+                execution = new TrackedExecution(executionId, executable, originalIntent, executionIntent, waitForResult, pidFilePath,
+                        options.coalesceGroupId, options.priority);
+                ExecutionRegistry.Decision decision = ExecutionRegistry.submit(context, execution,
+                        options.maxConcurrentInstances, options.overflowPolicy);
+                if (decision == ExecutionRegistry.Decision.DROP || decision == ExecutionRegistry.Decision.REJECT) {
+                    pendingIntent.cancel();
+                    ProgressReporter.stop(executionId);
+                    StdinStreamer.discard(executionIntent);
+                    if (decision == ExecutionRegistry.Decision.DROP) {
+                        Logger.logInfo(LOG_TAG, "Dropping execution intent since " + options.maxConcurrentInstances + " instances of \"" + executable + "\" are already running");
+                        if (coalesce)
+                            FireCoalescer.abandon(context, options.coalesceGroupId, TaskerPlugin.Setting.RESULT_CODE_OK, null);
+                        sendImmediateResultToPluginHostApp(receiver, originalIntent, TaskerPlugin.Setting.RESULT_CODE_OK, null);
+                    } else {
+                        String errmsg = context.getString(R.string.error_concurrency_limit_reached, options.maxConcurrentInstances, executable);
+                        Logger.logError(LOG_TAG, errmsg);
+                        if (coalesce)
+                            FireCoalescer.abandon(context, options.coalesceGroupId, RESULT_CODE_CONCURRENCY_LIMIT_REACHED, errmsg);
+                        sendImmediateResultToPluginHostApp(receiver, originalIntent, RESULT_CODE_CONCURRENCY_LIMIT_REACHED, errmsg);
+                    }
+                    return;
+                }
+
+                if (decision == ExecutionRegistry.Decision.QUEUE) {
+                    Logger.logInfo(LOG_TAG, "Queued execution intent since " + options.maxConcurrentInstances + " instances of \"" + executable + "\" are already running");
+                    if (watch)
+                        ExecutionWatchdog.watch(context, executionId, originalIntent, executable,
+                                options.killOnTimeout ? pidFilePath : null, false, timeoutDelay);
+                    if (waitForResult)
+                        ExecutionJournal.begin(context, executionId, originalIntent, executable, timeoutDelay);
+                    RunningExecutions.register(executionId, executable, originalIntent, waitForResult, pidFilePath);
+                    setResultForSentExecutionIntent(receiver, originalIntent, waitForResult);
+                    return;
+                }
+            }
+        }
+
+        if (direct && pendingIntent == null)
+            DirectExecutor.setDirectExecutionIntent(executionIntent, null);
+
+        ExecutionRateLimiter.Dispatch dispatch = new ExecutionRateLimiter.Dispatch(originalIntent, executionIntent,
+                executable, waitForResult, execution != null ? execution.id : -1, options.coalesceGroupId,
+                watch ? executionId : -1, waitForResult ? executionId : -1, pendingIntent != null ? executionId : -1,
+                options.priority);
+        ExecutionRateLimiter.Decision rateLimitDecision = ExecutionRateLimiter.submit(context, dispatch);
+        if (rateLimitDecision == ExecutionRateLimiter.Decision.REJECT) {
+            if (pendingIntent != null)
+                pendingIntent.cancel();
+            String errmsg = context.getString(R.string.error_rate_limited, executable, ExecutionRateLimiter.getQueueSize());
+            Logger.logError(LOG_TAG, errmsg);
+            onExecutionIntentNotSent(context, dispatch, RESULT_CODE_RATE_LIMITED, errmsg);
+            sendImmediateResultToPluginHostApp(receiver, originalIntent, RESULT_CODE_RATE_LIMITED, errmsg);
+            return;
+        }
+
+        if (watch)
+            ExecutionWatchdog.watch(context, executionId, originalIntent, executable,
+                    options.killOnTimeout ? pidFilePath : null, !track, timeoutDelay);
+        if (waitForResult)
+            ExecutionJournal.begin(context, executionId, originalIntent, executable, timeoutDelay);
+        if (pendingIntent != null)
+            RunningExecutions.register(executionId, executable, originalIntent, waitForResult, pidFilePath);
+
+        setResultForSentExecutionIntent(receiver, originalIntent, waitForResult);
+
+        if (rateLimitDecision == ExecutionRateLimiter.Decision.QUEUE) {
+            Logger.logInfo(LOG_TAG, "Queued execution intent since the rate limit has been reached");
+            return;
+        }
+
+        dispatchExecutionIntent(context, receiver, dispatch);
+    }
+
+    /**
+     * Send execution intent of a {@link ExecutionRateLimiter.Dispatch} to execution service, and
+     * if it fails, then release its slot in the {@link ExecutionRegistry} and abandon its
+     * {@link FireCoalescer} group. The execution intent is not sent if the execution was cancelled
+     * while it was queued by the {@link ExecutionRateLimiter}.
+     *
+     * @param context The {@link Context} that will be used to send execution intent to the execution service.
+     * @param receiver The {@link BroadcastReceiver} of the originalIntent, or {@code null} if it
+     *                 has already returned.
+     * @param dispatch The {@link ExecutionRateLimiter.Dispatch} to send.
+     * @return Returns {@code true} if execution intent was sent, otherwise {@code false}.
+     */
+    public static boolean dispatchExecutionIntent(final Context context, final BroadcastReceiver receiver,
+                                                  @NonNull final ExecutionRateLimiter.Dispatch dispatch) {
+        if (dispatch.runningId >= 0 && RunningExecutions.isCancelled(dispatch.runningId)) {
+            Logger.logInfo(LOG_TAG, "Not sending execution intent for \"" + dispatch.executable + "\" since it was cancelled");
+            PendingIntent pendingIntent = dispatch.executionIntent.getParcelableExtra(TERMUX_SERVICE.EXTRA_PENDING_INTENT);
+            if (pendingIntent != null)
+                pendingIntent.cancel();
+            onExecutionIntentNotSent(context, dispatch, RESULT_CODE_CANCELLED,
+                    context.getString(R.string.error_execution_cancelled_before_start, dispatch.executable));
+            return false;
+        }
+
+        if (dispatch.resultCallback != null) {
+            // The result is sent to the callback instead of the PluginResultsService, so the slot is released here
+            DirectExecutor.executeInBackground(context, dispatch.executionIntent, resultBundle -> {
+                if (dispatch.executionId >= 0)
+                    ExecutionRegistry.release(context, dispatch.executionId);
+                dispatch.resultCallback.onResult(resultBundle);
+            });
+            return true;
+        }
+
+        if (startExecutionService(context, receiver, dispatch.originalIntent, dispatch.executionIntent, dispatch.waitForResult))
+            return true;
+
+        onExecutionIntentNotSent(context, dispatch, TaskerPlugin.Setting.RESULT_CODE_FAILED,
+                context.getString(R.string.error_execution_intent_not_sent));
+        return false;
+    }
+
+    /**
+     * Send the execution intent of an execution that was not just received by the {@link FireReceiver},
+     * like one that was queued by the {@link ExecutionRegistry} and has now got a slot or a request
+     * of the {@link CommandGateway}. It is submitted to the {@link ExecutionRateLimiter} like the
+     * execution intents of new fires, so that it is subject to the same rate limits and priority lanes.
+     *
+     * @param context The {@link Context} that will be used to send execution intent to the execution service.
+     * @param dispatch The {@link ExecutionRateLimiter.Dispatch} returned by {@link TrackedExecution#createDispatch()}.
+     */
+    public static void dispatchQueuedExecution(final Context context, @NonNull final ExecutionRateLimiter.Dispatch dispatch) {
+        ExecutionRateLimiter.Decision decision = ExecutionRateLimiter.submit(context, dispatch);
+        if (decision == ExecutionRateLimiter.Decision.REJECT) {
+            rejectDispatch(context, dispatch, context.getString(R.string.error_rate_limited, dispatch.executable,
+                    ExecutionRateLimiter.getQueueSize()));
+        } else if (decision == ExecutionRateLimiter.Decision.QUEUE) {
+            Logger.logInfo(LOG_TAG, "Queued execution intent since the rate limit has been reached");
         } else {
-            // If execution result is not to be returned, do not expect results back from the
-            // execution service and return result now so that plugin action does not timeout
-            sendImmediateResultToPluginHostApp(receiver, originalIntent, TaskerPlugin.Setting.RESULT_CODE_OK, null);
+            dispatchExecutionIntent(context, null, dispatch);
         }
+    }
+
+    /**
+     * Reject a {@link ExecutionRateLimiter.Dispatch} that was queued by the {@link ExecutionRateLimiter}
+     * but has been shed to make room for a higher priority one, and send the
+     * {@link #RESULT_CODE_RATE_LIMITED} result to plugin host app if it is waiting for it.
+     *
+     * @param context The {@link Context} that will be used to send the result to plugin host app.
+     * @param dispatch The {@link ExecutionRateLimiter.Dispatch} to reject.
+     */
+    public static void rejectQueuedDispatch(final Context context, @NonNull final ExecutionRateLimiter.Dispatch dispatch) {
+        rejectDispatch(context, dispatch, context.getString(R.string.error_rate_limited_shed, dispatch.executable,
+                dispatch.priority.getName()));
+    }
 
-        try {
-            // Send execution intent to execution service
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                // https://developer.android.com/about/versions/oreo/background.html
-                context.startForegroundService(executionIntent);
-            } else {
-                context.startService(executionIntent);
+    private static void rejectDispatch(final Context context, @NonNull final ExecutionRateLimiter.Dispatch dispatch,
+                                       String errmsg) {
+        PendingIntent pendingIntent = dispatch.executionIntent.getParcelableExtra(TERMUX_SERVICE.EXTRA_PENDING_INTENT);
+        if (pendingIntent != null)
+            pendingIntent.cancel();
+
+        Logger.logError(LOG_TAG, errmsg);
+        onExecutionIntentNotSent(context, dispatch, RESULT_CODE_RATE_LIMITED, errmsg);
+        if (dispatch.waitForResult)
+            ResultDelivery.signalFinish(context, dispatch.originalIntent, RESULT_CODE_RATE_LIMITED,
+                    createVariablesBundle(null, null, null, null, null, RESULT_CODE_RATE_LIMITED, errmsg));
+    }
+
+    private static void onExecutionIntentNotSent(final Context context, @NonNull final ExecutionRateLimiter.Dispatch dispatch,
+                                                 int errCode, String errmsg) {
+        StdinStreamer.discard(dispatch.executionIntent);
+        if (dispatch.executionId >= 0)
+            ExecutionRegistry.release(context, dispatch.executionId);
+        if (dispatch.coalesceGroupId >= 0)
+            FireCoalescer.abandon(context, dispatch.coalesceGroupId, errCode, errmsg);
+        if (dispatch.watchdogId >= 0)
+            ExecutionWatchdog.complete(dispatch.watchdogId);
+        if (dispatch.journalId >= 0)
+            ExecutionJournal.end(context, dispatch.journalId);
+        if (dispatch.runningId >= 0)
+            RunningExecutions.unregister(dispatch.runningId);
+        if (dispatch.resultCallback != null)
+            dispatch.resultCallback.onResult(DirectExecutor.createErrorResultBundle(errCode, errmsg));
+    }
+
+    /**
+     * Send execution intent to execution service.
+     *
+     * @param context The {@link Context} that will be used to send execution intent to the execution service.
+     * @param originalIntent The {@link Intent} received by {@link FireReceiver}.
+     * @param executionIntent The {@link Intent} to be sent to execution service containing command information.
+     * @param waitForResult Whether plugin host app is waiting for result of plugin action, in which
+     *                      case failure result will be sent with {@link TaskerPlugin.Setting#signalFinish}
+     *                      if execution intent could not be sent.
+     * @return Returns {@code true} if execution intent was sent, otherwise {@code false}.
+     */
+    public static boolean startExecutionService(final Context context, final Intent originalIntent,
+                                                final Intent executionIntent, boolean waitForResult) {
+        return startExecutionService(context, null, originalIntent, executionIntent, waitForResult);
+    }
+
+    private static boolean startExecutionService(final Context context, final BroadcastReceiver receiver,
+                                                 final Intent originalIntent, final Intent executionIntent,
+                                                 boolean waitForResult) {
+        // Create the stdin pipe only now, so that the command has the full timeout to open it
+        // even if the execution intent was queued
+        String errmsg = StdinStreamer.start(executionIntent);
+        if (errmsg == null) {
+            try {
+                // Run execution intent directly or send it to execution service
+                if (DirectExecutor.isDirectExecutionIntent(executionIntent)) {
+                    // The command is started on a background thread, and the broadcast of the
+                    // receiver is kept pending till then so that the process stays in the foreground
+                    DirectExecutor.execute(context, executionIntent, receiver != null ? receiver.goAsync() : null);
+                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    // https://developer.android.com/about/versions/oreo/background.html
+                    context.startForegroundService(executionIntent);
+                } else {
+                    context.startService(executionIntent);
+                }
+                return true;
+            } catch (Exception e) {
+                errmsg = Logger.getMessageAndStackTraceString("Failed to send execution intent to " + executionIntent.getComponent().toString(), e);
             }
-        } catch (Exception e) {
-            String errmsg = Logger.getMessageAndStackTraceString("Failed to send execution intent to " + executionIntent.getComponent().toString(), e);
-            Logger.logErrorAndShowToast(context, LOG_TAG, errmsg);
+        }
+
+        Logger.logErrorAndShowToast(context, LOG_TAG, errmsg);
+        if (receiver != null)
             PluginUtils.sendImmediateResultToPluginHostApp(receiver, originalIntent, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg);
+        else if (waitForResult)
+            ResultDelivery.signalFinish(context, originalIntent, TaskerPlugin.Setting.RESULT_CODE_FAILED,
+                    createVariablesBundle(null, null, null, null, null, TaskerPlugin.Setting.RESULT_CODE_FAILED, errmsg));
+        return false;
+    }
+
+    private static void setResultForSentExecutionIntent(final BroadcastReceiver receiver, final Intent originalIntent,
+                                                        boolean waitForResult) {
+        if (waitForResult) {
+            // Notify plugin host app that result will be sent later
+            // Result should be sent to PluginResultsService via a PendingIntent by execution service
+            // after commands have finished executing
+            receiver.setResultCode(TaskerPlugin.Setting.RESULT_CODE_PENDING);
+        } else {
+            // If execution result is not to be returned, do not expect results back from the
+            // execution service and return result now so that plugin action does not timeout
+            sendImmediateResultToPluginHostApp(receiver, originalIntent, TaskerPlugin.Setting.RESULT_CODE_OK, null);
         }
     }
 
@@ -241,6 +640,32 @@ public class PluginUtils {
                                                           final String stdout, String stdoutOriginalLength,
                                                           final String stderr, String stderrOriginalLength,
                                                           final String exitCode, final int errCode, final String errmsg) {
+        sendImmediateResultToPluginHostApp(receiver, originalIntent, stdout, stdoutOriginalLength,
+                stderr, stderrOriginalLength, exitCode, errCode, errmsg, null, null);
+    }
+
+    /**
+     * Send immediate result to plugin host app in a variables bundle with additional variables.
+     *
+     * @param receiver The {@link BroadcastReceiver} of the originalIntent.
+     * @param originalIntent The original {@link Intent} received by {@link FireReceiver}.
+     * @param errCode The value for {@link #PLUGIN_VARIABLE_ERR} variable of plugin action.
+     * @param errmsg The value for {@link #PLUGIN_VARIABLE_ERRMSG} variable of plugin action.
+     * @param variables The additional variables of plugin action, whose values must be
+     *                  {@code String}, {@code String[]} or {@code ArrayList<String>}.
+     */
+    public static void sendImmediateResultToPluginHostApp(final BroadcastReceiver receiver, final Intent originalIntent,
+                                                          final int errCode, final String errmsg,
+                                                          @NonNull final Bundle variables) {
+        sendImmediateResultToPluginHostApp(receiver, originalIntent, null, null,
+                null, null, null, errCode, errmsg, variables, null);
+    }
+
+    private static void sendImmediateResultToPluginHostApp(final BroadcastReceiver receiver, final Intent originalIntent,
+                                                           final String stdout, String stdoutOriginalLength,
+                                                           final String stderr, String stderrOriginalLength,
+                                                           final String exitCode, final int errCode, final String errmsg,
+                                                           final Bundle variables, final OutputCache outputCache) {
         if (receiver == null) return;
 
         // If timeout for plugin action is 0, then don't send anything
@@ -252,13 +677,71 @@ public class PluginUtils {
 
         if (TaskerPlugin.Setting.hostSupportsVariableReturn(originalIntent.getExtras())) {
             final Bundle varsBundle = createVariablesBundle(stdout, stdoutOriginalLength,
-                    stderr, stderrOriginalLength, exitCode, err, errmsg);
+                    stderr, stderrOriginalLength, exitCode, err, errmsg, getPluginBundle(originalIntent), outputCache);
+            if (variables != null)
+                varsBundle.putAll(variables);
             TaskerPlugin.addVariableBundle(receiver.getResultExtras(true), varsBundle);
         }
 
         receiver.setResultCode(err);
     }
 
+    /**
+     * Send immediate result to plugin host app in a variables bundle from a result bundle received
+     * earlier from the execution service.
+     *
+     * @param receiver The {@link BroadcastReceiver} of the originalIntent.
+     * @param originalIntent The original {@link Intent} received by {@link FireReceiver}.
+     * @param resultBundle The result {@link Bundle} received in the {@link TERMUX_SERVICE#EXTRA_PLUGIN_RESULT_BUNDLE} extra.
+     * @param errCode The value for {@link #PLUGIN_VARIABLE_ERR} variable of plugin action to send
+     *                instead of the one in the result bundle. Ignored if {@code null}.
+     * @param errmsg The value for {@link #PLUGIN_VARIABLE_ERRMSG} variable of plugin action to send
+     *               instead of the one in the result bundle if {@code errCode} is not {@code null}.
+     */
+    public static void sendImmediateResultToPluginHostApp(final BroadcastReceiver receiver, final Intent originalIntent,
+                                                          @NonNull final Bundle resultBundle,
+                                                          final Integer errCode, final String errmsg) {
+        sendImmediateResultToPluginHostApp(receiver, originalIntent, resultBundle, errCode, errmsg, null);
+    }
+
+    /**
+     * Send immediate result to plugin host app in a variables bundle from a result bundle received
+     * earlier from the execution service, with the output options of the plugin action applied
+     * with the {@link OutputCache} of the execution.
+     *
+     * @param receiver The {@link BroadcastReceiver} of the originalIntent.
+     * @param originalIntent The original {@link Intent} received by {@link FireReceiver}.
+     * @param resultBundle The result {@link Bundle} received in the {@link TERMUX_SERVICE#EXTRA_PLUGIN_RESULT_BUNDLE} extra.
+     * @param errCode The value for {@link #PLUGIN_VARIABLE_ERR} variable of plugin action to send
+     *                instead of the one in the result bundle. Ignored if {@code null}.
+     * @param errmsg The value for {@link #PLUGIN_VARIABLE_ERRMSG} variable of plugin action to send
+     *               instead of the one in the result bundle if {@code errCode} is not {@code null}.
+     * @param outputCache The {@link OutputCache} of the execution that the result bundle is of.
+     *                    Ignored if {@code null}.
+     */
+    public static void sendImmediateResultToPluginHostApp(final BroadcastReceiver receiver, final Intent originalIntent,
+                                                          @NonNull final Bundle resultBundle,
+                                                          final Integer errCode, final String errmsg,
+                                                          final OutputCache outputCache) {
+        int err = TaskerPlugin.Setting.RESULT_CODE_OK;
+        if (errCode != null)
+            err = errCode;
+        else if (resultBundle.containsKey(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR))
+            err = resultBundle.getInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR);
+
+        String exitCode = null;
+        if (resultBundle.containsKey(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE))
+            exitCode = Integer.toString(resultBundle.getInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE));
+
+        sendImmediateResultToPluginHostApp(receiver, originalIntent,
+                resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT, ""),
+                resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT_ORIGINAL_LENGTH, ""),
+                resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR, ""),
+                resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR_ORIGINAL_LENGTH, ""),
+                exitCode, err, errCode != null ? errmsg : resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG, ""),
+                null, outputCache);
+    }
+
     /**
      * Send pending result to plugin host app in a variables bundle.
      *
@@ -266,6 +749,40 @@ public class PluginUtils {
      * @param intent The {@link Intent} containing result and original intent received by {@link FireReceiver}.
      */
     public static void sendPendingResultToPluginHostApp(final Context context, final Intent intent) {
+        sendPendingResultToPluginHostApp(context, intent, null, null);
+    }
+
+    /**
+     * Send pending result to plugin host app in a variables bundle.
+     *
+     * @param context The {@link Context} that will be used to send variables bundle to plugin host app and logging.
+     * @param intent The {@link Intent} containing result and original intent received by {@link FireReceiver}.
+     * @param errCode The value for {@link #PLUGIN_VARIABLE_ERR} variable of plugin action to send
+     *                instead of the one in the result bundle. Ignored if {@code null}.
+     * @param errmsg The value for {@link #PLUGIN_VARIABLE_ERRMSG} variable of plugin action to send
+     *               instead of the one in the result bundle if {@code errCode} is not {@code null}.
+     */
+    public static void sendPendingResultToPluginHostApp(final Context context, final Intent intent,
+                                                        final Integer errCode, final String errmsg) {
+        sendPendingResultToPluginHostApp(context, intent, errCode, errmsg, null);
+    }
+
+    /**
+     * Send pending result to plugin host app in a variables bundle, with the output options of the
+     * plugin action applied with the {@link OutputCache} of the execution.
+     *
+     * @param context The {@link Context} that will be used to send variables bundle to plugin host app and logging.
+     * @param intent The {@link Intent} containing result and original intent received by {@link FireReceiver}.
+     * @param errCode The value for {@link #PLUGIN_VARIABLE_ERR} variable of plugin action to send
+     *                instead of the one in the result bundle. Ignored if {@code null}.
+     * @param errmsg The value for {@link #PLUGIN_VARIABLE_ERRMSG} variable of plugin action to send
+     *               instead of the one in the result bundle if {@code errCode} is not {@code null}.
+     * @param outputCache The {@link OutputCache} of the execution that the result is of, which is
+     *                    shared by all plugin actions the result is sent to. Ignored if {@code null}.
+     */
+    public static void sendPendingResultToPluginHostApp(final Context context, final Intent intent,
+                                                        final Integer errCode, final String errmsg,
+                                                        final OutputCache outputCache) {
         if (intent == null){
             Logger.logWarn(LOG_TAG, "Ignoring null intent passed to sendPendingResultToPluginHostApp().");
             return;
@@ -287,7 +804,9 @@ public class PluginUtils {
         // This check is necessary, otherwise default value will be 0 if extra does not exist,
         // and so plugin host app like Tasker will consider the action as failed for the value 0,
         // since it equals Activity.RESULT_CANCELED (0) instead of TaskerPlugin.Setting.RESULT_CODE_OK/Activity.RESULT_OK (-1)
-        if (resultBundle.containsKey(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR))
+        if (errCode != null)
+            err = sanitizeErrCode(errCode);
+        else if (resultBundle.containsKey(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR))
             err = sanitizeErrCode(resultBundle.getInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERR));
 
         Logger.logInfo(LOG_TAG, "Sending pending result to plugin host app. " + PLUGIN_VARIABLE_ERR + ": " + ((err == TaskerPlugin.Setting.RESULT_CODE_OK) ? "success" : "failed") + " (" + err +  ")");
@@ -296,15 +815,19 @@ public class PluginUtils {
         if (resultBundle.containsKey(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE))
             exitCode = Integer.toString(resultBundle.getInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE));
 
+        // The outputs of commands run by the DirectExecutor may be longer than the result sent to
+        // the plugin host app can be, the variables are truncated after the output options of the
+        // plugin action are applied to them
         final Bundle varsBundle = createVariablesBundle(
                 resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT, ""),
                 resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT_ORIGINAL_LENGTH, ""),
                 resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR, ""),
                 resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR_ORIGINAL_LENGTH, ""),
-                exitCode, err, resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG, ""));
+                exitCode, err, errCode != null ? errmsg : resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_ERRMSG, ""),
+                getPluginBundle(originalIntent), outputCache);
 
         if(context != null)
-            TaskerPlugin.Setting.signalFinish(context, originalIntent, err, varsBundle);
+            ResultDelivery.signalFinish(context, originalIntent, err, varsBundle);
     }
 
     /**
@@ -335,8 +858,8 @@ public class PluginUtils {
         boolean isExecutionCommandLoggingEnabled = Logger.shouldEnableLoggingForCustomLogLevel(executionCommand.backgroundCustomLogLevel);
 
         // Log the error and any exception
-        Logger.logErrorExtended(logTag, ExecutionCommand.getExecutionOutputLogString(executionCommand, true,
-                true, isExecutionCommandLoggingEnabled));
+        Logger.logErrorExtended(logTag, SecretRedactor.redactText(ExecutionCommand.getExecutionOutputLogString(executionCommand, true,
+                true, isExecutionCommandLoggingEnabled)));
 
         PluginUtils.sendImmediateResultToPluginHostApp(receiver, originalIntent,
                 errCode, ResultData.getErrorsListMinimalString(executionCommand.resultData));
@@ -361,6 +884,128 @@ public class PluginUtils {
     public static Bundle createVariablesBundle(String stdout, String stdoutOriginalLength,
                                                String stderr, String stderrOriginalLength,
                                                String exitCode, int errCode, String errmsg) {
+        return createVariablesBundle(stdout, stdoutOriginalLength, stderr, stderrOriginalLength,
+                exitCode, errCode, errmsg, null);
+    }
+
+    /**
+     * Create variables bundle to send back to plugin host app with the output options of the
+     * plugin action applied.
+     *
+     * The secrets of the {@link SecretRedactor} are first redacted from {@code stdout},
+     * {@code stderr} and {@code errmsg}.
+     * If the plugin bundle has {@link PluginBundleManager#EXTRA_OUTPUT_FILTER} set, then
+     * {@code stdout} is then filtered by the {@link OutputFilter}.
+     * If the plugin bundle has {@link PluginBundleManager#EXTRA_DELTA_OUTPUT_KEY} set and the
+     * command has an exit code, then {@link #PLUGIN_VARIABLE_STDOUT} is returned as the diff of
+     * {@code stdout} since the last run with the key by the {@link DeltaOutput}.
+     * If the plugin bundle has {@link PluginBundleManager#EXTRA_OUTPUT_URI} set and the command
+     * has an exit code, then {@code stdout} and {@code stderr} are returned as content URIs of the
+     * {@link OutputProvider} instead, and {@link #PLUGIN_VARIABLE_STDOUT} is not split.
+     * The {@code stdout} and {@code stderr} are then truncated if they are longer than the result
+     * sent to the plugin host app can be, like if the full outputs of the command were passed.
+     * If the plugin bundle has {@link PluginBundleManager#EXTRA_SPLIT_STDOUT} set, then
+     * {@link #PLUGIN_VARIABLE_STDOUT} is returned as an array by the {@link OutputSplitter}.
+     * If the plugin bundle has {@link PluginBundleManager#EXTRA_JSON_OUTPUT} set,
+     * then the values of the JSON in {@code stdout} are added with the {@link JsonOutputParser},
+     * which for delta output is only done if {@code stdout} has changed. Since the full
+     * {@code stdout} is parsed, the values share the same length limit as the truncated outputs.
+     *
+     * @param stdout The value for {@link #PLUGIN_VARIABLE_STDOUT} variable of plugin action.
+     * @param stdoutOriginalLength The value for {@link #PLUGIN_VARIABLE_STDOUT_ORIGINAL_LENGTH}
+     *                             variable of plugin action.
+     * @param stderr The value for {@link #PLUGIN_VARIABLE_STDERR} variable of plugin action.
+     * @param stderrOriginalLength The value for {@link #PLUGIN_VARIABLE_STDERR_ORIGINAL_LENGTH}
+     *                             variable of plugin action.
+     * @param exitCode The value for {@link #PLUGIN_VARIABLE_EXIT_CODE} variable of plugin action.
+     * @param errCode The value for {@link #PLUGIN_VARIABLE_ERR} variable of plugin action.
+     * @param errmsg The value for {@link #PLUGIN_VARIABLE_ERRMSG} variable of plugin action.
+     * @param pluginBundle The plugin action {@link Bundle} received by {@link FireReceiver}. Ignored
+     *                     if {@code null}.
+     * @return Returns the variables {@code Bundle}.
+     */
+    public static Bundle createVariablesBundle(String stdout, String stdoutOriginalLength,
+                                               String stderr, String stderrOriginalLength,
+                                               String exitCode, int errCode, String errmsg,
+                                               final Bundle pluginBundle) {
+        return createVariablesBundle(stdout, stdoutOriginalLength, stderr, stderrOriginalLength,
+                exitCode, errCode, errmsg, pluginBundle, null);
+    }
+
+    /**
+     * Create variables bundle to send back to plugin host app with the output options of the
+     * plugin action applied, like {@link #createVariablesBundle(String, String, String, String, String, int, String, Bundle)}.
+     *
+     * If the result of an execution is sent to multiple plugin actions, like to the followers of
+     * a {@link FireCoalescer} group, then they must share the same {@code outputCache}, so that the
+     * stateful output options are only applied once for the execution and its outputs are only
+     * written once to the {@link OutputProvider}.
+     *
+     * @param stdout The value for {@link #PLUGIN_VARIABLE_STDOUT} variable of plugin action.
+     * @param stdoutOriginalLength The value for {@link #PLUGIN_VARIABLE_STDOUT_ORIGINAL_LENGTH}
+     *                             variable of plugin action.
+     * @param stderr The value for {@link #PLUGIN_VARIABLE_STDERR} variable of plugin action.
+     * @param stderrOriginalLength The value for {@link #PLUGIN_VARIABLE_STDERR_ORIGINAL_LENGTH}
+     *                             variable of plugin action.
+     * @param exitCode The value for {@link #PLUGIN_VARIABLE_EXIT_CODE} variable of plugin action.
+     * @param errCode The value for {@link #PLUGIN_VARIABLE_ERR} variable of plugin action.
+     * @param errmsg The value for {@link #PLUGIN_VARIABLE_ERRMSG} variable of plugin action.
+     * @param pluginBundle The plugin action {@link Bundle} received by {@link FireReceiver}. Ignored
+     *                     if {@code null}.
+     * @param outputCache The {@link OutputCache} of the execution. If {@code null}, then the output
+     *                    options are applied without one.
+     * @return Returns the variables {@code Bundle}.
+     */
+    public static Bundle createVariablesBundle(String stdout, String stdoutOriginalLength,
+                                               String stderr, String stderrOriginalLength,
+                                               String exitCode, int errCode, String errmsg,
+                                               final Bundle pluginBundle, final OutputCache outputCache) {
+
+        // Redact secrets first so that they are neither logged nor returned in any variable
+        stdout = SecretRedactor.redactText(stdout);
+        stderr = SecretRedactor.redactText(stderr);
+        errmsg = SecretRedactor.redactText(errmsg);
+
+        // Filter stdout so that the later output options and the log only see the filtered stdout.
+        // The full stdout is filtered, so the kv values share the same length limit as the truncated outputs.
+        final Bundle outputVariablesBundle = new Bundle();
+        final String outputFilter = pluginBundle != null ? pluginBundle.getString(PluginBundleManager.EXTRA_OUTPUT_FILTER) : null;
+        if (!DataUtils.isNullOrEmpty(outputFilter))
+            stdout = OutputFilter.apply(outputFilter, stdout, outputVariablesBundle, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
+
+        // Return only the changes to stdout of commands that have finished, and keep the full
+        // stdout for the JSON output
+        String fullStdout = stdout;
+        final String deltaOutputKey = pluginBundle != null ? pluginBundle.getString(PluginBundleManager.EXTRA_DELTA_OUTPUT_KEY) : null;
+        if (!DataUtils.isNullOrEmpty(deltaOutputKey) && stdout != null && !DataUtils.isNullOrEmpty(exitCode)) {
+            stdout = outputCache != null ? outputCache.applyDeltaOutput(deltaOutputKey, stdout, outputVariablesBundle) :
+                    DeltaOutput.apply(deltaOutputKey, stdout, outputVariablesBundle);
+            if (stdout.isEmpty()) fullStdout = stdout;
+        }
+
+        // Return stdout and stderr of commands that have finished as content URIs, so that the
+        // plugin host app can read large outputs lazily instead of receiving them in variables
+        final boolean outputUri = pluginBundle != null && pluginBundle.getBoolean(PluginBundleManager.EXTRA_OUTPUT_URI, false);
+        final boolean returnedOutputUri = outputUri && !DataUtils.isNullOrEmpty(exitCode) &&
+                (outputCache != null ? outputCache.addOutputUriVariables(outputVariablesBundle, stdout, stderr) :
+                        OutputProvider.addVariables(outputVariablesBundle, stdout, stderr));
+        if (returnedOutputUri) {
+            stdout = "";
+            stderr = "";
+        }
+
+        // Truncate full outputs like the execution service does, so that the variables fit in the
+        // result sent to the plugin host app. If both stdout and stderr are set, then they share the limit.
+        final int maxLength = DataUtils.isNullOrEmpty(stdout) || DataUtils.isNullOrEmpty(stderr) ?
+                DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES : DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES / 2;
+        if (stdout != null && stdout.length() > maxLength) {
+            if (DataUtils.isNullOrEmpty(stdoutOriginalLength)) stdoutOriginalLength = String.valueOf(stdout.length());
+            stdout = DataUtils.getTruncatedCommandOutput(stdout, maxLength, false, false, false);
+        }
+        if (stderr != null && stderr.length() > maxLength) {
+            if (DataUtils.isNullOrEmpty(stderrOriginalLength)) stderrOriginalLength = String.valueOf(stderr.length());
+            stderr = DataUtils.getTruncatedCommandOutput(stderr, maxLength, false, false, false);
+        }
 
         Logger.logDebugExtended(LOG_TAG, "Variables bundle for plugin host app:\n" +
                 PLUGIN_VARIABLE_STDOUT + ": `" + stdout + "`\n" +
@@ -402,9 +1047,32 @@ public class PluginUtils {
         if (isPluginHostAppVariableNameValid(PLUGIN_VARIABLE_ERRMSG))
             variablesBundle.putString(PLUGIN_VARIABLE_ERRMSG, errmsg);
 
+        variablesBundle.putAll(outputVariablesBundle);
+
+        if (pluginBundle != null) {
+            final String splitStdout = pluginBundle.getString(PluginBundleManager.EXTRA_SPLIT_STDOUT);
+            if (!DataUtils.isNullOrEmpty(splitStdout) && !returnedOutputUri && isPluginHostAppVariableNameValid(PLUGIN_VARIABLE_STDOUT))
+                OutputSplitter.addVariables(variablesBundle, stdout, splitStdout);
+
+            final String jsonOutput = pluginBundle.getString(PluginBundleManager.EXTRA_JSON_OUTPUT);
+            if (!DataUtils.isNullOrEmpty(jsonOutput))
+                JsonOutputParser.addVariables(variablesBundle, fullStdout, jsonOutput, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
+        }
+
         return variablesBundle;
     }
 
+    /**
+     * Get the plugin action bundle from the original intent received by {@link FireReceiver}.
+     *
+     * @param originalIntent The original {@link Intent} received by {@link FireReceiver}.
+     * @return Returns the plugin action {@link Bundle}, or {@code null} if not set.
+     */
+    public static Bundle getPluginBundle(final Intent originalIntent) {
+        if (originalIntent == null) return null;
+        return originalIntent.getBundleExtra(com.twofortyfouram.locale.Intent.EXTRA_BUNDLE);
+    }
+
     /**
      * Sanitize errCode value so that it can be sent back to plugin host app as %err value.
      * For custom result codes for the plugin, start numbering from
@@ -444,6 +1112,30 @@ public class PluginUtils {
         return true;
     }
 
+    /**
+     * Get the part of a plugin host app variable name for a key of the output of commands, like a
+     * JSON key. The key is lowercased since variables returned to Tasker must be local, and any
+     * characters other than `a-z`, `0-9` and `_` are replaced with `_`. Trailing underscores are
+     * removed since variable names cannot end with them.
+     *
+     * @param key The key.
+     * @return Returns the variable name part, which may be empty.
+     */
+    @NonNull
+    public static String getPluginHostAppVariableNamePart(@NonNull final String key) {
+        StringBuilder builder = new StringBuilder(key.length());
+        String lowerCaseKey = key.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lowerCaseKey.length(); i++) {
+            char c = lowerCaseKey.charAt(i);
+            builder.append((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ? c : '_');
+        }
+
+        int length = builder.length();
+        while (length > 0 && builder.charAt(length - 1) == '_') length--;
+        builder.setLength(length);
+        return builder.toString();
+    }
+
     /**
      * Determines whether string exactly matches a valid plugin host app variable.
      *
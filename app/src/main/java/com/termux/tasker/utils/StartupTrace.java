@@ -0,0 +1,170 @@
+package com.termux.tasker.utils;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.termux.shared.logger.Logger;
+import com.termux.tasker.TermuxTaskerApplication;
+import com.termux.tasker.history.HistoryStore;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A util class to trace the startup of an app process till the first fire of the
+ * {@link com.termux.tasker.FireReceiver} in it has completed.
+ *
+ * The stages are marked with {@link #mark(String)} in the order they are reached and only the first
+ * mark of a stage is kept. Once the trace is finished with {@link #finish(Context, boolean)}, it is
+ * logged, recorded in {@link PluginMetrics} and persisted to the {@link #HISTORY_NAME} history of
+ * the {@link HistoryStore}, and further marks are ignored.
+ */
+public class StartupTrace {
+
+    /** The name of the {@link HistoryStore} history where startup traces are persisted. */
+    public static final String HISTORY_NAME = "startup_traces"; // Default: "startup_traces"
+
+    /** The number of most recent startup traces to keep in the history. */
+    public static final int MAX_HISTORY_RECORDS = 50;
+
+    /** The stage for the start of the process as per {@link TermuxTaskerApplication#getProcessStartTime()}. */
+    public static final String STAGE_PROCESS_START = "process_start"; // Default: "process_start"
+    /** The stage for the start of {@link TermuxTaskerApplication#onCreate()}. */
+    public static final String STAGE_APPLICATION_CREATE = "application_create"; // Default: "application_create"
+    /** The stage for after the crash handler has been set in {@link TermuxTaskerApplication#onCreate()}. */
+    public static final String STAGE_CRASH_HANDLER_SET = "crash_handler_set"; // Default: "crash_handler_set"
+    /** The stage for after the log config has been set in {@link TermuxTaskerApplication#onCreate()}. */
+    public static final String STAGE_LOG_CONFIG_SET = "log_config_set"; // Default: "log_config_set"
+    /** The stage for the start of the first {@link com.termux.tasker.FireReceiver#onReceive(Context, android.content.Intent)} call. */
+    public static final String STAGE_FIRE_RECEIVE_START = "fire_receive_start"; // Default: "fire_receive_start"
+    /** The stage for the completion of the first {@link com.termux.tasker.FireReceiver#onReceive(Context, android.content.Intent)} call. */
+    public static final String STAGE_FIRE_RECEIVE_END = "fire_receive_end"; // Default: "fire_receive_end"
+
+    /** The listener that is notified when a stage is marked. */
+    public interface StageListener {
+        /**
+         * Called on the thread that marked the stage.
+         *
+         * @param stage The stage marked.
+         * @param timeNanos The {@link SystemClock#elapsedRealtimeNanos()} of the stage.
+         */
+        void onStageMarked(@NonNull String stage, long timeNanos);
+    }
+
+    private static final Map<String, Long> STAGES = new LinkedHashMap<>();
+    private static boolean FINISHED = false;
+    private static StageListener STAGE_LISTENER;
+
+    private static final String LOG_TAG = "StartupTrace";
+
+    /**
+     * Mark a stage at the current time.
+     *
+     * @param stage The stage to mark.
+     */
+    public static void mark(@NonNull String stage) {
+        mark(stage, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Mark a stage at the specified time.
+     *
+     * @param stage The stage to mark.
+     * @param timeNanos The {@link SystemClock#elapsedRealtimeNanos()} of the stage.
+     */
+    public static synchronized void mark(@NonNull String stage, long timeNanos) {
+        if (FINISHED || STAGES.containsKey(stage)) return;
+        STAGES.put(stage, timeNanos);
+        if (STAGE_LISTENER != null)
+            STAGE_LISTENER.onStageMarked(stage, timeNanos);
+    }
+
+    /**
+     * Finish the trace by marking {@link #STAGE_FIRE_RECEIVE_END} and persist it. This is a no-op
+     * if the trace has already been finished.
+     *
+     * @param context The {@link Context} for operations.
+     * @param isColdFire Whether the first fire had to pay the cost of a cold start of the process.
+     */
+    public static void finish(final Context context, boolean isColdFire) {
+        Map<String, Long> stages;
+        synchronized (StartupTrace.class) {
+            if (FINISHED) return;
+            mark(STAGE_FIRE_RECEIVE_END);
+            FINISHED = true;
+            stages = new LinkedHashMap<>(STAGES);
+        }
+
+        Logger.logDebug(LOG_TAG, "Startup trace" + (isColdFire ? "" : " (warm)") + ": " + getStagesString(stages));
+
+        Long processStartTime = stages.get(STAGE_PROCESS_START);
+        for (Map.Entry<String, Long> entry : stages.entrySet()) {
+            if (processStartTime == null || entry.getKey().equals(STAGE_PROCESS_START)) continue;
+            PluginMetrics.recordLatency("startup_" + entry.getKey(), (entry.getValue() - processStartTime) / 1000000);
+        }
+        PluginMetrics.persist(context);
+
+        try {
+            JSONObject stagesJson = new JSONObject();
+            for (Map.Entry<String, Long> entry : stages.entrySet())
+                stagesJson.put(entry.getKey(), entry.getValue());
+
+            JSONObject record = new JSONObject();
+            record.put("time", System.currentTimeMillis());
+            record.put("process", PluginMetrics.getProcessName());
+            record.put("cold", isColdFire);
+            record.put("stages_ns", stagesJson);
+            HistoryStore.appendRecord(context, HISTORY_NAME, record, MAX_HISTORY_RECORDS);
+        } catch (JSONException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create startup trace record", e);
+        }
+    }
+
+    /** Get a copy of the stages marked, in the order they were marked. */
+    @NonNull
+    public static synchronized Map<String, Long> getStages() {
+        return new LinkedHashMap<>(STAGES);
+    }
+
+    /** Check whether the trace has been finished. */
+    public static synchronized boolean isFinished() {
+        return FINISHED;
+    }
+
+    /** Get a {@link String} of the offsets of the stages from the first stage in milliseconds. */
+    @NonNull
+    public static String getStagesString(@NonNull Map<String, Long> stages) {
+        StringBuilder stagesString = new StringBuilder();
+        Long firstTime = null;
+        for (Map.Entry<String, Long> entry : stages.entrySet()) {
+            if (firstTime == null) firstTime = entry.getValue();
+            if (stagesString.length() > 0) stagesString.append(", ");
+            stagesString.append(entry.getKey()).append("=+")
+                    .append(String.format(Locale.ROOT, "%.3f", (entry.getValue() - firstTime) / 1000000.0)).append("ms");
+        }
+        return stagesString.toString();
+    }
+
+
+
+    /** Reset the trace as if the process had just been started. */
+    @VisibleForTesting
+    public static synchronized void reset() {
+        STAGES.clear();
+        FINISHED = false;
+    }
+
+    /** Set the {@link StageListener} to be notified when a stage is marked. */
+    @VisibleForTesting
+    public static synchronized void setStageListener(StageListener stageListener) {
+        STAGE_LISTENER = stageListener;
+    }
+
+}
@@ -542,6 +542,18 @@ public class TaskerPlugin {
             return okFlag;
         }
 
+        /**
+         * Used by: plugin FireReceiver
+         *
+         * Check whether the host sent a completion intent with the fire intent, i.e. whether it
+         * is waiting for signalFinish().
+         *
+         * @param originalFireIntent the intent received from the host (via onReceive())
+         */
+        public static boolean hasCompletionIntent( Intent originalFireIntent ) {
+            return getExtraValueSafe( originalFireIntent, Setting.EXTRA_PLUGIN_COMPLETION_INTENT, String.class, "hasCompletionIntent" ) != null;
+        }
+
         /**
          * Check for a hint on the timeout value the host is using.
          * Used by: plugin FireReceiver.
@@ -0,0 +1,233 @@
+package com.termux.tasker;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.os.Bundle;
+
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+import com.termux.shared.termux.TermuxUtils;
+import com.termux.tasker.utils.StartupTrace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Startup benchmark for the fire path of the {@link FireReceiver}.
+ *
+ * Each test runs against a fresh process model, i.e. the {@link TracedApplication} resets the
+ * process state and {@link StartupTrace} before {@link TermuxTaskerApplication#onCreate()} is
+ * called, and then replays a fire intent. The wall time and the bytes allocated by the current
+ * thread are reported for each stage of the {@link StartupTrace}.
+ *
+ * The Termux app is installed in the shadow package manager, but its files do not exist on the
+ * host, so the checks of its files are skipped with the {@link FireReceiver#TERMUX_ENVIRONMENT},
+ * and the fire must reach the start of the execution service.
+ *
+ * Time and allocations depend on the host, so budgets are only enforced if they are passed with
+ * the {@link #PROPERTY_MAX_TOTAL_MS} and {@link #PROPERTY_MAX_TOTAL_ALLOCATED_BYTES} system
+ * properties, otherwise only the stages and their order are checked.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = FireReceiverStartupBenchmarkTest.TracedApplication.class, sdk = 28)
+public class FireReceiverStartupBenchmarkTest {
+
+    public static final String PROPERTY_MAX_TOTAL_MS = "termux.tasker.startup.maxTotalMs";
+    public static final String PROPERTY_MAX_TOTAL_ALLOCATED_BYTES = "termux.tasker.startup.maxTotalAllocatedBytes";
+
+    private static final String STAGE_HARNESS_START = "harness_start";
+
+    private static final List<StageSample> SAMPLES = new ArrayList<>();
+
+    private FireReceiver.TermuxEnvironment termuxEnvironment;
+
+    /** The {@link TermuxTaskerApplication} that starts sampling stages of a fresh process model. */
+    public static class TracedApplication extends TermuxTaskerApplication {
+        @Override
+        public void onCreate() {
+            TermuxTaskerApplication.resetProcessState();
+            StartupTrace.reset();
+            synchronized (SAMPLES) {
+                SAMPLES.clear();
+            }
+            recordSample(STAGE_HARNESS_START);
+            StartupTrace.setStageListener((stage, timeNanos) -> recordSample(stage));
+
+            super.onCreate();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = TermuxConstants.TERMUX_PACKAGE_NAME;
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.packageName = TermuxConstants.TERMUX_PACKAGE_NAME;
+        packageInfo.applicationInfo.enabled = true;
+        shadowOf(context.getPackageManager()).installPackage(packageInfo);
+
+        termuxEnvironment = FireReceiver.TERMUX_ENVIRONMENT;
+        FireReceiver.TERMUX_ENVIRONMENT = new FireReceiver.TermuxEnvironment() {
+            @Override
+            public String isTermuxAppAccessible(Context context) {
+                return TermuxUtils.isTermuxAppInstalled(context);
+            }
+
+            @Override
+            public com.termux.shared.errors.Error validateExecutable(String executable) {
+                return null;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        FireReceiver.TERMUX_ENVIRONMENT = termuxEnvironment;
+    }
+
+    @Test
+    public void testColdFireMarksAllStagesInOrder() {
+        Context context = RuntimeEnvironment.getApplication();
+
+        new FireReceiver().onReceive(context, createFireIntent("startup-benchmark.sh"));
+
+        Intent executionIntent = shadowOf(RuntimeEnvironment.getApplication()).getNextStartedService();
+        assertNotNull("The fire did not reach the start of the execution service", executionIntent);
+        assertEquals(TERMUX_SERVICE.ACTION_SERVICE_EXECUTE, executionIntent.getAction());
+        assertEquals(TermuxConstants.TERMUX_PACKAGE_NAME, executionIntent.getComponent().getPackageName());
+        assertEquals(TermuxConstants.TERMUX_TASKER_SCRIPTS_DIR_PATH + "/startup-benchmark.sh", executionIntent.getData().getPath());
+
+        assertTrue(StartupTrace.isFinished());
+        assertEquals(Arrays.asList(
+                StartupTrace.STAGE_PROCESS_START,
+                StartupTrace.STAGE_APPLICATION_CREATE,
+                StartupTrace.STAGE_CRASH_HANDLER_SET,
+                StartupTrace.STAGE_LOG_CONFIG_SET,
+                StartupTrace.STAGE_FIRE_RECEIVE_START,
+                StartupTrace.STAGE_FIRE_RECEIVE_END),
+                new ArrayList<>(StartupTrace.getStages().keySet()));
+
+        reportAndCheckBudgets();
+    }
+
+    @Test
+    public void testTraceIsOnlyFinishedByFirstFire() {
+        Context context = RuntimeEnvironment.getApplication();
+
+        new FireReceiver().onReceive(context, createFireIntent("startup-benchmark.sh"));
+        assertNotNull(shadowOf(RuntimeEnvironment.getApplication()).getNextStartedService());
+        Long firstFireEndTime = StartupTrace.getStages().get(StartupTrace.STAGE_FIRE_RECEIVE_END);
+        int sampleCount;
+        synchronized (SAMPLES) {
+            sampleCount = SAMPLES.size();
+        }
+
+        new FireReceiver().onReceive(context, createFireIntent("startup-benchmark.sh"));
+
+        assertNotNull(firstFireEndTime);
+        assertEquals(firstFireEndTime, StartupTrace.getStages().get(StartupTrace.STAGE_FIRE_RECEIVE_END));
+        synchronized (SAMPLES) {
+            assertEquals(sampleCount, SAMPLES.size());
+        }
+    }
+
+
+
+    private static Intent createFireIntent(String executable) {
+        Bundle bundle = new Bundle();
+        bundle.putString(PluginBundleManager.EXTRA_EXECUTABLE, executable);
+        bundle.putString(PluginBundleManager.EXTRA_ARGUMENTS, "");
+        bundle.putBoolean(PluginBundleManager.EXTRA_TERMINAL, false);
+        // The result is not waited for, since the receiver is called without an ordered broadcast
+        // whose result code could be set to pending
+        bundle.putBoolean(PluginBundleManager.EXTRA_WAIT_FOR_RESULT, false);
+        bundle.putInt(PluginBundleManager.BUNDLE_EXTRA_INT_VERSION_CODE, 1);
+
+        // The plugin host app passes the bundle extras in the intent extras as well
+        Intent intent = new Intent(com.twofortyfouram.locale.Intent.ACTION_FIRE_SETTING);
+        intent.putExtras(bundle);
+        intent.putExtra(com.twofortyfouram.locale.Intent.EXTRA_BUNDLE, bundle);
+        return intent;
+    }
+
+    private static void recordSample(String stage) {
+        synchronized (SAMPLES) {
+            SAMPLES.add(new StageSample(stage, System.nanoTime(), getCurrentThreadAllocatedBytes()));
+        }
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    private static void reportAndCheckBudgets() {
+        List<StageSample> samples;
+        synchronized (SAMPLES) {
+            samples = new ArrayList<>(SAMPLES);
+        }
+        assertFalse(samples.isEmpty());
+
+        StringBuilder report = new StringBuilder("Startup stages (time, allocated bytes since previous stage):\n");
+        for (int i = 1; i < samples.size(); i++) {
+            StageSample previous = samples.get(i - 1);
+            StageSample current = samples.get(i);
+            assertTrue("Stage \"" + current.stage + "\" was sampled before \"" + previous.stage + "\"",
+                    current.timeNanos >= previous.timeNanos);
+            report.append(String.format(Locale.ROOT, "%-20s %10.3fms %12s\n", current.stage,
+                    (current.timeNanos - previous.timeNanos) / 1000000.0,
+                    current.allocatedBytes < 0 ? "-" : String.valueOf(current.allocatedBytes - previous.allocatedBytes)));
+        }
+
+        StageSample first = samples.get(0);
+        StageSample last = samples.get(samples.size() - 1);
+        double totalMs = (last.timeNanos - first.timeNanos) / 1000000.0;
+        long totalAllocatedBytes = last.allocatedBytes < 0 ? -1 : last.allocatedBytes - first.allocatedBytes;
+        report.append(String.format(Locale.ROOT, "%-20s %10.3fms %12s\n", "total", totalMs,
+                totalAllocatedBytes < 0 ? "-" : String.valueOf(totalAllocatedBytes)));
+        System.out.print(report);
+
+        Long maxTotalMs = Long.getLong(PROPERTY_MAX_TOTAL_MS);
+        if (maxTotalMs != null)
+            assertTrue("Startup took " + totalMs + "ms, budget is " + maxTotalMs + "ms", totalMs <= maxTotalMs);
+
+        Long maxTotalAllocatedBytes = Long.getLong(PROPERTY_MAX_TOTAL_ALLOCATED_BYTES);
+        if (maxTotalAllocatedBytes != null && totalAllocatedBytes >= 0)
+            assertTrue("Startup allocated " + totalAllocatedBytes + " bytes, budget is " + maxTotalAllocatedBytes + " bytes",
+                    totalAllocatedBytes <= maxTotalAllocatedBytes);
+    }
+
+    private static class StageSample {
+        final String stage;
+        final long timeNanos;
+        final long allocatedBytes;
+
+        StageSample(String stage, long timeNanos, long allocatedBytes) {
+            this.stage = stage;
+            this.timeNanos = timeNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+}
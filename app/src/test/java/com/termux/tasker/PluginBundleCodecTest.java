@@ -0,0 +1,166 @@
+package com.termux.tasker;
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip tests for the {@link PluginBundleCodec}, along with a comparison of the size and
+ * the time to receive and parse bundles with and without the compact extra.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PluginBundleCodecTest {
+
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Test
+    public void testRoundTripsAllExtras() {
+        Bundle bundle = createBundle();
+        bundle.putString(PluginBundleManager.EXTRA_SCRIPT_BLOB, HASH);
+        bundle.putString(PluginBundleManager.EXTRA_STDIN_BLOB, "not-a-hash é");
+        bundle.putBoolean(PluginBundleManager.EXTRA_KILL_ON_TIMEOUT, true);
+        bundle.putBoolean(PluginBundleManager.EXTRA_CANCELLABLE, false);
+        bundle.putBoolean(PluginBundleManager.EXTRA_OUTPUT_URI, true);
+        Bundle expected = new Bundle(bundle);
+        expected.remove(PluginBundleManager.EXTRA_STDIN);
+
+        PluginBundleCodec.encode(bundle);
+        assertTrue(bundle.containsKey(PluginBundleManager.EXTRA_COMPACT));
+        assertFalse(bundle.containsKey(PluginBundleManager.EXTRA_TERMINAL));
+        assertFalse(bundle.containsKey(PluginBundleManager.EXTRA_SCRIPT_BLOB));
+        assertFalse(bundle.containsKey(PluginBundleManager.EXTRA_STDIN));
+        // Variables are replaced by the plugin host app in these, so they must stay separate extras
+        assertEquals("-c date", bundle.getString(PluginBundleManager.EXTRA_ARGUMENTS));
+
+        assertNull(PluginBundleCodec.decode(bundle));
+        assertBundleEquals(expected, bundle);
+    }
+
+    @Test
+    public void testDoesNotChangeOldBundles() {
+        Bundle bundle = createBundle();
+        Bundle expected = new Bundle(bundle);
+        assertNull(PluginBundleCodec.decode(bundle));
+        assertBundleEquals(expected, bundle);
+    }
+
+    @Test
+    public void testParsesCompactBundle() {
+        Bundle bundle = createBundle();
+        bundle.putBoolean(PluginBundleManager.EXTRA_DIRECT_EXECUTION, true);
+        PluginBundleCodec.encode(bundle);
+
+        assertNull(PluginBundleManager.parseBundle(RuntimeEnvironment.getApplication(), bundle));
+        assertFalse(bundle.containsKey(PluginBundleManager.EXTRA_COMPACT));
+        assertFalse(bundle.getBoolean(PluginBundleManager.EXTRA_TERMINAL, true));
+        assertTrue(bundle.getBoolean(PluginBundleManager.EXTRA_WAIT_FOR_RESULT, false));
+        assertTrue(bundle.getBoolean(PluginBundleManager.EXTRA_DIRECT_EXECUTION, false));
+    }
+
+    @Test
+    public void testRejectsInvalidCompactExtra() {
+        Bundle bundle = createBundle();
+        bundle.putByteArray(PluginBundleManager.EXTRA_COMPACT, new byte[]{(byte) (PluginBundleCodec.VERSION + 1), 0, 0});
+        Bundle expected = new Bundle(bundle);
+        assertNotNull(PluginBundleCodec.decode(bundle));
+        assertBundleEquals(expected, bundle);
+
+        bundle.putByteArray(PluginBundleManager.EXTRA_COMPACT, new byte[]{1, 3, 1, 1, 32});
+        assertNotNull(PluginBundleCodec.decode(bundle));
+        bundle.putByteArray(PluginBundleManager.EXTRA_COMPACT, new byte[]{1, 3, 1, 0, 0, 7});
+        assertNotNull(PluginBundleCodec.decode(bundle));
+        assertFalse(bundle.getBoolean(PluginBundleManager.EXTRA_TERMINAL));
+    }
+
+    @Test
+    public void testSizeAndParseTime() {
+        Bundle oldBundle = createBundle();
+        oldBundle.putString(PluginBundleManager.EXTRA_SCRIPT_BLOB, HASH);
+        oldBundle.putBoolean(PluginBundleManager.EXTRA_KILL_ON_TIMEOUT, true);
+        oldBundle.putBoolean(PluginBundleManager.EXTRA_REPORT_PROGRESS, true);
+        Bundle compactBundle = new Bundle(oldBundle);
+        PluginBundleCodec.encode(compactBundle);
+
+        int oldSize = PluginBundleManager.getBundleSize(oldBundle);
+        int compactSize = PluginBundleManager.getBundleSize(compactBundle);
+        assertTrue("The compact bundle has " + compactSize + " bytes, the old one has " + oldSize, compactSize < oldSize);
+
+        byte[] oldData = marshall(oldBundle);
+        byte[] compactData = marshall(compactBundle);
+        int runs = 2000;
+        for (int i = 0; i < runs; i++) {
+            unmarshallAndParse(oldData);
+            unmarshallAndParse(compactData);
+        }
+        double oldUs = timeUnmarshallAndParse(oldData, runs);
+        double compactUs = timeUnmarshallAndParse(compactData, runs);
+
+        System.out.println(String.format(Locale.ROOT,
+                "Plugin bundle size: %d bytes, compact: %d bytes. Time to receive and parse: %.3fus, compact: %.3fus",
+                oldSize, compactSize, oldUs, compactUs));
+    }
+
+
+
+    private static Bundle createBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putString(PluginBundleManager.EXTRA_EXECUTABLE, "bash");
+        bundle.putString(PluginBundleManager.EXTRA_ARGUMENTS, "-c date");
+        bundle.putString(PluginBundleManager.EXTRA_WORKDIR, "~/");
+        bundle.putString(PluginBundleManager.EXTRA_STDIN, null);
+        bundle.putBoolean(PluginBundleManager.EXTRA_TERMINAL, false);
+        bundle.putBoolean(PluginBundleManager.EXTRA_WAIT_FOR_RESULT, true);
+        bundle.putInt(PluginBundleManager.BUNDLE_EXTRA_INT_VERSION_CODE, 1);
+        return bundle;
+    }
+
+    private static void assertBundleEquals(Bundle expected, Bundle actual) {
+        Set<String> expectedKeys = new TreeSet<>(expected.keySet());
+        assertEquals(expectedKeys, new TreeSet<>(actual.keySet()));
+        for (String key : expectedKeys)
+            assertEquals(key, expected.get(key), actual.get(key));
+    }
+
+    private static byte[] marshall(Bundle bundle) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            bundle.writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void unmarshallAndParse(byte[] data) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            Bundle bundle = parcel.readBundle(PluginBundleCodecTest.class.getClassLoader());
+            assertNotNull(bundle);
+            assertNull(PluginBundleManager.parseBundle(RuntimeEnvironment.getApplication(), bundle));
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static double timeUnmarshallAndParse(byte[] data, int runs) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            unmarshallAndParse(data);
+        return (System.nanoTime() - startTime) / 1000.0 / runs;
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.termux.tasker.execution;
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+import com.termux.tasker.PluginBundleManager;
+import com.termux.tasker.output.OutputFilter;
+import com.termux.tasker.utils.PluginUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark for passing the full outputs of direct executions in-process to the output options,
+ * compared to parcelling the truncated outputs in a result bundle like the result of the execution
+ * service is.
+ *
+ * The time and bytes allocated by the calling thread from the result of the command till the
+ * variables bundle has been created are reported for outputs of 100KB, 1MB and 10MB. Time depends
+ * on the host, so the budget is only enforced if it is passed with the
+ * {@link #PROPERTY_MAX_MS_PER_MB} system property.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DirectExecutorOutputBenchmarkTest {
+
+    public static final String PROPERTY_MAX_MS_PER_MB = "termux.tasker.directExecution.maxMsPerMb";
+
+    private static final String LAST_LINE = "last=done";
+
+    @Test
+    public void testFullOutputCost() {
+        // The output filter requires the full outputs, and has to read all lines of stdout
+        Bundle pluginBundle = new Bundle();
+        pluginBundle.putString(PluginBundleManager.EXTRA_OUTPUT_FILTER, OutputFilter.STAGE_TAIL + " 1");
+
+        StringBuilder report = new StringBuilder("Direct execution output (time, allocated bytes):\n");
+        double maxInProcessMsPerMb = 0;
+        for (int size : new int[]{100 * 1024, 1024 * 1024, 10 * 1024 * 1024}) {
+            ExecutionCommand executionCommand = createExecutionCommand(size);
+            double megabytes = size / (1024.0 * 1024.0);
+            assertEquals(executionCommand.resultData.stdout.length(), DirectExecutor.createResultBundle(executionCommand, true)
+                    .getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT).length());
+
+            // Warm up
+            for (int i = 0; i < 2; i++) {
+                createVariablesBundleInProcess(executionCommand, pluginBundle);
+                createVariablesBundleParcelled(executionCommand, pluginBundle);
+            }
+
+            long allocatedBytes = getCurrentThreadAllocatedBytes();
+            long startTime = System.nanoTime();
+            Bundle variablesBundle = createVariablesBundleInProcess(executionCommand, pluginBundle);
+            double inProcessMs = (System.nanoTime() - startTime) / 1000000.0;
+            long inProcessAllocatedBytes = getCurrentThreadAllocatedBytes() - allocatedBytes;
+            assertEquals(LAST_LINE, variablesBundle.getString(PluginUtils.PLUGIN_VARIABLE_STDOUT));
+
+            allocatedBytes = getCurrentThreadAllocatedBytes();
+            startTime = System.nanoTime();
+            createVariablesBundleParcelled(executionCommand, pluginBundle);
+            double parcelledMs = (System.nanoTime() - startTime) / 1000000.0;
+            long parcelledAllocatedBytes = getCurrentThreadAllocatedBytes() - allocatedBytes;
+
+            maxInProcessMsPerMb = Math.max(maxInProcessMsPerMb, inProcessMs / megabytes);
+            report.append(String.format(Locale.ROOT, "%6dKB in-process: %10.3fms %12s, parcelled: %10.3fms %12s\n",
+                    size / 1024, inProcessMs, allocatedBytes < 0 ? "-" : String.valueOf(inProcessAllocatedBytes),
+                    parcelledMs, allocatedBytes < 0 ? "-" : String.valueOf(parcelledAllocatedBytes)));
+        }
+        System.out.print(report);
+
+        Long maxMsPerMb = Long.getLong(PROPERTY_MAX_MS_PER_MB);
+        if (maxMsPerMb != null)
+            assertTrue("In-process output took " + maxInProcessMsPerMb + "ms per MB, budget is " + maxMsPerMb + "ms",
+                    maxInProcessMsPerMb <= maxMsPerMb);
+    }
+
+
+
+    /** Create the variables bundle from the full outputs passed in-process, like direct executions do. */
+    private static Bundle createVariablesBundleInProcess(ExecutionCommand executionCommand, Bundle pluginBundle) {
+        return createVariablesBundle(DirectExecutor.createResultBundle(executionCommand, true), pluginBundle);
+    }
+
+    /** Create the variables bundle from the truncated outputs sent in a parcelled result bundle. */
+    private static Bundle createVariablesBundleParcelled(ExecutionCommand executionCommand, Bundle pluginBundle) {
+        Bundle resultBundle = DirectExecutor.createResultBundle(executionCommand, false);
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(resultBundle);
+            parcel.setDataPosition(0);
+            resultBundle = parcel.readBundle(DirectExecutorOutputBenchmarkTest.class.getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+        return createVariablesBundle(resultBundle, pluginBundle);
+    }
+
+    private static Bundle createVariablesBundle(Bundle resultBundle, Bundle pluginBundle) {
+        return PluginUtils.createVariablesBundle(
+                resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT),
+                resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT_ORIGINAL_LENGTH),
+                resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR),
+                resultBundle.getString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDERR_ORIGINAL_LENGTH),
+                "0", 0, null, pluginBundle);
+    }
+
+    /** Create an {@link ExecutionCommand} whose stdout is {@code size} chars ending with {@link #LAST_LINE}. */
+    private static ExecutionCommand createExecutionCommand(int size) {
+        ExecutionCommand executionCommand = new ExecutionCommand(-1, "/bin/true", null, null, null,
+                ExecutionCommand.Runner.APP_SHELL.getName(), false);
+        StringBuilder stdout = executionCommand.resultData.stdout;
+        String line = "line=0123456789abcdefghijklmnopqrstuvwxyz\n";
+        while (stdout.length() + line.length() + LAST_LINE.length() < size)
+            stdout.append(line);
+        stdout.append(LAST_LINE);
+        return executionCommand;
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+}
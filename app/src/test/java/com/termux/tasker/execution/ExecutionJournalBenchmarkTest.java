@@ -0,0 +1,132 @@
+package com.termux.tasker.execution;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+
+import com.termux.tasker.utils.PluginMetrics;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark for the cost the {@link ExecutionJournal} adds to each fire.
+ *
+ * The time and bytes allocated by the calling thread for the begin and end records of each fire
+ * are reported along with the number of records written by each group commit. Time depends on
+ * the host, so the budget is only enforced if it is passed with the {@link #PROPERTY_MAX_FIRE_MICROS}
+ * system property.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ExecutionJournalBenchmarkTest {
+
+    public static final String PROPERTY_MAX_FIRE_MICROS = "termux.tasker.journal.maxFireMicros";
+
+    private static final int FIRE_COUNT = 2000;
+
+    @Test
+    public void testCostPerFire() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        Intent originalIntent = createFireIntent();
+
+        // Warm up the write thread and the journal file
+        ExecutionJournal.begin(context, 0, originalIntent, "/bin/true", -1);
+        ExecutionJournal.end(context, 0);
+        ExecutionJournal.awaitIdle(10000);
+
+        long commitsBefore = PluginMetrics.getCounter("journal_commits");
+        long recordsBefore = PluginMetrics.getCounter("journal_records");
+        long allocatedBytesBefore = getCurrentThreadAllocatedBytes();
+        long startTime = System.nanoTime();
+        for (int i = 1; i <= FIRE_COUNT; i++) {
+            ExecutionJournal.begin(context, i, originalIntent, "/bin/true", 10000);
+            ExecutionJournal.end(context, i);
+        }
+        long fireNanos = (System.nanoTime() - startTime) / FIRE_COUNT;
+        long allocatedBytesAfter = getCurrentThreadAllocatedBytes();
+
+        long waitStartTime = System.nanoTime();
+        ExecutionJournal.awaitIdle(60000);
+        double drainMs = (System.nanoTime() - waitStartTime) / 1000000.0;
+
+        long commits = PluginMetrics.getCounter("journal_commits") - commitsBefore;
+        long records = PluginMetrics.getCounter("journal_records") - recordsBefore;
+        assertEquals(2L * FIRE_COUNT, records);
+        assertTrue(commits > 0 && commits <= records);
+
+        System.out.println(String.format(Locale.ROOT,
+                "Journal cost per fire: %.3fus, %s bytes allocated on the fire thread\n" +
+                "Group commits: %d for %d records (%.1f records per fsync), %.3fms to drain after last fire",
+                fireNanos / 1000.0,
+                allocatedBytesBefore < 0 ? "-" : String.valueOf((allocatedBytesAfter - allocatedBytesBefore) / FIRE_COUNT),
+                commits, records, (double) records / commits, drainMs));
+
+        Long maxFireMicros = Long.getLong(PROPERTY_MAX_FIRE_MICROS);
+        if (maxFireMicros != null)
+            assertTrue("Journal took " + fireNanos / 1000.0 + "us per fire, budget is " + maxFireMicros + "us",
+                    fireNanos / 1000.0 <= maxFireMicros);
+    }
+
+    @Test
+    public void testReplayFailsEntriesOfDeadProcess() throws Exception {
+        Context context = RuntimeEnvironment.getApplication();
+        ExecutionJournal.awaitIdle(10000);
+
+        // An entry of a dead process whose result PendingIntent does not exist, one that has
+        // expired and one that was ended
+        long currentTime = System.currentTimeMillis();
+        int deadPid = Process.myPid() + 1;
+        String uri = createFireIntent().toUri(Intent.URI_INTENT_SCHEME);
+        File journalFile = new File(new File(context.getFilesDir(), ExecutionJournal.JOURNAL_DIR_NAME), ExecutionJournal.JOURNAL_FILE_NAME);
+        assertTrue(journalFile.getParentFile().isDirectory() || journalFile.getParentFile().mkdirs());
+        try (FileOutputStream outputStream = new FileOutputStream(journalFile, true)) {
+            outputStream.write(("B\t100001\t" + deadPid + "\t" + (currentTime - 1000) + "\t-1\t%2Fbin%2Ftrue\t" + uri + "\n" +
+                    "B\t100002\t" + deadPid + "\t" + (currentTime - 20000) + "\t" + (currentTime - 10000) + "\t%2Fbin%2Ftrue\t" + uri + "\n" +
+                    "B\t100003\t" + deadPid + "\t" + (currentTime - 1000) + "\t-1\t%2Fbin%2Ftrue\t" + uri + "\n" +
+                    "E\t100003\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        long failedBefore = PluginMetrics.getCounter("journal_replay_failed");
+        long expiredBefore = PluginMetrics.getCounter("journal_replay_expired");
+        ExecutionJournal.replay(context);
+        ExecutionJournal.awaitIdle(10000);
+
+        assertEquals(1, PluginMetrics.getCounter("journal_replay_failed") - failedBefore);
+        assertEquals(1, PluginMetrics.getCounter("journal_replay_expired") - expiredBefore);
+
+        // Entries are not replayed again once they have been ended
+        ExecutionJournal.replay(context);
+        assertEquals(1, PluginMetrics.getCounter("journal_replay_failed") - failedBefore);
+        assertEquals(1, PluginMetrics.getCounter("journal_replay_expired") - expiredBefore);
+    }
+
+
+
+    private static Intent createFireIntent() {
+        Intent intent = new Intent(com.twofortyfouram.locale.Intent.ACTION_FIRE_SETTING);
+        intent.putExtra("net.dinglisch.android.tasker.extras.COMPLETION_INTENT",
+                "intent:#Intent;action=net.dinglisch.android.tasker.PLUGIN_COMPLETE;end");
+        return intent;
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.termux.tasker.execution;
+
+import android.app.AlarmManager;
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
+
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ExecutionRegistryTest {
+
+    private static final String EXECUTABLE = "/data/data/com.termux/files/usr/bin/test";
+    private static final String EXTRA_ID = "id";
+    private static final String ACTION_COMPLETE = "com.termux.tasker.test.COMPLETE";
+
+    /** The private {@code TaskerPlugin.EXTRA_VARIABLES_BUNDLE} extra of the completion intent. */
+    private static final String EXTRA_VARIABLES_BUNDLE = "net.dinglisch.android.tasker.extras.VARIABLES";
+
+    private Application application;
+    private int nextId;
+
+    @Before
+    public void setUp() {
+        application = RuntimeEnvironment.getApplication();
+        ExecutionRegistry.clear();
+        FireCoalescer.clear();
+    }
+
+    @After
+    public void tearDown() {
+        ExecutionRegistry.clear();
+        FireCoalescer.clear();
+    }
+
+    @Test
+    public void testStartsAllExecutionsWithoutLimit() {
+        for (int i = 0; i < 5; i++)
+            assertEquals(ExecutionRegistry.Decision.START, submit(EXECUTABLE, 0, OverflowPolicy.REJECT));
+        assertEquals(5, ExecutionRegistry.getRunningCount(EXECUTABLE));
+    }
+
+    @Test
+    public void testAppliesOverflowPolicyOnceLimitIsReached() {
+        assertEquals(ExecutionRegistry.Decision.START, submit(EXECUTABLE, 2, OverflowPolicy.DROP_NEW));
+        assertEquals(ExecutionRegistry.Decision.START, submit(EXECUTABLE, 2, OverflowPolicy.DROP_NEW));
+
+        assertEquals(ExecutionRegistry.Decision.DROP, submit(EXECUTABLE, 2, OverflowPolicy.DROP_NEW));
+        assertEquals(ExecutionRegistry.Decision.REJECT, submit(EXECUTABLE, 2, OverflowPolicy.REJECT));
+        assertEquals(ExecutionRegistry.Decision.QUEUE, submit(EXECUTABLE, 2, OverflowPolicy.QUEUE));
+        assertEquals(2, ExecutionRegistry.getRunningCount(EXECUTABLE));
+        assertEquals(1, ExecutionRegistry.getQueuedCount(EXECUTABLE));
+
+        // The limit is per executable
+        assertEquals(ExecutionRegistry.Decision.START, submit(EXECUTABLE + "-other", 2, OverflowPolicy.REJECT));
+    }
+
+    @Test
+    public void testQueuesIfOldestExecutionCannotBeReplaced() {
+        assertEquals(ExecutionRegistry.Decision.START, submit(EXECUTABLE, 1, OverflowPolicy.REPLACE_OLDEST));
+        // The execution was not wrapped for pid tracking, so it cannot be killed
+        assertEquals(ExecutionRegistry.Decision.QUEUE, submit(EXECUTABLE, 1, OverflowPolicy.REPLACE_OLDEST));
+        assertEquals(1, ExecutionRegistry.getRunningCount(EXECUTABLE));
+        assertEquals(1, ExecutionRegistry.getQueuedCount(EXECUTABLE));
+    }
+
+    @Test
+    public void testRejectsOnceQueueIsFull() {
+        assertEquals(ExecutionRegistry.Decision.START, submit(EXECUTABLE, 1, OverflowPolicy.QUEUE));
+        for (int i = 0; i < ExecutionRegistry.MAX_QUEUED_EXECUTIONS_PER_EXECUTABLE; i++)
+            assertEquals(ExecutionRegistry.Decision.QUEUE, submit(EXECUTABLE, 1, OverflowPolicy.QUEUE));
+
+        assertEquals(ExecutionRegistry.Decision.REJECT, submit(EXECUTABLE, 1, OverflowPolicy.QUEUE));
+        assertEquals(ExecutionRegistry.MAX_QUEUED_EXECUTIONS_PER_EXECUTABLE, ExecutionRegistry.getQueuedCount(EXECUTABLE));
+    }
+
+    @Test
+    public void testReleaseStartsNextQueuedExecution() {
+        String executable = EXECUTABLE + "-release";
+        TrackedExecution first = createExecution(executable);
+        TrackedExecution second = createExecution(executable);
+        assertEquals(ExecutionRegistry.Decision.START, ExecutionRegistry.submit(application, first, 1, OverflowPolicy.QUEUE));
+        assertEquals(ExecutionRegistry.Decision.QUEUE, ExecutionRegistry.submit(application, second, 1, OverflowPolicy.QUEUE));
+
+        assertSame(first, ExecutionRegistry.release(application, first.id));
+        assertEquals(1, ExecutionRegistry.getRunningCount(executable));
+        assertEquals(0, ExecutionRegistry.getQueuedCount(executable));
+
+        // The queued execution intent is sent through the rate limiter, which admits it
+        Intent startedService = shadowOf(application).getNextStartedService();
+        assertNotNull(startedService);
+        assertEquals(second.id, startedService.getIntExtra(EXTRA_ID, -1));
+
+        assertSame(second, ExecutionRegistry.release(application, second.id));
+        assertEquals(0, ExecutionRegistry.getRunningCount(executable));
+        assertNull(ExecutionRegistry.release(application, second.id));
+    }
+
+    @Test
+    public void testReleaseAbandonsGroupOfCancelledQueuedExecution() {
+        String executable = EXECUTABLE + "-cancel";
+        int groupId = FireCoalescer.coalesce(application, null, createFireIntent("leader"), "cancel-key", 60000, true);
+        assertEquals(-1, FireCoalescer.coalesce(application, null, createFireIntent("follower"), "cancel-key", 60000, true));
+
+        TrackedExecution first = createExecution(executable, -1);
+        TrackedExecution second = createExecution(executable, groupId);
+        assertEquals(ExecutionRegistry.Decision.START, ExecutionRegistry.submit(application, first, 1, OverflowPolicy.QUEUE));
+        assertEquals(ExecutionRegistry.Decision.QUEUE, ExecutionRegistry.submit(application, second, 1, OverflowPolicy.QUEUE));
+
+        // The cancelled result is only sent for the leader, which has no completion intent here
+        RunningExecutions.register(second.id, executable, second.originalIntent, true, null);
+        assertNull(RunningExecutions.cancel(application, second.id));
+        assertTrue(getResults().isEmpty());
+
+        ExecutionRegistry.release(application, first.id);
+        assertNull(shadowOf(application).getNextStartedService());
+        assertEquals(0, ExecutionRegistry.getRunningCount(executable));
+        assertEquals(0, ExecutionRegistry.getQueuedCount(executable));
+        assertFalse(RunningExecutions.isCancelled(second.id));
+
+        // The follower must get the cancelled result instead of waiting for the leader forever
+        List<Intent> results = getResults();
+        assertEquals(1, results.size());
+        assertEquals("follower", results.get(0).getStringExtra("fire"));
+        assertEquals(PluginUtils.RESULT_CODE_CANCELLED, results.get(0).getIntExtra(TaskerPlugin.Setting.EXTRA_RESULT_CODE, 0));
+        Bundle vars = results.get(0).getBundleExtra(EXTRA_VARIABLES_BUNDLE);
+        assertNotNull(vars);
+        assertFalse(vars.getString(PluginUtils.PLUGIN_VARIABLE_ERRMSG).isEmpty());
+        assertEquals(0, FireCoalescer.getGroupCount());
+    }
+
+
+
+    @Test
+    public void testSubmitReclaimsSlotsOfExitedExecutionsOnceLimitIsReached() throws IOException {
+        String executable = EXECUTABLE + "-exited";
+        // No process can have this pid, so the process has exited without its result being received
+        File pidFile = new File(application.getCacheDir(), "exited.pid");
+        try (FileOutputStream outputStream = new FileOutputStream(pidFile)) {
+            outputStream.write("999999999\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        TrackedExecution exited = createExecution(executable, -1, pidFile.getAbsolutePath());
+        TrackedExecution untracked = createExecution(executable);
+        assertEquals(ExecutionRegistry.Decision.START, ExecutionRegistry.submit(application, exited, 2, OverflowPolicy.QUEUE));
+        assertEquals(ExecutionRegistry.Decision.START, ExecutionRegistry.submit(application, untracked, 2, OverflowPolicy.QUEUE));
+
+        assertEquals(ExecutionRegistry.Decision.START, submit(executable, 2, OverflowPolicy.QUEUE));
+        assertEquals(2, ExecutionRegistry.getRunningCount(executable));
+        assertFalse(pidFile.exists());
+        assertNull(ExecutionRegistry.release(application, exited.id));
+
+        // The execution without a pid file is never reclaimed
+        assertEquals(ExecutionRegistry.Decision.QUEUE, submit(executable, 2, OverflowPolicy.QUEUE));
+        assertSame(untracked, ExecutionRegistry.release(application, untracked.id));
+    }
+
+    @Test
+    public void testWatchdogTimeoutReleasesSlot() {
+        String executable = EXECUTABLE + "-timeout";
+        TrackedExecution first = createExecution(executable);
+        TrackedExecution second = createExecution(executable);
+        assertEquals(ExecutionRegistry.Decision.START, ExecutionRegistry.submit(application, first, 1, OverflowPolicy.QUEUE));
+        assertEquals(ExecutionRegistry.Decision.QUEUE, ExecutionRegistry.submit(application, second, 1, OverflowPolicy.QUEUE));
+
+        ExecutionWatchdog.watch(application, first.id, first.originalIntent, executable, null, false, 5000);
+        AlarmManager alarmManager = (AlarmManager) application.getSystemService(Context.ALARM_SERVICE);
+        shadowOf(alarmManager).fireAlarm(shadowOf(alarmManager).peekNextScheduledAlarm());
+        shadowOf(Looper.getMainLooper()).idle();
+
+        // The result of the first execution may never be received, so the queued execution is started
+        assertEquals(1, ExecutionRegistry.getRunningCount(executable));
+        assertEquals(0, ExecutionRegistry.getQueuedCount(executable));
+        Intent startedService = shadowOf(application).getNextStartedService();
+        assertNotNull(startedService);
+        assertEquals(second.id, startedService.getIntExtra(EXTRA_ID, -1));
+
+        // The result received later is ignored
+        assertFalse(ExecutionWatchdog.complete(first.id));
+        assertNull(ExecutionRegistry.release(application, first.id));
+        assertSame(second, ExecutionRegistry.release(application, second.id));
+    }
+
+
+
+    private ExecutionRegistry.Decision submit(String executable, int maxConcurrentInstances, OverflowPolicy overflowPolicy) {
+        return ExecutionRegistry.submit(application, createExecution(executable), maxConcurrentInstances, overflowPolicy);
+    }
+
+    private TrackedExecution createExecution(String executable) {
+        return createExecution(executable, -1);
+    }
+
+    private TrackedExecution createExecution(String executable, int coalesceGroupId) {
+        return createExecution(executable, coalesceGroupId, null);
+    }
+
+    private TrackedExecution createExecution(String executable, int coalesceGroupId, String pidFilePath) {
+        // The ids must not collide with executions left in the RunningExecutions by other tests
+        int id = 100000 + nextId++;
+        Intent executionIntent = new Intent().setComponent(new ComponentName("com.termux", "com.termux.app.RunCommandService"));
+        executionIntent.putExtra(EXTRA_ID, id);
+        return new TrackedExecution(id, executable, new Intent(), executionIntent, false, pidFilePath, coalesceGroupId,
+                ExecutionPriority.DEFAULT);
+    }
+
+    /** Create a fire intent whose result is broadcast with {@link #ACTION_COMPLETE} and the {@code name} of the fire. */
+    private static Intent createFireIntent(String name) {
+        Intent completionIntent = new Intent(ACTION_COMPLETE);
+        completionIntent.putExtra("fire", name);
+        Intent fireIntent = new Intent(com.twofortyfouram.locale.Intent.ACTION_FIRE_SETTING);
+        TaskerPlugin.Host.addCompletionIntent(fireIntent, completionIntent, null, false);
+        return fireIntent;
+    }
+
+    private List<Intent> getResults() {
+        List<Intent> results = new ArrayList<>();
+        for (Intent intent : shadowOf(application).getBroadcastIntents()) {
+            if (ACTION_COMPLETE.equals(intent.getAction()))
+                results.add(intent);
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.termux.tasker.execution;
+
+import android.app.Application;
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.termux.shared.termux.TermuxConstants.TERMUX_APP.TERMUX_SERVICE;
+import com.termux.tasker.PluginBundleManager;
+import com.termux.tasker.output.DeltaOutput;
+import com.termux.tasker.output.OutputCache;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class FireCoalescerTest {
+
+    private static final String ACTION_COMPLETE = "com.termux.tasker.test.COMPLETE";
+    private static final int WINDOW = 60000;
+
+    /** The private {@code TaskerPlugin.EXTRA_VARIABLES_BUNDLE} extra of the completion intent. */
+    private static final String EXTRA_VARIABLES_BUNDLE = "net.dinglisch.android.tasker.extras.VARIABLES";
+
+    private Application application;
+
+    @Before
+    public void setUp() {
+        application = RuntimeEnvironment.getApplication();
+        FireCoalescer.clear();
+    }
+
+    @After
+    public void tearDown() {
+        FireCoalescer.clear();
+    }
+
+    @Test
+    public void testMergesIdenticalFiresWithinWindow() {
+        int groupId = FireCoalescer.coalesce(application, null, createFireIntent("leader"), "key", WINDOW, true);
+        assertTrue(groupId >= 0);
+        assertEquals(-1, FireCoalescer.coalesce(application, null, createFireIntent("follower"), "key", WINDOW, true));
+        assertNotEquals(-1, FireCoalescer.coalesce(application, null, createFireIntent("other"), "other-key", WINDOW, true));
+
+        ShadowSystemClock.advanceBy(WINDOW, TimeUnit.MILLISECONDS);
+        int nextGroupId = FireCoalescer.coalesce(application, null, createFireIntent("next"), "key", WINDOW, true);
+        assertTrue(nextGroupId >= 0);
+        assertNotEquals(groupId, nextGroupId);
+    }
+
+    @Test
+    public void testSendsResultOfLeaderToFollowers() {
+        int groupId = FireCoalescer.coalesce(application, null, createFireIntent("leader"), "key", WINDOW, true);
+        FireCoalescer.coalesce(application, null, createFireIntent("follower-1"), "key", WINDOW, true);
+        FireCoalescer.coalesce(application, null, createFireIntent("follower-2"), "key", WINDOW, true);
+
+        FireCoalescer.complete(application, groupId, createResultIntent(createFireIntent("leader"), "out"), null, null, new OutputCache());
+
+        List<Intent> results = getResults();
+        assertEquals(2, results.size());
+        for (Intent result : results) {
+            assertEquals(TaskerPlugin.Setting.RESULT_CODE_OK, result.getIntExtra(TaskerPlugin.Setting.EXTRA_RESULT_CODE, 0));
+            assertEquals("out", getVariable(result, PluginUtils.PLUGIN_VARIABLE_STDOUT));
+        }
+    }
+
+    @Test
+    public void testAppliesDeltaOutputOnceForLeaderAndFollowers() {
+        Bundle pluginBundle = new Bundle();
+        pluginBundle.putString(PluginBundleManager.EXTRA_DELTA_OUTPUT_KEY, "coalesce-" + System.nanoTime());
+        int groupId = FireCoalescer.coalesce(application, null, createFireIntent("leader", pluginBundle), "key", WINDOW, true);
+        FireCoalescer.coalesce(application, null, createFireIntent("follower", pluginBundle), "key", WINDOW, true);
+
+        OutputCache outputCache = new OutputCache();
+        Intent resultIntent = createResultIntent(createFireIntent("leader", pluginBundle), "out");
+        FireCoalescer.complete(application, groupId, resultIntent, null, null, outputCache);
+        PluginUtils.sendPendingResultToPluginHostApp(application, resultIntent, null, null, outputCache);
+
+        // The leader must not see the stdout sent to the follower as unchanged
+        List<Intent> results = getResults();
+        assertEquals(2, results.size());
+        for (Intent result : results)
+            assertEquals("true", getVariable(result, DeltaOutput.PLUGIN_VARIABLE_CHANGED));
+    }
+
+    @Test
+    public void testKeepsUnfinishedGroupsAfterWindow() {
+        int groupId = FireCoalescer.coalesce(application, null, createFireIntent("leader"), "key", WINDOW, true);
+        FireCoalescer.coalesce(application, null, createFireIntent("follower"), "key", WINDOW, true);
+
+        // The window has elapsed, so a new group is started, but the follower must still get the result
+        ShadowSystemClock.advanceBy(WINDOW, TimeUnit.MILLISECONDS);
+        assertTrue(FireCoalescer.coalesce(application, null, createFireIntent("next"), "key", WINDOW, true) >= 0);
+        assertEquals(2, FireCoalescer.getGroupCount());
+
+        FireCoalescer.complete(application, groupId, createResultIntent(createFireIntent("leader"), "out"), null, null, new OutputCache());
+        assertEquals(1, getResults().size());
+        // The group is removed once it has finished, since its window has already elapsed
+        assertEquals(1, FireCoalescer.getGroupCount());
+    }
+
+    @Test
+    public void testEvictsFinishedGroupsFirst() {
+        int firstGroupId = -1;
+        for (int i = 0; i < FireCoalescer.MAX_GROUPS; i++) {
+            int groupId = FireCoalescer.coalesce(application, null, createFireIntent("leader-" + i), "key-" + i, WINDOW, true);
+            FireCoalescer.coalesce(application, null, createFireIntent("follower-" + i), "key-" + i, WINDOW, true);
+            if (i == 0) firstGroupId = groupId;
+        }
+
+        // Finish a group in the middle, which must be evicted instead of the oldest unfinished group
+        int finishedIndex = FireCoalescer.MAX_GROUPS / 2;
+        FireCoalescer.complete(application, firstGroupId + finishedIndex,
+                createResultIntent(createFireIntent("leader-" + finishedIndex), "out"), null, null, new OutputCache());
+        shadowOf(application).clearBroadcastIntents();
+
+        FireCoalescer.coalesce(application, null, createFireIntent("new"), "new-key", WINDOW, true);
+        assertEquals(FireCoalescer.MAX_GROUPS, FireCoalescer.getGroupCount());
+        assertTrue(getResults().isEmpty());
+
+        // The oldest group still exists, so identical fires are still merged into it
+        assertEquals(-1, FireCoalescer.coalesce(application, null, createFireIntent("follower"), "key-0", WINDOW, true));
+        // The finished group was evicted, so identical fires start a new group
+        assertTrue(FireCoalescer.coalesce(application, null, createFireIntent("follower"), "key-" + finishedIndex, WINDOW, true) >= 0);
+    }
+
+    @Test
+    public void testEvictsGroupsWithoutFollowersBeforeGroupsWithFollowers() {
+        for (int i = 0; i < FireCoalescer.MAX_GROUPS; i++) {
+            FireCoalescer.coalesce(application, null, createFireIntent("leader-" + i), "key-" + i, WINDOW, true);
+            if (i != 1)
+                FireCoalescer.coalesce(application, null, createFireIntent("follower-" + i), "key-" + i, WINDOW, true);
+        }
+
+        FireCoalescer.coalesce(application, null, createFireIntent("new"), "new-key", WINDOW, true);
+        assertEquals(FireCoalescer.MAX_GROUPS, FireCoalescer.getGroupCount());
+        assertTrue(getResults().isEmpty());
+        assertEquals(-1, FireCoalescer.coalesce(application, null, createFireIntent("follower"), "key-0", WINDOW, true));
+    }
+
+    @Test
+    public void testSendsFailureResultToFollowersOfEvictedGroups() {
+        int firstGroupId = -1;
+        for (int i = 0; i < FireCoalescer.MAX_GROUPS; i++) {
+            int groupId = FireCoalescer.coalesce(application, null, createFireIntent("leader-" + i), "key-" + i, WINDOW, true);
+            FireCoalescer.coalesce(application, null, createFireIntent("follower-" + i), "key-" + i, WINDOW, true);
+            if (i == 0) firstGroupId = groupId;
+        }
+
+        FireCoalescer.coalesce(application, null, createFireIntent("new"), "new-key", WINDOW, true);
+        assertEquals(FireCoalescer.MAX_GROUPS, FireCoalescer.getGroupCount());
+
+        List<Intent> results = getResults();
+        assertEquals(1, results.size());
+        assertEquals("follower-0", results.get(0).getStringExtra("fire"));
+        assertEquals(TaskerPlugin.Setting.RESULT_CODE_FAILED, results.get(0).getIntExtra(TaskerPlugin.Setting.EXTRA_RESULT_CODE, 0));
+        assertFalse(getVariable(results.get(0), PluginUtils.PLUGIN_VARIABLE_ERRMSG).isEmpty());
+
+        // The result of the leader of the evicted group is ignored, its follower already got a result
+        shadowOf(application).clearBroadcastIntents();
+        FireCoalescer.complete(application, firstGroupId, createResultIntent(createFireIntent("leader-0"), "out"), null, null, new OutputCache());
+        assertTrue(getResults().isEmpty());
+    }
+
+    @Test
+    public void testAbandonSendsResultToFollowers() {
+        int groupId = FireCoalescer.coalesce(application, null, createFireIntent("leader"), "key", WINDOW, true);
+        FireCoalescer.coalesce(application, null, createFireIntent("follower"), "key", WINDOW, true);
+
+        FireCoalescer.abandon(application, groupId, PluginUtils.RESULT_CODE_RATE_LIMITED, "rate limited");
+        assertEquals(0, FireCoalescer.getGroupCount());
+
+        List<Intent> results = getResults();
+        assertEquals(1, results.size());
+        assertEquals(PluginUtils.RESULT_CODE_RATE_LIMITED, results.get(0).getIntExtra(TaskerPlugin.Setting.EXTRA_RESULT_CODE, 0));
+        assertTrue(FireCoalescer.coalesce(application, null, createFireIntent("next"), "key", WINDOW, true) >= 0);
+    }
+
+
+
+    /** Create a fire intent whose result is broadcast with {@link #ACTION_COMPLETE} and the {@code name} of the fire. */
+    private static Intent createFireIntent(String name) {
+        return createFireIntent(name, null);
+    }
+
+    /** Create a fire intent like {@link #createFireIntent(String)} for a plugin action with the {@code pluginBundle}. */
+    private static Intent createFireIntent(String name, Bundle pluginBundle) {
+        Intent completionIntent = new Intent(ACTION_COMPLETE);
+        completionIntent.putExtra("fire", name);
+        Intent fireIntent = new Intent(com.twofortyfouram.locale.Intent.ACTION_FIRE_SETTING);
+        TaskerPlugin.Host.addCompletionIntent(fireIntent, completionIntent, null, false);
+        if (pluginBundle != null)
+            fireIntent.putExtra(com.twofortyfouram.locale.Intent.EXTRA_BUNDLE, pluginBundle);
+        return fireIntent;
+    }
+
+    private static Intent createResultIntent(Intent originalIntent, String stdout) {
+        Bundle resultBundle = new Bundle();
+        resultBundle.putString(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_STDOUT, stdout);
+        resultBundle.putInt(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE_EXIT_CODE, 0);
+        Intent intent = new Intent();
+        intent.putExtra(PluginUtils.EXTRA_ORIGINAL_INTENT, originalIntent);
+        intent.putExtra(TERMUX_SERVICE.EXTRA_PLUGIN_RESULT_BUNDLE, resultBundle);
+        return intent;
+    }
+
+    private List<Intent> getResults() {
+        List<Intent> results = new ArrayList<>();
+        for (Intent intent : shadowOf(application).getBroadcastIntents()) {
+            if (ACTION_COMPLETE.equals(intent.getAction()))
+                results.add(intent);
+        }
+        return results;
+    }
+
+    private static String getVariable(Intent result, String name) {
+        Bundle vars = result.getBundleExtra(EXTRA_VARIABLES_BUNDLE);
+        assertNotNull(vars);
+        return vars.getString(name);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.termux.tasker.execution;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class P2QuantileEstimatorTest {
+
+    @Test
+    public void testExactQuantileForFewObservations() {
+        P2QuantileEstimator estimator = new P2QuantileEstimator(0.5);
+        assertTrue(Double.isNaN(estimator.getQuantile()));
+
+        estimator.add(30);
+        estimator.add(10);
+        estimator.add(20);
+        assertEquals(3, estimator.getCount());
+        assertEquals(20, estimator.getQuantile(), 0);
+        assertEquals(30, estimator.getMax(), 0);
+    }
+
+    @Test
+    public void testEstimatesQuantilesOfUniformDistribution() {
+        for (double p : new double[]{0.5, 0.9, 0.99}) {
+            P2QuantileEstimator estimator = new P2QuantileEstimator(p);
+            Random random = new Random(42);
+            for (int i = 0; i < 100000; i++)
+                estimator.add(random.nextDouble() * 1000);
+
+            assertEquals("p" + p, p * 1000, estimator.getQuantile(), 10);
+        }
+    }
+
+    @Test
+    public void testEstimatesTailOfSkewedDistribution() {
+        // Runtimes are usually skewed, with a long tail of slow runs
+        P2QuantileEstimator estimator = new P2QuantileEstimator(0.99);
+        Random random = new Random(7);
+        double[] values = new double[50000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = -Math.log(1 - random.nextDouble()) * 200;
+            estimator.add(values[i]);
+        }
+
+        Arrays.sort(values);
+        double exact = values[(int) (0.99 * (values.length - 1))];
+        assertEquals(exact, estimator.getQuantile(), exact * 0.05);
+    }
+
+    @Test
+    public void testStateRoundTrip() {
+        P2QuantileEstimator estimator = new P2QuantileEstimator(0.95);
+        for (int i = 1; i <= 100; i++)
+            estimator.add(i);
+
+        P2QuantileEstimator restored = P2QuantileEstimator.fromState(estimator.getState());
+        assertNotNull(restored);
+        assertEquals(estimator.getP(), restored.getP(), 0);
+        assertEquals(estimator.getCount(), restored.getCount());
+        assertEquals(estimator.getQuantile(), restored.getQuantile(), 0);
+
+        estimator.add(1000);
+        restored.add(1000);
+        assertEquals(estimator.getQuantile(), restored.getQuantile(), 0);
+
+        assertNull(P2QuantileEstimator.fromState(new double[3]));
+        assertNull(P2QuantileEstimator.fromState(null));
+    }
+
+}
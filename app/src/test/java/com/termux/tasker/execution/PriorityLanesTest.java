@@ -0,0 +1,146 @@
+package com.termux.tasker.execution;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PriorityLanesTest {
+
+    private static final PriorityLanes.Admitter ADMIT_ALL = dispatch -> true;
+
+    @Test
+    public void testDequeuesLanesWithWeightedRoundRobin() {
+        PriorityLanes lanes = new PriorityLanes();
+        for (int i = 0; i < 10; i++) {
+            lanes.add(createDispatch("high-" + i, ExecutionPriority.HIGH));
+            lanes.add(createDispatch("normal-" + i, ExecutionPriority.NORMAL));
+            lanes.add(createDispatch("bulk-" + i, ExecutionPriority.BULK));
+        }
+        assertEquals(30, lanes.size());
+
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 14; i++)
+            order.append(poll(lanes).priority.name().charAt(0));
+        assertEquals("HHHHNNBHHHHNNB", order.toString());
+
+        // Once the high lane is empty, its credits are not consumed
+        order.setLength(0);
+        for (int i = 0; i < 12; i++)
+            order.append(poll(lanes).priority.name().charAt(0));
+        assertEquals("HHNNBNNBNNBB", order.toString());
+        assertEquals(4, lanes.size());
+        assertEquals(4, lanes.size(ExecutionPriority.BULK));
+    }
+
+    @Test
+    public void testDequeuesLanesInOrder() {
+        PriorityLanes lanes = new PriorityLanes();
+        for (int i = 0; i < 3; i++)
+            lanes.add(createDispatch("normal-" + i, ExecutionPriority.NORMAL));
+
+        for (int i = 0; i < 3; i++)
+            assertEquals("normal-" + i, poll(lanes).executable);
+        assertNull(poll(lanes));
+        assertTrue(lanes.isEmpty());
+    }
+
+    @Test
+    public void testPromotesStarvingDispatches() {
+        PriorityLanes lanes = new PriorityLanes();
+        lanes.add(createDispatch("bulk", ExecutionPriority.BULK));
+        ShadowSystemClock.advanceBy(PriorityLanes.STARVATION_THRESHOLD_MS - 2, TimeUnit.MILLISECONDS);
+        lanes.add(createDispatch("normal", ExecutionPriority.NORMAL));
+        ShadowSystemClock.advanceBy(1, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++)
+            lanes.add(createDispatch("high-" + i, ExecutionPriority.HIGH));
+
+        assertEquals(ExecutionPriority.HIGH, poll(lanes).priority);
+
+        // The bulk dispatch is dequeued before the high dispatches once it has waited too long,
+        // and then the normal dispatch once it has too, since it is the oldest one waiting
+        ShadowSystemClock.advanceBy(1, TimeUnit.MILLISECONDS);
+        assertEquals("bulk", poll(lanes).executable);
+        assertEquals(ExecutionPriority.HIGH, poll(lanes).priority);
+        ShadowSystemClock.advanceBy(PriorityLanes.STARVATION_THRESHOLD_MS, TimeUnit.MILLISECONDS);
+        assertEquals("normal", poll(lanes).executable);
+        assertEquals(ExecutionPriority.HIGH, poll(lanes).priority);
+    }
+
+    @Test
+    public void testSkipsExecutablesThatAreNotAdmitted() {
+        PriorityLanes lanes = new PriorityLanes();
+        lanes.add(createDispatch("a", ExecutionPriority.HIGH));
+        lanes.add(createDispatch("b", ExecutionPriority.HIGH));
+        lanes.add(createDispatch("a", ExecutionPriority.NORMAL));
+
+        Set<String> blockedExecutables = new HashSet<>();
+        ExecutionRateLimiter.Dispatch dispatch = lanes.poll(SystemClock.elapsedRealtime(), blockedExecutables,
+                d -> !d.executable.equals("a"));
+        assertNotNull(dispatch);
+        assertEquals("b", dispatch.executable);
+        assertTrue(blockedExecutables.contains("a"));
+
+        // Later dispatches for a blocked executable must not overtake earlier ones
+        assertNull(lanes.poll(SystemClock.elapsedRealtime(), blockedExecutables, ADMIT_ALL));
+        assertEquals(2, lanes.size());
+        assertTrue(lanes.isQueued("a"));
+        assertFalse(lanes.isQueued("b"));
+        assertEquals(1, lanes.getExecutables().size());
+
+        assertEquals(ExecutionPriority.HIGH, poll(lanes).priority);
+        assertEquals(ExecutionPriority.NORMAL, poll(lanes).priority);
+    }
+
+    @Test
+    public void testShedsNewestDispatchOfLowestLane() {
+        PriorityLanes lanes = new PriorityLanes();
+        lanes.add(createDispatch("high", ExecutionPriority.HIGH));
+        lanes.add(createDispatch("normal-0", ExecutionPriority.NORMAL));
+        lanes.add(createDispatch("normal-1", ExecutionPriority.NORMAL));
+        lanes.add(createDispatch("bulk-0", ExecutionPriority.BULK));
+        lanes.add(createDispatch("bulk-1", ExecutionPriority.BULK));
+
+        assertTrue(lanes.hasQueuedAtOrAbove(ExecutionPriority.HIGH));
+        assertNull(lanes.removeNewestBelow(ExecutionPriority.BULK));
+
+        assertEquals("bulk-1", lanes.removeNewestBelow(ExecutionPriority.HIGH).executable);
+        assertEquals("bulk-0", lanes.removeNewestBelow(ExecutionPriority.NORMAL).executable);
+        // Dispatches are never shed for dispatches with the same priority
+        assertNull(lanes.removeNewestBelow(ExecutionPriority.NORMAL));
+        assertEquals("normal-1", lanes.removeNewestBelow(ExecutionPriority.HIGH).executable);
+        assertEquals(2, lanes.size());
+        assertEquals(1, lanes.size(ExecutionPriority.NORMAL));
+
+        assertEquals("normal-0", lanes.removeNewestBelow(ExecutionPriority.HIGH).executable);
+        assertNull(lanes.removeNewestBelow(ExecutionPriority.HIGH));
+        assertEquals(1, lanes.size());
+
+        assertEquals("high", poll(lanes).executable);
+        assertFalse(lanes.hasQueuedAtOrAbove(ExecutionPriority.BULK));
+    }
+
+
+
+    private static ExecutionRateLimiter.Dispatch createDispatch(String executable, ExecutionPriority priority) {
+        return new ExecutionRateLimiter.Dispatch(new Intent(), new Intent(), executable, false,
+                -1, -1, -1, -1, -1, priority);
+    }
+
+    private static ExecutionRateLimiter.Dispatch poll(PriorityLanes lanes) {
+        return lanes.poll(SystemClock.elapsedRealtime(), new HashSet<>(), ADMIT_ALL);
+    }
+
+}
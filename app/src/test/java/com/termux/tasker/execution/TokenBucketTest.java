@@ -0,0 +1,92 @@
+package com.termux.tasker.execution;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testStartsFullAndAllowsBurst() {
+        TokenBucket bucket = new TokenBucket(3, 1, 0);
+        assertTrue(bucket.isFull(0));
+        assertEquals(3, bucket.getAvailableTokens(0));
+
+        for (int i = 0; i < 3; i++)
+            assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        assertFalse(bucket.hasToken(0));
+        assertEquals(0, bucket.getAvailableTokens(0));
+    }
+
+    @Test
+    public void testRefillsAtRate() {
+        TokenBucket bucket = new TokenBucket(10, 4, 0);
+        for (int i = 0; i < 10; i++)
+            assertTrue(bucket.tryAcquire(0));
+
+        // 4 tokens per second is a token every 250ms
+        assertFalse(bucket.hasToken(249));
+        assertTrue(bucket.hasToken(250));
+        assertEquals(2, bucket.getAvailableTokens(500));
+        assertEquals(4, bucket.getAvailableTokens(1000));
+
+        // Fractional tokens are kept between refills
+        assertTrue(bucket.tryAcquire(1000));
+        assertEquals(3, bucket.getAvailableTokens(1100));
+        assertEquals(4, bucket.getAvailableTokens(1300));
+    }
+
+    @Test
+    public void testDoesNotRefillAboveCapacity() {
+        TokenBucket bucket = new TokenBucket(2, 100, 0);
+        assertTrue(bucket.tryAcquire(0));
+        assertEquals(2, bucket.getAvailableTokens(60000));
+        assertTrue(bucket.isFull(60000));
+    }
+
+    @Test
+    public void testIgnoresTimeGoingBackwards() {
+        TokenBucket bucket = new TokenBucket(1, 1, 1000);
+        assertTrue(bucket.tryAcquire(1000));
+        assertFalse(bucket.hasToken(0));
+        assertFalse(bucket.hasToken(1999));
+        assertTrue(bucket.hasToken(2500));
+    }
+
+    @Test
+    public void testGetsTimeUntilNextToken() {
+        TokenBucket bucket = new TokenBucket(1, 3, 0);
+        assertEquals(0, bucket.getTimeUntilNextToken(0));
+
+        assertTrue(bucket.tryAcquire(0));
+        assertEquals(334, bucket.getTimeUntilNextToken(0));
+        assertEquals(234, bucket.getTimeUntilNextToken(100));
+        assertEquals(0, bucket.getTimeUntilNextToken(334));
+    }
+
+    @Test
+    public void testConfigureKeepsTokens() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0);
+        for (int i = 0; i < 5; i++)
+            assertTrue(bucket.tryAcquire(0));
+
+        bucket.configure(20, 1, 0);
+        assertEquals(5, bucket.getAvailableTokens(0));
+        assertFalse(bucket.isFull(0));
+
+        // Tokens above the new capacity are dropped
+        bucket.configure(2, 1, 0);
+        assertEquals(2, bucket.getAvailableTokens(0));
+        assertTrue(bucket.isFull(0));
+    }
+
+    @Test
+    public void testClampsInvalidConfig() {
+        TokenBucket bucket = new TokenBucket(0, 0, 0);
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        assertEquals(1000, bucket.getTimeUntilNextToken(0));
+    }
+
+}
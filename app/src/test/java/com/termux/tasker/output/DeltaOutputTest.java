@@ -0,0 +1,74 @@
+package com.termux.tasker.output;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeltaOutputTest {
+
+    @Test
+    public void testEqualLinesHaveNoDiff() {
+        assertEquals("", DeltaOutput.getUnifiedDiff("a\nb\n", "a\nb"));
+        assertEquals("", DeltaOutput.getUnifiedDiff("a\r\nb\r\n", "a\nb\n"));
+        assertEquals("", DeltaOutput.getUnifiedDiff("", ""));
+    }
+
+    @Test
+    public void testReturnsChangedLineWithContext() {
+        assertEquals("--- previous\n+++ current\n" +
+                "@@ -1,2 +1,2 @@\n" +
+                " status=ok\n" +
+                "-battery=87\n" +
+                "+battery=86\n",
+                DeltaOutput.getUnifiedDiff("status=ok\nbattery=87\n", "status=ok\nbattery=86\n"));
+    }
+
+    @Test
+    public void testFirstRunReturnsAllLinesAsAdded() {
+        assertEquals("--- previous\n+++ current\n" +
+                "@@ -0,0 +1,2 @@\n" +
+                "+a\n" +
+                "+b\n",
+                DeltaOutput.getUnifiedDiff("", "a\nb\n"));
+    }
+
+    @Test
+    public void testSplitsDistantChangesIntoHunks() {
+        StringBuilder previous = new StringBuilder();
+        for (int i = 1; i <= 20; i++)
+            previous.append(i).append('\n');
+        String current = previous.toString().replace("\n2\n", "\ntwo\n").replace("\n18\n", "\n");
+
+        assertEquals("--- previous\n+++ current\n" +
+                "@@ -1,5 +1,5 @@\n" +
+                " 1\n" +
+                "-2\n" +
+                "+two\n" +
+                " 3\n" +
+                " 4\n" +
+                " 5\n" +
+                "@@ -15,6 +15,5 @@\n" +
+                " 15\n" +
+                " 16\n" +
+                " 17\n" +
+                "-18\n" +
+                " 19\n" +
+                " 20\n",
+                DeltaOutput.getUnifiedDiff(previous.toString(), current));
+    }
+
+    @Test
+    public void testMergesCloseChangesIntoOneHunk() {
+        assertEquals("--- previous\n+++ current\n" +
+                "@@ -1,5 +1,6 @@\n" +
+                "-a\n" +
+                "+x\n" +
+                " b\n" +
+                " c\n" +
+                " d\n" +
+                "+y\n" +
+                " e\n",
+                DeltaOutput.getUnifiedDiff("a\nb\nc\nd\ne\n", "x\nb\nc\nd\ny\ne\n"));
+    }
+
+}
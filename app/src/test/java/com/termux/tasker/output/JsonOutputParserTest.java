@@ -0,0 +1,75 @@
+package com.termux.tasker.output;
+
+import android.os.Bundle;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.tasker.PluginBundleManager;
+import com.termux.tasker.utils.PluginUtils;
+import com.termux.tasker.utils.TaskerPlugin;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class JsonOutputParserTest {
+
+    @Test
+    public void testAddsValuesOfSelectedPaths() {
+        Bundle variablesBundle = new Bundle();
+        JsonOutputParser.addVariables(variablesBundle,
+                "{\"battery\": {\"level\": 87, \"status\": \"charging\"}, \"items\": [\"a\", \"b\"]}",
+                "battery.level,items", 1000);
+
+        assertEquals("87", variablesBundle.getString("%json_battery_level"));
+        assertNull(variablesBundle.getString("%json_battery_status"));
+        assertEquals(new ArrayList<>(Arrays.asList("a", "b")), variablesBundle.getStringArrayList("%json_items"));
+        assertNull(variablesBundle.getString(JsonOutputParser.PLUGIN_VARIABLE_JSON_ERROR));
+    }
+
+    @Test
+    public void testStopsOnceMaxLengthOfValuesIsReached() {
+        Bundle variablesBundle = new Bundle();
+        JsonOutputParser.addVariables(variablesBundle,
+                "{\"a\": \"12345\", \"b\": [\"123\", \"456\"], \"c\": \"1\"}", JsonOutputParser.VALUE_ALL_PATHS, 10);
+
+        assertEquals("12345", variablesBundle.getString("%json_a"));
+        assertNull(variablesBundle.getStringArrayList("%json_b"));
+        assertNull(variablesBundle.getString("%json_c"));
+        assertEquals("The max length 10 of the values was reached at path \"b.2\"",
+                variablesBundle.getString(JsonOutputParser.PLUGIN_VARIABLE_JSON_ERROR));
+    }
+
+    @Test
+    public void testMultiMegabyteValueIsNotReturnedWithTruncatedOutput() {
+        StringBuilder largeValue = new StringBuilder();
+        while (largeValue.length() < 4 * 1024 * 1024)
+            largeValue.append("0123456789abcdef");
+        String stdout = "{\"status\": \"ok\", \"data\": \"" + largeValue + "\"}";
+
+        Bundle pluginBundle = new Bundle();
+        pluginBundle.putString(PluginBundleManager.EXTRA_JSON_OUTPUT, JsonOutputParser.VALUE_ALL_PATHS);
+        Bundle variablesBundle = PluginUtils.createVariablesBundle(stdout, null, null, null, "0",
+                TaskerPlugin.Setting.RESULT_CODE_OK, null, pluginBundle);
+
+        assertEquals("ok", variablesBundle.getString("%json_status"));
+        assertNull(variablesBundle.getString("%json_data"));
+        assertNotNull(variablesBundle.getString(JsonOutputParser.PLUGIN_VARIABLE_JSON_ERROR));
+
+        // The variables must still fit in the result sent to the plugin host app
+        int length = 0;
+        for (String key : variablesBundle.keySet()) {
+            Object value = variablesBundle.get(key);
+            if (value instanceof String) length += ((String) value).length();
+        }
+        assertTrue("Variables length " + length, length <= 2 * DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.termux.tasker.output;
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class OutputFilterTest {
+
+    @Test
+    public void testKvStageReturnsValuesOfSelectedKeys() {
+        Bundle variablesBundle = new Bundle();
+        assertEquals("level=87", OutputFilter.apply(OutputFilter.STAGE_KV + " level",
+                "status=ok\nlevel=87\nnoise", variablesBundle, 1000));
+
+        assertEquals("87", variablesBundle.getString("%kv_level"));
+        assertNull(variablesBundle.getString("%kv_status"));
+    }
+
+    @Test
+    public void testKvStageDropsValuesOnceMaxLengthIsReached() {
+        StringBuilder largeValue = new StringBuilder();
+        while (largeValue.length() < 4 * 1024 * 1024)
+            largeValue.append("0123456789abcdef");
+
+        Bundle variablesBundle = new Bundle();
+        OutputFilter.apply(OutputFilter.STAGE_KV, "a=12345\nb=" + largeValue + "\nc=123\na=" + largeValue,
+                variablesBundle, 10);
+
+        assertEquals("12345", variablesBundle.getString("%kv_a"));
+        assertNull(variablesBundle.getString("%kv_b"));
+        assertEquals("123", variablesBundle.getString("%kv_c"));
+    }
+
+}